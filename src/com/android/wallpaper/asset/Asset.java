@@ -26,6 +26,7 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
 import android.view.Display;
@@ -42,18 +43,32 @@ import com.android.wallpaper.util.RtlUtils;
 import com.android.wallpaper.util.ScreenSizeCalculator;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
+import com.bumptech.glide.request.target.Target;
 
 import java.io.File;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Interface representing an image asset.
  */
 public abstract class Asset {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
+    /** Cancellation signal of the request currently being made on this thread, if any. */
+    private static final ThreadLocal<CancellationSignal> sRequestCancellationSignal =
+            new ThreadLocal<>();
+    /** Called when the work of the request currently being made on this thread starts. */
+    private static final ThreadLocal<Runnable> sRequestStartListener = new ThreadLocal<>();
+    /** Cancellation signal of the request whose work is currently running on this thread. */
+    private static final ThreadLocal<CancellationSignal> sRunningCancellationSignal =
+            new ThreadLocal<>();
+
+    @DecodeScheduler.Priority
+    private int mDecodePriority = DecodeScheduler.PRIORITY_VISIBLE_TILE;
+    private CancellationSignal mCancellationSignal = new CancellationSignal();
+
     /**
      * Creates and returns a placeholder Drawable instance sized exactly to the target ImageView and
      * filled completely with pixels of the provided placeholder color.
@@ -129,7 +144,72 @@ public abstract class Asset {
      * @param decodedBitmap The bitmap which is already decoded.
      */
     protected void decodeBitmapCompleted(BitmapReceiver receiver, Bitmap decodedBitmap) {
-        new Handler(Looper.getMainLooper()).post(() -> receiver.onBitmapDecoded(decodedBitmap));
+        deliverResult(() -> receiver.onBitmapDecoded(decodedBitmap));
+    }
+
+    /**
+     * Delivers the result of work started by this asset. Results of requests made through
+     * {@link #runWithCancellationSignal(CancellationSignal, Runnable)}, e.g. by the suspend
+     * functions in AssetCoroutines, are delivered directly on the worker thread; all other
+     * results are posted to the main thread.
+     */
+    protected static void deliverResult(Runnable result) {
+        if (sRunningCancellationSignal.get() != null) {
+            result.run();
+        } else {
+            new Handler(Looper.getMainLooper()).post(result);
+        }
+    }
+
+    /**
+     * Makes the asset requests in {@code request} with their own cancellation signal. When the
+     * signal is canceled, their work is dropped if it hasn't started yet, and a decode already
+     * reading the asset's stream is aborted by closing the stream. Results of these requests are
+     * delivered on the worker thread instead of being posted to the main thread; a request whose
+     * decode was aborted may still deliver a null result.
+     */
+    public static void runWithCancellationSignal(CancellationSignal cancellationSignal,
+            Runnable request) {
+        runWithCancellationSignal(cancellationSignal, /* onStart= */ null, request);
+    }
+
+    /**
+     * Like {@link #runWithCancellationSignal(CancellationSignal, Runnable)}, additionally calling
+     * {@code onStart} on the worker thread right before the scheduled work of the request starts.
+     * {@code onStart} isn't called if the work is dropped, nor for work which isn't scheduled on
+     * the {@link DecodeScheduler}.
+     */
+    static void runWithCancellationSignal(CancellationSignal cancellationSignal,
+            @Nullable Runnable onStart, Runnable request) {
+        CancellationSignal previousSignal = sRequestCancellationSignal.get();
+        Runnable previousOnStart = sRequestStartListener.get();
+        sRequestCancellationSignal.set(cancellationSignal);
+        sRequestStartListener.set(onStart);
+        try {
+            request.run();
+        } finally {
+            sRequestCancellationSignal.set(previousSignal);
+            sRequestStartListener.set(previousOnStart);
+        }
+    }
+
+    /**
+     * Returns the cancellation signal of the request currently being made on this thread, if it is
+     * made with {@link #runWithCancellationSignal(CancellationSignal, Runnable)}.
+     */
+    @Nullable
+    static CancellationSignal getRequestCancellationSignal() {
+        return sRequestCancellationSignal.get();
+    }
+
+    /**
+     * Returns the cancellation signal of the request whose work is running on the current worker
+     * thread, if it was made with
+     * {@link #runWithCancellationSignal(CancellationSignal, Runnable)}.
+     */
+    @Nullable
+    protected static CancellationSignal getRunningCancellationSignal() {
+        return sRunningCancellationSignal.get();
     }
 
     /**
@@ -423,6 +503,125 @@ public abstract class Asset {
         });
     }
 
+    /**
+     * Starts loading the drawable {@link #loadDrawable} would show in a view of the given size
+     * into a cache, at prefetch priority, so it's ready by the time a view is bound to this asset.
+     * Work which hasn't completed when the signal is canceled is dropped. Does nothing by default,
+     * as the decoded bitmaps of most assets aren't cached.
+     *
+     * @param context            Context the drawable will be loaded with.
+     * @param width              Width of the view the drawable will be loaded into, in pixels.
+     * @param height             Height of the view the drawable will be loaded into, in pixels.
+     * @param cancellationSignal Signal canceling the prefetch, e.g. when the user scrolls back.
+     */
+    public void prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal) {
+    }
+
+    /**
+     * Preloads the given Glide request into Glide's memory cache at a low priority, for
+     * {@link #prefetchDrawable} of assets which load their drawables with Glide. The request has
+     * to match the one loading the drawable into the view, apart from placeholders and
+     * transitions, for the preloaded drawable to be found. Has to be called on the main thread.
+     */
+    protected static void preloadWithGlide(Context context, RequestBuilder<?> request, int width,
+            int height, CancellationSignal cancellationSignal) {
+        if (cancellationSignal.isCanceled()) {
+            return;
+        }
+        // Tiles load their thumbnails into centerCrop ImageViews, for which Glide adds an optional
+        // center crop to requests without a transformation of their own. It's part of the key
+        // the drawable is cached under, so it's added here as well.
+        RequestBuilder<?> tileRequest =
+                request.isTransformationSet() || !request.isTransformationAllowed()
+                        ? request : request.clone().optionalCenterCrop();
+        Target<?> target = tileRequest.priority(Priority.LOW).preload(width, height);
+        cancellationSignal.setOnCancelListener(() -> Glide.with(context).clear(target));
+    }
+
+    /**
+     * Sets the priority at which the decodes of this asset are scheduled, one of the
+     * {@code DecodeScheduler.PRIORITY_} constants.
+     */
+    public void setDecodePriority(@DecodeScheduler.Priority int priority) {
+        mDecodePriority = priority;
+    }
+
+    /**
+     * Cancels the bitmap decodes of this asset which haven't started yet, e.g. because the view
+     * which requested them was recycled or its activity destroyed. The receivers of canceled
+     * decodes are never called. Decodes requested afterwards run normally.
+     */
+    public synchronized void cancelPendingDecodes() {
+        mCancellationSignal.cancel();
+        mCancellationSignal = new CancellationSignal();
+    }
+
+    /**
+     * Runs a bitmap decode of this asset on the shared {@link DecodeScheduler}, at this asset's
+     * priority. The task is dropped if {@link #cancelPendingDecodes()} is called before it starts.
+     */
+    protected void executeDecode(Runnable task) {
+        CancellationSignal requestSignal = sRequestCancellationSignal.get();
+        if (requestSignal != null) {
+            executeForRequest(requestSignal, task);
+            return;
+        }
+        CancellationSignal cancellationSignal;
+        synchronized (this) {
+            cancellationSignal = mCancellationSignal;
+        }
+        DecodeScheduler.getInstance().execute(mDecodePriority, cancellationSignal, task);
+    }
+
+    /**
+     * Runs work of this asset which callers wait on, like decoding dimensions or opening streams,
+     * on the shared {@link DecodeScheduler}. Unlike {@link #executeDecode(Runnable)} it isn't
+     * affected by {@link #cancelPendingDecodes()}, only by the signal of a request made through
+     * {@link #runWithCancellationSignal(CancellationSignal, Runnable)}.
+     */
+    protected void executeUncancellable(Runnable task) {
+        CancellationSignal requestSignal = sRequestCancellationSignal.get();
+        if (requestSignal != null) {
+            executeForRequest(requestSignal, task);
+            return;
+        }
+        DecodeScheduler.getInstance().execute(mDecodePriority, /* cancellationSignal= */ null,
+                task);
+    }
+
+    /**
+     * Runs work of {@link #prefetchDrawable} on the shared {@link DecodeScheduler} at
+     * {@link DecodeScheduler#PRIORITY_PREFETCH}. The task is dropped if the signal is canceled
+     * before it starts, and sees the signal as the running request's while it runs.
+     */
+    protected void executePrefetch(CancellationSignal cancellationSignal, Runnable task) {
+        DecodeScheduler.getInstance().execute(DecodeScheduler.PRIORITY_PREFETCH,
+                cancellationSignal, () -> {
+                    sRunningCancellationSignal.set(cancellationSignal);
+                    try {
+                        task.run();
+                    } finally {
+                        sRunningCancellationSignal.remove();
+                    }
+                });
+    }
+
+    private void executeForRequest(CancellationSignal requestSignal, Runnable task) {
+        Runnable onStart = sRequestStartListener.get();
+        DecodeScheduler.getInstance().execute(mDecodePriority, requestSignal, () -> {
+            if (onStart != null) {
+                onStart.run();
+            }
+            sRunningCancellationSignal.set(requestSignal);
+            try {
+                task.run();
+            } finally {
+                sRunningCancellationSignal.remove();
+            }
+        });
+    }
+
     /**
      * Interface for receiving decoded Bitmaps.
      */
@@ -463,11 +662,11 @@ public abstract class Asset {
 
     /**
      * Returns a copy of the given bitmap which is center cropped and scaled
-     * to fit in the given ImageView and the thread runs on ExecutorService.
+     * to fit in the given ImageView and the thread runs on the {@link DecodeScheduler}.
      */
     public void centerCropBitmap(Bitmap bitmap, View view, BitmapReceiver bitmapReceiver) {
         Point imageViewDimensions = getViewDimensions(view);
-        sExecutorService.execute(() -> {
+        executeDecode(() -> {
             int measuredWidth = imageViewDimensions.x;
             int measuredHeight = imageViewDimensions.y;
 
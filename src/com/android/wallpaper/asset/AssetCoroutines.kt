@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+@file:JvmName("AssetCoroutines")
+
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.os.CancellationSignal
+import java.io.InputStream
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.suspendCancellableCoroutine
+
+/*
+ * Suspend versions of the callback based [Asset] APIs. Canceling the calling coroutine drops the
+ * work if it hasn't started yet and aborts a decode in progress by closing the stream it reads.
+ * Results are handed to the coroutine straight from the decode thread, without a detour through
+ * the main thread.
+ */
+
+/**
+ * Decodes the asset into a bitmap scaled down to at least the given size, or returns null if it
+ * couldn't be decoded.
+ *
+ * @see Asset.decodeBitmap
+ */
+suspend fun Asset.awaitBitmap(
+    targetWidth: Int,
+    targetHeight: Int,
+    hardwareBitmapAllowed: Boolean = false,
+): Bitmap? = awaitAssetRequest { receiver: (Bitmap?) -> Unit ->
+    decodeBitmap(targetWidth, targetHeight, hardwareBitmapAllowed) { receiver(it) }
+}
+
+/** Decodes the asset at the given size, see [Asset.awaitBitmap]. */
+suspend fun Asset.awaitBitmap(size: Point, hardwareBitmapAllowed: Boolean = false): Bitmap? =
+    awaitBitmap(size.x, size.y, hardwareBitmapAllowed)
+
+/** Decodes the raw dimensions of the asset, or returns null if they couldn't be decoded. */
+suspend fun Asset.awaitRawDimensions(): Point? = awaitAssetRequest { receiver: (Point?) -> Unit ->
+    decodeRawDimensions(/* activity= */ null) { receiver(it) }
+}
+
+/**
+ * Opens the unmodified input stream of the asset, or returns null if it couldn't be opened. The
+ * caller owns the returned stream; a stream opened after the coroutine was canceled is closed.
+ */
+suspend fun StreamableAsset.awaitInputStream(): InputStream? =
+    suspendCancellableCoroutine { continuation: CancellableContinuation<InputStream?> ->
+        val cancellationSignal = CancellationSignal()
+        continuation.invokeOnCancellation { cancellationSignal.cancel() }
+        Asset.runWithCancellationSignal(cancellationSignal) {
+            fetchInputStream { stream -> continuation.resume(stream) { stream?.close() } }
+        }
+    }
+
+private suspend fun <T> awaitAssetRequest(request: (receiver: (T?) -> Unit) -> Unit): T? =
+    suspendCancellableCoroutine { continuation: CancellableContinuation<T?> ->
+        val cancellationSignal = CancellationSignal()
+        continuation.invokeOnCancellation { cancellationSignal.cancel() }
+        Asset.runWithCancellationSignal(cancellationSignal) {
+            // A canceled decode may still report a null result, which the continuation drops.
+            request { result -> continuation.resume(result) {} }
+        }
+    }
@@ -17,18 +17,33 @@ package com.android.wallpaper.asset;
 
 import android.app.Activity;
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.LruCache;
 import android.widget.ImageView;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.ActivityManagerCompat;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Implementation of {@link Asset} that wraps another {@link Asset} but keeps an LRU cache of
@@ -36,6 +51,12 @@ import java.util.Objects;
  * the same bitmap multiple times.
  * The cache key is the wrapped Asset and the target Width and Height requested, so that we only
  * reuse bitmaps of the same size.
+ * Concurrent requests for the same key while a decode is still in flight are coalesced, so the
+ * wrapped Asset decodes each bitmap only once and every waiting receiver gets the same result.
+ * Canceling a request only drops its own receiver; the shared decode is dropped once no receiver
+ * waits on it anymore, unless it has already started.
+ * The cache budget is derived from the per-app memory class, and the cache is trimmed in response
+ * to {@link ComponentCallbacks2#onTrimMemory(int)}.
  */
 public class BitmapCachingAsset extends Asset {
 
@@ -76,51 +97,141 @@ public class BitmapCachingAsset extends Asset {
         }
     }
 
-    private static int cacheSize = 100 * 1024 * 1024; // 100MiB
-    private static LruCache<CacheKey, Bitmap> sCache = new LruCache<CacheKey, Bitmap>(cacheSize) {
-        @Override protected int sizeOf(CacheKey key, Bitmap value) {
-            return value.getByteCount();
+    private static final int MAX_CACHE_SIZE_BYTES = 100 * 1024 * 1024; // 100MiB
+    /** Fraction of the per-app memory class the cache may use, as 1 / divisor. */
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+    private static final int LOW_RAM_MEMORY_CLASS_DIVISOR = 16;
+
+    private static final Object sCacheLock = new Object();
+    @Nullable
+    private static LruCache<CacheKey, Bitmap> sCache;
+
+    /** A receiver waiting on a pending decode, and the consumer which requested it. */
+    private static class Waiter {
+        final BitmapCachingAsset mOwner;
+        final BitmapReceiver mReceiver;
+        /**
+         * Whether the request was made with {@link Asset#runWithCancellationSignal}, so it is
+         * canceled through its own signal and expects its result on the decode thread.
+         */
+        final boolean mIsCancellableRequest;
+
+        Waiter(BitmapCachingAsset owner, BitmapReceiver receiver, boolean isCancellableRequest) {
+            mOwner = owner;
+            mReceiver = receiver;
+            mIsCancellableRequest = isCancellableRequest;
         }
-    };
+    }
+
+    /** A decode in flight and the receivers waiting on it. */
+    private static class PendingDecode {
+        /** Cancels the decode, independently of the signals of the requests waiting on it. */
+        final CancellationSignal mCancellationSignal = new CancellationSignal();
+        @GuardedBy("sPendingLock")
+        final List<Waiter> mWaiters = new ArrayList<>();
+        @GuardedBy("sPendingLock")
+        boolean mStarted;
+    }
 
-    private final boolean mIsLowRam;
+    private static final Object sPendingLock = new Object();
+    /** Decodes that are currently in flight, keyed by the decode request. */
+    @GuardedBy("sPendingLock")
+    private static final Map<CacheKey, PendingDecode> sPendingDecodes = new HashMap<>();
+
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+    private static final AtomicLong sCoalescedCount = new AtomicLong();
+
+    private final LruCache<CacheKey, Bitmap> mCache;
     private final Asset mOriginalAsset;
 
     public BitmapCachingAsset(Context context, Asset originalAsset) {
         mOriginalAsset = originalAsset instanceof BitmapCachingAsset
                 ? ((BitmapCachingAsset) originalAsset).mOriginalAsset : originalAsset;
-        mIsLowRam = ActivityManagerCompat.isLowRamDevice(
-                (ActivityManager) context.getApplicationContext().getSystemService(
-                        Context.ACTIVITY_SERVICE));
+        mCache = getOrCreateCache(context.getApplicationContext());
+    }
+
+    /**
+     * Returns the process-wide bitmap cache, creating it on first use with a budget derived from
+     * {@link ActivityManager#getMemoryClass()} and registering for memory trim callbacks.
+     */
+    private static LruCache<CacheKey, Bitmap> getOrCreateCache(Context appContext) {
+        synchronized (sCacheLock) {
+            if (sCache == null) {
+                ActivityManager activityManager =
+                        (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+                sCache = new LruCache<CacheKey, Bitmap>(calculateCacheSize(activityManager)) {
+                    @Override protected int sizeOf(CacheKey key, Bitmap value) {
+                        return value.getByteCount();
+                    }
+                };
+                appContext.registerComponentCallbacks(new TrimMemoryCallbacks());
+            }
+            return sCache;
+        }
+    }
+
+    /**
+     * Returns the cache budget in bytes: a fraction of the memory class, smaller on low RAM
+     * devices, and never more than {@link #MAX_CACHE_SIZE_BYTES}.
+     */
+    @VisibleForTesting
+    static int calculateCacheSize(ActivityManager activityManager) {
+        int divisor = ActivityManagerCompat.isLowRamDevice(activityManager)
+                ? LOW_RAM_MEMORY_CLASS_DIVISOR : MEMORY_CLASS_DIVISOR;
+        long budget = (long) activityManager.getMemoryClass() * 1024 * 1024 / divisor;
+        return (int) Math.max(1, Math.min(budget, MAX_CACHE_SIZE_BYTES));
+    }
+
+    /**
+     * Shrinks the cache to half its budget when the system runs low on memory, and clears it
+     * once the UI is hidden or the process is on the LRU list.
+     */
+    @VisibleForTesting
+    static void onTrimMemory(int level) {
+        LruCache<CacheKey, Bitmap> cache;
+        synchronized (sCacheLock) {
+            cache = sCache;
+        }
+        if (cache == null) {
+            return;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    private static class TrimMemoryCallbacks implements ComponentCallbacks2 {
+        @Override
+        public void onTrimMemory(int level) {
+            BitmapCachingAsset.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            // No op
+        }
+
+        @Override
+        public void onLowMemory() {
+            BitmapCachingAsset.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
     }
 
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
             BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmap(targetWidth, targetHeight, useHardwareBitmapIfPossible,
-                    receiver);
-            return;
-        }
         CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight);
-        Bitmap cached = sCache.get(key);
-        if (cached != null) {
-            receiver.onBitmapDecoded(cached);
-        } else {
-            BitmapReceiver cachingReceiver = bitmap -> {
-                if (bitmap != null) {
-                    sCache.put(key, bitmap);
-                }
-                receiver.onBitmapDecoded(bitmap);
-            };
+        decodeWithCache(key, receiver, cachingReceiver -> {
             if (targetWidth == 0 && targetHeight == 0) {
                 mOriginalAsset.decodeBitmap(cachingReceiver);
             } else {
                 mOriginalAsset.decodeBitmap(targetWidth, targetHeight, useHardwareBitmapIfPossible,
                         cachingReceiver);
             }
-        }
+        });
     }
 
     @Override
@@ -131,26 +242,183 @@ public class BitmapCachingAsset extends Asset {
     @Override
     public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
-                    receiver);
-            return;
-        }
         CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight, shouldAdjustForRtl,
                 rect);
-        Bitmap cached = sCache.get(key);
+        decodeWithCache(key, receiver, cachingReceiver ->
+                mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight,
+                        shouldAdjustForRtl, cachingReceiver));
+    }
+
+    /**
+     * Serves the request from the cache if possible. Otherwise either attaches the receiver to a
+     * decode already in flight for the same key, or starts a new decode through {@code decoder}
+     * and delivers its result to every receiver still attached when it completes.
+     */
+    private void decodeWithCache(CacheKey key, BitmapReceiver receiver,
+            Consumer<BitmapReceiver> decoder) {
+        Bitmap cached = mCache.get(key);
         if (cached != null) {
+            sHitCount.incrementAndGet();
             receiver.onBitmapDecoded(cached);
-        } else {
-            mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
-                    bitmap -> {
-                        if (bitmap != null) {
-                            sCache.put(key, bitmap);
-                        }
-                        receiver.onBitmapDecoded(bitmap);
-                    });
+            return;
+        }
+
+        CancellationSignal requestSignal = Asset.getRequestCancellationSignal();
+        Waiter waiter = new Waiter(this, receiver, requestSignal != null);
+        PendingDecode pending;
+        boolean isNewDecode = false;
+        synchronized (sPendingLock) {
+            pending = sPendingDecodes.get(key);
+            if (pending == null) {
+                pending = new PendingDecode();
+                sPendingDecodes.put(key, pending);
+                isNewDecode = true;
+            }
+            pending.mWaiters.add(waiter);
+        }
+        if (requestSignal != null) {
+            PendingDecode cancelablePending = pending;
+            // Called right away if the request is already canceled.
+            requestSignal.setOnCancelListener(
+                    () -> removeWaiter(key, cancelablePending, waiter));
+        }
+        if (!isNewDecode) {
+            sCoalescedCount.incrementAndGet();
+            return;
+        }
+
+        sMissCount.incrementAndGet();
+        PendingDecode decode = pending;
+        // The decode runs under its own signal, so that canceling the request which started it
+        // doesn't drop it for the other receivers.
+        Asset.runWithCancellationSignal(decode.mCancellationSignal,
+                () -> {
+                    synchronized (sPendingLock) {
+                        decode.mStarted = true;
+                    }
+                },
+                () -> decoder.accept(bitmap -> onDecodeCompleted(key, decode, bitmap)));
+    }
+
+    private void onDecodeCompleted(CacheKey key, PendingDecode decode, @Nullable Bitmap bitmap) {
+        if (bitmap != null) {
+            mCache.put(key, bitmap);
+        }
+        List<Waiter> waiters;
+        synchronized (sPendingLock) {
+            if (sPendingDecodes.get(key) == decode) {
+                sPendingDecodes.remove(key);
+            }
+            waiters = new ArrayList<>(decode.mWaiters);
+            decode.mWaiters.clear();
+        }
+        // Results of the decode arrive on a worker thread; receivers of callback requests still
+        // expect theirs on the main thread.
+        boolean onMainThread = Looper.myLooper() == Looper.getMainLooper();
+        for (Waiter waiter : waiters) {
+            if (waiter.mIsCancellableRequest || onMainThread) {
+                waiter.mReceiver.onBitmapDecoded(bitmap);
+            } else {
+                new Handler(Looper.getMainLooper()).post(
+                        () -> waiter.mReceiver.onBitmapDecoded(bitmap));
+            }
+        }
+    }
+
+    /**
+     * Detaches the given waiter from its decode, and drops the decode if no receiver waits on it
+     * anymore and it hasn't started yet.
+     */
+    private static void removeWaiter(CacheKey key, PendingDecode decode, Waiter waiter) {
+        synchronized (sPendingLock) {
+            if (!decode.mWaiters.remove(waiter) || !decode.mWaiters.isEmpty() || decode.mStarted) {
+                return;
+            }
+            if (sPendingDecodes.get(key) == decode) {
+                sPendingDecodes.remove(key);
+            }
+        }
+        decode.mCancellationSignal.cancel();
+    }
+
+    /** Returns how many requests were served straight from the bitmap cache. */
+    public static long getCacheHitCount() {
+        return sHitCount.get();
+    }
+
+    /** Returns how many requests started a new decode on the wrapped asset. */
+    public static long getCacheMissCount() {
+        return sMissCount.get();
+    }
+
+    /** Returns how many requests were attached to a decode that was already in flight. */
+    public static long getCoalescedCount() {
+        return sCoalescedCount.get();
+    }
+
+    /** Prints the cache counters, for dumpsys. */
+    public static void dump(PrintWriter pw) {
+        pw.println("BitmapCachingAsset:");
+        synchronized (sCacheLock) {
+            if (sCache != null) {
+                pw.println("  cache size (bytes): " + sCache.size() + "/" + sCache.maxSize());
+            }
+        }
+        pw.println("  hits: " + sHitCount.get());
+        pw.println("  misses: " + sMissCount.get());
+        pw.println("  coalesced: " + sCoalescedCount.get());
+        synchronized (sPendingLock) {
+            pw.println("  in flight: " + sPendingDecodes.size());
+        }
+    }
+
+    /** Clears the cache and resets the counters. */
+    @VisibleForTesting
+    public static void resetForTesting() {
+        synchronized (sCacheLock) {
+            if (sCache != null) {
+                sCache.evictAll();
+            }
+        }
+        synchronized (sPendingLock) {
+            sPendingDecodes.clear();
+        }
+        sHitCount.set(0);
+        sMissCount.set(0);
+        sCoalescedCount.set(0);
+    }
+
+    @Override
+    public void setDecodePriority(@DecodeScheduler.Priority int priority) {
+        mOriginalAsset.setDecodePriority(priority);
+    }
+
+    /**
+     * Detaches the receivers of the callback requests made through this instance from the decodes
+     * which haven't started yet; those receivers are never called. A decode is dropped once no
+     * receiver waits on it anymore, while the receivers other consumers attached to it still get
+     * its result. Requests made with {@link Asset#runWithCancellationSignal} are canceled through
+     * their own signals instead.
+     */
+    @Override
+    public void cancelPendingDecodes() {
+        List<CancellationSignal> droppedDecodes = new ArrayList<>();
+        synchronized (sPendingLock) {
+            Iterator<PendingDecode> iterator = sPendingDecodes.values().iterator();
+            while (iterator.hasNext()) {
+                PendingDecode decode = iterator.next();
+                if (decode.mStarted) {
+                    continue;
+                }
+                decode.mWaiters.removeIf(
+                        waiter -> waiter.mOwner == this && !waiter.mIsCancellableRequest);
+                if (decode.mWaiters.isEmpty()) {
+                    iterator.remove();
+                    droppedDecodes.add(decode.mCancellationSignal);
+                }
+            }
         }
+        droppedDecodes.forEach(CancellationSignal::cancel);
     }
 
     @Override
@@ -16,20 +16,38 @@
 package com.android.wallpaper.asset;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Point;
 import android.graphics.Rect;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Collection of static utility methods for decoding and processing Bitmaps.
  */
 public class BitmapUtils {
+    private static final String TAG = "BitmapUtils";
     private static final float DEFAULT_CENTER_ALIGNMENT = 0.5f;
+    private static final int LOSSLESS_QUALITY = 100;
+    /** Rows decoded above and below each sampled row when hashing without a full decode. */
+    private static final int HASH_STRIP_MARGIN = 16;
+    // Threads writing encoded bitmaps into pipes. Each encode only waits for the reader of its own
+    // stream, so a couple of threads are enough for the wallpapers set at the same time.
+    private static final int MAX_ENCODE_THREADS = 2;
+    private static final long ENCODE_KEEP_ALIVE_SECONDS = 30;
+    private static final ThreadPoolExecutor sEncodeExecutor = createEncodeExecutor();
 
     // Suppress default constructor for noninstantiability.
     private BitmapUtils() {
@@ -90,6 +108,79 @@ public class BitmapUtils {
         return result;
     }
 
+    /**
+     * Generates the same hash code as {@link #generateHashCode(Bitmap)} for the image in the given
+     * stream without decoding the whole image. Only a thin full-width strip around each sampled row
+     * is decoded, so memory use is bounded by a few rows of the image instead of all of it.
+     * <p>
+     * This method should be called off the UI thread.
+     *
+     * @return the hash code, or 0 if the image couldn't be decoded.
+     */
+    @WorkerThread
+    public static long generateHashCode(InputStream inputStream) {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open the image to generate its hash code", e);
+            return 0;
+        }
+        try {
+            return generateHashCode(decoder);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private static long generateHashCode(BitmapRegionDecoder decoder) {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int[] sampledXs = getHashSamplePositions(width);
+        int[] sampledYs = getHashSamplePositions(height);
+
+        // Strips are decoded row by row, but the hash combines the pixels column by column.
+        int[][] pixels = new int[sampledXs.length][sampledYs.length];
+        for (int j = 0; j < sampledYs.length; j++) {
+            int y = sampledYs[j];
+            // Decode a few rows around the sampled one so that JPEG chroma upsampling gives the
+            // same pixel values as a full decode.
+            Rect strip = new Rect(0, Math.max(0, y - HASH_STRIP_MARGIN), width,
+                    Math.min(height, y + HASH_STRIP_MARGIN + 1));
+            Bitmap stripBitmap = decoder.decodeRegion(strip, /* options= */ null);
+            if (stripBitmap == null) {
+                return 0;
+            }
+            for (int i = 0; i < sampledXs.length; i++) {
+                pixels[i][j] = stripBitmap.getPixel(sampledXs[i], y - strip.top);
+            }
+            stripBitmap.recycle();
+        }
+
+        long result = 17;
+        result = 31 * result + width;
+        result = 31 * result + height;
+        for (int[] column : pixels) {
+            for (int pixel : column) {
+                result = 31 * result + pixel;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the coordinates {@link #generateHashCode(Bitmap)} samples along one axis. */
+    private static int[] getHashSamplePositions(int size) {
+        int count = 0;
+        for (int position = 0; position < size; position = position * 2 + 1) {
+            count++;
+        }
+        int[] positions = new int[count];
+        for (int i = 0, position = 0; i < count; i++, position = position * 2 + 1) {
+            positions[i] = position;
+        }
+        return positions;
+    }
+
     /**
      * Calculates horizontal alignment of the rect within the supplied dimensions.
      *
@@ -127,15 +218,103 @@ public class BitmapUtils {
     /**
      * Converts the bitmap into an input stream with 100% quality.
      *
+     * <p>The bitmap is encoded as PNG on a shared, bounded pool of encode threads while the stream
+     * is being read and the bytes are passed through a pipe, so the encoded image is never held in
+     * memory as a whole. The bitmap must not be recycled or modified before the stream has been
+     * read to the end or closed, and the stream must be read or closed promptly, as its encode
+     * holds one of the threads until then. If encoding fails, reading the stream throws an
+     * IOException once the bytes encoded so far have been read.
+     *
      * Should not be called from the main thread.
+     *
+     * @return the stream of the encoded image, or null if the pipe couldn't be created.
      */
     @WorkerThread
+    @Nullable
     public static InputStream bitmapToInputStream(Bitmap bitmap) {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        if (bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream)) {
-            return new ByteArrayInputStream(outputStream.toByteArray());
-        } else {
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to create a pipe to encode the bitmap", e);
             return null;
         }
+        ParcelFileDescriptor readSide = pipe[0];
+        ParcelFileDescriptor writeSide = pipe[1];
+        sEncodeExecutor.execute(() -> encodeToPipe(bitmap, writeSide));
+        return new PipeInputStream(readSide);
+    }
+
+    private static ThreadPoolExecutor createEncodeExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_ENCODE_THREADS,
+                MAX_ENCODE_THREADS, ENCODE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "WallpaperEncode"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void encodeToPipe(Bitmap bitmap, ParcelFileDescriptor writeSide) {
+        boolean encoded = false;
+        try {
+            // Bitmap#compress buffers its output internally, no need to wrap the stream.
+            encoded = bitmap.compress(Bitmap.CompressFormat.PNG, LOSSLESS_QUALITY,
+                    new FileOutputStream(writeSide.getFileDescriptor()));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to encode the bitmap", e);
+        } finally {
+            try {
+                if (encoded) {
+                    writeSide.close();
+                } else {
+                    writeSide.closeWithError("Unable to encode the bitmap");
+                }
+            } catch (IOException e) {
+                // The reader closed its side early, nothing is waiting for the result.
+            }
+        }
+    }
+
+    /**
+     * Read side of a reliable pipe, which reports an error of the writer instead of a clean end of
+     * stream.
+     */
+    private static class PipeInputStream extends FileInputStream {
+        private final ParcelFileDescriptor mReadSide;
+
+        PipeInputStream(ParcelFileDescriptor readSide) {
+            super(readSide.getFileDescriptor());
+            mReadSide = readSide;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return checkEndOfStream(super.read());
+        }
+
+        @Override
+        public int read(@NonNull byte[] b) throws IOException {
+            return checkEndOfStream(super.read(b));
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            return checkEndOfStream(super.read(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                mReadSide.close();
+            }
+        }
+
+        private int checkEndOfStream(int result) throws IOException {
+            if (result == -1) {
+                mReadSide.checkError();
+            }
+            return result;
+        }
     }
 }
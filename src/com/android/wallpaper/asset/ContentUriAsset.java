@@ -16,13 +16,19 @@
 package com.android.wallpaper.asset;
 
 import android.app.Activity;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 import android.util.Log;
 import android.widget.ImageView;
 
@@ -40,17 +46,15 @@ import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.Target;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Represents an asset located via an Android content URI.
  */
 public final class ContentUriAsset extends StreamableAsset {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
     private static final String TAG = "ContentUriAsset";
     private static final String JPEG_MIME_TYPE = "image/jpeg";
     private static final String PNG_MIME_TYPE = "image/png";
@@ -58,10 +62,18 @@ public final class ContentUriAsset extends StreamableAsset {
     private final Context mContext;
     private final Uri mUri;
     private final RequestOptions mRequestOptions;
+    private final boolean mUncached;
 
     private ExifInterfaceCompat mExifCompat;
     private int mExifOrientation;
 
+    private final Object mContentVersionLock = new Object();
+    // Guarded by mContentVersionLock.
+    private boolean mIsContentVersionQueried;
+    // Guarded by mContentVersionLock.
+    @Nullable
+    private String mContentVersion;
+
     /**
      * @param context The application's context.
      * @param uri     Content URI locating the asset.
@@ -75,6 +87,7 @@ public final class ContentUriAsset extends StreamableAsset {
         mExifOrientation = ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN;
         mContext = context.getApplicationContext();
         mUri = uri;
+        mUncached = uncached;
 
         if (uncached) {
             mRequestOptions = requestOptions.apply(RequestOptions
@@ -145,7 +158,7 @@ public final class ContentUriAsset extends StreamableAsset {
                             decodeBitmapCompleted(receiver, null);
                             return;
                         }
-                        sExecutorService.execute(()-> {
+                        executeDecode(() -> {
                             decodeBitmapCompleted(receiver, Bitmap.createBitmap(
                                     fullBitmap, rect.left, rect.top, rect.width(), rect.height()));
                         });
@@ -155,6 +168,12 @@ public final class ContentUriAsset extends StreamableAsset {
         });
     }
 
+    @Override
+    public boolean supportsTileDecoding() {
+        // BitmapRegionDecoder only supports images encoded in either JPEG or PNG.
+        return (isJpeg() || isPng()) && super.supportsTileDecoding();
+    }
+
     /**
      * Returns whether this image is encoded in the JPEG file format.
      */
@@ -207,6 +226,75 @@ public final class ContentUriAsset extends StreamableAsset {
 
     }
 
+    @Override
+    protected String getDiskCacheIdentity() {
+        // Uncached assets may change content behind the same URI.
+        if (mUncached) {
+            return null;
+        }
+        String contentVersion;
+        synchronized (mContentVersionLock) {
+            // Every decode and prefetch looks the identity up, only query the provider once.
+            if (!mIsContentVersionQueried) {
+                mContentVersion = queryContentVersion();
+                mIsContentVersionQueried = true;
+            }
+            contentVersion = mContentVersion;
+        }
+        return contentVersion != null ? "uri:" + mUri + ":" + contentVersion : null;
+    }
+
+    /**
+     * Returns the last modification time and size of the content behind the URI, so that an
+     * edited image gets a new disk cache identity, or null if the modification time is unknown.
+     */
+    @Nullable
+    private String queryContentVersion() {
+        if (ContentResolver.SCHEME_FILE.equals(mUri.getScheme())) {
+            File file = new File(mUri.getPath());
+            return file.exists() ? file.lastModified() + ":" + file.length() : null;
+        }
+        try (Cursor cursor = mContext.getContentResolver().query(mUri, getVersionProjection(),
+                /* selection= */ null, /* selectionArgs= */ null, /* sortOrder= */ null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+            String lastModified = getColumnString(cursor,
+                    DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+            if (lastModified == null) {
+                lastModified = getColumnString(cursor, MediaStore.MediaColumns.DATE_MODIFIED);
+            }
+            return lastModified != null
+                    ? lastModified + ":" + getColumnString(cursor, OpenableColumns.SIZE) : null;
+        } catch (RuntimeException e) {
+            // Providers may reject the query, e.g. with a SecurityException.
+            Log.w(TAG, "Couldn't query the version of " + mUri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the columns holding the version of the content, or null for all columns if the
+     * provider isn't known to have them: providers may reject columns they don't have.
+     */
+    @Nullable
+    private String[] getVersionProjection() {
+        if (DocumentsContract.isDocumentUri(mContext, mUri)) {
+            return new String[] {
+                    DocumentsContract.Document.COLUMN_LAST_MODIFIED, OpenableColumns.SIZE};
+        }
+        if (MediaStore.AUTHORITY.equals(mUri.getAuthority())) {
+            return new String[] {MediaStore.MediaColumns.DATE_MODIFIED, OpenableColumns.SIZE};
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String getColumnString(Cursor cursor, String columnName) {
+        int index = cursor.getColumnIndex(columnName);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getString(index) : null;
+    }
+
     @Override
     protected InputStream openInputStream() {
         try {
@@ -217,6 +305,25 @@ public final class ContentUriAsset extends StreamableAsset {
         }
     }
 
+    @Override
+    protected boolean needsExifFromStream() {
+        return mExifOrientation == ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN;
+    }
+
+    @Override
+    protected void readExifFromStream(InputStream inputStream) {
+        try {
+            mExifCompat = new ExifInterfaceCompat(inputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read EXIF from stream for " + mUri, e);
+        }
+        // Resolve the orientation now so that a failed read doesn't open the stream again later.
+        mExifOrientation = mExifCompat != null
+                ? mExifCompat.getAttributeInt(ExifInterfaceCompat.TAG_ORIENTATION,
+                        ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL)
+                : ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
+    }
+
     @Override
     public int getExifOrientation() {
         if (mExifOrientation != ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN) {
@@ -255,6 +362,15 @@ public final class ContentUriAsset extends StreamableAsset {
                 .into(imageView);
     }
 
+    @Override
+    public void prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal) {
+        preloadWithGlide(context, Glide.with(context)
+                .asDrawable()
+                .load(mUri)
+                .apply(mRequestOptions), width, height, cancellationSignal);
+    }
+
     @Override
     public void loadLowResDrawable(Activity activity, ImageView imageView, int placeholderColor,
             BitmapTransformation transformation) {
@@ -67,6 +67,12 @@ public class CurrentWallpaperAsset extends StreamableAsset {
         mCropped = getCropped;
     }
 
+    @Override
+    protected String getDiskCacheIdentity() {
+        // The wallpaper ID changes every time a new wallpaper is set.
+        return "current:" + mWallpaperManagerFlag + ":" + mWallpaperId + ":" + mCropped;
+    }
+
     @Override
     protected InputStream openInputStream() {
         ParcelFileDescriptor pfd = getWallpaperPfd();
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.os.CancellationSignal;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared, bounded scheduler for all asset decoding work. Tasks run in priority order (visible
+ * preview, then visible tile, then prefetch) and in submission order within a priority. A task
+ * submitted with a {@link CancellationSignal} is skipped if the signal is canceled before the
+ * task starts, e.g. when the RecyclerView holder which requested it is recycled. The scheduler
+ * doesn't register a cancel listener, so the running task itself may use the signal to abort.
+ */
+public class DecodeScheduler {
+
+    /** Decodes for a preview the user is currently looking at. */
+    public static final int PRIORITY_VISIBLE_PREVIEW = 0;
+    /** Decodes for a visible tile or thumbnail. */
+    public static final int PRIORITY_VISIBLE_TILE = 1;
+    /** Speculative decodes for content that isn't visible yet. */
+    public static final int PRIORITY_PREFETCH = 2;
+
+    @IntDef({PRIORITY_VISIBLE_PREVIEW, PRIORITY_VISIBLE_TILE, PRIORITY_PREFETCH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
+
+    private static final int MAX_CONCURRENCY = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    @Nullable
+    private static DecodeScheduler sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /** Returns the process-wide scheduler. */
+    public static synchronized DecodeScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new DecodeScheduler(Math.max(2,
+                    Math.min(Runtime.getRuntime().availableProcessors(), MAX_CONCURRENCY)));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DecodeScheduler(int concurrency) {
+        mExecutor = new ThreadPoolExecutor(concurrency, concurrency, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<>(), new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules the given task.
+     *
+     * @param priority           Priority of the task, one of the {@code PRIORITY_} constants.
+     * @param cancellationSignal If not null and canceled before the task starts, the task never
+     *                           runs.
+     * @param task               The work to run off the main thread.
+     */
+    public void execute(@Priority int priority, @Nullable CancellationSignal cancellationSignal,
+            Runnable task) {
+        if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+            return;
+        }
+        PrioritizedTask prioritizedTask = new PrioritizedTask(priority,
+                mSequence.getAndIncrement(), cancellationSignal, task);
+        mExecutor.execute(prioritizedTask);
+    }
+
+    /** Returns an {@link Executor} which schedules uncancellable tasks at the given priority. */
+    public Executor asExecutor(@Priority int priority) {
+        return task -> execute(priority, /* cancellationSignal= */ null, task);
+    }
+
+    /** Returns how many tasks are waiting to run. */
+    @VisibleForTesting
+    int getQueuedTaskCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final int mPriority;
+        private final long mSequence;
+        @Nullable
+        private final CancellationSignal mCancellationSignal;
+        private final Runnable mTask;
+
+        PrioritizedTask(int priority, long sequence,
+                @Nullable CancellationSignal cancellationSignal, Runnable task) {
+            mPriority = priority;
+            mSequence = sequence;
+            mCancellationSignal = cancellationSignal;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            if (mCancellationSignal != null && mCancellationSignal.isCanceled()) {
+                return;
+            }
+            mTask.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "WallpaperDecode-" + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
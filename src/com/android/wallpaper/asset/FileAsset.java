@@ -37,6 +37,12 @@ public final class FileAsset extends StreamableAsset {
         mFile = file;
     }
 
+    @Override
+    protected String getDiskCacheIdentity() {
+        return "file:" + mFile.getAbsolutePath() + ":" + mFile.lastModified() + ":"
+                + mFile.length();
+    }
+
     @Override
     protected InputStream openInputStream() {
         try {
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.BitmapRegionDecoder;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of {@link BitmapRegionDecoder}s for one asset. A single BitmapRegionDecoder
+ * serializes its decodes internally, so several decoders of the same image let crop and tile
+ * regions be decoded at the same time. Decoders are opened lazily, up to the pool size, and
+ * callers block when all of them are in use. Once none of them has been used for
+ * {@link #IDLE_TIMEOUT_MILLIS}, they are recycled so that assets kept around, e.g. by categories
+ * or recents, don't hold on to their native memory.
+ */
+class RegionDecoderPool {
+    /** Default pool size: one decoder per core, but no more than this many per asset. */
+    private static final int MAX_DEFAULT_POOL_SIZE = 4;
+    /** How long the decoders stay open once none of them is in use. */
+    @VisibleForTesting
+    static final long IDLE_TIMEOUT_MILLIS = 10_000;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private final Supplier<BitmapRegionDecoder> mDecoderFactory;
+    private final int mMaxSize;
+    private final Deque<BitmapRegionDecoder> mIdleDecoders = new ArrayDeque<>();
+    private int mOpenCount;
+    private boolean mClosed;
+    private final Runnable mCloseIdleDecoders = this::close;
+
+    RegionDecoderPool(Supplier<BitmapRegionDecoder> decoderFactory) {
+        this(decoderFactory, Math.min(Runtime.getRuntime().availableProcessors(),
+                MAX_DEFAULT_POOL_SIZE));
+    }
+
+    RegionDecoderPool(Supplier<BitmapRegionDecoder> decoderFactory, int maxSize) {
+        mDecoderFactory = decoderFactory;
+        mMaxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Returns an idle decoder, opening a new one if the pool isn't full yet, or waits for one to
+     * be released. Returns null if the decoder couldn't be opened or the thread was interrupted.
+     * Every decoder returned must be handed back with {@link #release(BitmapRegionDecoder)}.
+     */
+    @WorkerThread
+    @Nullable
+    BitmapRegionDecoder acquire() {
+        sHandler.removeCallbacks(mCloseIdleDecoders);
+        synchronized (this) {
+            while (mIdleDecoders.isEmpty() && mOpenCount >= mMaxSize) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (!mIdleDecoders.isEmpty()) {
+                return mIdleDecoders.pop();
+            }
+            // Reserve a slot so the decoder can be opened outside the lock.
+            mOpenCount++;
+            mClosed = false;
+        }
+
+        BitmapRegionDecoder decoder = mDecoderFactory.get();
+        if (decoder == null) {
+            synchronized (this) {
+                mOpenCount--;
+                notifyAll();
+            }
+        }
+        return decoder;
+    }
+
+    /** Hands a decoder obtained from {@link #acquire()} back to the pool. */
+    void release(BitmapRegionDecoder decoder) {
+        synchronized (this) {
+            if (!mClosed) {
+                mIdleDecoders.push(decoder);
+                notifyAll();
+                if (mIdleDecoders.size() == mOpenCount) {
+                    // None of the decoders is in use anymore.
+                    sHandler.removeCallbacks(mCloseIdleDecoders);
+                    sHandler.postDelayed(mCloseIdleDecoders, IDLE_TIMEOUT_MILLIS);
+                }
+                return;
+            }
+            mOpenCount--;
+            notifyAll();
+        }
+        decoder.recycle();
+    }
+
+    /**
+     * Recycles the idle decoders; decoders still in use are recycled as soon as they are
+     * released. The pool reopens decoders if it is used again afterwards.
+     */
+    void close() {
+        sHandler.removeCallbacks(mCloseIdleDecoders);
+        Deque<BitmapRegionDecoder> idleDecoders;
+        synchronized (this) {
+            mClosed = true;
+            idleDecoders = new ArrayDeque<>(mIdleDecoders);
+            mOpenCount -= mIdleDecoders.size();
+            mIdleDecoders.clear();
+            notifyAll();
+        }
+        for (BitmapRegionDecoder decoder : idleDecoders) {
+            decoder.recycle();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.android.wallpaper.asset;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.drawable.ColorDrawable;
+import android.os.CancellationSignal;
 import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
@@ -82,6 +83,15 @@ public class ResourceAsset extends StreamableAsset {
                 .into(imageView);
     }
 
+    @Override
+    public void prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal) {
+        preloadWithGlide(context, Glide.with(context)
+                .asDrawable()
+                .load(ResourceAsset.this)
+                .apply(mRequestOptions), width, height, cancellationSignal);
+    }
+
     @Override
     public int hashCode() {
         return getKey().hashCode();
@@ -109,17 +119,26 @@ public class ResourceAsset extends StreamableAsset {
     /**
      * Returns the Resources instance for the resource represented by this asset.
      */
-    Resources getResources() {
+    public Resources getResources() {
         return mRes;
     }
 
     /**
      * Returns the resource ID for the resource represented by this asset.
      */
-    int getResId() {
+    public int getResId() {
         return mResId;
     }
 
+    @Override
+    protected String getDiskCacheIdentity() {
+        // Include the package version so that thumbnails aren't served after it's updated.
+        ThumbnailDiskCache diskCache = ThumbnailDiskCache.peekInstance();
+        String packageVersion = diskCache != null
+                ? diskCache.getPackageVersion(mRes.getResourcePackageName(mResId)) : null;
+        return packageVersion != null ? "res:" + getKey() + ":" + packageVersion : null;
+    }
+
     @Override
     protected InputStream openInputStream() {
         return mRes.openRawResource(mResId);
@@ -16,6 +16,7 @@
 package com.android.wallpaper.asset;
 
 import android.app.Activity;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
@@ -24,26 +25,42 @@ import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.media.ExifInterface;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.CancellationSignal;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents Asset types for which bytes can be read directly, allowing for flexible bitmap
  * decoding.
  */
 public abstract class StreamableAsset extends Asset {
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
     private static final String TAG = "StreamableAsset";
+    /** Largest target size, in pixels, whose decoded bitmaps are kept in the disk cache. */
+    private static final int MAX_DISK_CACHED_PIXELS = 1024 * 1024;
+    /**
+     * How many bytes of the image stream are kept buffered so the stream can be rewound after
+     * reading the bounds and EXIF headers, instead of being opened again.
+     */
+    private static final int HEADER_MARK_LIMIT = 512 * 1024;
+    /**
+     * Prefetches being decoded, by the identity of their asset and their target size. A decode of
+     * the same thumbnail waits for the prefetch instead of decoding it a second time.
+     */
+    private static final ConcurrentHashMap<String, CompletableFuture<Bitmap>> sRunningPrefetches =
+            new ConcurrentHashMap<>();
 
-    private BitmapRegionDecoder mBitmapRegionDecoder;
+    private final RegionDecoderPool mRegionDecoderPool =
+            new RegionDecoderPool(this::openBitmapRegionDecoder);
     private Point mDimensions;
 
     /**
@@ -79,10 +96,115 @@ public abstract class StreamableAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        executeDecode(() -> decodeBitmapCompleted(receiver,
+                decodeBitmapFromSingleStream(targetWidth, targetHeight,
+                        useHardwareBitmapIfPossible)));
+    }
+
+    @Override
+    public void decodeBitmap(BitmapReceiver receiver) {
+        executeDecode(() -> decodeBitmapCompleted(receiver,
+                decodeBitmapFromSingleStream(/* targetWidth= */ 0, /* targetHeight= */ 0,
+                        /* hardwareBitmapAllowed= */ true)));
+    }
+
+    /**
+     * Decodes the asset, downscaled for the given target size, opening the underlying stream only
+     * once: raw bounds, EXIF orientation and pixels are all read from the same buffered stream,
+     * rewinding it with mark/reset in between. Falls back to reopening the stream only if the
+     * image headers were too large to rewind. A target size of (0 x 0) decodes the full image.
+     *
+     * @return the decoded bitmap, rotated for its EXIF orientation, or null if there was an error
+     */
+    @WorkerThread
+    @Nullable
+    @VisibleForTesting
+    Bitmap decodeBitmapFromSingleStream(int targetWidth, int targetHeight,
+            boolean hardwareBitmapAllowed) {
+        ThumbnailDiskCache diskCache = ThumbnailDiskCache.peekInstance();
+        String diskCacheIdentity = diskCache != null && isDiskCacheable(targetWidth, targetHeight)
+                ? getDiskCacheIdentity() : null;
+        if (diskCacheIdentity != null) {
+            CompletableFuture<Bitmap> prefetch = sRunningPrefetches.get(
+                    getPrefetchKey(diskCacheIdentity, targetWidth, targetHeight));
+            Bitmap prefetched = prefetch != null ? prefetch.join() : null;
+            if (prefetched != null) {
+                return prefetched;
+            }
+        }
+        return decodeBitmapFromSingleStream(diskCache, diskCacheIdentity, targetWidth,
+                targetHeight, hardwareBitmapAllowed);
+    }
+
+    @WorkerThread
+    @Nullable
+    private Bitmap decodeBitmapFromSingleStream(@Nullable ThumbnailDiskCache diskCache,
+            @Nullable String diskCacheIdentity, int targetWidth, int targetHeight,
+            boolean hardwareBitmapAllowed) {
+        // If the EXIF orientation is already known the disk cache can be checked before opening
+        // the stream at all.
+        if (diskCacheIdentity != null && !needsExifFromStream()) {
+            Bitmap cached = diskCache.get(getThumbnailDiskCacheKey(diskCacheIdentity, targetWidth,
+                    targetHeight, getExifOrientation()), hardwareBitmapAllowed);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        InputStream rawStream = openInputStream();
+        if (rawStream == null) {
+            return null;
+        }
+        InputStream inputStream = new BufferedInputStream(rawStream);
+        // Closing the stream being read makes BitmapFactory fail fast, which aborts a canceled
+        // decode instead of letting it run to completion.
+        CancellationSignal cancellationSignal = getRunningCancellationSignal();
+        AtomicReference<InputStream> currentStream = new AtomicReference<>(inputStream);
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(() -> {
+                InputStream streamToClose = currentStream.get();
+                if (streamToClose != null) {
+                    closeInputStream(streamToClose,
+                            "Error closing the input stream of a canceled decode");
+                }
+            });
+        }
+        try {
+            inputStream.mark(HEADER_MARK_LIMIT);
+            Point rawDimensions = mDimensions;
+            BitmapFactory.Options boundsOptions = null;
+            if (rawDimensions == null) {
+                boundsOptions = new BitmapFactory.Options();
+                boundsOptions.inJustDecodeBounds = true;
+                BitmapFactory.decodeStream(inputStream, null, boundsOptions);
+                inputStream = rewind(inputStream);
+                currentStream.set(inputStream);
+            }
+            if (inputStream != null && needsExifFromStream()) {
+                readExifFromStream(inputStream);
+                inputStream = rewind(inputStream);
+                currentStream.set(inputStream);
+            }
+            if (inputStream == null
+                    || (cancellationSignal != null && cancellationSignal.isCanceled())) {
+                return null;
+            }
+            if (rawDimensions == null) {
+                rawDimensions = cacheRawDimensions(boundsOptions);
+            }
+
+            int exifOrientation = getExifOrientation();
+            String diskCacheKey = diskCacheIdentity != null ? getThumbnailDiskCacheKey(
+                    diskCacheIdentity, targetWidth, targetHeight, exifOrientation) : null;
+            if (diskCacheKey != null) {
+                Bitmap cached = diskCache.get(diskCacheKey, hardwareBitmapAllowed);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
             int newTargetWidth = targetWidth;
             int newTargetHeight = targetHeight;
-            int exifOrientation = getExifOrientation();
             // Switch target height and width if image is rotated 90 or 270 degrees.
             if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
                     || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
@@ -92,74 +214,94 @@ public abstract class StreamableAsset extends Asset {
             }
 
             BitmapFactory.Options options = new BitmapFactory.Options();
-
-            Point rawDimensions = calculateRawDimensions();
-            // Raw dimensions may be null if there was an error opening the underlying input stream.
-            if (rawDimensions == null) {
-                decodeBitmapCompleted(receiver, null);
-                return;
+            if (newTargetWidth > 0 && newTargetHeight > 0) {
+                options.inSampleSize = BitmapUtils.calculateInSampleSize(
+                        rawDimensions.x, rawDimensions.y, newTargetWidth, newTargetHeight);
             }
-            options.inSampleSize = BitmapUtils.calculateInSampleSize(
-                    rawDimensions.x, rawDimensions.y, newTargetWidth, newTargetHeight);
-            if (useHardwareBitmapIfPossible) {
+            if (hardwareBitmapAllowed) {
                 options.inPreferredConfig = Config.HARDWARE;
             }
+            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            if (bitmap == null) {
+                return null;
+            }
 
-            InputStream inputStream = openInputStream();
-            Bitmap bitmap = null;
+            // Rotate output bitmap if necessary because of EXIF orientation tag.
+            int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
+            if (matrixRotation > 0) {
+                Matrix rotateMatrix = new Matrix();
+                rotateMatrix.setRotate(matrixRotation);
+                bitmap = Bitmap.createBitmap(
+                        bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                        rotateMatrix, false);
+            }
+            if (diskCacheKey != null) {
+                diskCache.putAsync(diskCacheKey, bitmap);
+            }
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the image stream", e);
+            return null;
+        } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
             if (inputStream != null) {
-                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                closeInputStream(
-                        inputStream, "Error closing the input stream used "
-                                + "to decode the full bitmap");
-
-                // Rotate output bitmap if necessary because of EXIF orientation tag.
-                int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-                if (matrixRotation > 0) {
-                    Matrix rotateMatrix = new Matrix();
-                    rotateMatrix.setRotate(matrixRotation);
-                    bitmap = Bitmap.createBitmap(
-                            bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
-                            rotateMatrix, false);
-                }
+                closeInputStream(inputStream, "Error closing the input stream used "
+                        + "to decode the bitmap");
             }
-            decodeBitmapCompleted(receiver, bitmap);
-        });
+        }
     }
 
-    @Override
-    public void decodeBitmap(BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inPreferredConfig = Config.HARDWARE;
-            InputStream inputStream = openInputStream();
-            Bitmap bitmap = null;
-            if (inputStream != null) {
-                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                closeInputStream(inputStream,
-                        "Error closing the input stream used to decode the full bitmap");
-
-                // Rotate output bitmap if necessary because of EXIF orientation tag.
-                int exifOrientation = getExifOrientation();
-                int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-                if (matrixRotation > 0) {
-                    Matrix rotateMatrix = new Matrix();
-                    rotateMatrix.setRotate(matrixRotation);
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                            bitmap.getHeight(), rotateMatrix, false);
-                }
+    /**
+     * Rewinds the given stream to its mark so it can be read again from the start of the image.
+     * If the mark was invalidated because more than {@link #HEADER_MARK_LIMIT} bytes were read,
+     * closes it and opens a fresh stream instead.
+     *
+     * @return a stream positioned at the start of the image, or null if it couldn't be reopened
+     */
+    @Nullable
+    private InputStream rewind(InputStream inputStream) {
+        try {
+            inputStream.reset();
+            inputStream.mark(HEADER_MARK_LIMIT);
+            return inputStream;
+        } catch (IOException e) {
+            closeInputStream(inputStream, "Error closing the input stream after a failed reset");
+            InputStream reopened = openInputStream();
+            if (reopened == null) {
+                return null;
             }
-            decodeBitmapCompleted(receiver, bitmap);
-        });
+            InputStream bufferedStream = new BufferedInputStream(reopened);
+            bufferedStream.mark(HEADER_MARK_LIMIT);
+            return bufferedStream;
+        }
+    }
+
+    /**
+     * Returns whether the EXIF orientation of this asset still has to be read from its image
+     * stream, in which case the decode pipeline passes the stream to
+     * {@link #readExifFromStream(InputStream)}.
+     */
+    protected boolean needsExifFromStream() {
+        return false;
+    }
+
+    /**
+     * Reads the EXIF metadata of this asset from the given stream, positioned at the start of the
+     * image, so that later calls to {@link #getExifOrientation()} don't need to open the asset
+     * again. Implementations must not close the stream.
+     */
+    @WorkerThread
+    protected void readExifFromStream(InputStream inputStream) throws IOException {
+        // No op
     }
 
     @Override
     public void decodeRawDimensions(Activity unused, DimensionsReceiver receiver) {
-        sExecutorService.execute(() -> {
+        executeUncancellable(() -> {
             Point result = calculateRawDimensions();
-            new Handler(Looper.getMainLooper()).post(() -> {
-                receiver.onDimensionsDecoded(result);
-            });
+            deliverResult(() -> receiver.onDimensionsDecoded(result));
         });
     }
 
@@ -174,16 +316,80 @@ public abstract class StreamableAsset extends Asset {
         return true;
     }
 
+    @Override
+    public void prefetchDrawable(Context context, int width, int height,
+            CancellationSignal cancellationSignal) {
+        if (!isDiskCacheable(width, height)) {
+            return;
+        }
+        ThumbnailDiskCache diskCache = ThumbnailDiskCache.getInstance(context);
+        executePrefetch(cancellationSignal, () -> {
+            // Looking up the identity may query a provider, so it's left to the worker thread.
+            String diskCacheIdentity = getDiskCacheIdentity();
+            if (diskCacheIdentity == null) {
+                // Nothing would keep the decoded thumbnail.
+                return;
+            }
+            // A tile bound while the prefetch runs waits for it under the same key.
+            String prefetchKey = getPrefetchKey(diskCacheIdentity, width, height);
+            CompletableFuture<Bitmap> prefetch = new CompletableFuture<>();
+            if (sRunningPrefetches.putIfAbsent(prefetchKey, prefetch) != null) {
+                return;
+            }
+            Bitmap bitmap = null;
+            try {
+                bitmap = decodeBitmapFromSingleStream(diskCache, diskCacheIdentity, width, height,
+                        /* hardwareBitmapAllowed= */ false);
+            } finally {
+                sRunningPrefetches.remove(prefetchKey, prefetch);
+                prefetch.complete(bitmap);
+            }
+        });
+    }
+
+    /**
+     * Returns a string that uniquely identifies the image content of this asset across process
+     * restarts, used to key the {@link ThumbnailDiskCache}, or null if the decoded thumbnails of
+     * this asset shouldn't be cached on disk. The identity has to change whenever the content may
+     * have changed. Called on a worker thread.
+     */
+    @WorkerThread
+    @Nullable
+    protected String getDiskCacheIdentity() {
+        return null;
+    }
+
+    /** Returns whether thumbnails decoded for the given target size may be cached on disk. */
+    private static boolean isDiskCacheable(int targetWidth, int targetHeight) {
+        return targetWidth > 0 && targetHeight > 0
+                && (long) targetWidth * targetHeight <= MAX_DISK_CACHED_PIXELS;
+    }
+
+    /**
+     * Returns the key of a running prefetch of the asset with the given identity for the given
+     * target size, which a decode for the same size waits for.
+     */
+    private static String getPrefetchKey(String identity, int targetWidth, int targetHeight) {
+        return identity + "|" + targetWidth + "x" + targetHeight;
+    }
+
+    /**
+     * Returns the disk cache key for a thumbnail of the asset with the given identity, decoded for
+     * the given target size and EXIF orientation.
+     */
+    private static String getThumbnailDiskCacheKey(String identity, int targetWidth,
+            int targetHeight, int exifOrientation) {
+        return identity + "|" + targetWidth + "x" + targetHeight + "|" + exifOrientation;
+    }
+
     /**
      * Fetches an input stream of bytes for the wallpaper image asset and provides the stream
      * asynchronously back to a {@link StreamReceiver}.
      */
     public void fetchInputStream(final StreamReceiver streamReceiver) {
-        sExecutorService.execute(() -> {
+        executeUncancellable(() -> {
             InputStream result = openInputStream();
-            new Handler(Looper.getMainLooper()).post(() -> {
-                streamReceiver.onInputStreamOpened(result);
-            });
+            deliverResult(() -> streamReceiver.onInputStreamOpened(result));
         });
     }
 
@@ -215,7 +421,7 @@ public abstract class StreamableAsset extends Asset {
      */
     public void runDecodeBitmapRegionTask(Rect rect, int targetWidth, int targetHeight,
             boolean isRtl, BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        executeDecode(() -> {
             int newTargetWidth = targetWidth;
             int newTargetHeight = targetHeight;
             Rect cropRect = rect;
@@ -243,15 +449,13 @@ public abstract class StreamableAsset extends Asset {
             options.inSampleSize = BitmapUtils.calculateInSampleSize(
                     cropRect.width(), cropRect.height(), newTargetWidth, newTargetHeight);
 
-            if (mBitmapRegionDecoder == null) {
-                mBitmapRegionDecoder = openBitmapRegionDecoder();
-            }
+            BitmapRegionDecoder decoder = mRegionDecoderPool.acquire();
 
             // Bitmap region decoder may have failed to open if there was a problem with the
             // underlying InputStream.
-            if (mBitmapRegionDecoder != null) {
+            if (decoder != null) {
                 try {
-                    Bitmap bitmap = mBitmapRegionDecoder.decodeRegion(cropRect, options);
+                    Bitmap bitmap = decoder.decodeRegion(cropRect, options);
 
                     // Rotate output bitmap if necessary because of EXIF orientation.
                     int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
@@ -268,12 +472,64 @@ public abstract class StreamableAsset extends Asset {
                     Log.e(TAG, "Out of memory and unable to decode bitmap region", e);
                 } catch (IllegalArgumentException e) {
                     Log.e(TAG, "Illegal argument for decoding bitmap region", e);
+                } finally {
+                    mRegionDecoderPool.release(decoder);
                 }
             }
             decodeBitmapCompleted(receiver, null);
         });
     }
 
+    /**
+     * Returns whether regions of this asset can be decoded with
+     * {@link #decodeTileSync(Rect, int)}. Only images without EXIF rotation are supported, so the
+     * tile coordinates match the raw image coordinates.
+     *
+     * This method should only be called off the main UI thread.
+     */
+    @WorkerThread
+    public boolean supportsTileDecoding() {
+        return getExifOrientation() == ExifInterface.ORIENTATION_NORMAL;
+    }
+
+    /**
+     * Synchronously decodes one tile of the asset at the given sample size, for tiled previews
+     * which only decode the regions that are visible at the current zoom. Several tiles can be
+     * decoded at the same time, each with its own decoder from the asset's pool.
+     *
+     * @param rect       Region of the tile in terms of the original image's resolution.
+     * @param sampleSize Subsampling factor, a power of 2.
+     * @return the decoded tile or null if there was an error decoding it.
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap decodeTileSync(Rect rect, int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        BitmapRegionDecoder decoder = mRegionDecoderPool.acquire();
+        if (decoder == null) {
+            return null;
+        }
+        try {
+            return decoder.decodeRegion(rect, options);
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory and unable to decode tile", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Illegal argument for decoding tile", e);
+        } finally {
+            mRegionDecoderPool.release(decoder);
+        }
+        return null;
+    }
+
+    /**
+     * Recycles the region decoders held by this asset, e.g. when the preview using it goes away.
+     * They are reopened if regions of this asset are decoded again.
+     */
+    public void releaseRegionDecoders() {
+        mRegionDecoderPool.close();
+    }
+
     /**
      * Decodes the raw dimensions of the asset without allocating memory for the entire asset. Adjusts
      * for the EXIF orientation if necessary.
@@ -288,24 +544,45 @@ public abstract class StreamableAsset extends Asset {
 
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        InputStream inputStream = openInputStream();
+        InputStream rawStream = openInputStream();
         // Input stream may be null if there was an error opening it.
-        if (inputStream == null) {
+        if (rawStream == null) {
             return null;
         }
-        BitmapFactory.decodeStream(inputStream, null, options);
-        closeInputStream(inputStream, "There was an error closing the input stream used to calculate "
-                + "the image's raw dimensions");
+        InputStream inputStream = new BufferedInputStream(rawStream);
+        try {
+            inputStream.mark(HEADER_MARK_LIMIT);
+            BitmapFactory.decodeStream(inputStream, null, options);
+            if (needsExifFromStream()) {
+                inputStream = rewind(inputStream);
+                if (inputStream != null) {
+                    readExifFromStream(inputStream);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read EXIF from the image stream", e);
+        } finally {
+            if (inputStream != null) {
+                closeInputStream(inputStream, "There was an error closing the input stream used "
+                        + "to calculate the image's raw dimensions");
+            }
+        }
+
+        return cacheRawDimensions(options);
+    }
 
+    /**
+     * Stores and returns the raw dimensions decoded into the given bounds-only options, swapping
+     * height and width if the image is rotated 90 or 270 degrees.
+     */
+    private Point cacheRawDimensions(BitmapFactory.Options boundsOptions) {
         int exifOrientation = getExifOrientation();
-        // Swap height and width if image is rotated 90 or 270 degrees.
         if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
                 || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-            mDimensions = new Point(options.outHeight, options.outWidth);
+            mDimensions = new Point(boundsOptions.outHeight, boundsOptions.outWidth);
         } else {
-            mDimensions = new Point(options.outWidth, options.outHeight);
+            mDimensions = new Point(boundsOptions.outWidth, boundsOptions.outHeight);
         }
-
         return mDimensions;
     }
 
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Size-bounded LRU disk cache of downscaled, compressed thumbnails decoded by
+ * {@link StreamableAsset}, so that thumbnails can be served from one small file read on later
+ * launches instead of decoding the full source image again. Keys have to change whenever the
+ * source image may have changed, e.g. by including the version of the package it comes from.
+ */
+public class ThumbnailDiskCache {
+    private static final String TAG = "ThumbnailDiskCache";
+    private static final String CACHE_DIR_NAME = "thumbnail_cache";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final long MAX_CACHE_SIZE_BYTES = 20 * 1024 * 1024; // 20MiB
+    private static final int COMPRESS_QUALITY = 90;
+
+    @Nullable
+    private static ThumbnailDiskCache sInstance;
+
+    @Nullable
+    private final Context mAppContext;
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+    private final Executor mWriteExecutor;
+    /** File name to file length, in access order (least recently used first). */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSizeBytes;
+    private boolean mInitialized;
+
+    /** Returns the process-wide instance, creating it in the app's cache directory if needed. */
+    public static synchronized ThumbnailDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new ThumbnailDiskCache(appContext,
+                    new File(appContext.getCacheDir(), CACHE_DIR_NAME), MAX_CACHE_SIZE_BYTES,
+                    DecodeScheduler.getInstance().asExecutor(DecodeScheduler.PRIORITY_PREFETCH));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the process-wide instance, or null if it hasn't been created yet. The application
+     * creates it on startup, so decodes without a context can use it.
+     */
+    @Nullable
+    public static synchronized ThumbnailDiskCache peekInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ThumbnailDiskCache(@Nullable Context appContext, File directory, long maxSizeBytes,
+            Executor writeExecutor) {
+        mAppContext = appContext;
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Returns a string identifying the installed version of the given package, to include in the
+     * keys of thumbnails decoded from its resources so they aren't served after it's updated, or
+     * null if it isn't installed.
+     */
+    @Nullable
+    public String getPackageVersion(String packageName) {
+        if (mAppContext == null) {
+            return null;
+        }
+        try {
+            PackageInfo packageInfo =
+                    mAppContext.getPackageManager().getPackageInfo(packageName, /* flags= */ 0);
+            return packageInfo.getLongVersionCode() + ":" + packageInfo.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail for the given key, or null if there is none.
+     *
+     * @param key                   Key identifying the asset, target size and orientation.
+     * @param hardwareBitmapAllowed if true, the thumbnail is decoded into a HARDWARE bitmap.
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap get(String key, boolean hardwareBitmapAllowed) {
+        String fileName = hashKey(key);
+        File file;
+        synchronized (this) {
+            ensureInitialized();
+            if (mEntries.get(fileName) == null) {
+                return null;
+            }
+            file = new File(mDirectory, fileName);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (hardwareBitmapAllowed) {
+            options.inPreferredConfig = Config.HARDWARE;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (bitmap == null) {
+            synchronized (this) {
+                removeEntry(fileName);
+            }
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /**
+     * Stores the given thumbnail under the given key in the background, at prefetch priority, so
+     * that compressing it doesn't delay delivering it. The bitmap must not be modified afterwards.
+     */
+    public void putAsync(String key, Bitmap bitmap) {
+        mWriteExecutor.execute(() -> put(key, bitmap));
+    }
+
+    /**
+     * Compresses the given thumbnail and stores it under the given key, evicting the least
+     * recently used entries if the cache grows over its size limit.
+     */
+    @WorkerThread
+    @VisibleForTesting
+    void put(String key, Bitmap bitmap) {
+        String fileName = hashKey(key);
+        synchronized (this) {
+            ensureInitialized();
+            if (mEntries.containsKey(fileName)) {
+                return;
+            }
+        }
+
+        File tmpFile = new File(mDirectory, fileName + TMP_SUFFIX);
+        try (FileOutputStream outputStream = new FileOutputStream(tmpFile)) {
+            if (!bitmap.compress(CompressFormat.WEBP_LOSSY, COMPRESS_QUALITY, outputStream)) {
+                tmpFile.delete();
+                return;
+            }
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "Unable to write thumbnail to disk cache", e);
+            tmpFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            File file = new File(mDirectory, fileName);
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                return;
+            }
+            Long previousLength = mEntries.put(fileName, file.length());
+            if (previousLength != null) {
+                mSizeBytes -= previousLength;
+            }
+            mSizeBytes += file.length();
+            trimToSize();
+        }
+    }
+
+    /** Deletes every cached thumbnail. */
+    public synchronized void clear() {
+        ensureInitialized();
+        for (String fileName : mEntries.keySet()) {
+            new File(mDirectory, fileName).delete();
+        }
+        mEntries.clear();
+        mSizeBytes = 0;
+    }
+
+    @VisibleForTesting
+    synchronized long getSizeBytes() {
+        ensureInitialized();
+        return mSizeBytes;
+    }
+
+    /**
+     * Lazily loads the existing entries from disk, oldest first, so the cache survives process
+     * restarts while keeping the first access off the constructor.
+     */
+    private void ensureInitialized() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create thumbnail cache directory");
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSizeBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSizeBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void removeEntry(String fileName) {
+        Long length = mEntries.remove(fileName);
+        if (length != null) {
+            mSizeBytes -= length;
+        }
+        new File(mDirectory, fileName).delete();
+    }
+
+    private static String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available on Android.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -24,7 +24,6 @@ import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.ParcelFileDescriptor;
@@ -87,20 +86,29 @@ public class MissingHashCodeGeneratorJobService extends JobService {
                 // Generate and set a home wallpaper hash code if there's no live wallpaper set
                 // and no hash code stored already for the home wallpaper.
                 if (!isLiveWallpaperSet && wallpaperPreferences.getHomeWallpaperHashCode() == 0) {
-                    wallpaperManager.forgetLoadedWallpaper();
+                    // Hash the wallpaper file without decoding all of it. There is no file for
+                    // the built-in default wallpaper, which is only available as a drawable.
+                    ParcelFileDescriptor homeFd = wallpaperManager.getWallpaperFile(
+                            WallpaperManager.FLAG_SYSTEM);
+                    long homeBitmapHash;
+                    if (homeFd != null) {
+                        homeBitmapHash = generateHashCode(homeFd);
+                    } else {
+                        wallpaperManager.forgetLoadedWallpaper();
+
+                        Drawable wallpaperDrawable = wallpaperManager.getDrawable();
+                        // No work to do if the drawable returned is null due to an underlying
+                        // platform issue -- being extra defensive with this check due to
+                        // instability and variability of underlying platform.
+                        if (wallpaperDrawable == null) {
+                            jobFinished(jobParameters, false /* needsReschedule */);
+                            return;
+                        }
 
-                    Drawable wallpaperDrawable = wallpaperManager.getDrawable();
-                    // No work to do if the drawable returned is null due to an underlying
-                    // platform issue -- being extra defensive with this check due to instability
-                    // and variability of underlying platform.
-                    if (wallpaperDrawable == null) {
-                        jobFinished(jobParameters, false /* needsReschedule */);
-                        return;
+                        Bitmap bitmap = ((BitmapDrawable) wallpaperDrawable).getBitmap();
+                        homeBitmapHash = BitmapUtils.generateHashCode(bitmap);
                     }
 
-                    Bitmap bitmap = ((BitmapDrawable) wallpaperDrawable).getBitmap();
-                    long homeBitmapHash = BitmapUtils.generateHashCode(bitmap);
-
                     wallpaperPreferences.setHomeWallpaperHashCode(homeBitmapHash);
                 }
 
@@ -121,30 +129,9 @@ public class MissingHashCodeGeneratorJobService extends JobService {
                     }
 
                     // Otherwise, generate and set the distinct lock wallpaper image's hash code.
-                    Bitmap lockBitmap = null;
-                    InputStream fileStream = null;
-                    try {
-                        fileStream = new FileInputStream(parcelFd.getFileDescriptor());
-                        lockBitmap = BitmapFactory.decodeStream(fileStream);
-                        parcelFd.close();
-                    } catch (IOException e) {
-                        Log.e(TAG, "IO exception when closing the file descriptor.", e);
-                    } finally {
-                        if (fileStream != null) {
-                            try {
-                                fileStream.close();
-                            } catch (IOException e) {
-                                Log.e(TAG,
-                                        "IO exception when closing input stream for lock screen "
-                                                + "wallpaper.",
-                                        e);
-                            }
-                        }
-                    }
-
-                    if (lockBitmap != null) {
-                        wallpaperPreferences.setLockWallpaperHashCode(
-                                BitmapUtils.generateHashCode(lockBitmap));
+                    long lockBitmapHash = generateHashCode(parcelFd);
+                    if (lockBitmapHash != 0) {
+                        wallpaperPreferences.setLockWallpaperHashCode(lockBitmapHash);
                     }
                     mWorkerThread = null;
 
@@ -159,6 +146,27 @@ public class MissingHashCodeGeneratorJobService extends JobService {
         return true;
     }
 
+    /**
+     * Generates the hash code of the wallpaper image in the given file, see
+     * {@link BitmapUtils#generateHashCode(InputStream)}, and closes the file.
+     *
+     * @return the hash code, or 0 if the image couldn't be read.
+     */
+    private static long generateHashCode(ParcelFileDescriptor parcelFd) {
+        try (InputStream fileStream = new FileInputStream(parcelFd.getFileDescriptor())) {
+            return BitmapUtils.generateHashCode(fileStream);
+        } catch (IOException e) {
+            Log.e(TAG, "IO exception when closing input stream for the wallpaper.", e);
+            return 0;
+        } finally {
+            try {
+                parcelFd.close();
+            } catch (IOException e) {
+                Log.e(TAG, "IO exception when closing the file descriptor.", e);
+            }
+        }
+    }
+
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
         // This job has no special execution parameters (i.e., network capability, device idle or
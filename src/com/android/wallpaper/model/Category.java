@@ -174,6 +174,16 @@ public abstract class Category {
      */
     public abstract Asset getThumbnail(Context context);
 
+    /**
+     * Returns the thumbnail Asset if it can be had without loading anything this category hasn't
+     * loaded yet, e.g. to prefetch it while the list of categories scrolls, or null otherwise.
+     * Cheap enough to call on the main thread.
+     */
+    @Nullable
+    public Asset getLoadedThumbnail(Context context) {
+        return null;
+    }
+
     /**
      * Returns whether this category allows the user to pick custom photos via Android's photo picker.
      */
@@ -27,6 +27,15 @@ public interface CategoryReceiver {
      */
     public void onCategoryReceived(Category category);
 
+    /**
+     * Called when a category which was received earlier in the same fetch turned out to no longer
+     * exist, e.g. because it was published from a stale snapshot.
+     *
+     * @param category The category to remove, the same instance that was received earlier.
+     */
+    default void onCategoryRemoved(Category category) {
+    }
+
     /**
      * Called once all categories have been fetched.
      */
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.model;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import com.android.wallpaper.asset.Asset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * {@link WallpaperCategory} which only creates its list of wallpapers the first time it is needed,
+ * e.g. when the category is opened, so categories the user never looks at don't hold on to
+ * their wallpapers. Showing the category in the list of categories, i.e. its thumbnail and
+ * whether it has a single wallpaper, doesn't create them.
+ */
+public class LazyWallpaperCategory extends WallpaperCategory {
+
+    private final int mWallpaperCount;
+    @Nullable
+    private final String mFeaturedWallpaperId;
+    // Guarded by mWallpapersLock.
+    @Nullable
+    private Supplier<List<WallpaperInfo>> mWallpapersLoader;
+    // Guarded by mWallpapersLock.
+    @Nullable
+    private Supplier<Asset> mFeaturedThumbnailLoader;
+    // Guarded by mWallpapersLock.
+    @Nullable
+    private Asset mFeaturedThumbAsset;
+    // Guarded by mWallpapersLock.
+    private int mFeaturedThumbnailIndex;
+
+    /**
+     * @param wallpaperCount          How many wallpapers the loader is expected to return.
+     * @param featuredWallpaperId     ID of the wallpaper whose thumbnail represents the category.
+     * @param featuredThumbnailIndex  Position of the featured wallpaper among the ones the loader
+     *                                is expected to return, until they are created.
+     * @param featuredThumbnailLoader Creates the thumbnail of the featured wallpaper without
+     *                                creating the others, or returns null if it can't.
+     * @param wallpapersLoader        Creates the wallpapers of the category, called at most once.
+     */
+    public LazyWallpaperCategory(String title, String collectionId, int wallpaperCount,
+            @Nullable String featuredWallpaperId, int featuredThumbnailIndex,
+            Supplier<Asset> featuredThumbnailLoader,
+            Supplier<List<WallpaperInfo>> wallpapersLoader, int priority) {
+        super(title, collectionId, new ArrayList<>(), priority);
+        mWallpaperCount = wallpaperCount;
+        mFeaturedWallpaperId = featuredWallpaperId;
+        mFeaturedThumbnailIndex = featuredThumbnailIndex;
+        mFeaturedThumbnailLoader = featuredThumbnailLoader;
+        mWallpapersLoader = wallpapersLoader;
+    }
+
+    /**
+     * @param thumbAsset       Thumbnail of the category.
+     * @param wallpaperCount   How many wallpapers the loader is expected to return.
+     * @param wallpapersLoader Creates the wallpapers of the category, called at most once.
+     */
+    public LazyWallpaperCategory(String title, String collectionId, Asset thumbAsset,
+            int wallpaperCount, Supplier<List<WallpaperInfo>> wallpapersLoader, int priority) {
+        super(title, collectionId, thumbAsset, new ArrayList<>(), priority);
+        mWallpaperCount = wallpaperCount;
+        mFeaturedWallpaperId = null;
+        mWallpapersLoader = wallpapersLoader;
+    }
+
+    /** Returns whether the wallpapers of this category have been created. */
+    public boolean isLoaded() {
+        synchronized (mWallpapersLock) {
+            return mWallpapersLoader == null;
+        }
+    }
+
+    @Override
+    public void fetchWallpapers(Context context, WallpaperReceiver receiver, boolean forceReload) {
+        loadWallpapers();
+        super.fetchWallpapers(context, receiver, forceReload);
+    }
+
+    @Override
+    public List<WallpaperInfo> getWallpapers() {
+        loadWallpapers();
+        return super.getWallpapers();
+    }
+
+    @Override
+    public List<WallpaperInfo> getUnmodifiableWallpapers() {
+        loadWallpapers();
+        return super.getUnmodifiableWallpapers();
+    }
+
+    @Override
+    protected List<WallpaperInfo> getMutableWallpapers() {
+        loadWallpapers();
+        return super.getMutableWallpapers();
+    }
+
+    @Override
+    public int getFeaturedThumbnailIndex() {
+        synchronized (mWallpapersLock) {
+            return mFeaturedThumbnailIndex;
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getFeaturedWallpaperId() {
+        synchronized (mWallpapersLock) {
+            if (mWallpapersLoader != null) {
+                return mFeaturedWallpaperId;
+            }
+        }
+        return super.getFeaturedWallpaperId();
+    }
+
+    @Override
+    public Asset getThumbnail(Context context) {
+        Asset thumbAsset = getFixedThumbAsset();
+        if (thumbAsset != null) {
+            return thumbAsset;
+        }
+        synchronized (mWallpapersLock) {
+            if (mFeaturedThumbnailLoader != null) {
+                mFeaturedThumbAsset = mFeaturedThumbnailLoader.get();
+                mFeaturedThumbnailLoader = null;
+            }
+            if (mFeaturedThumbAsset != null) {
+                return mFeaturedThumbAsset;
+            }
+        }
+        // The featured wallpaper couldn't be created on its own, e.g. a live wallpaper which is
+        // no longer installed, so fall back to the first wallpaper which can.
+        List<WallpaperInfo> wallpapers = getUnmodifiableWallpapers();
+        return wallpapers.isEmpty()
+                ? null : wallpapers.get(getFeaturedThumbnailIndex()).getThumbAsset(context);
+    }
+
+    @Nullable
+    @Override
+    public Asset getLoadedThumbnail(Context context) {
+        if (getFixedThumbAsset() != null) {
+            return getFixedThumbAsset();
+        }
+        synchronized (mWallpapersLock) {
+            if (mFeaturedThumbnailLoader != null
+                    || (mFeaturedThumbAsset == null && mWallpapersLoader != null)) {
+                return null;
+            }
+        }
+        return getThumbnail(context);
+    }
+
+    @Override
+    public boolean isSingleWallpaperCategory() {
+        synchronized (mWallpapersLock) {
+            if (mWallpapersLoader != null) {
+                return mWallpaperCount == 1;
+            }
+        }
+        return super.isSingleWallpaperCategory();
+    }
+
+    @Nullable
+    @Override
+    public WallpaperInfo getSingleWallpaper() {
+        if (!isSingleWallpaperCategory()) {
+            return null;
+        }
+        List<WallpaperInfo> wallpapers = getUnmodifiableWallpapers();
+        return wallpapers.size() == 1 ? wallpapers.get(0) : null;
+    }
+
+    private void loadWallpapers() {
+        synchronized (mWallpapersLock) {
+            if (mWallpapersLoader == null) {
+                return;
+            }
+            List<WallpaperInfo> wallpapers = mWallpapersLoader.get();
+            mWallpapersLoader = null;
+            super.getMutableWallpapers().addAll(wallpapers);
+            mFeaturedThumbnailIndex = 0;
+            // Wallpapers which can't be created any more are left out, so look the featured one
+            // up by ID rather than by its position in the index.
+            for (int i = 0; i < wallpapers.size(); i++) {
+                if (wallpapers.get(i).getWallpaperId().equals(mFeaturedWallpaperId)) {
+                    mFeaturedThumbnailIndex = i;
+                    break;
+                }
+            }
+        }
+    }
+}
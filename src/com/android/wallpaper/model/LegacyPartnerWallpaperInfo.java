@@ -68,6 +68,14 @@ public class LegacyPartnerWallpaperInfo extends WallpaperInfo {
         mFullName = in.readString();
     }
 
+    public String getThumbName() {
+        return mThumbName;
+    }
+
+    public String getFullName() {
+        return mFullName;
+    }
+
     /**
      * @param ctx
      * @return All legacy partner wallpapers found on the device.
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.model;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.wallpaper.WallpaperService;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.module.PackageStatusNotifier;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the live wallpaper services installed on the device. Each service is parsed into
+ * an {@link android.app.WallpaperInfo} once per version of its package, and the label it is
+ * sorted by is only loaded and turned into a collation key once. After the first enumeration only
+ * the packages reported by {@link PackageStatusNotifier} are queried again.
+ */
+public class LiveWallpaperEnumerator {
+
+    private static final String TAG = "LiveWallpaperEnumerator";
+
+    @Nullable
+    private static LiveWallpaperEnumerator sInstance;
+
+    private final Context mAppContext;
+    private final Object mLock = new Object();
+
+    // Installed packages with live wallpapers, in the order the package manager first listed them.
+    // Null until the first enumeration.
+    @GuardedBy("mLock")
+    @Nullable
+    private Map<String, PackageEntry> mPackages;
+    // Packages which were added, changed or removed since the last enumeration.
+    @GuardedBy("mLock")
+    private final Set<String> mChangedPackages = new HashSet<>();
+    // Whether all packages have to be queried again, as they may have changed without this
+    // enumerator being notified.
+    @GuardedBy("mLock")
+    private boolean mNeedsFullUpdate;
+    @GuardedBy("mLock")
+    @Nullable
+    private Locale mLocale;
+
+    /** Returns the process-wide enumerator. */
+    public static synchronized LiveWallpaperEnumerator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LiveWallpaperEnumerator(context);
+        }
+        return sInstance;
+    }
+
+    private LiveWallpaperEnumerator(Context context) {
+        this(context, InjectorProvider.getInjector().getPackageStatusNotifier(
+                context.getApplicationContext()));
+    }
+
+    @VisibleForTesting
+    LiveWallpaperEnumerator(Context context, PackageStatusNotifier packageStatusNotifier) {
+        mAppContext = context.getApplicationContext();
+        // PackageStatusNotifier has to be used on the main thread.
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            packageStatusNotifier.addListener(this::onPackageChanged,
+                    WallpaperService.SERVICE_INTERFACE);
+            return;
+        }
+        new Handler(Looper.getMainLooper()).post(() -> {
+            packageStatusNotifier.addListener(this::onPackageChanged,
+                    WallpaperService.SERVICE_INTERFACE);
+            // Packages which changed between an enumeration and now weren't reported.
+            synchronized (mLock) {
+                mNeedsFullUpdate = true;
+            }
+        });
+    }
+
+    /**
+     * Returns all live wallpaper services installed on the device, except those of this app.
+     * System wallpapers are listed first, unsorted, with other installed wallpapers following
+     * sorted in alphabetical order. Queries the package manager, so it shouldn't be called on the
+     * main thread.
+     */
+    public List<android.app.WallpaperInfo> getAll() {
+        synchronized (mLock) {
+            update();
+            List<android.app.WallpaperInfo> wallpapers = new ArrayList<>();
+            List<ServiceEntry> nonSystemServices = new ArrayList<>();
+            for (PackageEntry packageEntry : mPackages.values()) {
+                if (packageEntry.mIsSystem) {
+                    for (ServiceEntry service : packageEntry.mServices) {
+                        wallpapers.add(service.mInfo);
+                    }
+                } else {
+                    nonSystemServices.addAll(packageEntry.mServices);
+                }
+            }
+            nonSystemServices.sort((service1, service2) ->
+                    service1.mSortKey.compareTo(service2.mSortKey));
+            for (ServiceEntry service : nonSystemServices) {
+                wallpapers.add(service.mInfo);
+            }
+            return wallpapers;
+        }
+    }
+
+    /**
+     * Marks the given package to be queried again on the next enumeration, whatever the event,
+     * so a changed package whose services no longer match loses its entries.
+     */
+    private void onPackageChanged(String packageName,
+            @PackageStatusNotifier.PackageStatus int status) {
+        synchronized (mLock) {
+            mChangedPackages.add(packageName);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void update() {
+        Locale locale = mAppContext.getResources().getConfiguration().getLocales().get(0);
+        if (mPackages == null || mNeedsFullUpdate) {
+            if (mPackages == null) {
+                mPackages = new LinkedHashMap<>();
+                mLocale = locale;
+            }
+            mChangedPackages.clear();
+            mNeedsFullUpdate = false;
+            updatePackages(/* packageName= */ null, new Intent(WallpaperService.SERVICE_INTERFACE));
+        } else if (!mChangedPackages.isEmpty()) {
+            for (String packageName : mChangedPackages) {
+                updatePackages(packageName,
+                        new Intent(WallpaperService.SERVICE_INTERFACE).setPackage(packageName));
+            }
+            mChangedPackages.clear();
+        }
+
+        if (!locale.equals(mLocale)) {
+            // Labels are localized, and so is their order.
+            Collator collator = Collator.getInstance();
+            PackageManager pm = mAppContext.getPackageManager();
+            for (PackageEntry packageEntry : mPackages.values()) {
+                for (ServiceEntry service : packageEntry.mServices) {
+                    service.updateSortKey(pm, collator);
+                }
+            }
+            mLocale = locale;
+        }
+    }
+
+    /**
+     * Queries the live wallpaper services matching the given intent and updates the entries of
+     * their packages. If a package name is given, the entry of that package is removed when it
+     * doesn't have any live wallpaper any more, otherwise the entries of all packages which don't
+     * have any are.
+     */
+    @GuardedBy("mLock")
+    private void updatePackages(@Nullable String packageName, Intent intent) {
+        PackageManager pm = mAppContext.getPackageManager();
+        List<ResolveInfo> resolveInfos = pm.queryIntentServices(intent,
+                PackageManager.GET_META_DATA);
+
+        Map<String, List<ResolveInfo>> resolveInfosByPackage = new LinkedHashMap<>();
+        for (ResolveInfo resolveInfo : resolveInfos) {
+            String servicePackageName = resolveInfo.serviceInfo.packageName;
+            // Leave out the "Rotating Image Wallpaper" live wallpaper, owned by this package.
+            if (!mAppContext.getPackageName().equals(servicePackageName)) {
+                resolveInfosByPackage.computeIfAbsent(servicePackageName,
+                        unused -> new ArrayList<>()).add(resolveInfo);
+            }
+        }
+        if (packageName == null) {
+            mPackages.keySet().retainAll(resolveInfosByPackage.keySet());
+        } else if (!resolveInfosByPackage.containsKey(packageName)) {
+            mPackages.remove(packageName);
+        }
+
+        Collator collator = Collator.getInstance();
+        for (Map.Entry<String, List<ResolveInfo>> entry : resolveInfosByPackage.entrySet()) {
+            PackageEntry packageEntry = createPackageEntry(pm, entry.getKey(), entry.getValue(),
+                    mPackages.get(entry.getKey()), collator);
+            if (packageEntry != null) {
+                mPackages.put(entry.getKey(), packageEntry);
+            } else {
+                mPackages.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Creates the entry of a package from its live wallpaper services, reusing the parsed services
+     * of the previous entry if the package wasn't updated since.
+     */
+    @Nullable
+    private PackageEntry createPackageEntry(PackageManager pm, String packageName,
+            List<ResolveInfo> resolveInfos, @Nullable PackageEntry oldEntry, Collator collator) {
+        PackageInfo packageInfo;
+        try {
+            packageInfo = pm.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        long versionCode = packageInfo.getLongVersionCode();
+        Map<String, ServiceEntry> oldServices = new HashMap<>();
+        if (oldEntry != null && oldEntry.mVersionCode == versionCode
+                && oldEntry.mLastUpdateTime == packageInfo.lastUpdateTime) {
+            for (ServiceEntry service : oldEntry.mServices) {
+                oldServices.put(service.mInfo.getServiceName(), service);
+            }
+        }
+
+        List<ServiceEntry> services = new ArrayList<>();
+        for (ResolveInfo resolveInfo : resolveInfos) {
+            ServiceEntry service = oldServices.get(resolveInfo.serviceInfo.name);
+            if (service == null) {
+                try {
+                    service = new ServiceEntry(
+                            new android.app.WallpaperInfo(mAppContext, resolveInfo));
+                } catch (XmlPullParserException | IOException e) {
+                    Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
+                    continue;
+                }
+                service.updateSortKey(pm, collator);
+            }
+            services.add(service);
+        }
+        if (services.isEmpty()) {
+            return null;
+        }
+        return new PackageEntry(versionCode, packageInfo.lastUpdateTime,
+                LiveWallpaperInfo.isSystemApp(resolveInfos.get(0).serviceInfo.applicationInfo),
+                services);
+    }
+
+    private static class PackageEntry {
+        final long mVersionCode;
+        final long mLastUpdateTime;
+        final boolean mIsSystem;
+        final List<ServiceEntry> mServices;
+
+        PackageEntry(long versionCode, long lastUpdateTime, boolean isSystem,
+                List<ServiceEntry> services) {
+            mVersionCode = versionCode;
+            mLastUpdateTime = lastUpdateTime;
+            mIsSystem = isSystem;
+            mServices = services;
+        }
+    }
+
+    private static class ServiceEntry {
+        final android.app.WallpaperInfo mInfo;
+        CollationKey mSortKey;
+
+        ServiceEntry(android.app.WallpaperInfo info) {
+            mInfo = info;
+        }
+
+        void updateSortKey(PackageManager pm, Collator collator) {
+            CharSequence label = mInfo.loadLabel(pm);
+            mSortKey = collator.getCollationKey(label == null ? "" : label.toString());
+        }
+    }
+}
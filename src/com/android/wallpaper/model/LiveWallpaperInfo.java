@@ -42,12 +42,8 @@ import com.android.wallpaper.util.ActivityUtils;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -194,20 +190,12 @@ public class LiveWallpaperInfo extends WallpaperInfo {
      */
     public static List<WallpaperInfo> getAll(Context context,
                                              @Nullable Set<String> excludedPackageNames) {
-        List<ResolveInfo> resolveInfos = getAllOnDevice(context);
+        List<android.app.WallpaperInfo> allWallpaperInfos =
+                LiveWallpaperEnumerator.getInstance(context).getAll();
         List<WallpaperInfo> wallpaperInfos = new ArrayList<>();
         LiveWallpaperInfoFactory factory =
                 InjectorProvider.getInjector().getLiveWallpaperInfoFactory(context);
-        for (int i = 0; i < resolveInfos.size(); i++) {
-            ResolveInfo resolveInfo = resolveInfos.get(i);
-            android.app.WallpaperInfo wallpaperInfo;
-            try {
-                wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfo);
-            } catch (XmlPullParserException | IOException e) {
-                Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
-                continue;
-            }
-
+        for (android.app.WallpaperInfo wallpaperInfo : allWallpaperInfos) {
             if (excludedPackageNames != null && excludedPackageNames.contains(
                     wallpaperInfo.getPackageName())) {
                 continue;
@@ -226,16 +214,21 @@ public class LiveWallpaperInfo extends WallpaperInfo {
     public static List<WallpaperInfo> getFromSpecifiedPackage(
             Context context, String packageName, @Nullable List<String> serviceNames,
             boolean shouldShowTitle, String collectionId) {
-        List<ResolveInfo> resolveInfos;
-        if (serviceNames != null) {
-            resolveInfos = getAllContainingServiceNames(context, serviceNames);
-        } else {
-            resolveInfos = getAllOnDevice(context);
-        }
         List<WallpaperInfo> wallpaperInfos = new ArrayList<>();
         LiveWallpaperInfoFactory factory =
                 InjectorProvider.getInjector().getLiveWallpaperInfoFactory(context);
+        if (serviceNames == null) {
+            for (android.app.WallpaperInfo wallpaperInfo
+                    : LiveWallpaperEnumerator.getInstance(context).getAll()) {
+                if (packageName.equals(wallpaperInfo.getPackageName())) {
+                    wallpaperInfos.add(factory.getLiveWallpaperInfo(wallpaperInfo,
+                            shouldShowTitle, collectionId));
+                }
+            }
+            return wallpaperInfos;
+        }
 
+        List<ResolveInfo> resolveInfos = getAllContainingServiceNames(context, serviceNames);
         for (int i = 0; i < resolveInfos.size(); i++) {
             ResolveInfo resolveInfo = resolveInfos.get(i);
             if (resolveInfo == null) {
@@ -291,52 +284,6 @@ public class LiveWallpaperInfo extends WallpaperInfo {
         return Arrays.asList(specifiedResolveInfos);
     }
 
-    /**
-     * Returns ResolveInfo objects for all live wallpaper services installed on the device. System
-     * wallpapers are listed first, unsorted, with other installed wallpapers following sorted
-     * in alphabetical order.
-     */
-    private static List<ResolveInfo> getAllOnDevice(Context context) {
-        final PackageManager pm = context.getPackageManager();
-        final String packageName = context.getPackageName();
-
-        List<ResolveInfo> resolveInfos = pm.queryIntentServices(
-                new Intent(WallpaperService.SERVICE_INTERFACE),
-                PackageManager.GET_META_DATA);
-
-        List<ResolveInfo> wallpaperInfos = new ArrayList<>();
-
-        // Remove the "Rotating Image Wallpaper" live wallpaper, which is owned by this package,
-        // and separate system wallpapers to sort only non-system ones.
-        Iterator<ResolveInfo> iter = resolveInfos.iterator();
-        while (iter.hasNext()) {
-            ResolveInfo resolveInfo = iter.next();
-            if (packageName.equals(resolveInfo.serviceInfo.packageName)) {
-                iter.remove();
-            } else if (isSystemApp(resolveInfo.serviceInfo.applicationInfo)) {
-                wallpaperInfos.add(resolveInfo);
-                iter.remove();
-            }
-        }
-
-        if (resolveInfos.isEmpty()) {
-            return wallpaperInfos;
-        }
-
-        // Sort non-system wallpapers alphabetically and append them to system ones
-        Collections.sort(resolveInfos, new Comparator<ResolveInfo>() {
-            final Collator mCollator = Collator.getInstance();
-
-            @Override
-            public int compare(ResolveInfo info1, ResolveInfo info2) {
-                return mCollator.compare(info1.loadLabel(pm), info2.loadLabel(pm));
-            }
-        });
-        wallpaperInfos.addAll(resolveInfos);
-
-        return wallpaperInfos;
-    }
-
     /**
      * @return whether the given app is a system app
      */
@@ -65,6 +65,14 @@ public class PartnerWallpaperInfo extends DefaultWallpaperInfo {
         mFullRes = in.readInt();
     }
 
+    public int getThumbRes() {
+        return mThumbRes;
+    }
+
+    public int getFullRes() {
+        return mFullRes;
+    }
+
     /**
      * @param ctx
      * @return All partner wallpapers found on the device.
@@ -277,6 +277,38 @@ public class SystemStaticWallpaperInfo extends WallpaperInfo {
         return mWallpaperId;
     }
 
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    public int getDrawableResId() {
+        return mDrawableResId;
+    }
+
+    public int getTitleResId() {
+        return mTitleResId;
+    }
+
+    public int getSubtitle1ResId() {
+        return mSubtitle1ResId;
+    }
+
+    public int getSubtitle2ResId() {
+        return mSubtitle2ResId;
+    }
+
+    public int getActionTypeResId() {
+        return mActionTypeResId;
+    }
+
+    public int getActionUrlResId() {
+        return mActionUrlResId;
+    }
+
+    public int getThumbnailResId() {
+        return mThumbnailResId;
+    }
+
     private int getActionType(Context context) {
         if (mActionType == 0 && mActionTypeResId != 0) {
             mActionType = getPackageResources(context).getInteger(mActionTypeResId);
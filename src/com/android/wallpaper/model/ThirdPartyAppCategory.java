@@ -38,10 +38,16 @@ public class ThirdPartyAppCategory extends Category {
 
     public ThirdPartyAppCategory(Context context, ResolveInfo resolveInfo, String collectionId,
                                  int priority) {
-        super(
-                resolveInfo.loadLabel(context.getPackageManager()).toString() /* title */,
-                collectionId,
-                priority);
+        this(resolveInfo.loadLabel(context.getPackageManager()).toString(), resolveInfo,
+                collectionId, priority);
+    }
+
+    /**
+     * Constructs a category with an already loaded title, e.g. when restoring it from a snapshot.
+     */
+    public ThirdPartyAppCategory(String title, ResolveInfo resolveInfo, String collectionId,
+            int priority) {
+        super(title, collectionId, priority);
         mResolveInfo = resolveInfo;
     }
 
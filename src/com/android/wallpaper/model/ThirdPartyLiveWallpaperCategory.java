@@ -51,6 +51,12 @@ public class ThirdPartyLiveWallpaperCategory extends WallpaperCategory {
         mExcludedPackages = excludedLiveWallpaperPackageNames;
     }
 
+    /** Returns the packages whose live wallpapers are left out of this category. */
+    @Nullable
+    public Set<String> getExcludedPackages() {
+        return mExcludedPackages;
+    }
+
     @Override
     public void fetchWallpapers(Context context, WallpaperReceiver receiver, boolean forceReload) {
         if (forceReload) {
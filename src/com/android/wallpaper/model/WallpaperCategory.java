@@ -41,6 +41,8 @@ public class WallpaperCategory extends Category {
     protected final Object mWallpapersLock;
     private final List<WallpaperInfo> mWallpapers;
     private Asset mThumbAsset;
+    @Nullable
+    private final Asset mFixedThumbAsset;
     private int mFeaturedThumbnailIndex;
 
     public WallpaperCategory(String title, String collectionId, List<WallpaperInfo> wallpapers,
@@ -64,6 +66,7 @@ public class WallpaperCategory extends Category {
         super(title, collectionId, priority, isDownloadable, downloadComponent);
         mWallpapers = wallpapers;
         mWallpapersLock = new Object();
+        mFixedThumbAsset = null;
         mFeaturedThumbnailIndex = featuredThumbnailIndex;
     }
 
@@ -73,6 +76,7 @@ public class WallpaperCategory extends Category {
         mWallpapers = wallpapers;
         mWallpapersLock = new Object();
         mThumbAsset = thumbAsset;
+        mFixedThumbAsset = thumbAsset;
     }
 
     /**
@@ -97,9 +101,41 @@ public class WallpaperCategory extends Category {
         return mThumbAsset;
     }
 
+    @Nullable
+    @Override
+    public Asset getLoadedThumbnail(Context context) {
+        // The wallpapers are in memory, and creating the thumbnail of one doesn't load it.
+        return getThumbnail(context);
+    }
+
+    /**
+     * Returns the thumbnail this category was created with, or null if the thumbnail is taken from
+     * the featured wallpaper.
+     */
+    @Nullable
+    public Asset getFixedThumbAsset() {
+        return mFixedThumbAsset;
+    }
+
     public int getFeaturedThumbnailIndex() {
         return mFeaturedThumbnailIndex;
     }
+
+    /**
+     * Returns the ID of the wallpaper whose thumbnail represents this category, or null if the
+     * category has a fixed thumbnail, no wallpapers or a featured wallpaper without an ID. Unlike
+     * {@link #getThumbnail(Context)}, this doesn't create the thumbnail.
+     */
+    @Nullable
+    public String getFeaturedWallpaperId() {
+        synchronized (mWallpapersLock) {
+            if (mFixedThumbAsset != null || mFeaturedThumbnailIndex >= mWallpapers.size()) {
+                return null;
+            }
+            return mWallpapers.get(mFeaturedThumbnailIndex).getWallpaperId();
+        }
+    }
+
     @Override
     public boolean isEnumerable() {
         return true;
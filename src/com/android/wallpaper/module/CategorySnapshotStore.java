@@ -0,0 +1,602 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.os.Build;
+import android.service.wallpaper.WallpaperService;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.wallpaper.asset.Asset;
+import com.android.wallpaper.asset.ResourceAsset;
+import com.android.wallpaper.model.Category;
+import com.android.wallpaper.model.DefaultWallpaperInfo;
+import com.android.wallpaper.model.LegacyPartnerWallpaperInfo;
+import com.android.wallpaper.model.LiveWallpaperEnumerator;
+import com.android.wallpaper.model.LiveWallpaperInfo;
+import com.android.wallpaper.model.PartnerWallpaperInfo;
+import com.android.wallpaper.model.SystemStaticWallpaperInfo;
+import com.android.wallpaper.model.ThirdPartyAppCategory;
+import com.android.wallpaper.model.ThirdPartyLiveWallpaperCategory;
+import com.android.wallpaper.model.WallpaperCategory;
+import com.android.wallpaper.model.WallpaperInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Stores the last resolved list of categories, including the metadata of their wallpapers, on
+ * disk so the picker can show them right away on the next launch while the categories are fetched
+ * again in the background.
+ *
+ * <p>A snapshot is only valid for the version key it was written with, see
+ * {@link #computeVersionKey(PartnerProvider)}. Only the category types created by
+ * {@link DefaultCategoryProvider} can be stored; see {@link #toEntry(Category)}. Categories are
+ * written field by field, and live wallpapers and third party apps by component, so a snapshot
+ * doesn't depend on the parcel layout of any platform class.
+ *
+ * <p>Restoring a category which holds live wallpapers or stands for a third party app needs the
+ * package manager, so {@link #read} leaves those for {@link #resolve} to create once the other
+ * categories can be shown.
+ */
+public class CategorySnapshotStore {
+
+    private static final String TAG = "CategorySnapshotStore";
+    private static final String FILE_NAME = "category_snapshot";
+
+    // Bump whenever the layout of the snapshot or of a stored category changes.
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int TYPE_WALLPAPER = 1;
+    private static final int TYPE_THIRD_PARTY_LIVE = 2;
+    private static final int TYPE_THIRD_PARTY_APP = 3;
+
+    private static final int WALLPAPER_TYPE_DEFAULT = 1;
+    private static final int WALLPAPER_TYPE_PARTNER = 2;
+    private static final int WALLPAPER_TYPE_LEGACY_PARTNER = 3;
+    private static final int WALLPAPER_TYPE_SYSTEM_STATIC = 4;
+    private static final int WALLPAPER_TYPE_LIVE = 5;
+
+    private static final Object sFileLock = new Object();
+
+    private final Context mAppContext;
+    private final AtomicFile mFile;
+    // Lists the installed live wallpapers, shared with the live wallpapers category so each one
+    // is only parsed once.
+    private final Supplier<List<android.app.WallpaperInfo>> mLiveWallpapersSupplier;
+
+    public CategorySnapshotStore(Context context) {
+        this(context, new File(context.getCacheDir(), FILE_NAME),
+                () -> LiveWallpaperEnumerator.getInstance(context).getAll());
+    }
+
+    @VisibleForTesting
+    CategorySnapshotStore(Context context, File file,
+            Supplier<List<android.app.WallpaperInfo>> liveWallpapersSupplier) {
+        mAppContext = context.getApplicationContext();
+        mFile = new AtomicFile(file);
+        mLiveWallpapersSupplier = liveWallpapersSupplier;
+    }
+
+    /**
+     * A category together with the bytes it is stored as. Two entries with the same bytes
+     * describe the same category.
+     */
+    public static final class Entry {
+        public final String collectionId;
+        public final byte[] data;
+        @Nullable
+        private volatile Category mCategory;
+
+        Entry(String collectionId, byte[] data, @Nullable Category category) {
+            this.collectionId = collectionId;
+            this.data = data;
+            mCategory = category;
+        }
+
+        /**
+         * Returns the category, or null if it is yet to be created by {@link #resolve} or
+         * couldn't be.
+         */
+        @Nullable
+        public Category getCategory() {
+            return mCategory;
+        }
+    }
+
+    /**
+     * Returns a key which changes whenever the stored categories may be out of date: when this
+     * app, the system, the partner customization package or any package providing wallpapers is
+     * installed, removed or updated, or when the locale changes. Queries the package manager, so
+     * it shouldn't be called on the main thread.
+     */
+    public String computeVersionKey(PartnerProvider partnerProvider) {
+        PackageManager packageManager = mAppContext.getPackageManager();
+        Set<String> packageNames = new TreeSet<>();
+        packageNames.add(mAppContext.getPackageName());
+        addPackageNames(packageNames, packageManager.queryIntentServices(
+                new Intent(WallpaperService.SERVICE_INTERFACE), PackageManager.GET_META_DATA));
+        addPackageNames(packageNames, packageManager.queryIntentActivities(
+                new Intent(Intent.ACTION_SET_WALLPAPER), 0));
+        // Image pickers are left out of the third party apps.
+        addPackageNames(packageNames, packageManager.queryIntentActivities(
+                new Intent(Intent.ACTION_GET_CONTENT).setType("image/*"), 0));
+
+        StringBuilder packageStates = new StringBuilder();
+        for (String packageName : packageNames) {
+            packageStates.append(getPackageState(packageManager, packageName)).append(';');
+        }
+
+        String partnerPackageName = partnerProvider.getPackageName();
+        return FORMAT_VERSION
+                + "|" + Build.FINGERPRINT
+                + "|" + (partnerPackageName == null
+                        ? "" : getPackageState(packageManager, partnerPackageName))
+                + "|" + mAppContext.getResources().getConfiguration().getLocales().toLanguageTags()
+                + "|" + sha256(packageStates.toString());
+    }
+
+    /**
+     * Returns the stored categories in the order they were written, or null if there is no
+     * snapshot for the given version key. The categories which need the package manager are left
+     * for {@link #resolve}. Reads the snapshot file, so this shouldn't be called on the main
+     * thread.
+     *
+     * @param versionKey The current key from {@link #computeVersionKey(PartnerProvider)}.
+     * @param partnerRes The partner resources, used to restore partner category thumbnails.
+     */
+    @Nullable
+    public List<Entry> read(String versionKey, @Nullable Resources partnerRes) {
+        List<byte[]> entriesData = new ArrayList<>();
+        synchronized (sFileLock) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(mFile.openRead()))) {
+                if (input.readInt() != FORMAT_VERSION || !versionKey.equals(input.readUTF())) {
+                    return null;
+                }
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] data = new byte[input.readInt()];
+                    input.readFully(data);
+                    entriesData.add(data);
+                }
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (IOException | RuntimeException e) {
+                // The snapshot is only a cache, drop it if it can't be read.
+                Log.w(TAG, "Couldn't read the category snapshot", e);
+                mFile.delete();
+                return null;
+            }
+        }
+
+        try {
+            List<Entry> entries = new ArrayList<>(entriesData.size());
+            for (byte[] data : entriesData) {
+                entries.add(new Entry(readCollectionId(data), data,
+                        readCategory(data, partnerRes, /* resolver= */ null)));
+            }
+            return entries;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Couldn't restore the category snapshot", e);
+            clear();
+            return null;
+        }
+    }
+
+    /**
+     * Creates the categories of the given entries which {@link #read} left out since they need
+     * the package manager, and returns them. An entry whose live wallpapers or app are gone is
+     * left without a category. Queries the package manager, so this shouldn't be called on the
+     * main thread.
+     */
+    public List<Category> resolve(List<Entry> entries, @Nullable Resources partnerRes) {
+        PackageResolver resolver = new PackageResolver();
+        List<Category> categories = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.mCategory != null) {
+                continue;
+            }
+            try {
+                entry.mCategory = readCategory(entry.data, partnerRes, resolver);
+                categories.add(entry.mCategory);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Couldn't restore category " + entry.collectionId, e);
+            }
+        }
+        return categories;
+    }
+
+    /** Replaces the snapshot with the given entries. */
+    public void write(String versionKey, List<Entry> entries) {
+        synchronized (sFileLock) {
+            FileOutputStream outputStream = null;
+            try {
+                outputStream = mFile.startWrite();
+                DataOutputStream output = new DataOutputStream(
+                        new BufferedOutputStream(outputStream));
+                output.writeInt(FORMAT_VERSION);
+                output.writeUTF(versionKey);
+                output.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    output.writeInt(entry.data.length);
+                    output.write(entry.data);
+                }
+                output.flush();
+                mFile.finishWrite(outputStream);
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't write the category snapshot", e);
+                if (outputStream != null) {
+                    mFile.failWrite(outputStream);
+                }
+            }
+        }
+    }
+
+    /** Deletes the snapshot. */
+    public void clear() {
+        synchronized (sFileLock) {
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Returns the entry the given category is stored as, or null if categories of its type, or
+     * any of its wallpapers, can't be stored.
+     */
+    @Nullable
+    public Entry toEntry(Category category) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            if (category.getClass() == WallpaperCategory.class) {
+                WallpaperCategory wallpaperCategory = (WallpaperCategory) category;
+                int thumbResId = getFixedThumbResId(wallpaperCategory);
+                if (thumbResId < 0) {
+                    return null;
+                }
+                output.writeInt(TYPE_WALLPAPER);
+                writeCommonFields(output, category);
+                output.writeInt(thumbResId);
+                if (!writeWallpapers(output, wallpaperCategory)) {
+                    return null;
+                }
+            } else if (category.getClass() == ThirdPartyLiveWallpaperCategory.class) {
+                ThirdPartyLiveWallpaperCategory liveCategory =
+                        (ThirdPartyLiveWallpaperCategory) category;
+                output.writeInt(TYPE_THIRD_PARTY_LIVE);
+                writeCommonFields(output, category);
+                if (!writeWallpapers(output, liveCategory)) {
+                    return null;
+                }
+                Set<String> excludedPackages = liveCategory.getExcludedPackages();
+                output.writeBoolean(excludedPackages != null);
+                if (excludedPackages != null) {
+                    output.writeInt(excludedPackages.size());
+                    for (String packageName : new TreeSet<>(excludedPackages)) {
+                        output.writeUTF(packageName);
+                    }
+                }
+            } else if (category.getClass() == ThirdPartyAppCategory.class) {
+                ActivityInfo activityInfo =
+                        ((ThirdPartyAppCategory) category).getResolveInfo().activityInfo;
+                output.writeInt(TYPE_THIRD_PARTY_APP);
+                writeCommonFields(output, category);
+                output.writeUTF(activityInfo.packageName);
+                output.writeUTF(activityInfo.name);
+            } else {
+                return null;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't store category " + category.getCollectionId(), e);
+            return null;
+        }
+        return new Entry(category.getCollectionId(), bytes.toByteArray(), category);
+    }
+
+    private static String readCollectionId(byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        input.readInt(); // type
+        readNullableUTF(input); // title
+        return input.readUTF();
+    }
+
+    /**
+     * Creates the category stored as the given bytes. Returns null if no resolver is given and
+     * the category needs the package manager.
+     */
+    @Nullable
+    private Category readCategory(byte[] data, @Nullable Resources partnerRes,
+            @Nullable PackageResolver resolver) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        int type = input.readInt();
+        String title = readNullableUTF(input);
+        String collectionId = input.readUTF();
+        int priority = input.readInt();
+        boolean isDownloadable = input.readBoolean();
+        String downloadComponent = readNullableUTF(input);
+        switch (type) {
+            case TYPE_WALLPAPER: {
+                int thumbResId = input.readInt();
+                int featuredThumbnailIndex = input.readInt();
+                List<WallpaperInfo> wallpapers = readWallpapers(input, resolver);
+                if (wallpapers == null) {
+                    return null;
+                }
+                if (thumbResId == 0) {
+                    return new WallpaperCategory(title, collectionId, featuredThumbnailIndex,
+                            wallpapers, priority, isDownloadable, downloadComponent);
+                }
+                if (partnerRes == null) {
+                    throw new IOException("Partner resources are gone");
+                }
+                return new WallpaperCategory(title, collectionId,
+                        new ResourceAsset(partnerRes, thumbResId, true), wallpapers, priority);
+            }
+            case TYPE_THIRD_PARTY_LIVE: {
+                input.readInt(); // featuredThumbnailIndex, always 0
+                List<WallpaperInfo> wallpapers = readWallpapers(input, resolver);
+                if (wallpapers == null) {
+                    return null;
+                }
+                Set<String> excludedPackages = null;
+                if (input.readBoolean()) {
+                    excludedPackages = new HashSet<>();
+                    int count = input.readInt();
+                    for (int i = 0; i < count; i++) {
+                        excludedPackages.add(input.readUTF());
+                    }
+                }
+                return new ThirdPartyLiveWallpaperCategory(title, collectionId, wallpapers,
+                        priority, excludedPackages, isDownloadable, downloadComponent);
+            }
+            case TYPE_THIRD_PARTY_APP: {
+                if (resolver == null) {
+                    return null;
+                }
+                ComponentName component = new ComponentName(input.readUTF(), input.readUTF());
+                ResolveInfo resolveInfo = mAppContext.getPackageManager().resolveActivity(
+                        new Intent(Intent.ACTION_SET_WALLPAPER).setComponent(component), 0);
+                if (resolveInfo == null) {
+                    throw new IOException("Third party app " + component + " is gone");
+                }
+                return new ThirdPartyAppCategory(title, resolveInfo, collectionId, priority);
+            }
+            default:
+                throw new IOException("Unknown category type " + type);
+        }
+    }
+
+    private static void writeCommonFields(DataOutputStream output, Category category)
+            throws IOException {
+        writeNullableUTF(output, category.getTitle());
+        output.writeUTF(category.getCollectionId());
+        output.writeInt(category.getPriority());
+        output.writeBoolean(category.isCategoryDownloadable());
+        writeNullableUTF(output, category.getCategoryDownloadComponent());
+    }
+
+    /**
+     * Writes the wallpapers of the category, returning false if any of them can't be stored.
+     * Only the wallpaper types created by {@link DefaultCategoryProvider} can be; their colors,
+     * which are computed later on, aren't stored.
+     */
+    private static boolean writeWallpapers(DataOutputStream output, WallpaperCategory category)
+            throws IOException {
+        List<WallpaperInfo> wallpapers = category.getUnmodifiableWallpapers();
+        output.writeInt(category.getFeaturedThumbnailIndex());
+        output.writeInt(wallpapers.size());
+        for (WallpaperInfo wallpaper : wallpapers) {
+            if (wallpaper.getClass() == DefaultWallpaperInfo.class) {
+                output.writeInt(WALLPAPER_TYPE_DEFAULT);
+            } else if (wallpaper.getClass() == PartnerWallpaperInfo.class) {
+                PartnerWallpaperInfo partnerWallpaper = (PartnerWallpaperInfo) wallpaper;
+                output.writeInt(WALLPAPER_TYPE_PARTNER);
+                output.writeInt(partnerWallpaper.getThumbRes());
+                output.writeInt(partnerWallpaper.getFullRes());
+            } else if (wallpaper.getClass() == LegacyPartnerWallpaperInfo.class) {
+                LegacyPartnerWallpaperInfo legacyWallpaper = (LegacyPartnerWallpaperInfo) wallpaper;
+                output.writeInt(WALLPAPER_TYPE_LEGACY_PARTNER);
+                output.writeUTF(legacyWallpaper.getThumbName());
+                output.writeUTF(legacyWallpaper.getFullName());
+            } else if (wallpaper.getClass() == SystemStaticWallpaperInfo.class) {
+                SystemStaticWallpaperInfo staticWallpaper = (SystemStaticWallpaperInfo) wallpaper;
+                output.writeInt(WALLPAPER_TYPE_SYSTEM_STATIC);
+                writeNullableUTF(output, staticWallpaper.getPackageName());
+                output.writeUTF(staticWallpaper.getResName());
+                writeNullableUTF(output, staticWallpaper.getCollectionId(/* unused= */ null));
+                output.writeInt(staticWallpaper.getDrawableResId());
+                output.writeInt(staticWallpaper.getTitleResId());
+                output.writeInt(staticWallpaper.getSubtitle1ResId());
+                output.writeInt(staticWallpaper.getSubtitle2ResId());
+                output.writeInt(staticWallpaper.getActionTypeResId());
+                output.writeInt(staticWallpaper.getActionUrlResId());
+                output.writeInt(staticWallpaper.getThumbnailResId());
+            } else if (wallpaper.getClass() == LiveWallpaperInfo.class) {
+                LiveWallpaperInfo liveWallpaper = (LiveWallpaperInfo) wallpaper;
+                output.writeInt(WALLPAPER_TYPE_LIVE);
+                output.writeUTF(liveWallpaper.getInfo().getPackageName());
+                output.writeUTF(liveWallpaper.getInfo().getServiceName());
+                output.writeBoolean(liveWallpaper.isVisibleTitle());
+                writeNullableUTF(output, liveWallpaper.getCollectionId());
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the wallpapers of a category. Returns null if no resolver is given and some of them
+     * are live wallpapers.
+     */
+    @Nullable
+    private List<WallpaperInfo> readWallpapers(DataInputStream input,
+            @Nullable PackageResolver resolver) throws IOException {
+        int count = input.readInt();
+        List<WallpaperInfo> wallpapers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int type = input.readInt();
+            switch (type) {
+                case WALLPAPER_TYPE_DEFAULT:
+                    wallpapers.add(new DefaultWallpaperInfo());
+                    break;
+                case WALLPAPER_TYPE_PARTNER:
+                    wallpapers.add(new PartnerWallpaperInfo(input.readInt(), input.readInt()));
+                    break;
+                case WALLPAPER_TYPE_LEGACY_PARTNER:
+                    wallpapers.add(
+                            new LegacyPartnerWallpaperInfo(input.readUTF(), input.readUTF()));
+                    break;
+                case WALLPAPER_TYPE_SYSTEM_STATIC:
+                    wallpapers.add(new SystemStaticWallpaperInfo(readNullableUTF(input),
+                            input.readUTF(), readNullableUTF(input), input.readInt(),
+                            input.readInt(), input.readInt(), input.readInt(), input.readInt(),
+                            input.readInt(), input.readInt()));
+                    break;
+                case WALLPAPER_TYPE_LIVE:
+                    if (resolver == null) {
+                        return null;
+                    }
+                    wallpapers.add(readLiveWallpaper(input, resolver));
+                    break;
+                default:
+                    throw new IOException("Unknown wallpaper type " + type);
+            }
+        }
+        return wallpapers;
+    }
+
+    /**
+     * Reads a live wallpaper, looking its service up among the installed live wallpapers since the
+     * platform description of a live wallpaper has no stable form of its own.
+     */
+    private LiveWallpaperInfo readLiveWallpaper(DataInputStream input, PackageResolver resolver)
+            throws IOException {
+        ComponentName component = new ComponentName(input.readUTF(), input.readUTF());
+        boolean visibleTitle = input.readBoolean();
+        String collectionId = readNullableUTF(input);
+        android.app.WallpaperInfo info = resolver.getLiveWallpaper(component);
+        if (info == null) {
+            throw new IOException("Live wallpaper " + component + " is gone");
+        }
+        return new LiveWallpaperInfo(info, visibleTitle, collectionId);
+    }
+
+    private static void writeNullableUTF(DataOutputStream output, @Nullable String value)
+            throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readNullableUTF(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    /**
+     * Returns the partner resource ID of the fixed thumbnail of the category, 0 if it has none or
+     * -1 if it can't be stored.
+     */
+    private static int getFixedThumbResId(WallpaperCategory category) {
+        Asset thumbAsset = category.getFixedThumbAsset();
+        if (thumbAsset == null) {
+            return 0;
+        }
+        // WallpaperCategory.Builder only creates plain resource thumbnails.
+        return thumbAsset.getClass() == ResourceAsset.class
+                ? ((ResourceAsset) thumbAsset).getResId() : -1;
+    }
+
+    private static void addPackageNames(Set<String> packageNames, List<ResolveInfo> resolveInfos) {
+        for (ResolveInfo resolveInfo : resolveInfos) {
+            if (resolveInfo.serviceInfo != null) {
+                packageNames.add(resolveInfo.serviceInfo.packageName);
+            } else if (resolveInfo.activityInfo != null) {
+                packageNames.add(resolveInfo.activityInfo.packageName);
+            }
+        }
+    }
+
+    private static String getPackageState(PackageManager packageManager, String packageName) {
+        try {
+            PackageInfo packageInfo = packageManager.getPackageInfo(packageName, 0);
+            return packageName + ":" + packageInfo.getLongVersionCode() + ":"
+                    + packageInfo.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return packageName + ":-";
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    value.getBytes(StandardCharsets.UTF_8));
+            return String.format("%064x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    /** Looks up the installed live wallpapers the first time one is needed. */
+    private class PackageResolver {
+        @Nullable
+        private Map<ComponentName, android.app.WallpaperInfo> mLiveWallpapers;
+
+        @Nullable
+        android.app.WallpaperInfo getLiveWallpaper(ComponentName component) {
+            if (mLiveWallpapers == null) {
+                mLiveWallpapers = new HashMap<>();
+                for (android.app.WallpaperInfo info : mLiveWallpapersSupplier.get()) {
+                    mLiveWallpapers.put(info.getComponent(), info);
+                }
+            }
+            return mLiveWallpapers.get(component);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.util.Base64
+import java.nio.ByteBuffer
+
+/**
+ * The timestamps of the most recent daily wallpaper rotations, in a ring buffer of fixed
+ * capacity: adding a rotation overwrites the oldest one once the buffer is full, and the last
+ * rotation is read without going through the others.
+ */
+class DailyRotationHistory(private val capacity: Int = DEFAULT_CAPACITY) {
+
+    private val timestamps = LongArray(capacity)
+    /** Index of the slot the next rotation is written to. */
+    private var next = 0
+    var size = 0
+        private set
+
+    /** Adds the timestamp of a rotation which just occurred. */
+    fun add(timestamp: Long) {
+        timestamps[next] = timestamp
+        next = (next + 1) % capacity
+        if (size < capacity) {
+            size++
+        }
+    }
+
+    /** Returns the timestamp of the last rotation, or -1 if there is none. */
+    fun last(): Long = if (size == 0) -1 else timestamps[(next - 1 + capacity) % capacity]
+
+    /** Returns the timestamps of the rotations, the oldest first. */
+    fun toList(): List<Long> = List(size) { timestamps[(next - size + it + capacity) % capacity] }
+
+    /** Removes all the rotations. */
+    fun clear() {
+        next = 0
+        size = 0
+    }
+
+    /** Encodes the rotations into a short string, to be read back with [decode]. */
+    fun encode(): String {
+        val buffer = ByteBuffer.allocate(size * Long.SIZE_BYTES)
+        toList().forEach { buffer.putLong(it) }
+        return Base64.encodeToString(buffer.array(), Base64.NO_WRAP)
+    }
+
+    companion object {
+        /** A month of daily rotations. */
+        const val DEFAULT_CAPACITY = 31
+
+        /**
+         * Decodes rotations encoded by [encode] into a history of the given capacity, keeping the
+         * most recent ones if there are more. Returns null if the string can't be decoded.
+         */
+        fun decode(encoded: String, capacity: Int = DEFAULT_CAPACITY): DailyRotationHistory? {
+            val bytes =
+                try {
+                    Base64.decode(encoded, Base64.NO_WRAP)
+                } catch (e: IllegalArgumentException) {
+                    return null
+                }
+            if (bytes.size % Long.SIZE_BYTES != 0) {
+                return null
+            }
+            val buffer = ByteBuffer.wrap(bytes)
+            return DailyRotationHistory(capacity).apply {
+                repeat(bytes.size / Long.SIZE_BYTES) { add(buffer.getLong()) }
+            }
+        }
+
+        /** Returns a history of the given capacity holding the given rotations, oldest first. */
+        fun of(timestamps: List<Long>, capacity: Int = DEFAULT_CAPACITY): DailyRotationHistory =
+            DailyRotationHistory(capacity).apply { timestamps.forEach(::add) }
+    }
+}
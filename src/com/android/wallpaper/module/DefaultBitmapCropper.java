@@ -23,15 +23,12 @@ import android.util.Log;
 
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.Asset.BitmapReceiver;
-
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import com.android.wallpaper.asset.DecodeScheduler;
 
 /**
  * Default implementation of BitmapCropper, which actually crops and scales bitmaps.
  */
 public class DefaultBitmapCropper implements BitmapCropper {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
     private static final String TAG = "DefaultBitmapCropper";
     private static final boolean FILTER_SCALED_BITMAP = true;
 
@@ -56,7 +53,9 @@ public class DefaultBitmapCropper implements BitmapCropper {
                         // Asset provides a bitmap which is appropriate for the target width &
                         // height, but since it does not guarantee an exact size we need to fit
                         // the bitmap to the cropRect.
-                        sExecutorService.execute(() -> {
+                        DecodeScheduler.getInstance().execute(
+                                DecodeScheduler.PRIORITY_VISIBLE_PREVIEW,
+                                /* cancellationSignal= */ null, () -> {
                             try {
                                 // Fit bitmap to exact dimensions of crop rect.
                                 Bitmap result = Bitmap.createScaledBitmap(
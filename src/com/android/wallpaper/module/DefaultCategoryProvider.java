@@ -22,9 +22,11 @@ import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Xml;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.XmlRes;
 
 import com.android.wallpaper.R;
@@ -50,10 +52,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 /**
@@ -86,10 +93,12 @@ public class DefaultCategoryProvider implements CategoryProvider {
     @NetworkStatus
     private int mNetworkStatus;
     private Locale mLocale;
+    private final CategorySnapshotStore mSnapshotStore;
 
     public DefaultCategoryProvider(Context context) {
         mAppContext = context.getApplicationContext();
         mCategories = new ArrayList<>();
+        mSnapshotStore = new CategorySnapshotStore(mAppContext);
         mNetworkStatusNotifier = InjectorProvider.getInjector().getNetworkStatusNotifier(context);
         mNetworkStatus = NETWORK_NOT_INITIALIZED;
     }
@@ -194,7 +203,21 @@ public class DefaultCategoryProvider implements CategoryProvider {
             @Override
             public void onCategoryReceived(Category category) {
                 receiver.onCategoryReceived(category);
-                mCategories.add(category);
+                // A category refreshed after being published from the snapshot replaces it.
+                mCategories.remove(category);
+                // Sources finish in any order, keep the categories sorted by priority.
+                int index = 0;
+                while (index < mCategories.size()
+                        && category.getPriority() >= mCategories.get(index).getPriority()) {
+                    index++;
+                }
+                mCategories.add(index, category);
+            }
+
+            @Override
+            public void onCategoryRemoved(Category category) {
+                receiver.onCategoryRemoved(category);
+                mCategories.remove(category);
             }
 
             @Override
@@ -204,7 +227,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
             }
         };
 
-        new FetchCategoriesTask(delegatingReceiver, mAppContext).execute();
+        new FetchCategoriesTask(delegatingReceiver, mAppContext, mSnapshotStore).execute();
     }
 
     private Locale getLocale() {
@@ -213,54 +236,250 @@ public class DefaultCategoryProvider implements CategoryProvider {
 
     /**
      * AsyncTask subclass used for fetching all the categories and pushing them one at a time to
-     * the receiver.
+     * the receiver. Every source of categories runs in parallel on the AsyncTask thread pool and
+     * its categories are published as soon as it is done; receivers order them by priority. Only
+     * the live wallpapers wait for the system categories, which decide the live wallpapers to
+     * leave out.
+     *
+     * <p>If a {@link CategorySnapshotStore} is given and holds a snapshot which is still valid,
+     * the snapshot categories are published right away instead, and once all sources are done only
+     * the categories which differ from the snapshot are published or reported as removed. The
+     * snapshot categories which need the package manager are published once they are resolved,
+     * after the others. The snapshot is rewritten whenever the fetched categories differ from it.
      */
     protected static class FetchCategoriesTask extends AsyncTask<Void, Category, Void> {
+        // The sources share the pool the task itself runs on.
+        private static final Executor sExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+
         protected final CategoryReceiver mReceiver;
         private PartnerProvider mPartnerProvider;
         protected final Context mAppContext;
+        @Nullable
+        private final CategorySnapshotStore mSnapshotStore;
+        // Every category published by the sources, in the order they were published.
+        private final List<Category> mFetchedCategories =
+                Collections.synchronizedList(new ArrayList<>());
+        private String mSnapshotVersionKey;
+        // The valid snapshot, if any. Set before any source publishes its categories.
+        @Nullable
+        private volatile List<CategorySnapshotStore.Entry> mSnapshot;
+        // Set by updateSnapshot() before onPostExecute() publishes them.
+        private final List<Category> mChangedCategories = new ArrayList<>();
+        private final List<Category> mRemovedCategories = new ArrayList<>();
+        private Category mMyPhotosCategory;
+        private long mStartTimeMillis;
+        // Only accessed on the main thread.
+        private long mFirstCategoryTimeMillis = -1;
 
         public FetchCategoriesTask(CategoryReceiver receiver, Context context) {
+            this(receiver, context, /* snapshotStore= */ null);
+        }
+
+        public FetchCategoriesTask(CategoryReceiver receiver, Context context,
+                @Nullable CategorySnapshotStore snapshotStore) {
             mReceiver = receiver;
             mAppContext = context.getApplicationContext();
+            mSnapshotStore = snapshotStore;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mStartTimeMillis = SystemClock.elapsedRealtime();
         }
 
         @Override
         protected Void doInBackground(Void... voids) {
-            mPartnerProvider = InjectorProvider.getInjector().getPartnerProvider(
-                    mAppContext);
+            // "My photos" wallpapers, which are never part of the snapshot.
+            mMyPhotosCategory = getMyPhotosCategory(mAppContext);
+            publishProgress(mMyPhotosCategory);
+
+            // The snapshot is restored before any source publishes, so they know whether their
+            // categories go straight to the receiver or are reconciled with the snapshot.
+            CompletableFuture<Void> partnerProviderReady = CompletableFuture.runAsync(() -> {
+                mPartnerProvider = InjectorProvider.getInjector().getPartnerProvider(mAppContext);
+                restoreSnapshot();
+            }, sExecutor);
 
-            // "My photos" wallpapers
-            publishProgress(getMyPhotosCategory(mAppContext));
+            CompletableFuture<Void> snapshotResolved = partnerProviderReady.thenRunAsync(
+                    this::resolveSnapshot, sExecutor);
 
-            publishDeviceCategories();
+            CompletableFuture<Void> systemCategories = partnerProviderReady.thenRunAsync(
+                    this::publishDeviceCategories, sExecutor);
 
             // Legacy On-device wallpapers. Only show if on mobile.
-            publishProgress(getOnDeviceCategory());
-
-            // Live wallpapers -- if the device supports them.
-            if (mAppContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LIVE_WALLPAPER)) {
-                List<WallpaperInfo> liveWallpapers = LiveWallpaperInfo.getAll(
-                        mAppContext, getExcludedLiveWallpaperPackageNames());
-                if (liveWallpapers.size() > 0) {
-                    publishProgress(
-                            new ThirdPartyLiveWallpaperCategory(
-                                    mAppContext.getString(R.string.live_wallpapers_category_title),
-                                    mAppContext.getString(R.string.live_wallpaper_collection_id),
-                                    liveWallpapers,
-                                    PRIORITY_LIVE,
-                                    getExcludedLiveWallpaperPackageNames()));
+            CompletableFuture<Void> onDeviceCategory = partnerProviderReady.thenRunAsync(
+                    () -> publishCategories(getOnDeviceCategory()), sExecutor);
+
+            // Live wallpapers -- if the device supports them. Enumerating them is the slowest
+            // source, so it starts right away and is only filtered once the system categories
+            // are known.
+            CompletableFuture<Void> liveCategory = CompletableFuture.supplyAsync(
+                            this::getAllLiveWallpapers, sExecutor)
+                    .thenAcceptBoth(systemCategories,
+                            (liveWallpapers, unused) -> publishLiveWallpapers(liveWallpapers));
+
+            // Third party apps.
+            CompletableFuture<Void> thirdPartyCategories = CompletableFuture.supplyAsync(
+                            () -> ThirdPartyAppCategory.getAll(mAppContext, PRIORITY_THIRD_PARTY,
+                                    getExcludedThirdPartyPackageNames()), sExecutor)
+                    .thenAcceptBoth(partnerProviderReady, (thirdPartyApps, unused) ->
+                            publishCategories(thirdPartyApps.toArray(new Category[0])));
+
+            boolean complete = true;
+            try {
+                CompletableFuture.allOf(snapshotResolved, systemCategories, onDeviceCategory,
+                        liveCategory, thirdPartyCategories).join();
+            } catch (CompletionException e) {
+                Log.e(TAG, "Failed to fetch some of the categories", e);
+                complete = false;
+            }
+            updateSnapshot(complete);
+            return null;
+        }
+
+        /**
+         * Reads the snapshot and, if it is still valid, publishes the categories it could restore
+         * without the package manager to the receiver.
+         */
+        private void restoreSnapshot() {
+            if (mSnapshotStore == null) {
+                return;
+            }
+            mSnapshotVersionKey = mSnapshotStore.computeVersionKey(mPartnerProvider);
+            List<CategorySnapshotStore.Entry> snapshot = mSnapshotStore.read(mSnapshotVersionKey,
+                    mPartnerProvider.getResources());
+            if (snapshot == null) {
+                return;
+            }
+            mSnapshot = snapshot;
+            List<Category> categories = new ArrayList<>();
+            for (CategorySnapshotStore.Entry entry : snapshot) {
+                if (entry.getCategory() != null) {
+                    categories.add(entry.getCategory());
                 }
             }
+            publishProgress(categories.toArray(new Category[0]));
+        }
 
-            // Third party apps.
-            List<ThirdPartyAppCategory> thirdPartyApps = ThirdPartyAppCategory.getAll(
-                    mAppContext, PRIORITY_THIRD_PARTY, getExcludedThirdPartyPackageNames());
-            for (ThirdPartyAppCategory thirdPartyApp : thirdPartyApps) {
-                publishProgress(thirdPartyApp);
+        /**
+         * Creates the snapshot categories which need the package manager, e.g. to look up live
+         * wallpapers, and publishes them to the receiver. Those which can't be created any more
+         * are published once fetched instead.
+         */
+        private void resolveSnapshot() {
+            List<CategorySnapshotStore.Entry> snapshot = mSnapshot;
+            if (snapshot == null) {
+                return;
             }
+            List<Category> categories = mSnapshotStore.resolve(snapshot,
+                    mPartnerProvider.getResources());
+            if (!categories.isEmpty()) {
+                publishProgress(categories.toArray(new Category[0]));
+            }
+        }
 
-            return null;
+        /**
+         * Finds the fetched categories which differ from the snapshot, if there is one, for
+         * {@link #onPostExecute} to publish, and rewrites the snapshot if needed. Categories of
+         * types which can't be stored are always published.
+         *
+         * @param complete Whether every source succeeded. If not, no category is reported as
+         *                 removed and the snapshot is left alone.
+         */
+        private void updateSnapshot(boolean complete) {
+            List<CategorySnapshotStore.Entry> snapshot = mSnapshot;
+            List<Category> changedCategories = mChangedCategories;
+            List<Category> removedCategories = mRemovedCategories;
+            if (mSnapshotStore != null) {
+                Map<String, byte[]> snapshotData = new HashMap<>();
+                if (snapshot != null) {
+                    for (CategorySnapshotStore.Entry entry : snapshot) {
+                        // Entries which couldn't be resolved were never published.
+                        if (entry.getCategory() != null) {
+                            snapshotData.put(entry.collectionId, entry.data);
+                        }
+                    }
+                }
+                Set<String> fetchedIds = new HashSet<>();
+                List<CategorySnapshotStore.Entry> entries = new ArrayList<>();
+                synchronized (mFetchedCategories) {
+                    for (Category category : mFetchedCategories) {
+                        fetchedIds.add(category.getCollectionId());
+                        CategorySnapshotStore.Entry entry = mSnapshotStore.toEntry(category);
+                        if (entry != null) {
+                            entries.add(entry);
+                        }
+                        byte[] data = snapshotData.get(category.getCollectionId());
+                        if (entry == null || data == null || !Arrays.equals(data, entry.data)) {
+                            changedCategories.add(category);
+                        }
+                    }
+                }
+                if (complete) {
+                    if (snapshot != null) {
+                        for (CategorySnapshotStore.Entry entry : snapshot) {
+                            if (entry.getCategory() != null
+                                    && !fetchedIds.contains(entry.collectionId)) {
+                                removedCategories.add(entry.getCategory());
+                            }
+                        }
+                    }
+                    if (snapshot == null || entries.size() != snapshot.size()
+                            || !changedCategories.isEmpty()) {
+                        mSnapshotStore.write(mSnapshotVersionKey, entries);
+                    }
+                }
+                Log.d(TAG, "Reconciled categories with the snapshot: "
+                        + (snapshot == null ? "none" : snapshot.size() + " from snapshot, "
+                        + changedCategories.size() + " changed, " + removedCategories.size()
+                        + " removed"));
+            }
+            if (snapshot == null) {
+                // The fetched categories were published as they came.
+                changedCategories.clear();
+            }
+        }
+
+        private List<WallpaperInfo> getAllLiveWallpapers() {
+            if (!mAppContext.getPackageManager().hasSystemFeature(
+                    PackageManager.FEATURE_LIVE_WALLPAPER)) {
+                return Collections.emptyList();
+            }
+            return LiveWallpaperInfo.getAll(mAppContext, /* excludedPackageNames= */ null);
+        }
+
+        private void publishLiveWallpapers(List<WallpaperInfo> allLiveWallpapers) {
+            Set<String> excludedPackageNames = getExcludedLiveWallpaperPackageNames();
+            List<WallpaperInfo> liveWallpapers = allLiveWallpapers.stream()
+                    .filter(wallpaperInfo -> !(wallpaperInfo instanceof LiveWallpaperInfo)
+                            || !excludedPackageNames.contains(((LiveWallpaperInfo) wallpaperInfo)
+                                    .getWallpaperComponent().getPackageName()))
+                    .collect(Collectors.toList());
+            if (liveWallpapers.size() > 0) {
+                publishCategories(
+                        new ThirdPartyLiveWallpaperCategory(
+                                mAppContext.getString(R.string.live_wallpapers_category_title),
+                                mAppContext.getString(R.string.live_wallpaper_collection_id),
+                                liveWallpapers,
+                                PRIORITY_LIVE,
+                                excludedPackageNames));
+            }
+        }
+
+        /**
+         * Pushes the given categories to the receiver on the main thread, or holds them back until
+         * all sources are done if they are reconciled with a snapshot. Can be called from any
+         * thread.
+         */
+        protected void publishCategories(Category... values) {
+            for (Category category : values) {
+                if (category != null) {
+                    mFetchedCategories.add(category);
+                }
+            }
+            if (mSnapshot == null) {
+                publishProgress(values);
+            }
         }
 
         /**
@@ -269,7 +488,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
         private void publishDeviceCategories() {
             if (sSystemCategories != null) {
                 for (int i = 0; i < sSystemCategories.size(); i++) {
-                    publishProgress(sSystemCategories.get(i));
+                    publishCategories(sSystemCategories.get(i));
                 }
                 return;
             }
@@ -359,7 +578,7 @@ public class DefaultCategoryProvider implements CategoryProvider {
                         WallpaperCategory category = categoryBuilder.build();
                         if (!category.getUnmodifiableWallpapers().isEmpty()) {
                             categories.add(category);
-                            publishProgress(category);
+                            publishCategories(category);
                         }
                     }
                 }
@@ -407,6 +626,10 @@ public class DefaultCategoryProvider implements CategoryProvider {
             for (int i = 0; i < values.length; i++) {
                 Category category = values[i];
                 if (category != null) {
+                    // "My photos" is always published right away, time the fetched categories.
+                    if (mFirstCategoryTimeMillis < 0 && category != mMyPhotosCategory) {
+                        mFirstCategoryTimeMillis = SystemClock.elapsedRealtime();
+                    }
                     mReceiver.onCategoryReceived(category);
                 }
             }
@@ -414,6 +637,22 @@ public class DefaultCategoryProvider implements CategoryProvider {
 
         @Override
         protected void onPostExecute(Void unused) {
+            if (!mChangedCategories.isEmpty()) {
+                onProgressUpdate(mChangedCategories.toArray(new Category[0]));
+            }
+            for (Category category : mRemovedCategories) {
+                mReceiver.onCategoryRemoved(category);
+            }
+
+            long endTimeMillis = SystemClock.elapsedRealtime();
+            long timeToFirstCategoryMillis = mFirstCategoryTimeMillis < 0
+                    ? endTimeMillis - mStartTimeMillis
+                    : mFirstCategoryTimeMillis - mStartTimeMillis;
+            long timeToAllCategoriesMillis = endTimeMillis - mStartTimeMillis;
+            Log.d(TAG, "Fetched categories, first after " + timeToFirstCategoryMillis
+                    + "ms, all after " + timeToAllCategoriesMillis + "ms");
+            InjectorProvider.getInjector().getUserEventLogger().logCategoriesFetched(
+                    timeToFirstCategoryMillis, timeToAllCategoriesMillis);
             mReceiver.doneFetchingCategories();
         }
     }
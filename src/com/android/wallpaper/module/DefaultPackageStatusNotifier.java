@@ -19,123 +19,279 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.LauncherApps;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserHandle;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
- * Default version of {@link PackageStatusNotifier} that uses {@link LauncherApps}
+ * Default version of {@link PackageStatusNotifier} that uses {@link LauncherApps}.
+ *
+ * <p>All listeners share a single {@link LauncherApps.Callback}. Package events are collected until
+ * none came in for {@link #BATCH_DELAY_MILLIS} and then validated off the main thread, so a burst
+ * of events, e.g. after an SD card is mounted, turns into one batch. Batches are validated one at a
+ * time. Whether a package handles an action is only queried once per package and action, whatever
+ * the number of listeners, and the result is kept until the package is added, changed or removed,
+ * as suspending it or making it unavailable doesn't change what it handles. Listeners are called
+ * on the main thread.
  */
 public class DefaultPackageStatusNotifier implements PackageStatusNotifier {
 
-    private final Map<Listener, ListenerWrapper> mListeners = new HashMap<>();
+    @VisibleForTesting
+    static final long BATCH_DELAY_MILLIS = 200;
+
+    // Batches are validated one at a time, so a single thread is enough.
+    private static final Executor sDefaultValidationExecutor =
+            Executors.newSingleThreadExecutor();
+
+    // Listeners and the action they filter packages by, in the order they were added.
+    private final Map<Listener, String> mListeners = new LinkedHashMap<>();
     private final Context mAppContext;
     private final LauncherApps mLauncherApps;
+    private final Executor mValidationExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LauncherApps.Callback mCallback = new PackageCallback();
+    private final Runnable mFlushRunnable = this::flushPendingEvents;
 
+    // The distinct transitions of each package since the last batch, in the order the packages
+    // first changed. Only accessed on the main thread.
+    private final Map<String, List<PendingEvent>> mPendingEvents = new LinkedHashMap<>();
+    // Whether a batch is being validated. Only accessed on the main thread.
+    private boolean mIsValidating;
+    // Whether a package handles an action, by package and then action. Only accessed by the batch
+    // being validated.
+    private final Map<String, Map<String, Boolean>> mValidPackages = new HashMap<>();
 
+    /**
+     * Creates a notifier validating packages on a shared background thread.
+     */
     public DefaultPackageStatusNotifier(Context context) {
+        this(context, sDefaultValidationExecutor);
+    }
+
+    /**
+     * @param validationExecutor Background executor checking which actions packages handle.
+     */
+    public DefaultPackageStatusNotifier(Context context, Executor validationExecutor) {
         mAppContext = context.getApplicationContext();
         mLauncherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        mValidationExecutor = validationExecutor;
     }
 
     @Override
     public void addListener(Listener listener, String action) {
-        ListenerWrapper wrapper = new ListenerWrapper(mAppContext, action, listener);
-        removeListenerAndMaybeUnregisterCallback(listener);
-        mListeners.put(listener, wrapper);
-        mLauncherApps.registerCallback(wrapper);
+        if (mListeners.isEmpty()) {
+            mLauncherApps.registerCallback(mCallback);
+        }
+        mListeners.put(listener, action);
     }
 
     @Override
     public void removeListener(Listener listener) {
-        removeListenerAndMaybeUnregisterCallback(listener);
+        if (mListeners.remove(listener) != null && mListeners.isEmpty()) {
+            mLauncherApps.unregisterCallback(mCallback);
+            mMainHandler.removeCallbacks(mFlushRunnable);
+            mPendingEvents.clear();
+        }
+    }
+
+    @VisibleForTesting
+    LauncherApps.Callback getPackageCallback() {
+        return mCallback;
     }
 
-    private void removeListenerAndMaybeUnregisterCallback(Listener listener) {
-        ListenerWrapper oldWrapper = mListeners.remove(listener);
-        if (oldWrapper != null) {
-            mLauncherApps.unregisterCallback(oldWrapper);
+    /**
+     * @param componentsChanged Whether the event may change which actions the package handles.
+     */
+    private void onPackageEvent(String packageName, @PackageStatus int status,
+            boolean needsValidation, boolean componentsChanged) {
+        List<PendingEvent> events =
+                mPendingEvents.computeIfAbsent(packageName, unused -> new ArrayList<>());
+        PendingEvent event =
+                new PendingEvent(packageName, status, needsValidation, componentsChanged);
+        PendingEvent lastEvent = events.isEmpty() ? null : events.get(events.size() - 1);
+        if (lastEvent != null && lastEvent.mStatus == PackageStatus.REMOVED
+                && status == PackageStatus.ADDED) {
+            // The package came back, e.g. it was reinstalled, so listeners only need to refresh it.
+            events.set(events.size() - 1, lastEvent.mergeWith(event, PackageStatus.CHANGED));
+        } else if (lastEvent != null && lastEvent.mStatus == status) {
+            events.set(events.size() - 1, lastEvent.mergeWith(event, status));
+        } else {
+            events.add(event);
         }
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        mMainHandler.postDelayed(mFlushRunnable, BATCH_DELAY_MILLIS);
     }
 
-    private static class ListenerWrapper extends LauncherApps.Callback {
+    private void flushPendingEvents() {
+        // Events which come in while a batch is validated are flushed once it is done.
+        if (mIsValidating || mPendingEvents.isEmpty()) {
+            return;
+        }
+        List<PendingEvent> events = new ArrayList<>();
+        for (List<PendingEvent> packageEvents : mPendingEvents.values()) {
+            events.addAll(packageEvents);
+        }
+        mPendingEvents.clear();
+        Map<Listener, String> listeners = new LinkedHashMap<>(mListeners);
+        mIsValidating = true;
 
-        private final Context mAppContext;
-        private final Intent mIntentFilter;
-        private final Listener mListener;
+        mValidationExecutor.execute(() -> {
+            List<Runnable> notifications = validateEvents(events, listeners);
+            mMainHandler.post(() -> {
+                mIsValidating = false;
+                for (Runnable notification : notifications) {
+                    notification.run();
+                }
+                if (!mPendingEvents.isEmpty() && !mMainHandler.hasCallbacks(mFlushRunnable)) {
+                    mMainHandler.postDelayed(mFlushRunnable, BATCH_DELAY_MILLIS);
+                }
+            });
+        });
+    }
 
-        ListenerWrapper(Context context, String action, Listener listener) {
-            mAppContext = context.getApplicationContext();
-            mIntentFilter = new Intent(action);
-            mListener = listener;
+    /** Returns the listeners to call for each of the given events, in the order of the events. */
+    private List<Runnable> validateEvents(List<PendingEvent> events,
+            Map<Listener, String> listeners) {
+        List<Runnable> notifications = new ArrayList<>();
+        for (PendingEvent event : events) {
+            Map<String, Boolean> previousValidActions = event.mComponentsChanged
+                    ? mValidPackages.remove(event.mPackageName) : null;
+            for (Map.Entry<Listener, String> entry : listeners.entrySet()) {
+                if (!shouldNotify(event, entry.getValue(), previousValidActions)) {
+                    continue;
+                }
+                Listener listener = entry.getKey();
+                notifications.add(() -> {
+                    // Skip listeners removed while the batch was validated.
+                    if (mListeners.containsKey(listener)) {
+                        listener.onPackageChanged(event.mPackageName, event.mStatus);
+                    }
+                });
+            }
         }
+        return notifications;
+    }
 
-        private boolean isValidPackage(String packageName) {
-            mIntentFilter.setPackage(packageName);
+    private boolean shouldNotify(PendingEvent event, String action,
+            @Nullable Map<String, Boolean> previousValidActions) {
+        if (!event.mNeedsValidation || isValidPackage(event.mPackageName, action)) {
+            return true;
+        }
+        // A package which no longer handles the action after a change is still reported, so
+        // listeners can drop what they showed for it.
+        return event.mStatus == PackageStatus.CHANGED && previousValidActions != null
+                && Boolean.TRUE.equals(previousValidActions.get(action));
+    }
+
+    /** Returns whether the given package has an activity or service handling the given action. */
+    private boolean isValidPackage(String packageName, String action) {
+        Map<String, Boolean> validActions = mValidPackages.computeIfAbsent(packageName,
+                unused -> new HashMap<>());
+        Boolean isValid = validActions.get(action);
+        if (isValid == null) {
+            Intent intent = new Intent(action).setPackage(packageName);
             PackageManager pm = mAppContext.getPackageManager();
-            return !pm.queryIntentServices(mIntentFilter, 0).isEmpty()
-                    || !pm.queryIntentActivities(mIntentFilter, 0).isEmpty();
+            isValid = !pm.queryIntentServices(intent, 0).isEmpty()
+                    || !pm.queryIntentActivities(intent, 0).isEmpty();
+            validActions.put(action, isValid);
         }
+        return isValid;
+    }
+
+    private static class PendingEvent {
+        final String mPackageName;
+        @PackageStatus
+        final int mStatus;
+        final boolean mNeedsValidation;
+        final boolean mComponentsChanged;
 
+        PendingEvent(String packageName, @PackageStatus int status, boolean needsValidation,
+                boolean componentsChanged) {
+            mPackageName = packageName;
+            mStatus = status;
+            mNeedsValidation = needsValidation;
+            mComponentsChanged = componentsChanged;
+        }
+
+        /** Returns the event standing for this event followed by the given one. */
+        PendingEvent mergeWith(PendingEvent next, @PackageStatus int status) {
+            // Packages which were uninstalled are reported to every listener.
+            boolean needsValidation = status == PackageStatus.REMOVED
+                    ? mNeedsValidation && next.mNeedsValidation
+                    : mNeedsValidation || next.mNeedsValidation;
+            return new PendingEvent(mPackageName, status, needsValidation,
+                    mComponentsChanged || next.mComponentsChanged);
+        }
+    }
+
+    private class PackageCallback extends LauncherApps.Callback {
 
         @Override
         public void onPackageRemoved(String packageName, UserHandle userHandle) {
             // We can't check if the removed package is "valid" for the given action, as it's not
             // there any more, so trigger REMOVED for all cases.
-            mListener.onPackageChanged(packageName, PackageStatus.REMOVED);
+            onPackageEvent(packageName, PackageStatus.REMOVED, /* needsValidation= */ false,
+                    /* componentsChanged= */ true);
         }
 
         @Override
         public void onPackageAdded(String packageName, UserHandle userHandle) {
-            if (isValidPackage(packageName)) {
-                mListener.onPackageChanged(packageName, PackageStatus.ADDED);
-            }
+            onPackageEvent(packageName, PackageStatus.ADDED, /* needsValidation= */ true,
+                    /* componentsChanged= */ true);
         }
 
         @Override
         public void onPackageChanged(String packageName, UserHandle userHandle) {
-            if (isValidPackage(packageName)) {
-                mListener.onPackageChanged(packageName, PackageStatus.CHANGED);
-            }
+            onPackageEvent(packageName, PackageStatus.CHANGED, /* needsValidation= */ true,
+                    /* componentsChanged= */ true);
         }
 
         @Override
         public void onPackagesAvailable(String[] packageNames, UserHandle userHandle,
                                         boolean replacing) {
             for (String packageName : packageNames) {
-                if (isValidPackage(packageName)) {
-                    mListener.onPackageChanged(packageName,
-                            replacing ? PackageStatus.CHANGED : PackageStatus.ADDED);
-                }
+                onPackageEvent(packageName,
+                        replacing ? PackageStatus.CHANGED : PackageStatus.ADDED,
+                        /* needsValidation= */ true, /* componentsChanged= */ replacing);
             }
         }
 
         @Override
         public void onPackagesUnavailable(String[] packageNames, UserHandle userHandle,
                                           boolean replacing) {
+            if (replacing) {
+                return;
+            }
             for (String packageName : packageNames) {
-                if (!replacing && isValidPackage(packageName)) {
-                    mListener.onPackageChanged(packageName, PackageStatus.REMOVED);
-                }
+                onPackageEvent(packageName, PackageStatus.REMOVED, /* needsValidation= */ true,
+                        /* componentsChanged= */ false);
             }
         }
 
         @Override
         public void onPackagesSuspended(String[] packageNames, UserHandle user) {
             for (String packageName : packageNames) {
-                if (isValidPackage(packageName)) {
-                    mListener.onPackageChanged(packageName, PackageStatus.REMOVED);
-                }
+                onPackageEvent(packageName, PackageStatus.REMOVED, /* needsValidation= */ true,
+                        /* componentsChanged= */ false);
             }
         }
 
         @Override
         public void onPackagesUnsuspended(String[] packageNames, UserHandle user) {
             for (String packageName : packageNames) {
-                if (isValidPackage(packageName)) {
-                    mListener.onPackageChanged(packageName, PackageStatus.ADDED);
-                }
+                onPackageEvent(packageName, PackageStatus.ADDED, /* needsValidation= */ true,
+                        /* componentsChanged= */ false);
             }
         }
     }
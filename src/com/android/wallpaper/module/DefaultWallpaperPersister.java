@@ -24,8 +24,8 @@ import android.app.WallpaperManager;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
@@ -53,8 +53,7 @@ import com.android.wallpaper.util.DisplayUtils;
 import com.android.wallpaper.util.ScreenSizeCalculator;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -67,7 +66,6 @@ import java.util.Map;
  */
 public class DefaultWallpaperPersister implements WallpaperPersister {
 
-    private static final int DEFAULT_COMPRESS_QUALITY = 100;
     private static final String TAG = "WallpaperPersister";
 
     private final Context mAppContext;
@@ -221,6 +219,20 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                 remoteId, DEST_HOME_SCREEN);
     }
 
+    @Override
+    public boolean setWallpaperInRotation(File wallpaperFile, List<String> attributions,
+            String actionUrl, String collectionId, String remoteId) {
+        final int wallpaperId = cropAndSetWallpaperFileInRotationStatic(wallpaperFile,
+                attributions, actionUrl, collectionId, getDefaultWhichWallpaper());
+
+        if (wallpaperId == 0) {
+            return false;
+        }
+
+        return saveStaticWallpaperMetadata(attributions, actionUrl, collectionId, wallpaperId,
+                remoteId, DEST_HOME_SCREEN);
+    }
+
     @Override
     public int setWallpaperBitmapInNextRotation(Bitmap wallpaperBitmap, List<String> attributions,
             String actionUrl, String collectionId) {
@@ -247,32 +259,35 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             int wallpaperId,
             String remoteId,
             @Destination int destination) {
-        if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
+        // Set metadata to lock screen also when the rotating wallpaper so if user sets a home
+        // screen-only wallpaper later, these attributions will still be available.
+        boolean setsLock = destination == DEST_LOCK_SCREEN || destination == DEST_BOTH
+                || !isSeparateLockScreenWallpaperSet();
+        mWallpaperPreferences.runInTransaction(() -> {
+            if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
 
-            // Persist wallpaper IDs if the rotating wallpaper component
-            mWallpaperPreferences.setHomeWallpaperManagerId(wallpaperId);
+                // Persist wallpaper IDs if the rotating wallpaper component
+                mWallpaperPreferences.setHomeWallpaperManagerId(wallpaperId);
 
-            // Only copy over wallpaper ID to lock wallpaper if no explicit lock wallpaper is set
-            // (so metadata isn't lost if a user explicitly sets a home-only wallpaper).
+                // Only copy over wallpaper ID to lock wallpaper if no explicit lock wallpaper is
+                // set (so metadata isn't lost if a user explicitly sets a home-only wallpaper).
 
-            mWallpaperPreferences.setHomeWallpaperAttributions(attributions);
-            mWallpaperPreferences.setHomeWallpaperActionUrl(actionUrl);
-            mWallpaperPreferences.setHomeWallpaperCollectionId(collectionId);
-            mWallpaperPreferences.setHomeWallpaperRemoteId(remoteId);
-        }
+                mWallpaperPreferences.setHomeWallpaperAttributions(attributions);
+                mWallpaperPreferences.setHomeWallpaperActionUrl(actionUrl);
+                mWallpaperPreferences.setHomeWallpaperCollectionId(collectionId);
+                mWallpaperPreferences.setHomeWallpaperRemoteId(remoteId);
+            }
 
-        // Set metadata to lock screen also when the rotating wallpaper so if user sets a home
-        // screen-only wallpaper later, these attributions will still be available.
-        if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH
-                || !isSeparateLockScreenWallpaperSet()) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockWallpaperManagerId(wallpaperId);
-            mWallpaperPreferences.setLockWallpaperAttributions(attributions);
-            mWallpaperPreferences.setLockWallpaperActionUrl(actionUrl);
-            mWallpaperPreferences.setLockWallpaperCollectionId(collectionId);
-            mWallpaperPreferences.setLockWallpaperRemoteId(remoteId);
-        }
+            if (setsLock) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockWallpaperManagerId(wallpaperId);
+                mWallpaperPreferences.setLockWallpaperAttributions(attributions);
+                mWallpaperPreferences.setLockWallpaperActionUrl(actionUrl);
+                mWallpaperPreferences.setLockWallpaperCollectionId(collectionId);
+                mWallpaperPreferences.setLockWallpaperRemoteId(remoteId);
+            }
+        });
 
         return true;
     }
@@ -280,15 +295,17 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     @Override
     public boolean saveStaticWallpaperToPreferences(@Destination int destination,
             @NonNull StaticWallpaperPrefMetadata metadata) {
-        if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
-            mWallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata);
-        }
+        mWallpaperPreferences.runInTransaction(() -> {
+            if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
+                mWallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata);
+            }
 
-        if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata);
-        }
+            if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata);
+            }
+        });
         return true;
     }
 
@@ -301,8 +318,102 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     private int cropAndSetWallpaperBitmapInRotationStatic(Bitmap wallpaperBitmap,
             List<String> attributions, String actionUrl, String collectionId,
             int whichWallpaper) {
-        // Calculate crop and scale of the wallpaper to match the default one used in preview
         Point wallpaperSize = new Point(wallpaperBitmap.getWidth(), wallpaperBitmap.getHeight());
+        Rect scaledCropRect = calculateRotationCropRect(wallpaperSize);
+
+        // Scale and crop the bitmap
+        if (!WallpaperManager.isMultiCropEnabled()) {
+            wallpaperBitmap = Bitmap.createBitmap(wallpaperBitmap,
+                    scaledCropRect.left,
+                    scaledCropRect.top,
+                    scaledCropRect.width(),
+                    scaledCropRect.height());
+        }
+        scaledCropRect = WallpaperManager.isMultiCropEnabled() ? scaledCropRect : null;
+
+        int wallpaperId = setBitmapToWallpaperManager(wallpaperBitmap, scaledCropRect,
+                /* allowBackup */ false, whichWallpaper);
+        if (wallpaperId > 0) {
+            mWallpaperPreferences.storeLatestWallpaper(whichWallpaper,
+                    String.valueOf(wallpaperId), attributions, actionUrl, collectionId,
+                    wallpaperBitmap, WallpaperColors.fromBitmap(wallpaperBitmap));
+        }
+        mCurrentWallpaperInfoFactory.clearCurrentWallpaperInfos();
+        return wallpaperId;
+    }
+
+    /**
+     * Sets a wallpaper in rotation from its image file, without decoding the whole image. The crop
+     * is computed from the image bounds alone and only the cropped region is decoded. If the
+     * system crops wallpapers itself, the file is streamed to the {@link WallpaperManager} as-is
+     * along with the crop hint.
+     *
+     * @return wallpaper ID for the wallpaper image, or 0 if it couldn't be set.
+     */
+    private int cropAndSetWallpaperFileInRotationStatic(File wallpaperFile,
+            List<String> attributions, String actionUrl, String collectionId,
+            int whichWallpaper) {
+        BitmapFactory.Options boundsOptions = new BitmapFactory.Options();
+        boundsOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(wallpaperFile.getAbsolutePath(), boundsOptions);
+        if (boundsOptions.outWidth <= 0 || boundsOptions.outHeight <= 0) {
+            Log.e(TAG, "unable to read the bounds of the rotating wallpaper");
+            return 0;
+        }
+        Point wallpaperSize = new Point(boundsOptions.outWidth, boundsOptions.outHeight);
+        Rect scaledCropRect = calculateRotationCropRect(wallpaperSize);
+        if (!scaledCropRect.intersect(0, 0, wallpaperSize.x, wallpaperSize.y)) {
+            Log.e(TAG, "crop of the rotating wallpaper is out of its bounds");
+            return 0;
+        }
+
+        Bitmap croppedBitmap;
+        try {
+            BitmapRegionDecoder regionDecoder =
+                    BitmapRegionDecoder.newInstance(wallpaperFile.getAbsolutePath());
+            try {
+                croppedBitmap = regionDecoder.decodeRegion(scaledCropRect, /* options= */ null);
+            } finally {
+                regionDecoder.recycle();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "unable to decode the rotating wallpaper", e);
+            return 0;
+        }
+        if (croppedBitmap == null) {
+            Log.e(TAG, "unable to decode the rotating wallpaper");
+            return 0;
+        }
+
+        int wallpaperId;
+        if (WallpaperManager.isMultiCropEnabled()) {
+            // The system crops the wallpaper itself, so it gets the original image untouched.
+            try (InputStream inputStream = new FileInputStream(wallpaperFile)) {
+                wallpaperId = mWallpaperManager.setStream(inputStream, scaledCropRect,
+                        /* allowBackup */ false, whichWallpaper);
+            } catch (IOException e) {
+                Log.e(TAG, "unable to write stream to wallpaper manager", e);
+                wallpaperId = 0;
+            }
+        } else {
+            wallpaperId = setBitmapToWallpaperManager(croppedBitmap, /* cropHint= */ null,
+                    /* allowBackup */ false, whichWallpaper);
+        }
+        if (wallpaperId > 0) {
+            mWallpaperPreferences.storeLatestWallpaper(whichWallpaper,
+                    String.valueOf(wallpaperId), attributions, actionUrl, collectionId,
+                    croppedBitmap, WallpaperColors.fromBitmap(croppedBitmap));
+        }
+        mCurrentWallpaperInfoFactory.clearCurrentWallpaperInfos();
+        return wallpaperId;
+    }
+
+    /**
+     * Calculates the crop of a rotating wallpaper of the given size in image pixels, matching the
+     * default one used in preview.
+     */
+    private Rect calculateRotationCropRect(Point wallpaperSize) {
+        // Calculate crop and scale of the wallpaper to match the default one used in preview
         Resources resources = mAppContext.getResources();
         Display croppingDisplay = mDisplayUtils.getWallpaperDisplay();
         Point defaultCropSurfaceSize = WallpaperCropUtils.getDefaultCropSurfaceSize(
@@ -326,31 +437,11 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                 wallpaperSize, defaultCropSurfaceSize, screenSize, offsetX,
                 offsetY, /* cropExtraWidth= */ true);
 
-        Rect scaledCropRect = new Rect(
+        return new Rect(
                 (int) Math.floor((float) cropRect.left / minWallpaperZoom),
                 (int) Math.floor((float) cropRect.top / minWallpaperZoom),
                 (int) Math.floor((float) cropRect.right / minWallpaperZoom),
                 (int) Math.floor((float) cropRect.bottom / minWallpaperZoom));
-
-        // Scale and crop the bitmap
-        if (!WallpaperManager.isMultiCropEnabled()) {
-            wallpaperBitmap = Bitmap.createBitmap(wallpaperBitmap,
-                    scaledCropRect.left,
-                    scaledCropRect.top,
-                    scaledCropRect.width(),
-                    scaledCropRect.height());
-        }
-        scaledCropRect = WallpaperManager.isMultiCropEnabled() ? scaledCropRect : null;
-
-        int wallpaperId = setBitmapToWallpaperManager(wallpaperBitmap, scaledCropRect,
-                /* allowBackup */ false, whichWallpaper);
-        if (wallpaperId > 0) {
-            mWallpaperPreferences.storeLatestWallpaper(whichWallpaper,
-                    String.valueOf(wallpaperId), attributions, actionUrl, collectionId,
-                    wallpaperBitmap, WallpaperColors.fromBitmap(wallpaperBitmap));
-        }
-        mCurrentWallpaperInfoFactory.clearCurrentWallpaperInfos();
-        return wallpaperId;
     }
 
     /*
@@ -367,32 +458,30 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     @Override
     public int setBitmapToWallpaperManager(Bitmap wallpaperBitmap, Rect cropHint,
             boolean allowBackup, int whichWallpaper) {
-        ByteArrayOutputStream tmpOut = new ByteArrayOutputStream();
-        if (wallpaperBitmap.compress(CompressFormat.PNG, DEFAULT_COMPRESS_QUALITY, tmpOut)) {
-            try {
-                byte[] outByteArray = tmpOut.toByteArray();
+        // Stream the encoded bitmap straight into WallpaperManager instead of encoding it into an
+        // in-memory buffer first.
+        InputStream encodedStream = BitmapUtils.bitmapToInputStream(wallpaperBitmap);
+        if (encodedStream != null) {
+            try (InputStream inputStream = encodedStream) {
                 return mWallpaperManager.setStream(
-                        new ByteArrayInputStream(outByteArray),
-                        cropHint /* visibleCropHint */,
-                        allowBackup,
-                        whichWallpaper);
-            } catch (IOException e) {
-                Log.e(TAG, "unable to write stream to wallpaper manager");
-                return 0;
-            }
-        } else {
-            Log.e(TAG, "unable to compress wallpaper");
-            try {
-                return mWallpaperManager.setBitmap(
-                        wallpaperBitmap,
+                        inputStream,
                         cropHint /* visibleCropHint */,
                         allowBackup,
                         whichWallpaper);
             } catch (IOException e) {
-                Log.e(TAG, "unable to set wallpaper");
-                return 0;
+                Log.e(TAG, "unable to write stream to wallpaper manager", e);
             }
         }
+        try {
+            return mWallpaperManager.setBitmap(
+                    wallpaperBitmap,
+                    cropHint /* visibleCropHint */,
+                    allowBackup,
+                    whichWallpaper);
+        } catch (IOException e) {
+            Log.e(TAG, "unable to set wallpaper");
+            return 0;
+        }
     }
 
     @Override
@@ -452,6 +541,12 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     @Override
     public void setLiveWallpaperMetadata(WallpaperInfo wallpaperInfo, String effects,
             @Destination int destination) {
+        mWallpaperPreferences.runInTransaction(
+                () -> saveLiveWallpaperMetadata(wallpaperInfo, effects, destination));
+    }
+
+    private void saveLiveWallpaperMetadata(WallpaperInfo wallpaperInfo, String effects,
+            @Destination int destination) {
         android.app.WallpaperInfo component = wallpaperInfo.getWallpaperComponent();
 
         if (destination == WallpaperPersister.DEST_HOME_SCREEN
@@ -581,35 +676,111 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             }
 
             if (wallpaperId > 0) {
-                if (mDestination == DEST_HOME_SCREEN
-                        && mWallpaperPreferences.getWallpaperPresentationMode()
-                        == WallpaperPreferences.PRESENTATION_MODE_ROTATING
-                        && !wasLockWallpaperSet) {
-                    copyRotatingWallpaperToLock();
+                saveMetadata(wallpaperId, wasLockWallpaperSet);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * Saves the metadata of the wallpaper which was just set. Whatever queries the
+         * WallpaperManager or reads the wallpaper's pixels is done first, so the transaction only
+         * holds in-memory updates, and the wallpaper is added to the recents once it is committed.
+         */
+        private void saveMetadata(int wallpaperId, boolean wasLockWallpaperSet) {
+            boolean copyRotatingWallpaperToLock = mDestination == DEST_HOME_SCREEN
+                    && mWallpaperPreferences.getWallpaperPresentationMode()
+                    == WallpaperPreferences.PRESENTATION_MODE_ROTATING
+                    && !wasLockWallpaperSet;
+            int rotatingLockWallpaperId = copyRotatingWallpaperToLock
+                    ? mWallpaperManager.getWallpaperId(WallpaperManager.FLAG_LOCK) : 0;
+            boolean setsHome = mDestination == DEST_HOME_SCREEN || mDestination == DEST_BOTH;
+            boolean setsLock = mDestination == DEST_LOCK_SCREEN || mDestination == DEST_BOTH;
+
+            if (mIsRefactorSettingWallpaper) {
+                if (mBitmap == null) {
+                    mWallpaperManager.forgetLoadedWallpaper();
+                    mBitmap = ((BitmapDrawable) mWallpaperManager
+                            .getDrawable(WallpaperPersister.destinationToFlags(mDestination)))
+                            .getBitmap();
                 }
+                long bitmapHash = BitmapUtils.generateHashCode(mBitmap);
+                WallpaperColors colors = WallpaperColors.fromBitmap(mBitmap);
 
-                if (mIsRefactorSettingWallpaper) {
-                    if (mBitmap == null) {
-                        mWallpaperManager.forgetLoadedWallpaper();
-                        mBitmap = ((BitmapDrawable) mWallpaperManager
-                                .getDrawable(WallpaperPersister.destinationToFlags(mDestination)))
-                                .getBitmap();
+                mWallpaperPreferences.runInTransaction(() -> {
+                    if (copyRotatingWallpaperToLock) {
+                        copyRotatingWallpaperToLock(rotatingLockWallpaperId);
                     }
-                    setStaticWallpaperMetadataToPreferences(
-                            mDestination,
-                            wallpaperId,
-                            BitmapUtils.generateHashCode(mBitmap),
-                            WallpaperColors.fromBitmap(mBitmap));
-                } else {
-                    setImageWallpaperMetadata(mDestination, wallpaperId);
+                    setStaticWallpaperMetadataToPreferences(mDestination, wallpaperId,
+                            bitmapHash);
+                });
+
+                // Stored once for all the screens it was set on.
+                mWallpaperPreferences.storeLatestWallpaper(
+                        WallpaperPersister.destinationToFlags(mDestination),
+                        mWallpaper.getWallpaperId(), mWallpaper, mBitmap, colors);
+                return;
+            }
+
+            // Compute bitmap hash code after setting the wallpaper because JPEG compression has
+            // likely changed many pixels' color values. Forget the previously loaded wallpaper
+            // bitmap so that WallpaperManager doesn't return the old wallpaper drawable. Do this
+            // on N+ devices in addition to saving the wallpaper ID for the purpose of backup &
+            // restore.
+            long homeBitmapHash = 0;
+            WallpaperColors homeColors = null;
+            if (setsHome) {
+                mWallpaperManager.forgetLoadedWallpaper();
+                mBitmap = ((BitmapDrawable) mWallpaperManager.getDrawable()).getBitmap();
+                homeBitmapHash = BitmapUtils.generateHashCode(mBitmap);
+                homeColors = WallpaperColors.fromBitmap(mBitmap);
+            }
+            // Save the lock wallpaper image's hash code as well for the sake of backup & restore
+            // because WallpaperManager-generated IDs are specific to a physical device and
+            // cannot be  used to identify a wallpaper image on another device after restore is
+            // complete.
+            Bitmap lockFileBitmap = setsLock ? getLockWallpaperBitmap() : null;
+            long lockBitmapHash = lockFileBitmap != null
+                    ? BitmapUtils.generateHashCode(lockFileBitmap) : 0;
+
+            long committedHomeBitmapHash = homeBitmapHash;
+            mWallpaperPreferences.runInTransaction(() -> {
+                if (copyRotatingWallpaperToLock) {
+                    copyRotatingWallpaperToLock(rotatingLockWallpaperId);
                 }
+                setImageWallpaperMetadata(mDestination, wallpaperId, committedHomeBitmapHash,
+                        lockFileBitmap != null, lockBitmapHash);
+            });
 
-                return true;
-            } else {
-                return false;
+            // If the destination is both, the lock screen shows the home screen bitmap, which is
+            // stored once for both screens' recents lists.
+            boolean lockShowsHomeBitmap = setsLock && lockFileBitmap == null
+                    && wallpaperId == mWallpaperPreferences.getHomeWallpaperManagerId();
+            if (setsHome || lockShowsHomeBitmap) {
+                int which = (setsHome ? FLAG_SYSTEM : 0) | (lockShowsHomeBitmap ? FLAG_LOCK : 0);
+                long bitmapHash = setsHome
+                        ? homeBitmapHash : mWallpaperPreferences.getHomeWallpaperHashCode();
+                mWallpaperPreferences.storeLatestWallpaper(which, getRecentWallpaperId(bitmapHash),
+                        mWallpaper, mBitmap,
+                        homeColors != null ? homeColors : WallpaperColors.fromBitmap(mBitmap));
+            }
+            if (lockFileBitmap != null) {
+                mWallpaperPreferences.storeLatestWallpaper(FLAG_LOCK,
+                        getRecentWallpaperId(lockBitmapHash), mWallpaper, lockFileBitmap,
+                        WallpaperColors.fromBitmap(lockFileBitmap));
             }
         }
 
+        /**
+         * Returns the ID the wallpaper is stored under in the recents lists, which can't be null or
+         * empty, falling back to the hash code of its bitmap.
+         */
+        private String getRecentWallpaperId(long bitmapHash) {
+            return TextUtils.isEmpty(mWallpaper.getWallpaperId())
+                    ? String.valueOf(bitmapHash) : mWallpaper.getWallpaperId();
+        }
+
         @Override
         protected void onPostExecute(Boolean isSuccess) {
             if (mInputStream != null) {
@@ -637,36 +808,39 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
          * Used to accommodate the case where a user had gone from a home+lock daily rotation to
          * selecting a static wallpaper on home-only. The image and metadata that was previously
          * rotating is now copied to the lock screen.
+         *
+         * @param lockWallpaperId The lock wallpaper ID Android set, following its having copied
+         *                        the system wallpaper over to the lock screen when we changed
+         *                        from "both" to distinct system and lock screen wallpapers.
          */
-        private void copyRotatingWallpaperToLock() {
+        private void copyRotatingWallpaperToLock(int lockWallpaperId) {
             mWallpaperPreferences.setLockWallpaperAttributions(
                     mWallpaperPreferences.getHomeWallpaperAttributions());
             mWallpaperPreferences.setLockWallpaperActionUrl(
                     mWallpaperPreferences.getHomeWallpaperActionUrl());
             mWallpaperPreferences.setLockWallpaperCollectionId(
                     mWallpaperPreferences.getHomeWallpaperCollectionId());
-
-            // Set the lock wallpaper ID to what Android set it to, following its having
-            // copied the system wallpaper over to the lock screen when we changed from
-            // "both" to distinct system and lock screen wallpapers.
-            mWallpaperPreferences.setLockWallpaperManagerId(
-                    mWallpaperManager.getWallpaperId(WallpaperManager.FLAG_LOCK));
+            mWallpaperPreferences.setLockWallpaperManagerId(lockWallpaperId);
         }
 
         /**
          * Sets the image wallpaper's metadata on SharedPreferences. This method is called after the
          * set wallpaper operation is successful.
          *
-         * @param destination Which destination of wallpaper the metadata corresponds to (home
-         *                    screen, lock screen, or both).
-         * @param wallpaperId The ID of the static wallpaper returned by WallpaperManager, which
-         *                    on N and later versions of Android uniquely identifies a wallpaper
-         *                    image.
+         * @param destination     Which destination of wallpaper the metadata corresponds to (home
+         *                        screen, lock screen, or both).
+         * @param wallpaperId     The ID of the static wallpaper returned by WallpaperManager,
+         *                        which on N and later versions of Android uniquely identifies a
+         *                        wallpaper image.
+         * @param homeBitmapHash  The hash code of the home wallpaper as set.
+         * @param hasLockBitmap   Whether the lock screen has a wallpaper image of its own.
+         * @param lockBitmapHash  The hash code of that image.
          */
-        private void setImageWallpaperMetadata(@Destination int destination, int wallpaperId) {
+        private void setImageWallpaperMetadata(@Destination int destination, int wallpaperId,
+                long homeBitmapHash, boolean hasLockBitmap, long lockBitmapHash) {
             if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
                 mWallpaperPreferences.clearHomeWallpaperMetadata();
-                setImageWallpaperHomeMetadata(wallpaperId);
+                setImageWallpaperHomeMetadata(wallpaperId, homeBitmapHash);
 
                 // Disable rotation wallpaper when setting static image wallpaper to home screen
                 // Daily rotation rotates both home and lock screen wallpaper when lock screen is
@@ -680,35 +854,21 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
                 mWallpaperPreferences.clearLockWallpaperMetadata();
                 setImageWallpaperLockMetadata(wallpaperId);
+                if (hasLockBitmap) {
+                    mWallpaperPreferences.setLockWallpaperHashCode(lockBitmapHash);
+                }
             }
         }
 
-        private void setImageWallpaperHomeMetadata(int homeWallpaperId) {
+        private void setImageWallpaperHomeMetadata(int homeWallpaperId, long bitmapHash) {
             mWallpaperPreferences.setHomeWallpaperManagerId(homeWallpaperId);
-
-            // Compute bitmap hash code after setting the wallpaper because JPEG compression has
-            // likely changed many pixels' color values. Forget the previously loaded wallpaper
-            // bitmap so that WallpaperManager doesn't return the old wallpaper drawable. Do this
-            // on N+ devices in addition to saving the wallpaper ID for the purpose of backup &
-            // restore.
-            mWallpaperManager.forgetLoadedWallpaper();
-            mBitmap = ((BitmapDrawable) mWallpaperManager.getDrawable()).getBitmap();
-            long bitmapHash = BitmapUtils.generateHashCode(mBitmap);
-            WallpaperColors colors = WallpaperColors.fromBitmap(mBitmap);
-
             mWallpaperPreferences.setHomeWallpaperHashCode(bitmapHash);
-
             mWallpaperPreferences.setHomeWallpaperAttributions(
                     mWallpaper.getAttributions(mAppContext));
             mWallpaperPreferences.setHomeWallpaperActionUrl(mWallpaper.getActionUrl(mAppContext));
             mWallpaperPreferences.setHomeWallpaperCollectionId(
                     mWallpaper.getCollectionId(mAppContext));
             mWallpaperPreferences.setHomeWallpaperRemoteId(mWallpaper.getWallpaperId());
-            // Wallpaper ID can not be null or empty to save to the recent wallpaper as preferences
-            String recentWallpaperId = TextUtils.isEmpty(mWallpaper.getWallpaperId())
-                    ? String.valueOf(bitmapHash) : mWallpaper.getWallpaperId();
-            mWallpaperPreferences.storeLatestWallpaper(FLAG_SYSTEM, recentWallpaperId,
-                    mWallpaper, mBitmap, colors);
         }
 
         private void setImageWallpaperLockMetadata(int lockWallpaperId) {
@@ -719,36 +879,10 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             mWallpaperPreferences.setLockWallpaperCollectionId(
                     mWallpaper.getCollectionId(mAppContext));
             mWallpaperPreferences.setLockWallpaperRemoteId(mWallpaper.getWallpaperId());
-
-            // Save the lock wallpaper image's hash code as well for the sake of backup & restore
-            // because WallpaperManager-generated IDs are specific to a physical device and
-            // cannot be  used to identify a wallpaper image on another device after restore is
-            // complete.
-            Bitmap lockBitmap = getLockWallpaperBitmap();
-            long bitmapHashCode = 0;
-            if (lockBitmap != null) {
-                saveLockWallpaperHashCode(lockBitmap);
-                bitmapHashCode = mWallpaperPreferences.getLockWallpaperHashCode();
-            }
-
-            // If the destination is both, use the home screen bitmap to populate the lock screen
-            // recents list.
-            if (lockBitmap == null
-                    && lockWallpaperId == mWallpaperPreferences.getHomeWallpaperManagerId()) {
-                lockBitmap = mBitmap;
-                bitmapHashCode = mWallpaperPreferences.getHomeWallpaperHashCode();
-            }
-
-            if (lockBitmap != null) {
-                mWallpaperPreferences.storeLatestWallpaper(FLAG_LOCK,
-                        TextUtils.isEmpty(mWallpaper.getWallpaperId()) ? String.valueOf(
-                                bitmapHashCode) : mWallpaper.getWallpaperId(), mWallpaper,
-                        lockBitmap, WallpaperColors.fromBitmap(lockBitmap));
-            }
         }
 
         private void setStaticWallpaperMetadataToPreferences(@Destination int destination,
-                int wallpaperId, long bitmapHash, WallpaperColors colors) {
+                int wallpaperId, long bitmapHash) {
             saveStaticWallpaperToPreferences(
                     destination,
                     new StaticWallpaperPrefMetadata(
@@ -760,26 +894,11 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                             mWallpaper.getWallpaperId()));
 
             if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
-                mWallpaperPreferences.storeLatestWallpaper(
-                        FLAG_SYSTEM,
-                        mWallpaper.getWallpaperId(),
-                        mWallpaper,
-                        mBitmap,
-                        colors);
                 // Stop wallpaper rotation if a static wallpaper is set to home.
                 mWallpaperPreferences.setWallpaperPresentationMode(
                         WallpaperPreferences.PRESENTATION_MODE_STATIC);
                 mWallpaperPreferences.clearDailyRotations();
             }
-
-            if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
-                mWallpaperPreferences.storeLatestWallpaper(
-                        FLAG_LOCK,
-                        mWallpaper.getWallpaperId(),
-                        mWallpaper,
-                        mBitmap,
-                        colors);
-            }
         }
 
         private Bitmap getLockWallpaperBitmap() {
@@ -803,14 +922,5 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                 }
             }
         }
-
-        private long saveLockWallpaperHashCode(Bitmap lockBitmap) {
-            if (lockBitmap != null) {
-                long bitmapHash = BitmapUtils.generateHashCode(lockBitmap);
-                mWallpaperPreferences.setLockWallpaperHashCode(bitmapHash);
-                return bitmapHash;
-            }
-            return 0;
-        }
     }
 }
@@ -26,16 +26,21 @@ import android.graphics.Color
 import android.graphics.Point
 import android.graphics.Rect
 import android.util.Log
+import androidx.annotation.GuardedBy
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
 import com.android.wallpaper.model.WallpaperInfo
+import com.android.wallpaper.module.RecentWallpapersStore.RecentWallpaper
+import com.android.wallpaper.module.WallpaperMetadataStore.ScreenMetadata
 import com.android.wallpaper.module.WallpaperPreferenceKeys.NoBackupKeys
 import com.android.wallpaper.module.WallpaperPreferences.Companion.generateRecentsKey
 import com.android.wallpaper.module.WallpaperPreferences.PendingDailyWallpaperUpdateStatus
 import com.android.wallpaper.module.WallpaperPreferences.PendingWallpaperSetStatus
 import com.android.wallpaper.module.WallpaperPreferences.PresentationMode
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.HOME
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.LOCK
 import com.android.wallpaper.picker.data.WallpaperModel.LiveWallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.StaticWallpaperModel
 import java.text.SimpleDateFormat
@@ -52,9 +57,20 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
     protected val noBackupPrefs: SharedPreferences =
         context.getSharedPreferences(NO_BACKUP_PREFS_NAME, Context.MODE_PRIVATE)
 
+    private val metadataStore = WallpaperMetadataStore.getInstance(context)
+    private val recentWallpapers = RecentWallpapersStore.getInstance(context)
+
+    private val dailyRotationsLock = Any()
+    @GuardedBy("dailyRotationsLock") private var dailyRotations: DailyRotationHistory? = null
+    /** The encoded history [dailyRotations] was read from or written as. */
+    @GuardedBy("dailyRotationsLock") private var dailyRotationsEncoded: String? = null
+
     private val backupManager = BackupManager(context)
-    private val sharedPrefsChangedListener = OnSharedPreferenceChangeListener { _, _ ->
-        backupManager.dataChanged()
+    private val sharedPrefsChangedListener = OnSharedPreferenceChangeListener { _, key ->
+        // The metadata store notifies the backup manager once for all the keys it commits.
+        if (key !in WallpaperMetadataStore.BACKED_UP_KEYS) {
+            backupManager.dataChanged()
+        }
     }
 
     init {
@@ -219,466 +235,286 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
     }
 
     override fun getHomeWallpaperAttributions(): List<String?>? {
-        return listOf(
-            sharedPrefs.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_1, null),
-            sharedPrefs.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_2, null),
-            sharedPrefs.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_3, null)
-        )
+        return metadataStore.get(HOME).attributions
     }
 
     override fun setHomeWallpaperAttributions(attributions: List<String?>?) {
         if (attributions.isNullOrEmpty()) {
             return
         }
-        val editor = sharedPrefs.edit()
-        attributions.take(3).forEachIndexed { index, attr ->
-            when (index) {
-                0 -> editor.putString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_1, attr)
-                1 -> editor.putString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_2, attr)
-                2 -> editor.putString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_3, attr)
-            }
-        }
-        editor.apply()
+        metadataStore.update(HOME) { it.withAttributions(attributions) }
     }
 
     override fun getHomeWallpaperActionUrl(): String? {
-        return sharedPrefs.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ACTION_URL, null)
+        return metadataStore.get(HOME).actionUrl
     }
 
     override fun setHomeWallpaperActionUrl(actionUrl: String?) {
-        sharedPrefs
-            .edit()
-            .putString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ACTION_URL, actionUrl)
-            .apply()
+        metadataStore.update(HOME) { it.copy(actionUrl = actionUrl) }
     }
 
     override fun getHomeWallpaperCollectionId(): String? {
-        return sharedPrefs.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID, null)
+        return metadataStore.get(HOME).collectionId
     }
 
     override fun setHomeWallpaperCollectionId(collectionId: String?) {
-        sharedPrefs
-            .edit()
-            .putString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID, collectionId)
-            .apply()
+        metadataStore.update(HOME) { it.copy(collectionId = collectionId) }
     }
 
     override fun clearHomeWallpaperMetadata() {
-        sharedPrefs
-            .edit()
-            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_1)
-            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_2)
-            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_3)
-            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ACTION_URL)
-            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID)
-            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE)
-            .apply()
-        noBackupPrefs
-            .edit()
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_BASE_IMAGE_URL)
-            .remove(NoBackupKeys.KEY_HOME_WALLPAPER_BACKING_FILE)
-            .apply()
+        metadataStore.update(HOME) { it.cleared() }
     }
 
     override fun setHomeStaticImageWallpaperMetadata(metadata: StaticWallpaperPrefMetadata) {
-        val sharedEditor = sharedPrefs.edit()
-        val attributions = metadata.attributions
-        if (!attributions.isNullOrEmpty()) {
-            attributions.take(3).forEachIndexed { index, attr ->
-                when (index) {
-                    0 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_1,
-                            attr
-                        )
-                    1 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_2,
-                            attr
-                        )
-                    2 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_3,
-                            attr
-                        )
-                }
-            }
-        }
-        sharedEditor.putString(
-            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ACTION_URL,
-            metadata.actionUrl
-        )
-        sharedEditor.putString(
-            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID,
-            metadata.collectionId
-        )
-        val hashCode = metadata.hashCode
-        if (hashCode != null) {
-            sharedEditor.putLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, hashCode)
-        }
-        sharedEditor.apply()
-
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.putString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, metadata.remoteId)
-        noBackupEditor.apply()
+        metadataStore.update(HOME) { it.withStaticImageMetadata(metadata) }
     }
 
     override fun setHomeLiveWallpaperMetadata(metadata: LiveWallpaperPrefMetadata) {
-        val sharedEditor = sharedPrefs.edit()
-        val attributions = metadata.attributions
-        if (!attributions.isNullOrEmpty()) {
-            attributions.take(3).forEachIndexed { index, attr ->
-                when (index) {
-                    0 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_1,
-                            attr
-                        )
-                    1 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_2,
-                            attr
-                        )
-                    2 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_3,
-                            attr
-                        )
-                }
-            }
-        }
-        sharedEditor.putString(
-            WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID,
-            metadata.collectionId
-        )
-        sharedEditor.apply()
-
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, metadata.serviceName)
-        noBackupEditor.putString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, metadata.effectName)
-        noBackupEditor.putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.apply()
+        metadataStore.update(HOME) { it.withLiveMetadata(metadata) }
     }
 
     override fun getHomeWallpaperHashCode(): Long {
-        return sharedPrefs.getLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, 0)
+        return metadataStore.get(HOME).hashCode
     }
 
     override fun setHomeWallpaperHashCode(hashCode: Long) {
-        sharedPrefs
-            .edit()
-            .putLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, hashCode)
-            .apply()
+        metadataStore.update(HOME) { it.copy(hashCode = hashCode) }
     }
 
     override fun getHomeWallpaperServiceName(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, null)
+        return metadataStore.get(HOME).serviceName
     }
 
     override fun setHomeWallpaperServiceName(serviceName: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, serviceName)
-            .apply()
+        metadataStore.update(HOME) { it.copy(serviceName = serviceName) }
         setFirstWallpaperApplyDateIfNeeded()
     }
 
     override fun getHomeWallpaperManagerId(): Int {
-        return noBackupPrefs.getInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 0)
+        return metadataStore.get(HOME).managerId
     }
 
     override fun setHomeWallpaperManagerId(homeWallpaperId: Int) {
-        noBackupPrefs
-            .edit()
-            .putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, homeWallpaperId)
-            .apply()
+        metadataStore.update(HOME) { it.copy(managerId = homeWallpaperId) }
     }
 
     override fun getHomeWallpaperRemoteId(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, null)
+        return metadataStore.get(HOME).remoteId
     }
 
     override fun setHomeWallpaperRemoteId(wallpaperRemoteId: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, wallpaperRemoteId)
-            .apply()
+        metadataStore.update(HOME) { it.copy(remoteId = wallpaperRemoteId) }
         setFirstWallpaperApplyDateIfNeeded()
     }
 
     override fun getHomeWallpaperRecentsKey(): String? {
-        return noBackupPrefs.getString(
-            NoBackupKeys.KEY_HOME_WALLPAPER_RECENTS_KEY,
-            generateRecentsKey(getHomeWallpaperRemoteId(), getHomeWallpaperHashCode())
-        )
+        val metadata = metadataStore.get(HOME)
+        return metadata.recentsKey ?: generateRecentsKey(metadata.remoteId, metadata.hashCode)
     }
 
     override fun setHomeWallpaperRecentsKey(recentsKey: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_RECENTS_KEY, recentsKey)
-            .apply()
+        metadataStore.update(HOME) { it.copy(recentsKey = recentsKey) }
     }
 
     override fun getHomeWallpaperEffects(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, null)
+        return metadataStore.get(HOME).effects
     }
 
     override fun setHomeWallpaperEffects(wallpaperEffects: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, wallpaperEffects)
-            .apply()
+        metadataStore.update(HOME) { it.copy(effects = wallpaperEffects) }
     }
 
     override fun getLockWallpaperAttributions(): List<String?>? {
-        return listOf(
-            sharedPrefs.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_1, null),
-            sharedPrefs.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_2, null),
-            sharedPrefs.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_3, null)
-        )
+        return metadataStore.get(LOCK).attributions
     }
 
     override fun setLockWallpaperAttributions(attributions: List<String?>?) {
         if (attributions.isNullOrEmpty()) {
             return
         }
-        val editor = sharedPrefs.edit()
-        attributions.take(3).forEachIndexed { index, attr ->
-            when (index) {
-                0 -> editor.putString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_1, attr)
-                1 -> editor.putString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_2, attr)
-                2 -> editor.putString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_3, attr)
-            }
-        }
-        editor.apply()
+        metadataStore.update(LOCK) { it.withAttributions(attributions) }
     }
 
     override fun getLockWallpaperActionUrl(): String? {
-        return sharedPrefs.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ACTION_URL, null)
+        return metadataStore.get(LOCK).actionUrl
     }
 
     override fun setLockWallpaperActionUrl(actionUrl: String?) {
-        sharedPrefs
-            .edit()
-            .putString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ACTION_URL, actionUrl)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(actionUrl = actionUrl) }
     }
 
     override fun getLockWallpaperCollectionId(): String? {
-        return sharedPrefs.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID, null)
+        return metadataStore.get(LOCK).collectionId
     }
 
     override fun setLockWallpaperCollectionId(collectionId: String?) {
-        sharedPrefs
-            .edit()
-            .putString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID, collectionId)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(collectionId = collectionId) }
     }
 
     override fun clearLockWallpaperMetadata() {
-        sharedPrefs
-            .edit()
-            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_1)
-            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_2)
-            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_3)
-            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ACTION_URL)
-            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID)
-            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE)
-            .apply()
-        noBackupPrefs
-            .edit()
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID)
-            .remove(NoBackupKeys.KEY_LOCK_WALLPAPER_BACKING_FILE)
-            .apply()
+        metadataStore.update(LOCK) { it.cleared() }
     }
 
     override fun setLockStaticImageWallpaperMetadata(metadata: StaticWallpaperPrefMetadata) {
-        val sharedEditor = sharedPrefs.edit()
-        val attributions = metadata.attributions
-        if (!attributions.isNullOrEmpty()) {
-            attributions.take(3).forEachIndexed { index, attr ->
-                when (index) {
-                    0 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_1,
-                            attr
-                        )
-                    1 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_2,
-                            attr
-                        )
-                    2 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_3,
-                            attr
-                        )
-                }
-            }
-        }
-        sharedEditor.putString(
-            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ACTION_URL,
-            metadata.actionUrl
-        )
-        sharedEditor.putString(
-            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID,
-            metadata.collectionId
-        )
-        val hashCode = metadata.hashCode
-        if (hashCode != null) {
-            sharedEditor.putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, hashCode)
-        }
-        sharedEditor.apply()
-
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.putString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, metadata.remoteId)
-        noBackupEditor.apply()
+        metadataStore.update(LOCK) { it.withStaticImageMetadata(metadata) }
     }
 
     override fun setLockLiveWallpaperMetadata(metadata: LiveWallpaperPrefMetadata) {
-        val sharedEditor = sharedPrefs.edit()
-        val attributions = metadata.attributions
-        if (!attributions.isNullOrEmpty()) {
-            attributions.take(3).forEachIndexed { index, attr ->
-                when (index) {
-                    0 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_1,
-                            attr
-                        )
-                    1 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_2,
-                            attr
-                        )
-                    2 ->
-                        sharedEditor.putString(
-                            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_3,
-                            attr
-                        )
-                }
-            }
-        }
-        sharedEditor.putString(
-            WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID,
-            metadata.collectionId
-        )
-        sharedEditor.apply()
-
-        val noBackupEditor = noBackupPrefs.edit()
-        noBackupEditor.putString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, metadata.serviceName)
-        noBackupEditor.putString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, metadata.effectName)
-        noBackupEditor.putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, metadata.managerId)
-        noBackupEditor.apply()
+        metadataStore.update(LOCK) { it.withLiveMetadata(metadata) }
     }
 
     override fun getLockWallpaperHashCode(): Long {
-        return sharedPrefs.getLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, 0)
+        return metadataStore.get(LOCK).hashCode
     }
 
     override fun setLockWallpaperHashCode(hashCode: Long) {
-        sharedPrefs
-            .edit()
-            .putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, hashCode)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(hashCode = hashCode) }
     }
 
     override fun getLockWallpaperServiceName(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, null)
+        return metadataStore.get(LOCK).serviceName
     }
 
     override fun setLockWallpaperServiceName(serviceName: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, serviceName)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(serviceName = serviceName) }
     }
 
     override fun getLockWallpaperManagerId(): Int {
-        return noBackupPrefs.getInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 0)
+        return metadataStore.get(LOCK).managerId
     }
 
     override fun setLockWallpaperManagerId(lockWallpaperId: Int) {
-        noBackupPrefs
-            .edit()
-            .putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, lockWallpaperId)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(managerId = lockWallpaperId) }
     }
 
     override fun getLockWallpaperRemoteId(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, null)
+        return metadataStore.get(LOCK).remoteId
     }
 
     override fun setLockWallpaperRemoteId(wallpaperRemoteId: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, wallpaperRemoteId)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(remoteId = wallpaperRemoteId) }
         setFirstWallpaperApplyDateIfNeeded()
     }
 
     override fun getLockWallpaperRecentsKey(): String? {
-        return noBackupPrefs.getString(
-            NoBackupKeys.KEY_LOCK_WALLPAPER_RECENTS_KEY,
-            generateRecentsKey(getLockWallpaperRemoteId(), getLockWallpaperHashCode())
-        )
+        val metadata = metadataStore.get(LOCK)
+        return metadata.recentsKey ?: generateRecentsKey(metadata.remoteId, metadata.hashCode)
     }
 
     override fun setLockWallpaperRecentsKey(recentsKey: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_RECENTS_KEY, recentsKey)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(recentsKey = recentsKey) }
     }
 
     override fun getLockWallpaperEffects(): String? {
-        return noBackupPrefs.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, null)
+        return metadataStore.get(LOCK).effects
     }
 
     override fun setLockWallpaperEffects(wallpaperEffects: String?) {
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, wallpaperEffects)
-            .apply()
+        metadataStore.update(LOCK) { it.copy(effects = wallpaperEffects) }
     }
 
+    override fun runInTransaction(block: Runnable) {
+        metadataStore.runInTransaction(block)
+    }
+
+    /** Replaces the first attribution lines with the given ones, up to three of them. */
+    private fun ScreenMetadata.withAttributions(newAttributions: List<String?>): ScreenMetadata =
+        copy(
+            attributions =
+                attributions.mapIndexed { index, attribution ->
+                    newAttributions.getOrElse(index) { attribution }
+                }
+        )
+
+    /** Removes everything but the recents key, which is only replaced when the next one is set. */
+    private fun ScreenMetadata.cleared(): ScreenMetadata = ScreenMetadata(recentsKey = recentsKey)
+
+    private fun ScreenMetadata.withStaticImageMetadata(
+        metadata: StaticWallpaperPrefMetadata
+    ): ScreenMetadata =
+        withAttributions(metadata.attributions.orEmpty())
+            .copy(
+                actionUrl = metadata.actionUrl,
+                collectionId = metadata.collectionId,
+                hashCode = metadata.hashCode ?: hashCode,
+                managerId = metadata.managerId,
+                remoteId = metadata.remoteId,
+            )
+
+    private fun ScreenMetadata.withLiveMetadata(
+        metadata: LiveWallpaperPrefMetadata
+    ): ScreenMetadata =
+        withAttributions(metadata.attributions.orEmpty())
+            .copy(
+                collectionId = metadata.collectionId,
+                serviceName = metadata.serviceName,
+                effects = metadata.effectName,
+                managerId = metadata.managerId,
+            )
+
     override fun addDailyRotation(timestamp: Long) {
-        val jsonString = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]")
-        try {
-            val jsonArray = JSONArray(jsonString)
-            jsonArray.put(timestamp)
+        synchronized(dailyRotationsLock) {
+            val history = loadDailyRotationsLocked()
+            history.add(timestamp)
+            val encoded = history.encode()
             noBackupPrefs
                 .edit()
-                .putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, jsonArray.toString())
+                .putString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, encoded)
                 .apply()
-        } catch (e: JSONException) {
-            Log.e(TAG, "Failed to add a daily rotation timestamp due to a JSON parse exception")
+            dailyRotationsEncoded = encoded
         }
     }
 
     override fun getLastDailyRotationTimestamp(): Long {
-        val jsonString = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]")
-        return try {
-            val jsonArray = JSONArray(jsonString)
-            if (jsonArray.length() == 0) {
-                -1
-            } else jsonArray.getLong(jsonArray.length() - 1)
-        } catch (e: JSONException) {
-            Log.e(TAG, "Failed to find a daily rotation timestamp due to a JSON parse exception")
-            -1
+        synchronized(dailyRotationsLock) {
+            return loadDailyRotationsLocked().last()
         }
     }
 
+    /**
+     * Returns the daily rotation history, only decoding it again if it was changed through another
+     * instance since it was last read or written.
+     */
+    @GuardedBy("dailyRotationsLock")
+    private fun loadDailyRotationsLocked(): DailyRotationHistory {
+        val encoded = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, null)
+        dailyRotations
+            ?.takeIf { encoded == dailyRotationsEncoded }
+            ?.let {
+                return it
+            }
+        val history =
+            encoded?.let { DailyRotationHistory.decode(it) } ?: migrateDailyRotationTimestamps()
+        dailyRotations = history
+        dailyRotationsEncoded =
+            noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, null)
+        return history
+    }
+
+    /**
+     * Moves the daily rotations from the JSON array older versions kept every one of them in to
+     * the history, which only keeps the most recent ones.
+     */
+    private fun migrateDailyRotationTimestamps(): DailyRotationHistory {
+        val jsonString =
+            noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, null)
+                ?: return DailyRotationHistory()
+        val history =
+            try {
+                val jsonArray = JSONArray(jsonString)
+                DailyRotationHistory.of(List(jsonArray.length()) { jsonArray.getLong(it) })
+            } catch (e: JSONException) {
+                Log.e(TAG, "Failed to migrate daily rotations due to a JSON parse exception")
+                DailyRotationHistory()
+            }
+        noBackupPrefs
+            .edit()
+            .putString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, history.encode())
+            .remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
+            .apply()
+        return history
+    }
+
     override fun getDailyWallpaperEnabledTimestamp(): Long {
         return noBackupPrefs.getLong(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP, -1)
     }
@@ -691,11 +527,16 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
     }
 
     override fun clearDailyRotations() {
-        noBackupPrefs
-            .edit()
-            .remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
-            .remove(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP)
-            .apply()
+        synchronized(dailyRotationsLock) {
+            noBackupPrefs
+                .edit()
+                .remove(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY)
+                .remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
+                .remove(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP)
+                .apply()
+            dailyRotations = null
+            dailyRotationsEncoded = null
+        }
     }
 
     override fun getLastDailyLogTimestamp(): Long {
@@ -873,7 +714,23 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         wallpaperId: String,
         wallpaper: LiveWallpaperInfo,
         colors: WallpaperColors,
-    ) {}
+    ) {
+        recentWallpapers.addLiveWallpaper(
+            WallpaperDestination.fromFlags(which),
+            RecentWallpaper(
+                wallpaperId = wallpaperId,
+                placeholderColor = colors.primaryColor.toArgb(),
+                title = wallpaper.getTitle(context),
+                attributions = wallpaper.getAttributions(context),
+                actionUrl = wallpaper.getActionUrl(context),
+                collectionId = wallpaper.getCollectionId(context),
+                componentName = wallpaper.wallpaperComponent.component,
+                effects = wallpaper.effectNames,
+            ),
+        ) {
+            wallpaper.getThumbAsset(context).getLowResBitmap(context)
+        }
+    }
 
     override fun storeLatestWallpaper(
         @SetWallpaperFlags which: Int,
@@ -881,7 +738,20 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         wallpaper: WallpaperInfo,
         croppedWallpaperBitmap: Bitmap,
         colors: WallpaperColors,
-    ) {}
+    ) {
+        recentWallpapers.addStaticWallpaper(
+            WallpaperDestination.fromFlags(which),
+            RecentWallpaper(
+                wallpaperId = wallpaperId,
+                placeholderColor = colors.primaryColor.toArgb(),
+                title = wallpaper.getTitle(context),
+                attributions = wallpaper.getAttributions(context),
+                actionUrl = wallpaper.getActionUrl(context),
+                collectionId = wallpaper.getCollectionId(context),
+            ),
+            croppedWallpaperBitmap,
+        )
+    }
 
     override fun storeLatestWallpaper(
         @SetWallpaperFlags which: Int,
@@ -891,19 +761,64 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         collectionId: String?,
         croppedWallpaperBitmap: Bitmap,
         colors: WallpaperColors,
-    ) {}
+    ) {
+        recentWallpapers.addStaticWallpaper(
+            WallpaperDestination.fromFlags(which),
+            RecentWallpaper(
+                wallpaperId = wallpaperId,
+                placeholderColor = colors.primaryColor.toArgb(),
+                title = attributions?.firstOrNull(),
+                attributions = attributions.orEmpty(),
+                actionUrl = actionUrl,
+                collectionId = collectionId,
+            ),
+            croppedWallpaperBitmap,
+        )
+    }
 
     override suspend fun addStaticWallpaperToRecentWallpapers(
         destination: WallpaperDestination,
         wallpaperModel: StaticWallpaperModel,
         bitmap: Bitmap,
         cropHints: Map<Point, Rect>?,
-    ) {}
+    ) {
+        val commonData = wallpaperModel.commonWallpaperData
+        recentWallpapers.addStaticWallpaper(
+            destination,
+            RecentWallpaper(
+                wallpaperId = commonData.id.uniqueId,
+                placeholderColor = commonData.placeholderColorInfo.placeholderColor,
+                title = commonData.title,
+                attributions = commonData.attributions.orEmpty(),
+                actionUrl = commonData.exploreActionUrl,
+                collectionId = commonData.id.collectionId,
+                cropHints = cropHints.orEmpty(),
+            ),
+            bitmap,
+        )
+    }
 
     override suspend fun addLiveWallpaperToRecentWallpapers(
         destination: WallpaperDestination,
         wallpaperModel: LiveWallpaperModel
-    ) {}
+    ) {
+        val commonData = wallpaperModel.commonWallpaperData
+        recentWallpapers.addLiveWallpaper(
+            destination,
+            RecentWallpaper(
+                wallpaperId = commonData.id.uniqueId,
+                placeholderColor = commonData.placeholderColorInfo.placeholderColor,
+                title = commonData.title,
+                attributions = commonData.attributions.orEmpty(),
+                actionUrl = commonData.exploreActionUrl,
+                collectionId = commonData.id.collectionId,
+                componentName = commonData.id.componentName,
+                effects = wallpaperModel.liveWallpaperData.effectNames,
+            ),
+        ) {
+            commonData.thumbAsset.getLowResBitmap(context)
+        }
+    }
 
     override fun setHasSmallPreviewTooltipBeenShown(hasTooltipBeenShown: Boolean) {
         sharedPrefs
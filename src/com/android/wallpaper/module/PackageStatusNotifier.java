@@ -54,7 +54,8 @@ public interface PackageStatusNotifier {
      * Add a {@link Listener} to be notified of package events. Only packages that declare an
      * Activity or Service responding to that Intent Action will trigger the Listener's callback,
      * except for the case of PackageStatus#REMOVED which will be triggered for any removed package
-     * (since it will trigger after the package has been already removed)
+     * (since it will trigger after the package has been already removed), and PackageStatus#CHANGED
+     * which is also triggered when a package stops responding to that Intent Action
      * @param listener Callback to be notified of changes
      * @param action Intent action to filter packages to be notified about
      *              (except for REMOVED status)
@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.ComponentName
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Bitmap.CompressFormat.WEBP_LOSSLESS
+import android.graphics.Bitmap.CompressFormat.WEBP_LOSSY
+import android.graphics.BitmapFactory
+import android.graphics.Point
+import android.graphics.Rect
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import com.android.wallpaper.asset.BitmapUtils
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.UUID
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/**
+ * The wallpapers most recently set on the home and lock screens, kept in app storage so they can
+ * be listed, shown and set again without the external recents provider.
+ *
+ * Each screen keeps its [MAX_RECENTS] most recently set wallpapers; setting another one evicts the
+ * least recently set. Static wallpapers are stored as the image which was set, compressed
+ * losslessly, along with a small thumbnail, live wallpapers as their component and a thumbnail.
+ * The list changes in memory right away, while images, thumbnails and the index of the lists are
+ * written on a background thread.
+ */
+class RecentWallpapersStore
+@VisibleForTesting
+internal constructor(
+    private val directory: File,
+    private val writeExecutor: Executor,
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+
+    /** A wallpaper which was set on a screen. */
+    data class RecentWallpaper(
+        val wallpaperId: String,
+        val placeholderColor: Int,
+        val title: String? = null,
+        val attributions: List<String?> = emptyList(),
+        val actionUrl: String? = null,
+        val collectionId: String? = null,
+        /** The component of a live wallpaper, or null for a static image. */
+        val componentName: ComponentName? = null,
+        val effects: String? = null,
+        /** The crop hints the static image was set with, by display size. */
+        val cropHints: Map<Point, Rect> = emptyMap(),
+        /** When the wallpaper was last set, filled in by the store. */
+        val lastUpdated: Long = 0,
+        /** Name of the files of this wallpaper, filled in by the store. */
+        internal val fileKey: String = "",
+    ) {
+        val isLiveWallpaper: Boolean
+            get() = componentName != null
+    }
+
+    private val indexFile = AtomicFile(File(directory, INDEX_FILE_NAME))
+    private val listeners = CopyOnWriteArrayList<Runnable>()
+    private val lock = Any()
+    @GuardedBy("lock")
+    private var recents: Map<WallpaperDestination, MutableList<RecentWallpaper>>? = null
+    /** Images of the static wallpapers which haven't been written yet, by file key. */
+    @GuardedBy("lock") private val pendingImages = mutableMapOf<String, Bitmap>()
+    /** File keys of the wallpapers whose files haven't been written yet. */
+    @GuardedBy("lock") private val pendingFileKeys = mutableSetOf<String>()
+    @GuardedBy("lock") private var isIndexDirty = false
+
+    /** Returns the wallpapers recently set on the given screen, the most recent first. */
+    fun list(destination: WallpaperDestination): List<RecentWallpaper> {
+        synchronized(lock) {
+            return loadLocked().getValue(screenOf(destination)).toList()
+        }
+    }
+
+    /** Returns the wallpaper with the given ID recently set on the given screen, if any. */
+    fun get(destination: WallpaperDestination, wallpaperId: String): RecentWallpaper? {
+        synchronized(lock) {
+            return loadLocked().getValue(screenOf(destination)).find {
+                it.wallpaperId == wallpaperId
+            }
+        }
+    }
+
+    /**
+     * Adds a static wallpaper set on the given screens as their most recent wallpaper. The image
+     * is written on a background thread, so it mustn't be recycled or modified afterwards. An image
+     * which is still being written for the same wallpaper on another screen is shared rather than
+     * written again.
+     */
+    fun addStaticWallpaper(
+        destination: WallpaperDestination,
+        wallpaper: RecentWallpaper,
+        image: Bitmap,
+    ) {
+        val stored = add(destination, wallpaper.copy(componentName = null), image)
+        if (stored == null) {
+            return
+        }
+        writeExecutor.execute {
+            val isWritten =
+                writeBitmap(imageFileOf(stored), image, WEBP_LOSSLESS, IMAGE_COMPRESSION_EFFORT) &&
+                    writeThumbnail(stored, image)
+            onFilesWritten(stored, isWritten)
+        }
+    }
+
+    /**
+     * Adds a live wallpaper set on the given screens as their most recent wallpaper. Its thumbnail
+     * is loaded and written on a background thread.
+     */
+    fun addLiveWallpaper(
+        destination: WallpaperDestination,
+        wallpaper: RecentWallpaper,
+        loadThumbnail: () -> Bitmap?,
+    ) {
+        checkNotNull(wallpaper.componentName) { "A live wallpaper needs a component" }
+        val stored = checkNotNull(add(destination, wallpaper, image = null))
+        writeExecutor.execute {
+            // A live wallpaper can still be set again without its thumbnail.
+            loadThumbnail()?.let { writeThumbnail(stored, it) }
+            onFilesWritten(stored, isWritten = true)
+        }
+    }
+
+    /**
+     * Makes the wallpaper with the given ID the most recent one of the given screen again, after
+     * it has been set from the recent wallpapers.
+     *
+     * @return the updated wallpaper, or null if it isn't a recent wallpaper of the screen.
+     */
+    fun moveToFront(destination: WallpaperDestination, wallpaperId: String): RecentWallpaper? {
+        val moved =
+            synchronized(lock) {
+                val list = loadLocked().getValue(screenOf(destination))
+                val index = list.indexOfFirst { it.wallpaperId == wallpaperId }
+                if (index < 0) {
+                    return null
+                }
+                list.removeAt(index).copy(lastUpdated = clock()).also {
+                    list.add(0, it)
+                    isIndexDirty = true
+                }
+            }
+        writeExecutor.execute { writeIndexIfDirty() }
+        notifyListeners()
+        return moved
+    }
+
+    /**
+     * Opens the image of the given static wallpaper, to set it again.
+     *
+     * @return the stream of the encoded image, or null if it's gone.
+     */
+    @WorkerThread
+    fun openImage(wallpaper: RecentWallpaper): InputStream? {
+        synchronized(lock) { pendingImages[wallpaper.fileKey] }
+            ?.let {
+                return BitmapUtils.bitmapToInputStream(it)
+            }
+        return try {
+            FileInputStream(imageFileOf(wallpaper))
+        } catch (e: FileNotFoundException) {
+            Log.w(TAG, "The image of recent wallpaper ${wallpaper.wallpaperId} is gone")
+            null
+        }
+    }
+
+    /**
+     * Loads the thumbnail of the wallpaper with the given ID recently set on the given screen,
+     * sampled down to the target size if one is given.
+     */
+    @WorkerThread
+    fun loadThumbnail(
+        destination: WallpaperDestination,
+        wallpaperId: String,
+        targetSize: Point?,
+    ): Bitmap? {
+        val wallpaper = get(destination, wallpaperId) ?: return null
+        synchronized(lock) { pendingImages[wallpaper.fileKey] }
+            ?.let {
+                return scaleToThumbnail(it)
+            }
+        val path = thumbnailFileOf(wallpaper).path
+        val options = BitmapFactory.Options()
+        if (targetSize != null) {
+            options.inJustDecodeBounds = true
+            BitmapFactory.decodeFile(path, options)
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null
+            }
+            options.inSampleSize =
+                BitmapUtils.calculateInSampleSize(
+                    options.outWidth,
+                    options.outHeight,
+                    targetSize.x,
+                    targetSize.y,
+                )
+            options.inJustDecodeBounds = false
+        }
+        return BitmapFactory.decodeFile(path, options)
+    }
+
+    /** Registers a listener called whenever the recent wallpapers change. */
+    fun addListener(listener: Runnable) {
+        listeners.add(listener)
+    }
+
+    /** Unregisters a listener registered with [addListener]. */
+    fun removeListener(listener: Runnable) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * Adds the given wallpaper to the lists of the given screens.
+     *
+     * @return the wallpaper as stored, whose files have to be written, or null if it shares the
+     *   files of the same image being written for another screen.
+     */
+    private fun add(
+        destination: WallpaperDestination,
+        wallpaper: RecentWallpaper,
+        image: Bitmap?,
+    ): RecentWallpaper? {
+        val stored: RecentWallpaper
+        val sharedFileKey: String?
+        synchronized(lock) {
+            val all = loadLocked()
+            sharedFileKey = image?.let { pendingFileKeyOfLocked(wallpaper.wallpaperId, it) }
+            stored =
+                wallpaper.copy(
+                    lastUpdated = clock(),
+                    fileKey = sharedFileKey ?: UUID.randomUUID().toString(),
+                )
+            screensOf(destination).forEach { screen ->
+                val list = all.getValue(screen)
+                list.removeAll { it.wallpaperId == wallpaper.wallpaperId }
+                list.add(0, stored)
+                while (list.size > MAX_RECENTS) {
+                    list.removeAt(list.lastIndex)
+                }
+            }
+            pendingFileKeys.add(stored.fileKey)
+            image?.let { pendingImages[stored.fileKey] = it }
+        }
+        notifyListeners()
+        return if (sharedFileKey == null) stored else null
+    }
+
+    /**
+     * Returns the file key of the given image if it is still being written for the wallpaper with
+     * the given ID, e.g. because it was set on the home screen and then on the lock screen.
+     */
+    @GuardedBy("lock")
+    private fun pendingFileKeyOfLocked(wallpaperId: String, image: Bitmap): String? {
+        val fileKey = pendingImages.entries.firstOrNull { it.value === image }?.key ?: return null
+        val isSameWallpaper =
+            loadLocked().values.any { list ->
+                list.any { it.fileKey == fileKey && it.wallpaperId == wallpaperId }
+            }
+        return if (isSameWallpaper) fileKey else null
+    }
+
+    @WorkerThread
+    private fun onFilesWritten(wallpaper: RecentWallpaper, isWritten: Boolean) {
+        synchronized(lock) {
+            pendingImages.remove(wallpaper.fileKey)
+            pendingFileKeys.remove(wallpaper.fileKey)
+            if (!isWritten) {
+                loadLocked().values.forEach { list ->
+                    list.removeAll { it.fileKey == wallpaper.fileKey }
+                }
+            }
+            isIndexDirty = true
+        }
+        writeIndexIfDirty()
+        deleteUnusedFiles()
+        if (!isWritten) {
+            notifyListeners()
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun loadLocked(): Map<WallpaperDestination, MutableList<RecentWallpaper>> {
+        recents?.let {
+            return it
+        }
+        val loaded =
+            readIndex() ?: SCREENS.associateWith { mutableListOf<RecentWallpaper>() }
+        recents = loaded
+        // Drop the files of wallpapers which were evicted or never made it into the index.
+        writeExecutor.execute { deleteUnusedFiles() }
+        return loaded
+    }
+
+    private fun readIndex(): Map<WallpaperDestination, MutableList<RecentWallpaper>>? {
+        return try {
+            DataInputStream(indexFile.openRead().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    null
+                } else {
+                    SCREENS.associateWith {
+                        MutableList(input.readInt()) { input.readRecentWallpaper() }
+                    }
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            null
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't read the recent wallpapers", e)
+            null
+        }
+    }
+
+    @WorkerThread
+    private fun writeIndexIfDirty() {
+        val bytes =
+            synchronized(lock) {
+                if (!isIndexDirty) {
+                    return
+                }
+                isIndexDirty = false
+                serializeLocked()
+            }
+        synchronized(indexFile) {
+            var outputStream: FileOutputStream? = null
+            try {
+                outputStream = indexFile.startWrite()
+                outputStream.write(bytes)
+                indexFile.finishWrite(outputStream)
+            } catch (e: IOException) {
+                Log.w(TAG, "Couldn't write the recent wallpapers", e)
+                outputStream?.let { indexFile.failWrite(it) }
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun serializeLocked(): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            output.writeInt(FORMAT_VERSION)
+            SCREENS.forEach { screen ->
+                // Wallpapers whose files are still being written are left out, so the index never
+                // refers to files which aren't there.
+                val written =
+                    loadLocked().getValue(screen).filter { it.fileKey !in pendingFileKeys }
+                output.writeInt(written.size)
+                written.forEach { output.writeRecentWallpaper(it) }
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    @WorkerThread
+    private fun deleteUnusedFiles() {
+        val usedFileKeys =
+            synchronized(lock) {
+                val all = loadLocked()
+                all.values.flatMap { list -> list.map { it.fileKey } }.toSet() + pendingFileKeys
+            }
+        directory.listFiles()?.forEach { file ->
+            if (file.name.substringBefore('.') !in usedFileKeys &&
+                    !file.name.startsWith(INDEX_FILE_NAME)) {
+                file.delete()
+            }
+        }
+    }
+
+    @WorkerThread
+    private fun writeThumbnail(wallpaper: RecentWallpaper, image: Bitmap): Boolean =
+        writeBitmap(
+            thumbnailFileOf(wallpaper),
+            scaleToThumbnail(image),
+            WEBP_LOSSY,
+            THUMBNAIL_QUALITY,
+        )
+
+    @WorkerThread
+    private fun writeBitmap(
+        file: File,
+        bitmap: Bitmap,
+        format: Bitmap.CompressFormat,
+        quality: Int,
+    ): Boolean {
+        if (!directory.isDirectory && !directory.mkdirs()) {
+            Log.w(TAG, "Couldn't create the recent wallpapers directory")
+            return false
+        }
+        val tmpFile = File(directory, file.name + TMP_SUFFIX)
+        try {
+            val isCompressed =
+                FileOutputStream(tmpFile).use {
+                    bitmap.compress(format, quality, it)
+                }
+            if (isCompressed && tmpFile.renameTo(file)) {
+                return true
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't write ${file.name}", e)
+        } catch (e: IllegalStateException) {
+            // The bitmap was recycled by its owner.
+            Log.w(TAG, "Couldn't write ${file.name}", e)
+        }
+        tmpFile.delete()
+        return false
+    }
+
+    private fun notifyListeners() {
+        listeners.forEach { it.run() }
+    }
+
+    private fun imageFileOf(wallpaper: RecentWallpaper) =
+        File(directory, wallpaper.fileKey + IMAGE_SUFFIX)
+
+    private fun thumbnailFileOf(wallpaper: RecentWallpaper) =
+        File(directory, wallpaper.fileKey + THUMBNAIL_SUFFIX)
+
+    companion object {
+        private const val TAG = "RecentWallpapersStore"
+        private const val DIRECTORY_NAME = "recent_wallpapers"
+        private const val INDEX_FILE_NAME = "index"
+        private const val IMAGE_SUFFIX = ".image"
+        private const val THUMBNAIL_SUFFIX = ".thumb"
+        private const val TMP_SUFFIX = ".tmp"
+        private const val THUMBNAIL_QUALITY = 95
+        // How hard the images are compressed, which doesn't lose any of their quality.
+        private const val IMAGE_COMPRESSION_EFFORT = 50
+        private const val THUMBNAIL_MAX_SIDE_PX = 720
+
+        /** The number of recent wallpapers kept for each screen. */
+        const val MAX_RECENTS = 8
+
+        // Bump whenever the layout of the index changes.
+        private const val FORMAT_VERSION = 1
+
+        private val SCREENS = listOf(WallpaperDestination.HOME, WallpaperDestination.LOCK)
+
+        private val sWriteExecutor: Executor = Executors.newSingleThreadExecutor()
+        private var sInstance: RecentWallpapersStore? = null
+
+        /** Returns the recent wallpapers of this app, shared by the whole process. */
+        @JvmStatic
+        @Synchronized
+        fun getInstance(context: Context): RecentWallpapersStore {
+            sInstance?.let {
+                return it
+            }
+            val directory = File(context.applicationContext.filesDir, DIRECTORY_NAME)
+            return RecentWallpapersStore(directory, sWriteExecutor).also { sInstance = it }
+        }
+
+        /** Drops the shared store, so that the next one reads the data of the current test. */
+        @VisibleForTesting
+        @JvmStatic
+        @Synchronized
+        fun resetInstance() {
+            sInstance = null
+        }
+
+        /** The recent wallpapers of both screens are listed as those of the home screen. */
+        private fun screenOf(destination: WallpaperDestination): WallpaperDestination =
+            if (destination == WallpaperDestination.LOCK) {
+                WallpaperDestination.LOCK
+            } else {
+                WallpaperDestination.HOME
+            }
+
+        private fun screensOf(destination: WallpaperDestination): List<WallpaperDestination> =
+            if (destination == WallpaperDestination.BOTH) SCREENS else listOf(destination)
+
+        private fun scaleToThumbnail(bitmap: Bitmap): Bitmap {
+            val scale = THUMBNAIL_MAX_SIDE_PX.toFloat() / max(bitmap.width, bitmap.height)
+            if (scale >= 1f) {
+                return bitmap
+            }
+            return Bitmap.createScaledBitmap(
+                bitmap,
+                max((bitmap.width * scale).roundToInt(), 1),
+                max((bitmap.height * scale).roundToInt(), 1),
+                /* filter= */ true,
+            )
+        }
+
+        private fun DataOutputStream.writeRecentWallpaper(wallpaper: RecentWallpaper) {
+            writeUTF(wallpaper.wallpaperId)
+            writeInt(wallpaper.placeholderColor)
+            writeNullableUTF(wallpaper.title)
+            writeInt(wallpaper.attributions.size)
+            wallpaper.attributions.forEach { writeNullableUTF(it) }
+            writeNullableUTF(wallpaper.actionUrl)
+            writeNullableUTF(wallpaper.collectionId)
+            writeNullableUTF(wallpaper.componentName?.flattenToString())
+            writeNullableUTF(wallpaper.effects)
+            writeInt(wallpaper.cropHints.size)
+            wallpaper.cropHints.forEach { (displaySize, cropHint) ->
+                writeInt(displaySize.x)
+                writeInt(displaySize.y)
+                writeInt(cropHint.left)
+                writeInt(cropHint.top)
+                writeInt(cropHint.right)
+                writeInt(cropHint.bottom)
+            }
+            writeLong(wallpaper.lastUpdated)
+            writeUTF(wallpaper.fileKey)
+        }
+
+        private fun DataInputStream.readRecentWallpaper(): RecentWallpaper =
+            RecentWallpaper(
+                wallpaperId = readUTF(),
+                placeholderColor = readInt(),
+                title = readNullableUTF(),
+                attributions = List(readInt()) { readNullableUTF() },
+                actionUrl = readNullableUTF(),
+                collectionId = readNullableUTF(),
+                componentName = readNullableUTF()?.let(ComponentName::unflattenFromString),
+                effects = readNullableUTF(),
+                cropHints =
+                    (0 until readInt()).associate {
+                        Point(readInt(), readInt()) to
+                            Rect(readInt(), readInt(), readInt(), readInt())
+                    },
+                lastUpdated = readLong(),
+                fileKey = readUTF(),
+            )
+
+        private fun DataOutputStream.writeNullableUTF(value: String?) {
+            writeBoolean(value != null)
+            if (value != null) {
+                writeUTF(value)
+            }
+        }
+
+        private fun DataInputStream.readNullableUTF(): String? =
+            if (readBoolean()) readUTF() else null
+    }
+}
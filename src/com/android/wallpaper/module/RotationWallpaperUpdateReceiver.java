@@ -18,8 +18,6 @@ package com.android.wallpaper.module;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import com.android.wallpaper.util.FileMover;
@@ -85,9 +83,7 @@ public class RotationWallpaperUpdateReceiver extends BroadcastReceiver {
                     != WallpaperPreferences.PRESENTATION_MODE_ROTATING) {
                 return;
             }
-            Bitmap bitmap = BitmapFactory.decodeFile(wallpaperFile.getAbsolutePath());
-
-            injector.getWallpaperPersister(appContext).setWallpaperInRotation(bitmap,
+            injector.getWallpaperPersister(appContext).setWallpaperInRotation(wallpaperFile,
                     wallpaperPreferences.getHomeWallpaperAttributions(),
                     wallpaperPreferences.getHomeWallpaperActionUrl(),
                     wallpaperPreferences.getHomeWallpaperCollectionId(),
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.app.backup.BackupManager
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import com.android.wallpaper.module.WallpaperPreferenceKeys.NoBackupKeys
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Metadata of the wallpapers set on the home and lock screens, kept in memory and written to disk
+ * once per change, or once per [runInTransaction] block however many fields it changes.
+ *
+ * The fields which are backed up stay in the [DefaultWallpaperPreferences.PREFS_NAME] shared
+ * preferences, which the backup agent reads. The others are written to a compact binary file in
+ * the no-backup directory instead of being entries of an XML file which is rewritten in full on
+ * every change. They used to be kept in the [DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME]
+ * shared preferences, and are moved from there the first time the store is loaded.
+ */
+class WallpaperMetadataStore
+@VisibleForTesting
+internal constructor(
+    private val sharedPrefs: SharedPreferences,
+    private val noBackupPrefs: SharedPreferences,
+    file: File,
+    private val writeExecutor: Executor,
+    private val onBackedUpDataChanged: () -> Unit,
+) {
+
+    /** The metadata of the wallpaper set on one screen. */
+    data class ScreenMetadata(
+        /** Up to three attribution lines; missing lines are null. */
+        val attributions: List<String?> = EMPTY_ATTRIBUTIONS,
+        val actionUrl: String? = null,
+        val collectionId: String? = null,
+        val hashCode: Long = 0,
+        val managerId: Int = 0,
+        val remoteId: String? = null,
+        val serviceName: String? = null,
+        val effects: String? = null,
+        val recentsKey: String? = null,
+    ) {
+        internal fun hasSameBackedUpFields(other: ScreenMetadata): Boolean =
+            attributions == other.attributions &&
+                actionUrl == other.actionUrl &&
+                collectionId == other.collectionId &&
+                hashCode == other.hashCode
+
+        internal fun hasSameNoBackupFields(other: ScreenMetadata): Boolean =
+            managerId == other.managerId &&
+                remoteId == other.remoteId &&
+                serviceName == other.serviceName &&
+                effects == other.effects &&
+                recentsKey == other.recentsKey
+    }
+
+    private val file = AtomicFile(file)
+    private val lock = Any()
+    @GuardedBy("lock")
+    private var metadata: MutableMap<WallpaperDestination, ScreenMetadata>? = null
+    @GuardedBy("lock") private var transactionDepth = 0
+    @GuardedBy("lock") private val backedUpChanges = mutableSetOf<WallpaperDestination>()
+    @GuardedBy("lock") private var hasNoBackupChanges = false
+    // Set while the fields moved out of the no-backup shared preferences are only in memory.
+    @Volatile private var hasLegacyNoBackupPrefs = false
+    // Writes are queued on a single thread; a write superseded by a later one is skipped.
+    private val writeGeneration = AtomicInteger()
+
+    /** Returns the metadata of the wallpaper set on the given screen, either home or lock. */
+    fun get(destination: WallpaperDestination): ScreenMetadata {
+        synchronized(lock) {
+            return loadLocked().getValue(destination)
+        }
+    }
+
+    /**
+     * Replaces the metadata of the wallpaper set on the given screen, either home or lock, with
+     * the result of the given function. The change is visible right away, and written to disk
+     * unless a transaction is in progress.
+     */
+    fun update(destination: WallpaperDestination, transform: (ScreenMetadata) -> ScreenMetadata) {
+        synchronized(lock) {
+            val all = loadLocked()
+            val old = all.getValue(destination)
+            val new = transform(old)
+            if (new == old) {
+                return
+            }
+            all[destination] = new
+            if (!new.hasSameBackedUpFields(old)) {
+                backedUpChanges.add(destination)
+            }
+            if (!new.hasSameNoBackupFields(old)) {
+                hasNoBackupChanges = true
+            }
+            if (transactionDepth == 0) {
+                commitLocked()
+            }
+        }
+    }
+
+    /**
+     * Runs the given block, writing all the changes it makes to disk once it returns: at most one
+     * write of the shared preferences and one of the binary file. Transactions can be nested, the
+     * changes are written when the outermost one ends. If the block throws, every change made to
+     * this store since the outermost transaction began is discarded.
+     *
+     * Other threads can't read or update the store while the block runs, so it should only update
+     * the metadata, and not read bitmaps or call into other processes.
+     */
+    fun runInTransaction(block: Runnable) {
+        synchronized(lock) {
+            val all = loadLocked()
+            val snapshot = if (transactionDepth == 0) Snapshot(all) else null
+            transactionDepth++
+            try {
+                block.run()
+            } catch (t: Throwable) {
+                snapshot?.let { restoreLocked(it) }
+                throw t
+            } finally {
+                transactionDepth--
+            }
+            if (transactionDepth == 0) {
+                commitLocked()
+            }
+        }
+    }
+
+    /** The state of the store at the start of a transaction, to roll back to if it fails. */
+    private inner class Snapshot(all: Map<WallpaperDestination, ScreenMetadata>) {
+        val metadata = all.toMap()
+        val backedUpChanges = this@WallpaperMetadataStore.backedUpChanges.toSet()
+        val hasNoBackupChanges = this@WallpaperMetadataStore.hasNoBackupChanges
+    }
+
+    @GuardedBy("lock")
+    private fun restoreLocked(snapshot: Snapshot) {
+        metadata = snapshot.metadata.toMutableMap()
+        backedUpChanges.clear()
+        backedUpChanges.addAll(snapshot.backedUpChanges)
+        hasNoBackupChanges = snapshot.hasNoBackupChanges
+    }
+
+    @GuardedBy("lock")
+    private fun commitLocked() {
+        val all = metadata ?: return
+        if (backedUpChanges.isNotEmpty()) {
+            val editor = sharedPrefs.edit()
+            backedUpChanges.forEach { destination ->
+                putBackedUpFields(editor, destination, all.getValue(destination))
+            }
+            backedUpChanges.clear()
+            editor.apply()
+            onBackedUpDataChanged()
+        }
+        if (hasNoBackupChanges) {
+            hasNoBackupChanges = false
+            scheduleWrite(all)
+        }
+    }
+
+    private fun scheduleWrite(all: Map<WallpaperDestination, ScreenMetadata>) {
+        val bytes = serialize(all)
+        val generation = writeGeneration.incrementAndGet()
+        writeExecutor.execute {
+            // Every write holds the migrated fields, so the old preferences can go after any.
+            if (generation == writeGeneration.get() && writeFile(bytes) && hasLegacyNoBackupPrefs) {
+                hasLegacyNoBackupPrefs = false
+                removeLegacyNoBackupPrefs()
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private fun loadLocked(): MutableMap<WallpaperDestination, ScreenMetadata> {
+        metadata?.let {
+            return it
+        }
+        val noBackupFields = readFile() ?: migrateNoBackupFields()
+        val loaded =
+            SCREENS.associateWithTo(mutableMapOf()) { destination ->
+                val keys = keysOf(destination)
+                noBackupFields
+                    .getValue(destination)
+                    .copy(
+                        attributions =
+                            keys.attributions.map { sharedPrefs.getString(it, null) },
+                        actionUrl = sharedPrefs.getString(keys.actionUrl, null),
+                        collectionId = sharedPrefs.getString(keys.collectionId, null),
+                        hashCode = sharedPrefs.getLong(keys.hashCode, 0),
+                    )
+            }
+        metadata = loaded
+        return loaded
+    }
+
+    private fun readFile(): Map<WallpaperDestination, ScreenMetadata>? {
+        return try {
+            DataInputStream(file.openRead().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    null
+                } else {
+                    SCREENS.associateWith {
+                        ScreenMetadata(
+                            managerId = input.readInt(),
+                            remoteId = input.readNullableUTF(),
+                            serviceName = input.readNullableUTF(),
+                            effects = input.readNullableUTF(),
+                            recentsKey = input.readNullableUTF(),
+                        )
+                    }
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            null
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't read the wallpaper metadata", e)
+            null
+        }
+    }
+
+    /**
+     * Moves the fields which aren't backed up from the no-backup shared preferences, where older
+     * versions kept them, to the binary file. The file is written on the write executor, and the
+     * preferences are only removed once it is in place.
+     */
+    private fun migrateNoBackupFields(): Map<WallpaperDestination, ScreenMetadata> {
+        val migrated =
+            SCREENS.associateWith { destination ->
+                val keys = keysOf(destination)
+                ScreenMetadata(
+                    managerId = noBackupPrefs.getInt(keys.managerId, 0),
+                    remoteId = noBackupPrefs.getString(keys.remoteId, null),
+                    serviceName = noBackupPrefs.getString(keys.serviceName, null),
+                    effects = noBackupPrefs.getString(keys.effects, null),
+                    recentsKey = noBackupPrefs.getString(keys.recentsKey, null),
+                )
+            }
+        hasLegacyNoBackupPrefs = true
+        scheduleWrite(migrated)
+        return migrated
+    }
+
+    private fun removeLegacyNoBackupPrefs() {
+        val editor = noBackupPrefs.edit()
+        SCREENS.forEach { destination -> keysOf(destination).noBackup.forEach(editor::remove) }
+        editor.apply()
+    }
+
+    private fun serialize(all: Map<WallpaperDestination, ScreenMetadata>): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            output.writeInt(FORMAT_VERSION)
+            SCREENS.forEach { destination ->
+                val screen = all.getValue(destination)
+                output.writeInt(screen.managerId)
+                output.writeNullableUTF(screen.remoteId)
+                output.writeNullableUTF(screen.serviceName)
+                output.writeNullableUTF(screen.effects)
+                output.writeNullableUTF(screen.recentsKey)
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    private fun writeFile(bytes: ByteArray): Boolean {
+        synchronized(file) {
+            var outputStream: FileOutputStream? = null
+            return try {
+                outputStream = file.startWrite()
+                outputStream.write(bytes)
+                file.finishWrite(outputStream)
+                true
+            } catch (e: IOException) {
+                Log.w(TAG, "Couldn't write the wallpaper metadata", e)
+                outputStream?.let { file.failWrite(it) }
+                false
+            }
+        }
+    }
+
+    private fun putBackedUpFields(
+        editor: SharedPreferences.Editor,
+        destination: WallpaperDestination,
+        screen: ScreenMetadata,
+    ) {
+        val keys = keysOf(destination)
+        keys.attributions.forEachIndexed { index, key ->
+            editor.putString(key, screen.attributions.getOrNull(index))
+        }
+        editor.putString(keys.actionUrl, screen.actionUrl)
+        editor.putString(keys.collectionId, screen.collectionId)
+        if (screen.hashCode != 0L) {
+            editor.putLong(keys.hashCode, screen.hashCode)
+        } else {
+            editor.remove(keys.hashCode)
+        }
+    }
+
+    /** The preference keys the fields of a screen are, or used to be, stored under. */
+    private class Keys(
+        val attributions: List<String>,
+        val actionUrl: String,
+        val collectionId: String,
+        val hashCode: String,
+        val managerId: String,
+        val remoteId: String,
+        val serviceName: String,
+        val effects: String,
+        val recentsKey: String,
+        legacyNoBackup: List<String>,
+    ) {
+        val noBackup =
+            listOf(managerId, remoteId, serviceName, effects, recentsKey) + legacyNoBackup
+    }
+
+    companion object {
+        private const val TAG = "WallpaperMetadataStore"
+        private const val FILE_NAME = "wallpaper_metadata"
+
+        // Bump whenever the layout of the file changes.
+        private const val FORMAT_VERSION = 1
+
+        private val EMPTY_ATTRIBUTIONS = listOf<String?>(null, null, null)
+        private val SCREENS = listOf(WallpaperDestination.HOME, WallpaperDestination.LOCK)
+
+        private val HOME_KEYS =
+            Keys(
+                attributions =
+                    listOf(
+                        WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_1,
+                        WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_2,
+                        WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ATTRIB_3,
+                    ),
+                actionUrl = WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ACTION_URL,
+                collectionId = WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID,
+                hashCode = WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE,
+                managerId = NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID,
+                remoteId = NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID,
+                serviceName = NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME,
+                effects = NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS,
+                recentsKey = NoBackupKeys.KEY_HOME_WALLPAPER_RECENTS_KEY,
+                legacyNoBackup =
+                    listOf(
+                        NoBackupKeys.KEY_HOME_WALLPAPER_BASE_IMAGE_URL,
+                        NoBackupKeys.KEY_HOME_WALLPAPER_BACKING_FILE,
+                    ),
+            )
+        private val LOCK_KEYS =
+            Keys(
+                attributions =
+                    listOf(
+                        WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_1,
+                        WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_2,
+                        WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_3,
+                    ),
+                actionUrl = WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ACTION_URL,
+                collectionId = WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID,
+                hashCode = WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE,
+                managerId = NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID,
+                remoteId = NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID,
+                serviceName = NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME,
+                effects = NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS,
+                recentsKey = NoBackupKeys.KEY_LOCK_WALLPAPER_RECENTS_KEY,
+                legacyNoBackup = listOf(NoBackupKeys.KEY_LOCK_WALLPAPER_BACKING_FILE),
+            )
+
+        /** The shared preference keys whose changes are committed by this store. */
+        val BACKED_UP_KEYS: Set<String> =
+            listOf(HOME_KEYS, LOCK_KEYS)
+                .flatMap { it.attributions + listOf(it.actionUrl, it.collectionId, it.hashCode) }
+                .toSet()
+
+        private val sWriteExecutor: Executor = Executors.newSingleThreadExecutor()
+        private var sInstance: WallpaperMetadataStore? = null
+
+        /** Returns the store of the wallpaper metadata of this app, shared by the whole process. */
+        @JvmStatic
+        @Synchronized
+        fun getInstance(context: Context): WallpaperMetadataStore {
+            sInstance?.let {
+                return it
+            }
+            val appContext = context.applicationContext
+            val file = File(appContext.noBackupFilesDir, FILE_NAME)
+            val backupManager = BackupManager(appContext)
+            return WallpaperMetadataStore(
+                    sharedPrefs =
+                        appContext.getSharedPreferences(
+                            DefaultWallpaperPreferences.PREFS_NAME,
+                            Context.MODE_PRIVATE,
+                        ),
+                    noBackupPrefs =
+                        appContext.getSharedPreferences(
+                            DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
+                            Context.MODE_PRIVATE,
+                        ),
+                    file = file,
+                    writeExecutor = sWriteExecutor,
+                    onBackedUpDataChanged = backupManager::dataChanged,
+                )
+                .also { sInstance = it }
+        }
+
+        /** Drops the shared store, so that the next one reads the data of the current test. */
+        @VisibleForTesting
+        @JvmStatic
+        @Synchronized
+        fun resetInstance() {
+            sInstance = null
+        }
+
+        private fun keysOf(destination: WallpaperDestination): Keys =
+            when (destination) {
+                WallpaperDestination.HOME -> HOME_KEYS
+                WallpaperDestination.LOCK -> LOCK_KEYS
+                else -> error("Unsupported destination: $destination")
+            }
+
+        private fun DataOutputStream.writeNullableUTF(value: String?) {
+            writeBoolean(value != null)
+            if (value != null) {
+                writeUTF(value)
+            }
+        }
+
+        private fun DataInputStream.readNullableUTF(): String? =
+            if (readBoolean()) readUTF() else null
+    }
+}
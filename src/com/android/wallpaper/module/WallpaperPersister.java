@@ -31,6 +31,7 @@ import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata;
 import com.android.wallpaper.model.WallpaperInfo;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
@@ -78,6 +79,24 @@ public interface WallpaperPersister {
     boolean setWallpaperInRotation(Bitmap wallpaperBitmap, List<String> attributions,
             String actionUrl, String collectionId, String remoteId);
 
+    /**
+     * Sets an individual wallpaper to the system as the wallpaper in the current rotation along with
+     * its metadata, like {@link #setWallpaperInRotation(Bitmap, List, String, String, String)},
+     * but reads the image from a file. The crop is computed from the image bounds and only the
+     * cropped region is decoded, so the full size image is never held in memory.
+     * <p>
+     * This method should only be called off the main UI thread.
+     *
+     * @param wallpaperFile   File with the JPEG or PNG bytes of the uncropped wallpaper image.
+     * @param attributions    List of attribution items.
+     * @param actionUrl       The action or "explore" URL for the wallpaper.
+     * @param collectionId    ID of this wallpaper's collection.
+     * @param remoteId        Remote ID of this wallpaper
+     * @return Whether the set wallpaper operation was successful.
+     */
+    boolean setWallpaperInRotation(File wallpaperFile, List<String> attributions,
+            String actionUrl, String collectionId, String remoteId);
+
     /**
      * Sets only the bitmap of a rotating wallpaper of the next rotation to the system and stores
      * the given static wallpaper data in the recent wallpapers list (and not metadata).
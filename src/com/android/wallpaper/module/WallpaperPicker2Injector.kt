@@ -62,6 +62,7 @@ import javax.inject.Inject
 import javax.inject.Singleton
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.asExecutor
 
 @Singleton
 open class WallpaperPicker2Injector
@@ -194,9 +195,8 @@ constructor(
     @Synchronized
     override fun getPackageStatusNotifier(context: Context): PackageStatusNotifier {
         return packageStatusNotifier
-            ?: DefaultPackageStatusNotifier(context.applicationContext).also {
-                packageStatusNotifier = it
-            }
+            ?: DefaultPackageStatusNotifier(context.applicationContext, bgDispatcher.asExecutor())
+                .also { packageStatusNotifier = it }
     }
 
     @Synchronized
@@ -59,6 +59,7 @@ public class WallpaperPreferenceKeys {
         String KEY_LOCK_WALLPAPER_REMOTE_ID = "lock_wallpaper_remote_id";
         String KEY_LOCK_WALLPAPER_BACKING_FILE = "lock_wallpaper_backing_file";
         String KEY_DAILY_ROTATION_TIMESTAMPS = "daily_rotation_timestamps";
+        String KEY_DAILY_ROTATION_HISTORY = "daily_rotation_history";
         String KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP =
                 "daily_wallpaper_enabled_timestamp";
         String KEY_LAST_DAILY_LOG_TIMESTAMP = "last_daily_log_timestamp";
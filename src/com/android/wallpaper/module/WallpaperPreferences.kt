@@ -188,6 +188,15 @@ interface WallpaperPreferences {
     /** Sets the lock wallpaper's effects to SharedPreferences. */
     fun setLockWallpaperEffects(wallpaperEffects: String?)
 
+    /**
+     * Runs the given block, persisting the home and lock screen metadata it sets once it returns
+     * instead of after every setter. Transactions can be nested. If the block throws, the metadata
+     * it set is discarded. The block should do nothing but set the metadata.
+     */
+    fun runInTransaction(block: Runnable) {
+        block.run()
+    }
+
     /** Persists the timestamp of a daily wallpaper rotation that just occurred. */
     fun addDailyRotation(timestamp: Long)
 
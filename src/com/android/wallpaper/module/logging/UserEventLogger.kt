@@ -63,6 +63,12 @@ interface UserEventLogger {
     /** Logs when clicking the explore button in the wallpaper information dialog. */
     fun logWallpaperExploreButtonClicked()
 
+    /**
+     * Logs how long fetching the wallpaper categories took, until the first category other than
+     * "My photos" was shown and until all of them were. Does nothing by default.
+     */
+    fun logCategoriesFetched(timeToFirstCategoryMillis: Long, timeToAllCategoriesMillis: Long) {}
+
     /**
      * Possible actions for cinematic effect. These actions would be used for effect apply, effect
      * probe, effect download.
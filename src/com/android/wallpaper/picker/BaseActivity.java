@@ -15,8 +15,15 @@
  */
 package com.android.wallpaper.picker;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.android.wallpaper.asset.BitmapCachingAsset;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * Base activity that keeps track of whether fragment transactions are safe to commit given the
  * activity's current lifecycle state.
@@ -41,4 +48,11 @@ public class BaseActivity extends AppCompatActivity implements FragmentTransacti
     public boolean isSafeToCommitFragmentTransaction() {
         return mIsSafeToCommitFragmentTransaction;
     }
+
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd,
+            @NonNull PrintWriter writer, @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        BitmapCachingAsset.dump(writer);
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.android.wallpaper.model.Category;
+import com.android.wallpaper.model.WallpaperCategory;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares the category tiles of {@link CategorySelectorFragment}. Two categories are the same
+ * tile if they have the same collection ID, and the tile only has to be bound again if its title
+ * or thumbnail changed. Thumbnails are compared by what identifies them, i.e. the key of a fixed
+ * thumbnail or the ID of the featured wallpaper, as categories fetched again create new assets
+ * and creating them may create the wallpapers of the category.
+ */
+public class CategoryDiffCallback extends DiffUtil.ItemCallback<Category> {
+
+    @Override
+    public boolean areItemsTheSame(@NonNull Category oldItem, @NonNull Category newItem) {
+        return TextUtils.equals(oldItem.getCollectionId(), newItem.getCollectionId());
+    }
+
+    @Override
+    public boolean areContentsTheSame(@NonNull Category oldItem, @NonNull Category newItem) {
+        if (oldItem == newItem) {
+            return true;
+        }
+        return oldItem.getClass() == newItem.getClass()
+                && TextUtils.equals(oldItem.getTitle(), newItem.getTitle())
+                && oldItem.getOverlayIconSizeDp() == newItem.getOverlayIconSizeDp()
+                && hasSameThumbnail(oldItem, newItem);
+    }
+
+    /**
+     * Returns whether the given categories of the same class show the same thumbnail. Other
+     * categories than {@link WallpaperCategory} take their thumbnail from what identifies them,
+     * e.g. their app, or notify changes to it themselves, like the "My photos" tile.
+     */
+    private static boolean hasSameThumbnail(Category oldItem, Category newItem) {
+        if (!(oldItem instanceof WallpaperCategory)) {
+            return true;
+        }
+        WallpaperCategory oldCategory = (WallpaperCategory) oldItem;
+        WallpaperCategory newCategory = (WallpaperCategory) newItem;
+        // Fixed thumbnails are resource assets, which are equal if they have the same key.
+        return Objects.equals(oldCategory.getFixedThumbAsset(), newCategory.getFixedThumbAsset())
+                && TextUtils.equals(oldCategory.getFeaturedWallpaperId(),
+                        newCategory.getFeaturedWallpaperId());
+    }
+
+    /**
+     * Compares rows of categories, where a row either holds a single category or all the creative
+     * categories, shown together in one tile.
+     */
+    public static class RowCallback extends DiffUtil.ItemCallback<List<Category>> {
+
+        private final CategoryDiffCallback mCategoryCallback = new CategoryDiffCallback();
+
+        @Override
+        public boolean areItemsTheSame(@NonNull List<Category> oldItem,
+                @NonNull List<Category> newItem) {
+            if (isCreativeRow(oldItem) || isCreativeRow(newItem)) {
+                return isCreativeRow(oldItem) == isCreativeRow(newItem);
+            }
+            return mCategoryCallback.areItemsTheSame(oldItem.get(0), newItem.get(0));
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull List<Category> oldItem,
+                @NonNull List<Category> newItem) {
+            if (oldItem.size() != newItem.size()) {
+                return false;
+            }
+            for (int i = 0; i < oldItem.size(); i++) {
+                if (!mCategoryCallback.areItemsTheSame(oldItem.get(i), newItem.get(i))
+                        || !mCategoryCallback.areContentsTheSame(oldItem.get(i), newItem.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns whether the given row holds the creative categories. */
+        public static boolean isCreativeRow(List<Category> row) {
+            return row.get(0).supportsUserCreatedWallpapers();
+        }
+    }
+}
@@ -40,12 +40,16 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.cardview.widget.CardView;
 import androidx.core.content.ContextCompat;
 import androidx.core.view.AccessibilityDelegateCompat;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -61,6 +65,7 @@ import com.android.wallpaper.util.DeepLinkUtils;
 import com.android.wallpaper.util.DisplayMetricsRetriever;
 import com.android.wallpaper.util.ResourceUtils;
 import com.android.wallpaper.util.SizeCalculator;
+import com.android.wallpaper.widget.ThumbnailPrefetcher;
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate;
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate.BottomSheetHost;
 
@@ -68,7 +73,9 @@ import com.bumptech.glide.Glide;
 import com.google.android.material.snackbar.Snackbar;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Displays the UI which contains the categories of the wallpaper.
@@ -132,10 +139,13 @@ public class CategorySelectorFragment extends AppbarFragment {
     private Point mTileSizePx;
     private boolean mAwaitingCategories;
     private ProgressBar mLoadingIndicator;
+    private ThumbnailPrefetcher mThumbnailPrefetcher;
     private ArrayList<Category> mCreativeCategories = new ArrayList<>();
     private boolean mIsFeaturedCollectionAvailable;
-    private boolean mIsCreativeCategoryCollectionAvailable;
     private boolean mIsCreativeWallpaperEnabled = false;
+    // Whether the tiles shown before a refresh are kept until all categories have been fetched
+    // again, so only the tiles which changed are bound again.
+    private boolean mDeferCategoryUpdates;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -144,9 +154,9 @@ public class CategorySelectorFragment extends AppbarFragment {
         mIsCreativeWallpaperEnabled = InjectorProvider.getInjector()
             .getFlags().isAIWallpaperEnabled(requireContext());
         if (mIsCreativeWallpaperEnabled) {
-            mGroupedCategoryAdapter = new GroupedCategoryAdapter(mCategories);
+            mGroupedCategoryAdapter = new GroupedCategoryAdapter();
         } else {
-            mAdapter = new CategoryAdapter(mCategories);
+            mAdapter = new CategoryAdapter(/* diffExecutor= */ null);
         }
     }
 
@@ -179,6 +189,11 @@ public class CategorySelectorFragment extends AppbarFragment {
             gridLayoutManager.setSpanSizeLookup(new CategorySpanSizeLookup(mAdapter));
             mImageGrid.setLayoutManager(gridLayoutManager);
         }
+        mThumbnailPrefetcher = new ThumbnailPrefetcher(getActivity(), mTileSizePx,
+                getNumColumns(), R.id.image, position -> mIsCreativeWallpaperEnabled
+                        ? mGroupedCategoryAdapter.getCategoryThumbnail(position)
+                        : mAdapter.getCategoryThumbnail(position));
+        mImageGrid.addOnScrollListener(mThumbnailPrefetcher);
 
         mLoadingIndicator = view.findViewById(R.id.loading_indicator);
         mLoadingIndicator.setVisibility(View.VISIBLE);
@@ -213,6 +228,7 @@ public class CategorySelectorFragment extends AppbarFragment {
 
     @Override
     public void onDestroyView() {
+        mThumbnailPrefetcher.cancelAll();
         getCategorySelectorFragmentHost().cleanUp();
         super.onDestroyView();
     }
@@ -246,8 +262,6 @@ public class CategorySelectorFragment extends AppbarFragment {
             mCategories.add(index, category);
         } else {
             if (loading && !mAwaitingCategories) {
-                mAdapter.notifyItemChanged(getNumColumns());
-                mAdapter.notifyItemInserted(getNumColumns());
                 mAwaitingCategories = true;
             }
             // Not add existing category to category list
@@ -264,12 +278,8 @@ public class CategorySelectorFragment extends AppbarFragment {
             }
 
             mCategories.add(index, category);
-            if (mAdapter != null) {
-                // Offset the index because of the static metadata element
-                // at beginning of RecyclerView.
-                mAdapter.notifyItemInserted(index + NUM_NON_CATEGORY_VIEW_HOLDERS);
-            }
         }
+        submitCategories();
     }
 
     void removeCategory(Category category) {
@@ -281,9 +291,8 @@ public class CategorySelectorFragment extends AppbarFragment {
                 if (indexCreativeCategory >= 0) {
                     mCreativeCategories.remove(indexCreativeCategory);
                 }
-            } else {
-                mAdapter.notifyItemRemoved(index + NUM_NON_CATEGORY_VIEW_HOLDERS);
             }
+            submitCategories();
         }
     }
 
@@ -296,39 +305,73 @@ public class CategorySelectorFragment extends AppbarFragment {
                 if (indexCreativeCategory >= 0) {
                     mCreativeCategories.set(indexCreativeCategory, category);
                 }
-            } else {
-                mAdapter.notifyItemChanged(index + NUM_NON_CATEGORY_VIEW_HOLDERS);
             }
+            submitCategories();
         }
     }
 
+    /**
+     * Clears the categories before they are all fetched again. The tiles currently shown stay
+     * until {@link #doneFetchingCategories()}, which only binds again the tiles that changed.
+     */
     void clearCategories() {
+        mDeferCategoryUpdates = !mCategories.isEmpty();
         mCategories.clear();
-        if (mIsCreativeWallpaperEnabled) {
-            mCreativeCategories.clear();
-            mGroupedCategoryAdapter.notifyDataSetChanged();
-        } else {
-            mAdapter.notifyDataSetChanged();
-        }
+        mCreativeCategories.clear();
+        submitCategories();
     }
 
     /**
      * Notifies that no further categories are expected.
      */
     void doneFetchingCategories() {
-        notifyDataSetChanged();
         mLoadingIndicator.setVisibility(View.INVISIBLE);
         mImageGrid.setVisibility(View.VISIBLE);
         mAwaitingCategories = false;
+        boolean wasFeaturedCollectionAvailable = mIsFeaturedCollectionAvailable;
         mIsFeaturedCollectionAvailable = mCategoryProvider.isFeaturedCollectionAvailable();
-        mIsCreativeCategoryCollectionAvailable = mCategoryProvider.isCreativeCategoryAvailable();
+        mDeferCategoryUpdates = false;
+        submitCategories();
+        if (!mIsCreativeWallpaperEnabled
+                && wasFeaturedCollectionAvailable != mIsFeaturedCollectionAvailable) {
+            // The featured tiles have their own view type.
+            mAdapter.notifyFeaturedCategoriesChanged();
+        }
+    }
+
+    /**
+     * Binds the "My photos" tile again, e.g. after the permission to read photos changed.
+     */
+    void notifyMyPhotosChanged() {
+        if (mIsCreativeWallpaperEnabled) {
+            mGroupedCategoryAdapter.notifyMyPhotosChanged();
+        } else {
+            mAdapter.notifyMyPhotosChanged();
+        }
     }
 
-    void notifyDataSetChanged() {
+    /**
+     * Hands a copy of the categories to the adapter, which works out the tiles to add, move, bind
+     * again or remove on a background thread.
+     */
+    private void submitCategories() {
+        if (mDeferCategoryUpdates) {
+            return;
+        }
         if (mIsCreativeWallpaperEnabled) {
-            mGroupedCategoryAdapter.notifyDataSetChanged();
+            List<List<Category>> rows = new ArrayList<>();
+            if (!mCreativeCategories.isEmpty()) {
+                // All creative categories are shown in a single tile.
+                rows.add(new ArrayList<>(mCreativeCategories));
+            }
+            for (Category category : mCategories) {
+                if (!category.supportsUserCreatedWallpapers()) {
+                    rows.add(Collections.singletonList(category));
+                }
+            }
+            mGroupedCategoryAdapter.submitRows(rows);
         } else {
-            mAdapter.notifyDataSetChanged();
+            mAdapter.submitCategories(new ArrayList<>(mCategories));
         }
     }
 
@@ -675,8 +718,11 @@ public class CategorySelectorFragment extends AppbarFragment {
             }
         }
 
-        private void bindCategory(ArrayList<Category> creativeCategories) {
-            for (int i = 0; i < creativeCategories.size(); i++) {
+        private void bindCategory(List<Category> creativeCategories) {
+            mCategories.clear();
+            // The number of cards is fixed when the holder is created.
+            int count = Math.min(creativeCategories.size(), mTextViews.size());
+            for (int i = 0; i < count; i++) {
                 mCategories.add(creativeCategories.get(i));
                 mTextViews.get(i).setText(creativeCategories.get(i).getTitle());
                 drawThumbnailAndOverlayIcon(mOverlayIconViews.get(i), mCategories.get(i),
@@ -689,15 +735,70 @@ public class CategorySelectorFragment extends AppbarFragment {
      * RecyclerView Adapter subclass for the category tiles in the RecyclerView. This excludes
      * CreativeCategory and has FeaturedCategory
      */
-    private class CategoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
+    @VisibleForTesting
+    class CategoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             implements MyPhotosStarter.PermissionChangedListener {
         private static final int ITEM_VIEW_TYPE_MY_PHOTOS = 1;
         private static final int ITEM_VIEW_TYPE_FEATURED_CATEGORY = 2;
         private static final int ITEM_VIEW_TYPE_CATEGORY = 3;
-        private List<Category> mCategories;
+        private final AsyncListDiffer<Category> mDiffer;
+        private final StableItemIds<Category> mItemIds =
+                new StableItemIds<>(Category::getCollectionId);
+
+        /**
+         * @param diffExecutor Executor diffing submitted categories, or null to diff them on the
+         *                     default background thread.
+         */
+        @VisibleForTesting
+        CategoryAdapter(@Nullable Executor diffExecutor) {
+            AsyncDifferConfig.Builder<Category> config =
+                    new AsyncDifferConfig.Builder<>(new CategoryDiffCallback());
+            if (diffExecutor != null) {
+                config.setBackgroundThreadExecutor(diffExecutor);
+            }
+            mDiffer = new AsyncListDiffer<>(new AdapterListUpdateCallback(this), config.build());
+            setHasStableIds(true);
+        }
 
-        private CategoryAdapter(List<Category> categories) {
-            mCategories = categories;
+        @VisibleForTesting
+        void submitCategories(List<Category> categories) {
+            mDiffer.submitList(categories);
+        }
+
+        private void notifyFeaturedCategoriesChanged() {
+            int count = Math.min(2, getItemCount() - 1);
+            if (count > 0) {
+                notifyItemRangeChanged(1, count);
+            }
+        }
+
+        private void notifyMyPhotosChanged() {
+            List<Category> categories = mDiffer.getCurrentList();
+            for (int i = 0; i < categories.size(); i++) {
+                if (categories.get(i).supportsCustomPhotos()) {
+                    notifyItemChanged(i + NUM_NON_CATEGORY_VIEW_HOLDERS);
+                }
+            }
+        }
+
+        /**
+         * Returns the thumbnail of the category tile at the given position, or null if it isn't
+         * a regular category tile or its category hasn't loaded the thumbnail yet.
+         */
+        @Nullable
+        private Asset getCategoryThumbnail(int position) {
+            if (position < NUM_NON_CATEGORY_VIEW_HOLDERS || position >= getItemCount()
+                    || getItemViewType(position) != ITEM_VIEW_TYPE_CATEGORY) {
+                return null;
+            }
+            return mDiffer.getCurrentList().get(position - NUM_NON_CATEGORY_VIEW_HOLDERS)
+                    .getLoadedThumbnail(getActivity().getApplicationContext());
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mItemIds.getItemId(mDiffer.getCurrentList(),
+                    position - NUM_NON_CATEGORY_VIEW_HOLDERS);
         }
 
         @Override
@@ -746,7 +847,8 @@ public class CategorySelectorFragment extends AppbarFragment {
                 case ITEM_VIEW_TYPE_CATEGORY:
                     // Offset position to get category index to account for the non-category view
                     // holders.
-                    Category category = mCategories.get(position - NUM_NON_CATEGORY_VIEW_HOLDERS);
+                    Category category = mDiffer.getCurrentList()
+                            .get(position - NUM_NON_CATEGORY_VIEW_HOLDERS);
                     ((CategoryHolder) holder).bindCategory(category);
                     break;
                 default:
@@ -757,14 +859,14 @@ public class CategorySelectorFragment extends AppbarFragment {
         @Override
         public int getItemCount() {
             // Add to size of categories to account for the metadata related views.
-            int size = mCategories.size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
+            int size = mDiffer.getCurrentList().size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
 
             return size;
         }
 
         @Override
         public void onPermissionsGranted() {
-            notifyDataSetChanged();
+            notifyMyPhotosChanged();
         }
 
         @Override
@@ -797,15 +899,61 @@ public class CategorySelectorFragment extends AppbarFragment {
         private static final int ITEM_VIEW_TYPE_MY_PHOTOS = 1;
         private static final int ITEM_VIEW_TYPE_CREATIVE_CATEGORY = 2;
         private static final int ITEM_VIEW_TYPE_CATEGORY = 3;
-        private List<Category> mCategories;
+        private static final String CREATIVE_ROW_KEY = "creative_categories";
+        // Rows of a single category, preceded by a row holding all creative categories if there
+        // are any.
+        private final AsyncListDiffer<List<Category>> mDiffer;
+        private final StableItemIds<List<Category>> mItemIds = new StableItemIds<>(
+                row -> CategoryDiffCallback.RowCallback.isCreativeRow(row)
+                        ? CREATIVE_ROW_KEY : row.get(0).getCollectionId());
+
+        private GroupedCategoryAdapter() {
+            mDiffer = new AsyncListDiffer<>(this, new CategoryDiffCallback.RowCallback());
+            setHasStableIds(true);
+        }
 
-        private GroupedCategoryAdapter(List<Category> categories) {
-            mCategories = categories;
+        private void submitRows(List<List<Category>> rows) {
+            mDiffer.submitList(rows);
+        }
+
+        private void notifyMyPhotosChanged() {
+            List<List<Category>> rows = mDiffer.getCurrentList();
+            for (int i = 0; i < rows.size(); i++) {
+                if (!CategoryDiffCallback.RowCallback.isCreativeRow(rows.get(i))
+                        && rows.get(i).get(0).supportsCustomPhotos()) {
+                    notifyItemChanged(i + NUM_NON_CATEGORY_VIEW_HOLDERS);
+                }
+            }
+        }
+
+        private boolean hasCreativeRow() {
+            List<List<Category>> rows = mDiffer.getCurrentList();
+            return !rows.isEmpty() && CategoryDiffCallback.RowCallback.isCreativeRow(rows.get(0));
+        }
+
+        /**
+         * Returns the thumbnail of the category tile at the given position, or null if it isn't
+         * a regular category tile or its category hasn't loaded the thumbnail yet.
+         */
+        @Nullable
+        private Asset getCategoryThumbnail(int position) {
+            if (position < NUM_NON_CATEGORY_VIEW_HOLDERS || position >= getItemCount()
+                    || getItemViewType(position) != ITEM_VIEW_TYPE_CATEGORY) {
+                return null;
+            }
+            return mDiffer.getCurrentList().get(position - NUM_NON_CATEGORY_VIEW_HOLDERS).get(0)
+                    .getLoadedThumbnail(getActivity().getApplicationContext());
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mItemIds.getItemId(mDiffer.getCurrentList(),
+                    position - NUM_NON_CATEGORY_VIEW_HOLDERS);
         }
 
         @Override
         public int getItemViewType(int position) {
-            if (mCategories.stream().anyMatch(Category::supportsUserCreatedWallpapers)) {
+            if (hasCreativeRow()) {
                 if (position == CREATIVE_CATEGORY_ROW_INDEX) {
                     return ITEM_VIEW_TYPE_CREATIVE_CATEGORY;
                 }
@@ -832,7 +980,8 @@ public class CategorySelectorFragment extends AppbarFragment {
                 case ITEM_VIEW_TYPE_CREATIVE_CATEGORY:
                     view = layoutInflater.inflate(R.layout.creative_wallpaper,
                             parent, /* attachToRoot= */ false);
-                    return new GroupCategoryHolder(view, mCreativeCategories.size());
+                    return new GroupCategoryHolder(view, hasCreativeRow()
+                            ? mDiffer.getCurrentList().get(CREATIVE_CATEGORY_ROW_INDEX).size() : 0);
                 case ITEM_VIEW_TYPE_CATEGORY:
                     view = layoutInflater.inflate(R.layout.grid_item_category,
                             parent, /* attachToRoot= */ false);
@@ -848,25 +997,17 @@ public class CategorySelectorFragment extends AppbarFragment {
             int viewType = getItemViewType(position);
             switch (viewType) {
                 case ITEM_VIEW_TYPE_CREATIVE_CATEGORY:
-                    ((GroupCategoryHolder) holder).bindCategory(mCreativeCategories);
+                    ((GroupCategoryHolder) holder).bindCategory(mDiffer.getCurrentList()
+                            .get(position - NUM_NON_CATEGORY_VIEW_HOLDERS));
                     break;
                 case ITEM_VIEW_TYPE_MY_PHOTOS:
                     holder.setIsRecyclable(false);
                 case ITEM_VIEW_TYPE_CATEGORY:
                     // Offset position to get category index to account for the non-category view
                     // holders.
-                    if (mIsCreativeCategoryCollectionAvailable) {
-                        int numCreativeCategories = mCreativeCategories.size();
-                        int positionRelativeToCreativeCategory = position + numCreativeCategories
-                                - 1;
-                        Category category = mCategories.get(
-                                positionRelativeToCreativeCategory - NUM_NON_CATEGORY_VIEW_HOLDERS);
-                        ((CategoryHolder) holder).bindCategory(category);
-                    } else {
-                        Category category = mCategories.get(position
-                                - NUM_NON_CATEGORY_VIEW_HOLDERS);
-                        ((CategoryHolder) holder).bindCategory(category);
-                    }
+                    Category category = mDiffer.getCurrentList()
+                            .get(position - NUM_NON_CATEGORY_VIEW_HOLDERS).get(0);
+                    ((CategoryHolder) holder).bindCategory(category);
                     break;
                 default:
                     Log.e(TAG, "Unsupported viewType " + viewType + " in CategoryAdapter");
@@ -875,20 +1016,14 @@ public class CategorySelectorFragment extends AppbarFragment {
 
         @Override
         public int getItemCount() {
-            // Add to size of categories to account for the metadata related views.
-            int size = mCategories.size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
-            // This is done to make sure all CreativeCategories are accounted for
-            // in one single block, therefore subtracted the size of CreativeCategories
-            // from total count
-            if (mCreativeCategories.size() >= 2) {
-                size = size - (mCreativeCategories.size() - 1);
-            }
-            return size;
+            // Add to size of rows to account for the metadata related views. All creative
+            // categories are accounted for in a single row.
+            return mDiffer.getCurrentList().size() + NUM_NON_CATEGORY_VIEW_HOLDERS;
         }
 
         @Override
         public void onPermissionsGranted() {
-            notifyDataSetChanged();
+            notifyMyPhotosChanged();
         }
 
         @Override
@@ -944,7 +1079,7 @@ public class CategorySelectorFragment extends AppbarFragment {
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == SETTINGS_APP_INFO_REQUEST_CODE) {
-            notifyDataSetChanged();
+            notifyMyPhotosChanged();
         }
     }
 
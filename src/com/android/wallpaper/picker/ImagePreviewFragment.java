@@ -333,17 +333,19 @@ public class ImagePreviewFragment extends PreviewFragment {
             return;
         }
 
+        // Only the uncropped wallpaper's colors are cached, the colors of a crop depend on it.
+        String wallpaperId = cacheColor ? mWallpaper.getStoredWallpaperId(context) : null;
         mWallpaperColorsExtractor.extractWallpaperColors(croppedBitmap,
                 colors -> {
                     if (mFullResImageView.getAlpha() == 0) {
                         onSurfaceReady();
                     }
                     onWallpaperColorsChanged(colors);
-                    if (cacheColor) {
-                        mWallpaperPreferences.storeWallpaperColors(
-                                mWallpaper.getStoredWallpaperId(context), colors);
+                    if (cacheColor && colors != null) {
+                        mWallpaperPreferences.storeWallpaperColors(wallpaperId, colors);
                     }
-                });
+                },
+                wallpaperId);
     }
 
     /**
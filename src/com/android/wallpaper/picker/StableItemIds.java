@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker;
+
+import android.util.Pair;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Assigns the stable IDs of the items shown by an adapter, by the key identifying each item. An
+ * item keeps its ID as long as the lists shown after it have an item with the same key. Only the
+ * IDs of the items currently shown are kept, and IDs of removed items are never given out again.
+ *
+ * <p>Must be used on the main thread.
+ *
+ * @param <T> Type of the items.
+ */
+public final class StableItemIds<T> {
+
+    private final Function<T, Object> mKeyFunction;
+    // Stable ID of each key of the items of mItems.
+    private final Map<Object, Long> mKeyIds = new HashMap<>();
+    @Nullable
+    private List<T> mItems;
+    private long[] mItemIds = new long[0];
+    private long mNextItemId;
+
+    /**
+     * @param keyFunction Returns the key of an item, compared with {@link Object#equals}. Items
+     *                    with the same key as earlier items of the list are told apart by their
+     *                    order.
+     */
+    public StableItemIds(Function<T, Object> keyFunction) {
+        mKeyFunction = keyFunction;
+    }
+
+    /**
+     * Returns the stable ID of the item at the given index of the given list. Lists are told apart
+     * by identity, so the list mustn't be modified once shown.
+     */
+    public long getItemId(List<T> items, int index) {
+        if (items != mItems) {
+            update(items);
+        }
+        return mItemIds[index];
+    }
+
+    private void update(List<T> items) {
+        Map<Object, Long> keyIds = new HashMap<>();
+        Map<Object, Integer> keyCounts = new HashMap<>();
+        long[] itemIds = new long[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            Object key = mKeyFunction.apply(items.get(i));
+            int count = keyCounts.merge(key, 1, Integer::sum);
+            if (count > 1) {
+                key = Pair.create(key, count);
+            }
+            Long itemId = mKeyIds.get(key);
+            if (itemId == null) {
+                itemId = mNextItemId++;
+            }
+            keyIds.put(key, itemId);
+            itemIds[i] = itemId;
+        }
+        // Drop the keys of the items which aren't shown anymore.
+        mKeyIds.clear();
+        mKeyIds.putAll(keyIds);
+        mItems = items;
+        mItemIds = itemIds;
+    }
+}
@@ -300,6 +300,11 @@ public class WallpaperPickerDelegate implements MyPhotosStarter {
                 addCategory(category, true);
             }
 
+            @Override
+            public void onCategoryRemoved(Category category) {
+                removeCategory(category);
+            }
+
             @Override
             public void doneFetchingCategories() {
                 notifyDoneFetchingCategories();
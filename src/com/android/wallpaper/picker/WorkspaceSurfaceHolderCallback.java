@@ -25,11 +25,15 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.wallpaper.util.PreviewUtils;
 import com.android.wallpaper.util.SurfaceViewUtils;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** A surface holder callback that renders user's workspace on the passed in surface view. */
 public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
@@ -50,17 +54,25 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
     public static final String KEY_HIDE_BOTTOM_ROW = "hide_bottom_row";
     public static final int MESSAGE_ID_COLOR_OVERRIDE = 1234;
     public static final String KEY_COLOR_OVERRIDE = "color_override"; // ColorInt Encoded as string
+    /** Maximum number of message IDs kept until the renderer's callback arrives. */
+    @VisibleForTesting
+    static final int MAX_DELAYED_MESSAGES = 16;
     private final SurfaceView mWorkspaceSurface;
     private final PreviewUtils mPreviewUtils;
     private final boolean mShouldUseWallpaperColors;
-    private final AtomicBoolean mRequestPending = new AtomicBoolean(false);
+    /** Number of preview requests whose callback hasn't been called yet. */
+    private final AtomicInteger mPendingRequestCount = new AtomicInteger();
+    /**
+     * Latest message of each ID sent before the renderer's callback arrived, by ID, in the order
+     * they were last sent.
+     */
+    private final Map<Integer, Message> mDelayedMessages = new LinkedHashMap<>();
 
     private WallpaperColors mWallpaperColors;
     private boolean mHideBottomRow;
     private boolean mIsWallpaperColorsReady;
     private Surface mLastSurface;
     private Message mCallback;
-    private Message mDelayedMessage;
     private WorkspaceRenderListener mListener;
 
     private boolean mNeedsToCleanUp;
@@ -157,20 +169,16 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
         if ((mShouldUseWallpaperColors && !mIsWallpaperColorsReady) || mLastSurface == null) {
             return;
         }
-        mRequestPending.set(true);
+        mPendingRequestCount.incrementAndGet();
         requestPreview(mWorkspaceSurface, (result) -> {
-            mRequestPending.set(false);
+            mPendingRequestCount.decrementAndGet();
+            // The result is null if the request was superseded by a later one.
             if (result != null && mLastSurface != null) {
                 mWorkspaceSurface.setChildSurfacePackage(
                         SurfaceViewUtils.getSurfacePackage(result));
                 mCallback = SurfaceViewUtils.getCallback(result);
-                if (mCallback != null && mDelayedMessage != null) {
-                    try {
-                        mCallback.replyTo.send(mDelayedMessage);
-                    } catch (RemoteException e) {
-                        Log.w(TAG, "Couldn't send message to workspace preview", e);
-                    }
-                    mDelayedMessage = null;
+                if (mCallback != null) {
+                    sendDelayedMessages();
                 }
                 if (mNeedsToCleanUp) {
                     cleanUp();
@@ -213,11 +221,33 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
                 Log.w(TAG, "Couldn't send message to workspace preview", e);
             }
         } else {
-            mDelayedMessage = message;
+            // Only the latest message of an ID matters to the renderer, it replaces earlier ones.
+            mDelayedMessages.remove(what);
+            mDelayedMessages.put(what, message);
+            if (mDelayedMessages.size() > MAX_DELAYED_MESSAGES) {
+                Iterator<Integer> eldest = mDelayedMessages.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private void sendDelayedMessages() {
+        for (Message message : mDelayedMessages.values()) {
+            try {
+                mCallback.replyTo.send(message);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Couldn't send message to workspace preview", e);
+                // The renderer is gone, the following messages can't be delivered either.
+                break;
+            }
         }
+        mDelayedMessages.clear();
     }
 
     public void cleanUp() {
+        // The messages were meant for the preview being cleaned up.
+        mDelayedMessages.clear();
         if (mCallback != null) {
             try {
                 mCallback.replyTo.send(mCallback);
@@ -228,7 +258,7 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
                 mCallback = null;
             }
         } else {
-            if (mRequestPending.get()) {
+            if (mPendingRequestCount.get() > 0) {
                 mNeedsToCleanUp = true;
             }
         }
@@ -251,6 +281,6 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
             request.putParcelable(KEY_WALLPAPER_COLORS, mWallpaperColors);
         }
         request.putBoolean(KEY_HIDE_BOTTOM_ROW, mHideBottomRow);
-        mPreviewUtils.renderPreview(request, callback);
+        mPreviewUtils.renderPreview(request, callback, workspaceSurface);
     }
 }
@@ -113,8 +113,7 @@ constructor(
             return categoryModels
         }
 
-        val categories =
-            wallpaperXMLParser.parseSystemCategories(partnerRes.getXml(wallpapersResId))
+        val categories = wallpaperXMLParser.loadSystemCategories(wallpapersResId)
         return categories.map { category -> categoryFactory.getCategoryModel(context, category) }
     }
 
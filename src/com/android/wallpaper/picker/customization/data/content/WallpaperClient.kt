@@ -91,10 +91,19 @@ interface WallpaperClient {
         onDone: () -> Unit,
     )
 
-    /** Returns a thumbnail for the wallpaper with the given ID and destination. */
-    suspend fun loadThumbnail(wallpaperId: String, destination: WallpaperDestination): Bitmap?
+    /**
+     * Returns a thumbnail for the wallpaper with the given ID and destination.
+     *
+     * @param targetSize The size the thumbnail is shown at, in pixels. The thumbnail is sampled
+     *   down to be no smaller than necessary to fill it, or decoded at full resolution if `null`.
+     */
+    suspend fun loadThumbnail(
+        wallpaperId: String,
+        destination: WallpaperDestination,
+        targetSize: Point? = null,
+    ): Bitmap?
 
-    /** Returns whether the recent wallpapers provider is available. */
+    /** Returns whether recent wallpapers can be listed and set again. */
     fun areRecentsAvailable(): Boolean
 
     fun getCurrentCropHints(
@@ -35,18 +35,22 @@ import android.graphics.Rect
 import android.net.Uri
 import android.os.Looper
 import android.util.Log
+import androidx.annotation.GuardedBy
 import androidx.exifinterface.media.ExifInterface
 import com.android.app.tracing.TraceUtils.traceAsync
 import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.asset.BitmapUtils
 import com.android.wallpaper.asset.CurrentWallpaperAsset
 import com.android.wallpaper.asset.StreamableAsset
+import com.android.wallpaper.asset.awaitInputStream
 import com.android.wallpaper.model.CreativeCategory
 import com.android.wallpaper.model.CreativeWallpaperInfo
 import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
 import com.android.wallpaper.model.WallpaperInfo
 import com.android.wallpaper.module.InjectorProvider
+import com.android.wallpaper.module.RecentWallpapersStore
+import com.android.wallpaper.module.RecentWallpapersStore.RecentWallpaper
 import com.android.wallpaper.module.WallpaperPreferences
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
@@ -67,7 +71,6 @@ import java.io.InputStream
 import java.util.EnumMap
 import javax.inject.Inject
 import javax.inject.Singleton
-import kotlinx.coroutines.CancellableContinuation
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.callbackFlow
@@ -84,20 +87,36 @@ constructor(
 ) : WallpaperClient {
 
     private var recentsContentProviderAvailable: Boolean? = null
+    // The recents are cleared from the threads notifying their changes, and queried on others.
+    private val recentsLock = Any()
+    @GuardedBy("recentsLock")
     private val cachedRecents: MutableMap<WallpaperDestination, List<WallpaperModel>> =
         EnumMap(WallpaperDestination::class.java)
+    /** Incremented whenever the recents change, so a query which overlaps it isn't cached. */
+    @GuardedBy("recentsLock") private var recentsGeneration = 0
+    /** The recent wallpapers kept by this app, used when the recents provider isn't available. */
+    private val localRecents by lazy { RecentWallpapersStore.getInstance(context) }
 
     init {
-        if (areRecentsAvailable()) {
+        if (isRecentsProviderAvailable()) {
             context.contentResolver.registerContentObserver(
                 LIST_RECENTS_URI,
                 /* notifyForDescendants= */ true,
                 object : ContentObserver(null) {
                     override fun onChange(selfChange: Boolean) {
-                        cachedRecents.clear()
+                        clearCachedRecents()
                     }
                 },
             )
+        } else {
+            localRecents.addListener { clearCachedRecents() }
+        }
+    }
+
+    private fun clearCachedRecents() {
+        synchronized(recentsLock) {
+            cachedRecents.clear()
+            recentsGeneration++
         }
     }
 
@@ -115,7 +134,7 @@ constructor(
             }
 
             val contentObserver =
-                if (areRecentsAvailable()) {
+                if (isRecentsProviderAvailable()) {
                         object : ContentObserver(null) {
                             override fun onChange(selfChange: Boolean) {
                                 launch { queryAndSend(limit = limit) }
@@ -131,12 +150,22 @@ constructor(
                             it,
                         )
                     }
+            val localRecentsListener =
+                if (isRecentsProviderAvailable()) {
+                    null
+                } else {
+                    Runnable { launch { queryAndSend(limit = limit) } }
+                        .also { localRecents.addListener(it) }
+                }
             queryAndSend(limit = limit)
 
             awaitClose {
                 if (contentObserver != null) {
                     context.contentResolver.unregisterContentObserver(contentObserver)
                 }
+                if (localRecentsListener != null) {
+                    localRecents.removeListener(localRecentsListener)
+                }
             }
         }
     }
@@ -250,20 +279,22 @@ constructor(
         metadata: StaticWallpaperPrefMetadata,
         destination: WallpaperDestination
     ) {
-        when (destination) {
-            HOME -> {
-                clearHomeWallpaperMetadata()
-                setHomeStaticImageWallpaperMetadata(metadata)
-            }
-            LOCK -> {
-                clearLockWallpaperMetadata()
-                setLockStaticImageWallpaperMetadata(metadata)
-            }
-            BOTH -> {
-                clearHomeWallpaperMetadata()
-                setHomeStaticImageWallpaperMetadata(metadata)
-                clearLockWallpaperMetadata()
-                setLockStaticImageWallpaperMetadata(metadata)
+        runInTransaction {
+            when (destination) {
+                HOME -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeStaticImageWallpaperMetadata(metadata)
+                }
+                LOCK -> {
+                    clearLockWallpaperMetadata()
+                    setLockStaticImageWallpaperMetadata(metadata)
+                }
+                BOTH -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeStaticImageWallpaperMetadata(metadata)
+                    clearLockWallpaperMetadata()
+                    setLockStaticImageWallpaperMetadata(metadata)
+                }
             }
         }
     }
@@ -288,7 +319,10 @@ constructor(
                 } ?: wallpaperModel
 
             val managerId =
-                wallpaperManager.setLiveWallpaperToSystem(updatedWallpaperModel, destination)
+                wallpaperManager.setLiveWallpaperToSystem(
+                    updatedWallpaperModel.commonWallpaperData.id.componentName,
+                    destination,
+                )
 
             wallpaperPreferences.setLiveWallpaperMetadata(
                 metadata = updatedWallpaperModel.getMetadata(managerId),
@@ -348,10 +382,9 @@ constructor(
      * @return Wallpaper manager ID
      */
     private fun WallpaperManager.setLiveWallpaperToSystem(
-        wallpaperModel: LiveWallpaperModel,
+        componentName: ComponentName,
         destination: WallpaperDestination
     ): Int {
-        val componentName = wallpaperModel.commonWallpaperData.id.componentName
         try {
             // Probe if the function setWallpaperComponentWithFlags exists
             javaClass.getMethod(
@@ -391,20 +424,22 @@ constructor(
         metadata: LiveWallpaperPrefMetadata,
         destination: WallpaperDestination
     ) {
-        when (destination) {
-            HOME -> {
-                clearHomeWallpaperMetadata()
-                setHomeLiveWallpaperMetadata(metadata)
-            }
-            LOCK -> {
-                clearLockWallpaperMetadata()
-                setLockLiveWallpaperMetadata(metadata)
-            }
-            BOTH -> {
-                clearHomeWallpaperMetadata()
-                setHomeLiveWallpaperMetadata(metadata)
-                clearLockWallpaperMetadata()
-                setLockLiveWallpaperMetadata(metadata)
+        runInTransaction {
+            when (destination) {
+                HOME -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeLiveWallpaperMetadata(metadata)
+                }
+                LOCK -> {
+                    clearLockWallpaperMetadata()
+                    setLockLiveWallpaperMetadata(metadata)
+                }
+                BOTH -> {
+                    clearHomeWallpaperMetadata()
+                    setHomeLiveWallpaperMetadata(metadata)
+                    clearLockWallpaperMetadata()
+                    setLockLiveWallpaperMetadata(metadata)
+                }
             }
         }
     }
@@ -432,6 +467,11 @@ constructor(
         wallpaperId: String,
         onDone: () -> Unit,
     ) {
+        if (!isRecentsProviderAvailable()) {
+            setLocalRecentWallpaper(destination, wallpaperId)
+            onDone.invoke()
+            return
+        }
         val updateValues = ContentValues()
         updateValues.put(KEY_ID, wallpaperId)
         updateValues.put(KEY_SCREEN, destination.asString())
@@ -450,15 +490,23 @@ constructor(
         destination: WallpaperDestination,
         limit: Int,
     ): List<WallpaperModel> {
+        val (cached, generation) =
+            synchronized(recentsLock) { cachedRecents[destination] to recentsGeneration }
+        if (cached != null) {
+            return cached.take(limit)
+        }
         val recentWallpapers =
-            cachedRecents[destination]
-                ?: if (!areRecentsAvailable()) {
-                    listOf(getCurrentWallpaperFromFactory(destination))
-                } else {
-                    queryAllRecentWallpapers(destination)
-                }
+            if (!isRecentsProviderAvailable()) {
+                queryLocalRecentWallpapers(destination)
+            } else {
+                queryAllRecentWallpapers(destination)
+            }
 
-        cachedRecents[destination] = recentWallpapers
+        synchronized(recentsLock) {
+            if (generation == recentsGeneration) {
+                cachedRecents[destination] = recentWallpapers
+            }
+        }
         return recentWallpapers.take(limit)
     }
 
@@ -502,6 +550,115 @@ constructor(
             }
     }
 
+    /**
+     * Lists the recent wallpapers kept by this app. The current wallpaper always comes first, even
+     * if it was set by another app and so isn't one of them.
+     */
+    private suspend fun queryLocalRecentWallpapers(
+        destination: WallpaperDestination
+    ): List<WallpaperModel> {
+        val recents =
+            localRecents.list(destination).map {
+                WallpaperModel(
+                    wallpaperId = it.wallpaperId,
+                    placeholderColor = it.placeholderColor,
+                    lastUpdated = it.lastUpdated,
+                    title = it.title,
+                )
+            }
+        val current = getCurrentWallpaperFromFactory(destination)
+        return if (recents.firstOrNull()?.wallpaperId == current.wallpaperId) {
+            recents
+        } else {
+            listOf(current) + recents.filter { it.wallpaperId != current.wallpaperId }
+        }
+    }
+
+    /** Sets one of the recent wallpapers kept by this app again. */
+    private suspend fun setLocalRecentWallpaper(
+        destination: WallpaperDestination,
+        wallpaperId: String,
+    ) {
+        val wallpaper = localRecents.get(destination, wallpaperId)
+        if (wallpaper == null) {
+            Log.e(TAG, "Error setting wallpaper: $wallpaperId isn't a recent wallpaper")
+            return
+        }
+        if (destination == HOME || destination == BOTH) {
+            stopWallpaperRotation()
+        }
+
+        traceAsync(TAG, "setLocalRecentWallpaper") {
+            val componentName = wallpaper.componentName
+            val isSet =
+                if (componentName != null) {
+                    setLocalRecentLiveWallpaper(destination, wallpaper, componentName)
+                } else {
+                    setLocalRecentStaticWallpaper(destination, wallpaper)
+                }
+            if (isSet) {
+                InjectorProvider.getInjector()
+                    .getCurrentWallpaperInfoFactory(context)
+                    .clearCurrentWallpaperInfos()
+                localRecents.moveToFront(destination, wallpaperId)
+            }
+        }
+    }
+
+    private fun setLocalRecentLiveWallpaper(
+        destination: WallpaperDestination,
+        wallpaper: RecentWallpaper,
+        componentName: ComponentName,
+    ): Boolean {
+        val managerId = wallpaperManager.setLiveWallpaperToSystem(componentName, destination)
+        wallpaperPreferences.setLiveWallpaperMetadata(
+            metadata =
+                LiveWallpaperPrefMetadata(
+                    wallpaper.attributions,
+                    componentName.className,
+                    wallpaper.effects,
+                    wallpaper.collectionId,
+                    managerId,
+                ),
+            destination = destination,
+        )
+        return true
+    }
+
+    private fun setLocalRecentStaticWallpaper(
+        destination: WallpaperDestination,
+        wallpaper: RecentWallpaper,
+    ): Boolean {
+        val managerId =
+            localRecents.openImage(wallpaper)?.use {
+                wallpaperManager.setStreamWithCrops(
+                    it,
+                    wallpaper.cropHints,
+                    /* allowBackup= */ true,
+                    destination.toFlags(),
+                )
+            }
+        if (managerId == null || managerId == 0) {
+            Log.e(TAG, "Error setting wallpaper: ${wallpaper.wallpaperId}")
+            return false
+        }
+        // Hash the image as it was set, without decoding all of it at once.
+        val bitmapHash = localRecents.openImage(wallpaper)?.use { BitmapUtils.generateHashCode(it) }
+        wallpaperPreferences.setStaticWallpaperMetadata(
+            metadata =
+                StaticWallpaperPrefMetadata(
+                    wallpaper.attributions,
+                    wallpaper.actionUrl,
+                    wallpaper.collectionId,
+                    bitmapHash,
+                    managerId,
+                    wallpaper.wallpaperId,
+                ),
+            destination = destination,
+        )
+        return true
+    }
+
     private suspend fun getCurrentWallpaperFromFactory(
         destination: WallpaperDestination
     ): WallpaperModel {
@@ -535,28 +692,35 @@ constructor(
 
     override suspend fun loadThumbnail(
         wallpaperId: String,
-        destination: WallpaperDestination
+        destination: WallpaperDestination,
+        targetSize: Point?,
     ): Bitmap? {
-        if (areRecentsAvailable()) {
+        if (isRecentsProviderAvailable()) {
+            val uri =
+                GET_THUMBNAIL_BASE_URI.buildUpon()
+                    .appendPath(wallpaperId)
+                    .appendQueryParameter(KEY_DESTINATION, destination.asString())
+                    .build()
             try {
-                // We're already using this in a suspend function, so we're okay.
-                @Suppress("BlockingMethodInNonBlockingContext")
-                context.contentResolver
-                    .openFile(
-                        GET_THUMBNAIL_BASE_URI.buildUpon()
-                            .appendPath(wallpaperId)
-                            .appendQueryParameter(KEY_DESTINATION, destination.asString())
-                            .build(),
-                        "r",
-                        null,
-                    )
-                    .use { file ->
-                        if (file == null) {
-                            Log.e(TAG, "Error getting wallpaper preview: $wallpaperId")
-                        } else {
-                            return BitmapFactory.decodeFileDescriptor(file.fileDescriptor)
-                        }
+                val options = BitmapFactory.Options()
+                if (targetSize != null) {
+                    // Only read the dimensions first, so the thumbnail can be sampled down to the
+                    // target size instead of being decoded at full resolution.
+                    options.inJustDecodeBounds = true
+                    decodeThumbnail(uri, wallpaperId, options)
+                    if (options.outWidth <= 0 || options.outHeight <= 0) {
+                        return null
                     }
+                    options.inSampleSize =
+                        BitmapUtils.calculateInSampleSize(
+                            options.outWidth,
+                            options.outHeight,
+                            targetSize.x,
+                            targetSize.y,
+                        )
+                    options.inJustDecodeBounds = false
+                }
+                return decodeThumbnail(uri, wallpaperId, options)
             } catch (e: IOException) {
                 Log.e(
                     TAG,
@@ -565,6 +729,9 @@ constructor(
                 )
             }
         } else {
+            localRecents.loadThumbnail(destination, wallpaperId, targetSize)?.let {
+                return it
+            }
             val currentWallpapers = getCurrentWallpapers()
             val wallpaper =
                 if (currentWallpapers.first.wallpaperId == wallpaperId) {
@@ -578,7 +745,30 @@ constructor(
         return null
     }
 
-    override fun areRecentsAvailable(): Boolean {
+    /** Decodes the thumbnail file at the given URI with the given options. */
+    private fun decodeThumbnail(
+        uri: Uri,
+        wallpaperId: String,
+        options: BitmapFactory.Options,
+    ): Bitmap? {
+        context.contentResolver.openFile(uri, "r", null).use { file ->
+            if (file == null) {
+                Log.e(TAG, "Error getting wallpaper preview: $wallpaperId")
+                return null
+            }
+            return BitmapFactory.decodeFileDescriptor(file.fileDescriptor, null, options)
+        }
+    }
+
+    /**
+     * Always true: recent wallpapers are listed and set again through the recents provider when
+     * there is one, and otherwise through the [RecentWallpapersStore] this app keeps, so the quick
+     * switcher is shown either way. The store starts out empty, listing the current wallpapers
+     * only, until wallpapers are set through this app.
+     */
+    override fun areRecentsAvailable(): Boolean = true
+
+    private fun isRecentsProviderAvailable(): Boolean {
         if (recentsContentProviderAvailable == null) {
             recentsContentProviderAvailable =
                 try {
@@ -668,16 +858,14 @@ constructor(
     }
 
     private suspend fun Asset.getStreamOrFromBitmap(bitmap: Bitmap): InputStream? =
-        suspendCancellableCoroutine { k: CancellableContinuation<InputStream?> ->
-            if (this is StreamableAsset) {
-                if (exifOrientation != ExifInterface.ORIENTATION_NORMAL) {
-                    k.resumeWith(Result.success(BitmapUtils.bitmapToInputStream(bitmap)))
-                } else {
-                    fetchInputStream { k.resumeWith(Result.success(it)) }
-                }
+        if (this is StreamableAsset) {
+            if (exifOrientation != ExifInterface.ORIENTATION_NORMAL) {
+                BitmapUtils.bitmapToInputStream(bitmap)
             } else {
-                k.resumeWith(Result.success(null))
+                awaitInputStream()
             }
+        } else {
+            null
         }
 
     companion object {
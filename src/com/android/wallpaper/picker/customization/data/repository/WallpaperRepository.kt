@@ -31,6 +31,7 @@ import com.android.wallpaper.picker.customization.shared.model.WallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.LiveWallpaperModel
 import com.android.wallpaper.picker.data.WallpaperModel.StaticWallpaperModel
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
+import kotlin.math.min
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.Flow
@@ -52,7 +53,14 @@ class WallpaperRepository(
 ) {
     val maxOptions = MAX_OPTIONS
 
-    private val thumbnailCache = LruCache<String, Bitmap>(maxOptions)
+    /**
+     * Thumbnails of both destinations, bounded by their size in bytes rather than their number as
+     * a full resolution thumbnail takes as much memory as dozens of sampled down ones.
+     */
+    private val thumbnailCache =
+        object : LruCache<ThumbnailKey, Bitmap>(THUMBNAIL_CACHE_SIZE_BYTES) {
+            override fun sizeOf(key: ThumbnailKey, value: Bitmap): Int = value.allocationByteCount
+        }
 
     /** The ID of the currently-selected wallpaper. */
     fun selectedWallpaperId(
@@ -103,16 +111,22 @@ class WallpaperRepository(
             .flowOn(backgroundDispatcher)
     }
 
-    /** Returns a thumbnail for the wallpaper with the given ID and destination. */
+    /**
+     * Returns a thumbnail for the wallpaper with the given ID and destination.
+     *
+     * @param targetSize The size the thumbnail is shown at, in pixels, or `null` for a full
+     *   resolution thumbnail.
+     */
     suspend fun loadThumbnail(
         wallpaperId: String,
         lastUpdatedTimestamp: Long,
-        destination: WallpaperDestination
+        destination: WallpaperDestination,
+        targetSize: Point? = null,
     ): Bitmap? {
-        val cacheKey = "$wallpaperId-$lastUpdatedTimestamp"
+        val cacheKey = ThumbnailKey(wallpaperId, destination, lastUpdatedTimestamp, targetSize)
         return thumbnailCache[cacheKey]
             ?: withContext(backgroundDispatcher) {
-                val thumbnail = client.loadThumbnail(wallpaperId, destination)
+                val thumbnail = client.loadThumbnail(wallpaperId, destination, targetSize)
                 if (thumbnail != null) {
                     thumbnailCache.put(cacheKey, thumbnail)
                 }
@@ -180,9 +194,19 @@ class WallpaperRepository(
     suspend fun getWallpaperColors(bitmap: Bitmap, cropHints: Map<Point, Rect>?): WallpaperColors? =
         withContext(backgroundDispatcher) { client.getWallpaperColors(bitmap, cropHints) }
 
+    private data class ThumbnailKey(
+        val wallpaperId: String,
+        val destination: WallpaperDestination,
+        val lastUpdatedTimestamp: Long,
+        val targetSize: Point?,
+    )
+
     companion object {
         const val DEFAULT_KEY = "default_missing_key"
         /** The maximum number of options to show, including the currently-selected one. */
         private const val MAX_OPTIONS = 5
+        /** Room for the options of both destinations plus a full resolution thumbnail for each. */
+        private val THUMBNAIL_CACHE_SIZE_BYTES =
+            min(Runtime.getRuntime().maxMemory() / 16, 32L * 1024 * 1024).toInt()
     }
 }
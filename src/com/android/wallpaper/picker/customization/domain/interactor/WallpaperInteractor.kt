@@ -18,6 +18,7 @@
 package com.android.wallpaper.picker.customization.domain.interactor
 
 import android.graphics.Bitmap
+import android.graphics.Point
 import com.android.wallpaper.model.Screen
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
 import com.android.wallpaper.picker.customization.data.repository.WallpaperRepository
@@ -111,16 +112,21 @@ class WallpaperInteractor(
         )
     }
 
-    /** Returns a thumbnail for the wallpaper with the given ID and destination. */
+    /**
+     * Returns a thumbnail for the wallpaper with the given ID and destination, sampled down to the
+     * given size in pixels unless it's `null`.
+     */
     suspend fun loadThumbnail(
         wallpaperId: String,
         lastUpdatedTimestamp: Long,
-        destination: WallpaperDestination
+        destination: WallpaperDestination,
+        targetSize: Point? = null,
     ): Bitmap? {
         return repository.loadThumbnail(
             wallpaperId = wallpaperId,
             lastUpdatedTimestamp = lastUpdatedTimestamp,
-            destination = destination
+            destination = destination,
+            targetSize = targetSize,
         )
     }
 }
@@ -18,6 +18,7 @@
 package com.android.wallpaper.picker.customization.ui.binder
 
 import android.animation.ValueAnimator
+import android.graphics.Point
 import android.view.View
 import android.widget.ImageView
 import androidx.core.view.isVisible
@@ -128,7 +129,15 @@ object WallpaperQuickSwitchOptionBinder {
             }
 
             launch {
-                val thumbnail = viewModel.thumbnail()
+                val thumbnail =
+                    viewModel.thumbnail(
+                        Point(
+                            largeOptionWidthPx,
+                            view.resources.getDimensionPixelSize(
+                                R.dimen.wallpaper_quick_switch_selected_option_height
+                            ),
+                        )
+                    )
                 if (thumbnailView.tag != thumbnail) {
                     thumbnailView.tag = thumbnail
                     if (thumbnail != null) {
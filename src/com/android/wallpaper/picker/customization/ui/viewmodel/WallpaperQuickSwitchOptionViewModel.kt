@@ -18,6 +18,7 @@
 package com.android.wallpaper.picker.customization.ui.viewmodel
 
 import android.graphics.Bitmap
+import android.graphics.Point
 import kotlinx.coroutines.flow.Flow
 
 /** Models the UI state for an option in the wallpaper quick switcher. */
@@ -26,8 +27,11 @@ data class WallpaperQuickSwitchOptionViewModel(
     val wallpaperId: String,
     /** A placeholder color to show in the option while we load the preview thumbnail. */
     val placeholderColor: Int,
-    /** A function to invoke to get the preview thumbnail for the option. */
-    val thumbnail: suspend () -> Bitmap?,
+    /**
+     * A function to invoke to get the preview thumbnail for the option, sampled down to the given
+     * size in pixels which the option is shown at when large.
+     */
+    val thumbnail: suspend (targetSize: Point) -> Bitmap?,
     /** The title of the wallpaper or wallpaper category */
     val title: String?,
     /**
@@ -92,11 +92,12 @@ constructor(
                     WallpaperQuickSwitchOptionViewModel(
                         wallpaperId = preview.wallpaperId,
                         placeholderColor = preview.placeholderColor,
-                        thumbnail = {
+                        thumbnail = { targetSize ->
                             interactor.loadThumbnail(
                                 wallpaperId = preview.wallpaperId,
                                 lastUpdatedTimestamp = preview.lastUpdated,
-                                destination = destination
+                                destination = destination,
+                                targetSize = targetSize,
                             )
                         },
                         isLarge =
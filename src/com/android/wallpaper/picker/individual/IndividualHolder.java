@@ -21,12 +21,16 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView.ViewHolder;
 
 import com.android.wallpaper.R;
+import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.model.WallpaperInfo;
 import com.android.wallpaper.util.ResourceUtils;
 
+import com.bumptech.glide.Glide;
+
 import java.util.List;
 
 /**
@@ -40,6 +44,8 @@ abstract class IndividualHolder extends ViewHolder {
     protected ImageView mOverlayIconView;
     protected TextView mTitleView;
     protected WallpaperInfo mWallpaper;
+    @Nullable
+    private Asset mThumbAsset;
 
     IndividualHolder(Activity hostActivity, int tileHeightPx, int tileWidthPx,
              View itemView) {
@@ -81,9 +87,24 @@ abstract class IndividualHolder extends ViewHolder {
         if (overlayIcon != null) {
             mOverlayIconView.setImageDrawable(overlayIcon);
         } else {
-            wallpaper.getThumbAsset(
-                    mActivity.getApplicationContext()).loadDrawable(mActivity, mThumbnailView,
+            mThumbAsset = wallpaper.getThumbAsset(mActivity.getApplicationContext());
+            mThumbAsset.loadDrawable(mActivity, mThumbnailView,
                     ResourceUtils.getColorAttr(mActivity, android.R.attr.colorSecondary));
         }
     }
+
+    /**
+     * Cancels the thumbnail load of the bound wallpaper if it hasn't completed yet, called when
+     * this holder is recycled.
+     */
+    public void cancelThumbnailLoad() {
+        if (mThumbAsset != null) {
+            mThumbAsset.cancelPendingDecodes();
+            mThumbAsset = null;
+            // Most thumbnails are loaded by Glide, which the decode scheduler doesn't know about.
+            if (!mActivity.isDestroyed()) {
+                Glide.with(mActivity).clear(mThumbnailView);
+            }
+        }
+    }
 }
@@ -48,9 +48,13 @@ import androidx.core.content.ContextCompat
 import androidx.core.widget.ContentLoadingProgressBar
 import androidx.fragment.app.DialogFragment
 import androidx.lifecycle.lifecycleScope
+import androidx.recyclerview.widget.AdapterListUpdateCallback
+import androidx.recyclerview.widget.AsyncDifferConfig
+import androidx.recyclerview.widget.AsyncListDiffer
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.android.wallpaper.R
+import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.model.Category
 import com.android.wallpaper.model.CategoryProvider
 import com.android.wallpaper.model.CategoryReceiver
@@ -65,6 +69,7 @@ import com.android.wallpaper.picker.AppbarFragment
 import com.android.wallpaper.picker.FragmentTransactionChecker
 import com.android.wallpaper.picker.MyPhotosStarter.MyPhotosStarterProvider
 import com.android.wallpaper.picker.RotationStarter
+import com.android.wallpaper.picker.StableItemIds
 import com.android.wallpaper.picker.StartRotationDialogFragment
 import com.android.wallpaper.picker.StartRotationErrorDialogFragment
 import com.android.wallpaper.util.ActivityUtils
@@ -72,11 +77,13 @@ import com.android.wallpaper.util.LaunchUtils
 import com.android.wallpaper.util.SizeCalculator
 import com.android.wallpaper.widget.GridPaddingDecoration
 import com.android.wallpaper.widget.GridPaddingDecorationCreativeCategory
+import com.android.wallpaper.widget.ThumbnailPrefetcher
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate
 import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDelegate.BottomSheetHost
 import com.bumptech.glide.Glide
 import com.bumptech.glide.MemoryCategory
 import java.util.Date
+import java.util.concurrent.Executor
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 
@@ -118,8 +125,11 @@ class IndividualPickerFragment2 :
 
     private lateinit var imageGrid: RecyclerView
     private var adapter: IndividualAdapter? = null
+    private var thumbnailPrefetcher: ThumbnailPrefetcher? = null
     private var category: WallpaperCategory? = null
     private var wallpaperRotationInitializer: WallpaperRotationInitializer? = null
+    // Replaced rather than modified once handed to the adapter, which diffs it on a background
+    // thread.
     private lateinit var items: MutableList<PickerItem>
     private var packageStatusNotifier: PackageStatusNotifier? = null
     private var isWallpapersReceived = false
@@ -186,7 +196,6 @@ class IndividualPickerFragment2 :
 
     private fun fetchWallpapers(forceReload: Boolean) {
         isCreativeCategory = false
-        items.clear()
         isWallpapersReceived = false
         updateLoading()
         val context = requireContext()
@@ -200,6 +209,7 @@ class IndividualPickerFragment2 :
                 }
                 isWallpapersReceived = true
                 updateLoading()
+                items = ArrayList()
                 val supportsUserCreated = category?.supportsUserCreatedWallpapers() == true
                 val byGroup = fetchedWallpapers.groupBy { it.getGroupName(context) }.toMutableMap()
                 val appliedWallpaperIds =
@@ -237,7 +247,8 @@ class IndividualPickerFragment2 :
                     }
                 }
                 maybeSetUpImageGrid()
-                adapter?.notifyDataSetChanged()
+                // Only the tiles which changed since the last fetch are bound again.
+                adapter?.submitItems(items)
 
                 // Finish activity if no wallpapers are found (on phone)
                 if (fetchedWallpapers.isEmpty()) {
@@ -528,9 +539,8 @@ class IndividualPickerFragment2 :
      * to not be null when this method is called.
      */
     private fun setUpImageGrid(tileSizePx: Point, category: Category) {
-        adapter =
+        val individualAdapter =
             IndividualAdapter(
-                items,
                 category,
                 requireActivity(),
                 tileSizePx,
@@ -540,12 +550,24 @@ class IndividualPickerFragment2 :
                 imageGrid.paddingTop,
                 imageGrid.paddingBottom
             )
-        imageGrid.adapter = adapter
+        adapter = individualAdapter
+        imageGrid.adapter = individualAdapter
+        thumbnailPrefetcher?.let {
+            it.cancelAll()
+            imageGrid.removeOnScrollListener(it)
+        }
+        thumbnailPrefetcher =
+            ThumbnailPrefetcher(requireContext(), tileSizePx, getNumColumns(), R.id.thumbnail) {
+                    individualAdapter.getThumbAsset(it)
+                }
+                .also { imageGrid.addOnScrollListener(it) }
 
         val gridLayoutManager = GridLayoutManager(activity, getNumColumns())
         gridLayoutManager.spanSizeLookup =
             object : GridLayoutManager.SpanSizeLookup() {
                 override fun getSpanSize(position: Int): Int {
+                    // Use the items the adapter shows, which lag behind while they are diffed.
+                    val items = individualAdapter.items
                     return if (position >= 0 && position < items.size) {
                         when (items[position]) {
                             is PickerItem.CreativeCollection,
@@ -598,6 +620,7 @@ class IndividualPickerFragment2 :
 
     override fun onDestroyView() {
         super.onDestroyView()
+        thumbnailPrefetcher?.cancelAll()
         getIndividualPickerFragmentHost().removeToolbarMenu()
     }
 
@@ -776,9 +799,14 @@ class IndividualPickerFragment2 :
         class CreativeCollection(val templates: List<WallpaperInfo>) : PickerItem()
     }
 
-    /** RecyclerView Adapter subclass for the wallpaper tiles in the RecyclerView. */
+    /**
+     * RecyclerView Adapter subclass for the wallpaper tiles in the RecyclerView. Items are diffed
+     * on a background thread when submitted, and have stable IDs, so only the tiles which changed
+     * are bound again.
+     *
+     * @param diffExecutor diffs the submitted items, or the default background thread if null
+     */
     class IndividualAdapter(
-        private val items: List<PickerItem>,
         private val category: Category,
         private val activity: Activity,
         private val tileSizePx: Point,
@@ -786,7 +814,8 @@ class IndividualPickerFragment2 :
         private val isFewerColumnLayout: Boolean,
         private val edgePadding: Int,
         private val bottomPadding: Int,
-        private val topPadding: Int
+        private val topPadding: Int,
+        diffExecutor: Executor? = null,
     ) : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
         companion object {
             const val ITEM_VIEW_TYPE_INDIVIDUAL_WALLPAPER = 2
@@ -794,6 +823,59 @@ class IndividualPickerFragment2 :
             const val ITEM_VIEW_TYPE_HEADER = 4
             const val ITEM_VIEW_TYPE_HEADER_TOP = 5
             const val ITEM_VIEW_TYPE_CREATIVE = 6
+            // IDs of the items count up from 0, and -1 is RecyclerView.NO_ID.
+            private const val MY_PHOTOS_ITEM_ID = -2L
+        }
+
+        private val differ =
+            AsyncListDiffer(
+                AdapterListUpdateCallback(this),
+                AsyncDifferConfig.Builder(PickerItemDiffCallback())
+                    .apply { diffExecutor?.let { setBackgroundThreadExecutor(it) } }
+                    .build()
+            )
+        private val itemIds = StableItemIds<PickerItem> { item -> getItemKey(item) }
+
+        /** Items currently shown. */
+        val items: List<PickerItem>
+            get() = differ.currentList
+
+        init {
+            setHasStableIds(true)
+        }
+
+        /** Shows the given items. The list mustn't be modified afterwards. */
+        fun submitItems(items: List<PickerItem>) {
+            differ.submitList(items)
+        }
+
+        override fun getItemId(position: Int): Long {
+            if (getItemViewType(position) == ITEM_VIEW_TYPE_MY_PHOTOS) {
+                return MY_PHOTOS_ITEM_ID
+            }
+            val index = if (category.supportsCustomPhotos()) position - 1 else position
+            return itemIds.getItemId(items, index)
+        }
+
+        /** Returns what identifies the tile of the item, like [PickerItemDiffCallback] does. */
+        private fun getItemKey(item: PickerItem): Any =
+            when (item) {
+                // Wallpapers fetched again are new objects, so they are identified by their ID, or
+                // by the object itself if they have none.
+                is PickerItem.WallpaperItem ->
+                    item.wallpaperInfo.wallpaperId?.let { "wallpaper:$it" }
+                        ?: WallpaperObjectKey(item.wallpaperInfo)
+                is PickerItem.HeaderItem -> "header:" + item.title
+                is PickerItem.FirstHeaderItem -> "first_header:" + item.title
+                is PickerItem.CreativeCollection -> "creative"
+            }
+
+        /** Key matching the same wallpaper object only. */
+        private class WallpaperObjectKey(private val wallpaperInfo: WallpaperInfo) {
+            override fun equals(other: Any?) =
+                other is WallpaperObjectKey && other.wallpaperInfo === wallpaperInfo
+
+            override fun hashCode() = System.identityHashCode(wallpaperInfo)
         }
 
         override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
@@ -843,6 +925,31 @@ class IndividualPickerFragment2 :
             }
         }
 
+        /**
+         * Returns the thumbnail the tile at the given position loads, or null if it isn't the tile
+         * of a wallpaper with a thumbnail.
+         */
+        fun getThumbAsset(position: Int): Asset? {
+            if (
+                position !in 0 until itemCount ||
+                    getItemViewType(position) != ITEM_VIEW_TYPE_INDIVIDUAL_WALLPAPER
+            ) {
+                return null
+            }
+            val wallpaperIndex = if (category.supportsCustomPhotos()) position - 1 else position
+            val wallpaper = (items[wallpaperIndex] as PickerItem.WallpaperItem).wallpaperInfo
+            // Tiles showing an overlay icon don't load the thumbnail.
+            return if (wallpaper.getOverlayIcon(activity) != null) {
+                null
+            } else {
+                wallpaper.getThumbAsset(activity.applicationContext)
+            }
+        }
+
+        override fun onViewRecycled(holder: RecyclerView.ViewHolder) {
+            (holder as? IndividualHolder)?.cancelThumbnailLoad()
+        }
+
         override fun getItemCount(): Int {
             return if (category.supportsCustomPhotos()) {
                 items.size + 1
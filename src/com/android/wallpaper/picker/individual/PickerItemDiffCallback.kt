@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.individual
+
+import androidx.recyclerview.widget.DiffUtil
+import com.android.wallpaper.model.WallpaperInfo
+import com.android.wallpaper.picker.individual.IndividualPickerFragment2.PickerItem
+
+/**
+ * Compares the items of the individual picker grid. Wallpapers are the same item if they have the
+ * same ID, so a wallpaper fetched again is only bound again if its tile looks different.
+ */
+class PickerItemDiffCallback : DiffUtil.ItemCallback<PickerItem>() {
+
+    override fun areItemsTheSame(oldItem: PickerItem, newItem: PickerItem): Boolean =
+        when (oldItem) {
+            is PickerItem.WallpaperItem ->
+                newItem is PickerItem.WallpaperItem &&
+                    isSameWallpaper(oldItem.wallpaperInfo, newItem.wallpaperInfo)
+            is PickerItem.HeaderItem ->
+                newItem is PickerItem.HeaderItem &&
+                    oldItem.title.toString() == newItem.title.toString()
+            is PickerItem.FirstHeaderItem ->
+                newItem is PickerItem.FirstHeaderItem &&
+                    oldItem.title.toString() == newItem.title.toString()
+            is PickerItem.CreativeCollection -> newItem is PickerItem.CreativeCollection
+        }
+
+    override fun areContentsTheSame(oldItem: PickerItem, newItem: PickerItem): Boolean =
+        when (oldItem) {
+            is PickerItem.WallpaperItem ->
+                newItem is PickerItem.WallpaperItem &&
+                    oldItem.isApplied == newItem.isApplied &&
+                    (oldItem.wallpaperInfo === newItem.wallpaperInfo ||
+                        (oldItem.wallpaperInfo.javaClass == newItem.wallpaperInfo.javaClass &&
+                            oldItem.wallpaperInfo.badgeDrawableRes ==
+                                newItem.wallpaperInfo.badgeDrawableRes))
+            is PickerItem.CreativeCollection ->
+                newItem is PickerItem.CreativeCollection &&
+                    oldItem.templates.size == newItem.templates.size &&
+                    oldItem.templates.zip(newItem.templates).all { (old, new) ->
+                        isSameWallpaper(old, new)
+                    }
+            // Headers only show their title, which is what identifies them.
+            is PickerItem.HeaderItem,
+            is PickerItem.FirstHeaderItem -> true
+        }
+
+    private fun isSameWallpaper(oldWallpaper: WallpaperInfo, newWallpaper: WallpaperInfo) =
+        oldWallpaper === newWallpaper ||
+            (oldWallpaper.wallpaperId != null &&
+                oldWallpaper.wallpaperId == newWallpaper.wallpaperId)
+}
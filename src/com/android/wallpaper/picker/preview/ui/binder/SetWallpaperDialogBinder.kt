@@ -97,8 +97,10 @@ object SetWallpaperDialogBinder {
                         onClicked ->
                         confirmButton.setOnClickListener {
                             mainScope.launch {
-                                onClicked()
-                                onFinishActivity()
+                                // Stay on the preview if the wallpaper couldn't be set.
+                                if (onClicked()) {
+                                    onFinishActivity()
+                                }
                             }
                         }
                     }
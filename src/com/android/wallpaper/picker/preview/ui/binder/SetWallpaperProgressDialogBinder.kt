@@ -18,6 +18,7 @@ package com.android.wallpaper.picker.preview.ui.binder
 
 import android.app.Activity
 import android.app.AlertDialog
+import android.widget.Toast
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.lifecycleScope
@@ -52,6 +53,20 @@ object SetWallpaperProgressDialogBinder {
                         }
                     }
                 }
+
+                launch {
+                    viewModel.isSetWallpaperFailed.collect { failed ->
+                        if (failed) {
+                            Toast.makeText(
+                                    activity,
+                                    R.string.set_wallpaper_error_message,
+                                    Toast.LENGTH_SHORT,
+                                )
+                                .show()
+                            viewModel.onSetWallpaperFailureShown()
+                        }
+                    }
+                }
             }
         }
     }
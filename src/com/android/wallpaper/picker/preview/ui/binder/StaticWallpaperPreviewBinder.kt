@@ -28,9 +28,13 @@ import android.widget.ImageView
 import androidx.core.view.doOnLayout
 import androidx.core.view.isVisible
 import com.android.app.tracing.TraceUtils.trace
+import com.android.wallpaper.asset.DecodeScheduler
+import com.android.wallpaper.asset.StreamableAsset
 import com.android.wallpaper.picker.preview.shared.model.CropSizeModel
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
+import com.android.wallpaper.picker.preview.ui.util.AssetRegionDecoder
 import com.android.wallpaper.picker.preview.ui.util.FullResImageViewUtil
+import com.android.wallpaper.picker.preview.ui.viewmodel.FullResWallpaperViewModel
 import com.android.wallpaper.picker.preview.ui.viewmodel.StaticWallpaperPreviewViewModel
 import com.android.wallpaper.util.RtlUtils
 import com.android.wallpaper.util.WallpaperCropUtils
@@ -76,7 +80,7 @@ object StaticWallpaperPreviewBinder {
                     trace(TAG) {
                         val cropHint = imageModel.fullPreviewCropModels?.get(displaySize)?.cropHint
                         fullResImageView.setFullResImage(
-                            ImageSource.cachedBitmap(imageModel.rawWallpaperBitmap),
+                            imageModel,
                             imageModel.rawWallpaperSize,
                             displaySize,
                             cropHint,
@@ -140,7 +144,7 @@ object StaticWallpaperPreviewBinder {
     }
 
     private fun SubsamplingScaleImageView.setFullResImage(
-        imageSource: ImageSource,
+        imageModel: FullResWallpaperViewModel,
         rawWallpaperSize: Point,
         displaySize: Point,
         cropHint: Rect?,
@@ -148,7 +152,23 @@ object StaticWallpaperPreviewBinder {
         isFullScreen: Boolean,
     ) {
         // Set the full res image
-        setImage(imageSource)
+        val asset = imageModel.asset
+        if (imageModel.isTiled && asset is StreamableAsset) {
+            // Decode only the visible tiles at the current zoom's sample size, showing the low
+            // res base layer until they are ready.
+            setMaxTileSize(AssetRegionDecoder.MAX_TILE_SIZE)
+            setExecutor(
+                DecodeScheduler.getInstance().asExecutor(DecodeScheduler.PRIORITY_VISIBLE_PREVIEW)
+            )
+            setRegionDecoderFactory { AssetRegionDecoder(asset) }
+            setImage(
+                ImageSource.uri(AssetRegionDecoder.ASSET_URI)
+                    .dimensions(rawWallpaperSize.x, rawWallpaperSize.y),
+                ImageSource.cachedBitmap(imageModel.rawWallpaperBitmap),
+            )
+        } else {
+            setImage(ImageSource.cachedBitmap(imageModel.rawWallpaperBitmap))
+        }
         // Calculate the scale and the center point for the full res image
         doOnLayout {
             FullResImageViewUtil.getScaleAndCenter(
@@ -237,7 +237,8 @@ object WorkspacePreviewBinder {
                                 continuation.resume(null)
                             }
                         }
-                    }
+                    },
+                    surface,
                 )
             }
         }
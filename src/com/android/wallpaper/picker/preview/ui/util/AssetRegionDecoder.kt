@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.picker.preview.ui.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.graphics.Rect
+import android.net.Uri
+import com.android.wallpaper.asset.StreamableAsset
+import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder
+import java.io.IOException
+
+/**
+ * [ImageRegionDecoder] which decodes the tiles of a [SubsamplingScaleImageView] from a
+ * [StreamableAsset], so the full resolution preview only holds the tiles visible at the current
+ * zoom instead of the whole image.
+ *
+ * The [Uri] passed to [init] is ignored, the image always comes from [asset]. Tiles may be decoded
+ * concurrently, the asset keeps a bounded pool of region decoders for that.
+ */
+class AssetRegionDecoder(private val asset: StreamableAsset) : ImageRegionDecoder {
+
+    override fun init(context: Context, uri: Uri): Point {
+        return asset.calculateRawDimensions()
+            ?: throw IOException("Unable to decode the dimensions of $asset")
+    }
+
+    override fun decodeRegion(sRect: Rect, sampleSize: Int): Bitmap {
+        return asset.decodeTileSync(sRect, sampleSize)
+            ?: throw IOException("Unable to decode tile $sRect of $asset")
+    }
+
+    override fun isReady(): Boolean = true
+
+    override fun recycle() {
+        asset.releaseRegionDecoders()
+    }
+
+    companion object {
+        /** Placeholder [Uri] for the image source, the actual image comes from the asset. */
+        val ASSET_URI: Uri = Uri.parse("asset://tiled")
+
+        /** Largest edge, in pixels, of a decoded tile. */
+        const val MAX_TILE_SIZE = 1024
+    }
+}
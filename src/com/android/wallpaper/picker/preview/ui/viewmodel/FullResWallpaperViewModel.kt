@@ -20,9 +20,17 @@ import android.graphics.Point
 import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.picker.preview.shared.model.FullPreviewCropModel
 
+/**
+ * @param rawWallpaperBitmap the decoded wallpaper. For a tiled preview this is only a low
+ *   resolution base layer covering the full frame, and the full resolution tiles are decoded from
+ *   [asset] on demand.
+ * @param isTiled whether the preview decodes full resolution tiles from [asset] instead of holding
+ *   the full resolution bitmap.
+ */
 data class FullResWallpaperViewModel(
     val rawWallpaperBitmap: Bitmap,
     val rawWallpaperSize: Point,
     val asset: Asset,
     val fullPreviewCropModels: Map<Point, FullPreviewCropModel>?,
+    val isTiled: Boolean = false,
 )
@@ -22,6 +22,11 @@ import android.graphics.Point
 import android.graphics.Rect
 import androidx.annotation.VisibleForTesting
 import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.BitmapUtils
+import com.android.wallpaper.asset.DecodeScheduler
+import com.android.wallpaper.asset.StreamableAsset
+import com.android.wallpaper.asset.awaitBitmap
+import com.android.wallpaper.asset.awaitRawDimensions
 import com.android.wallpaper.module.WallpaperPreferences
 import com.android.wallpaper.picker.customization.shared.model.WallpaperColorsModel
 import com.android.wallpaper.picker.data.WallpaperModel.StaticWallpaperModel
@@ -32,7 +37,6 @@ import com.android.wallpaper.picker.preview.ui.WallpaperPreviewActivity
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.android.scopes.ViewModelScoped
 import javax.inject.Inject
-import kotlinx.coroutines.CancellableContinuation
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.Flow
@@ -44,7 +48,7 @@ import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.shareIn
-import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
 
 /** View model for static wallpaper preview used in [WallpaperPreviewActivity] and its fragments */
 @ViewModelScoped
@@ -97,11 +101,26 @@ constructor(
             .map { it.staticWallpaperData.asset.getLowResBitmap(context) }
             .flowOn(bgDispatcher)
     // Asset detail includes the dimensions, bitmap and the asset.
-    private val assetDetail: Flow<Triple<Point, Bitmap?, Asset>?> =
+    private val assetDetail: Flow<AssetDetail?> =
         interactor.wallpaperModel
             .map { (it as? StaticWallpaperModel)?.staticWallpaperData?.asset }
             .map { asset ->
-                asset?.decodeRawDimensions()?.let { Triple(it, asset.decodeBitmap(it), asset) }
+                asset?.setDecodePriority(DecodeScheduler.PRIORITY_VISIBLE_PREVIEW)
+                asset?.awaitRawDimensions()?.let { dimensions ->
+                    val baseLayerSize = getBaseLayerSize()
+                    if (asset.supportsTiledPreview(dimensions, baseLayerSize)) {
+                        // Only decode a screen sized base layer, the full resolution tiles are
+                        // decoded by the preview for the visible region.
+                        AssetDetail(
+                            dimensions,
+                            asset.awaitBitmap(baseLayerSize),
+                            asset,
+                            isTiled = true,
+                        )
+                    } else {
+                        AssetDetail(dimensions, asset.awaitBitmap(dimensions), asset)
+                    }
+                }
             }
             .flowOn(bgDispatcher)
             // We only want to decode bitmap every time when wallpaper model is updated, instead of
@@ -113,13 +132,14 @@ constructor(
                 if (assetDetail == null) {
                     null
                 } else {
-                    val (dimensions, bitmap, asset) = assetDetail
+                    val (dimensions, bitmap, asset, isTiled) = assetDetail
                     bitmap?.let {
                         FullResWallpaperViewModel(
                             bitmap,
                             dimensions,
                             asset,
                             cropHintsInfo,
+                            isTiled,
                         )
                     }
                 }
@@ -145,7 +165,10 @@ constructor(
                             null
                         )
                 } else {
-                    interactor.getWallpaperColors(wallpaperViewModel.rawWallpaperBitmap, cropHints)
+                    interactor.getWallpaperColors(
+                        wallpaperViewModel.rawWallpaperBitmap,
+                        wallpaperViewModel.scaleCropHintsToBitmap(cropHints),
+                    )
                 }
             )
         }
@@ -187,19 +210,59 @@ constructor(
         }
     }
 
-    // TODO b/296288298 Create a util class for Bitmap and Asset
-    private suspend fun Asset.decodeRawDimensions(): Point? =
-        suspendCancellableCoroutine { k: CancellableContinuation<Point?> ->
-            val callback = Asset.DimensionsReceiver { k.resumeWith(Result.success(it)) }
-            decodeRawDimensions(null, callback)
+    /**
+     * Returns the full resolution wallpaper bitmap, e.g. for setting the wallpaper. A tiled preview
+     * only holds a low resolution base layer, so its full resolution bitmap is decoded on demand.
+     */
+    suspend fun getFullResBitmap(viewModel: FullResWallpaperViewModel): Bitmap? {
+        if (!viewModel.isTiled) {
+            return viewModel.rawWallpaperBitmap
         }
+        return withContext(bgDispatcher) { viewModel.asset.awaitBitmap(viewModel.rawWallpaperSize) }
+    }
+
+    /**
+     * Returns the size the base layer of a tiled preview is decoded at: large enough that it covers
+     * the screen when the image is zoomed to fit.
+     */
+    private fun getBaseLayerSize(): Point {
+        val displayMetrics = context.resources.displayMetrics
+        val minEdge = minOf(displayMetrics.widthPixels, displayMetrics.heightPixels)
+        return Point(minEdge, minEdge)
+    }
 
-    // TODO b/296288298 Create a util class functions for Bitmap and Asset
-    private suspend fun Asset.decodeBitmap(dimensions: Point): Bitmap? =
-        suspendCancellableCoroutine { k: CancellableContinuation<Bitmap?> ->
-            val callback = Asset.BitmapReceiver { k.resumeWith(Result.success(it)) }
-            decodeBitmap(dimensions.x, dimensions.y, /* hardwareBitmapAllowed= */ false, callback)
+    /**
+     * Returns whether the preview of this asset should decode tiles on demand: that's the case if
+     * its regions can be decoded and the image is at least twice as large as the base layer.
+     */
+    private fun Asset.supportsTiledPreview(dimensions: Point, baseLayerSize: Point): Boolean {
+        return this is StreamableAsset &&
+            BitmapUtils.calculateInSampleSize(
+                dimensions.x,
+                dimensions.y,
+                baseLayerSize.x,
+                baseLayerSize.y,
+            ) > 1 &&
+            supportsTileDecoding()
+    }
+
+    /** Scales crop hints in raw wallpaper coordinates to [rawWallpaperBitmap] coordinates. */
+    private fun FullResWallpaperViewModel.scaleCropHintsToBitmap(
+        cropHints: Map<Point, Rect>
+    ): Map<Point, Rect> {
+        if (!isTiled) {
+            return cropHints
         }
+        val scale = rawWallpaperBitmap.width.toFloat() / rawWallpaperSize.x
+        return cropHints.mapValues { Rect(it.value).apply { scale(scale) } }
+    }
+
+    private data class AssetDetail(
+        val dimensions: Point,
+        val bitmap: Bitmap?,
+        val asset: Asset,
+        val isTiled: Boolean = false,
+    )
 
     class Factory
     @Inject
@@ -18,6 +18,7 @@ package com.android.wallpaper.picker.preview.ui.viewmodel
 import android.graphics.Point
 import android.graphics.Rect
 import android.stats.style.StyleEnums
+import android.util.Log
 import androidx.lifecycle.SavedStateHandle
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
@@ -43,6 +44,7 @@ import com.android.wallpaper.util.WallpaperConnection.WhichPreview
 import dagger.hilt.android.lifecycle.HiltViewModel
 import java.util.EnumSet
 import javax.inject.Inject
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
@@ -314,46 +316,87 @@ constructor(
     val isSetWallpaperProgressBarVisible: Flow<Boolean> =
         _isSetWallpaperProgressBarVisible.asStateFlow()
 
-    val setWallpaperDialogOnConfirmButtonClicked: Flow<suspend () -> Unit> =
+    private val _isSetWallpaperFailed = MutableStateFlow(false)
+    /** Whether the last attempt to set the wallpaper failed before the wallpaper could be set. */
+    val isSetWallpaperFailed: StateFlow<Boolean> = _isSetWallpaperFailed.asStateFlow()
+
+    /** Called once the failure to set the wallpaper has been shown to the user. */
+    fun onSetWallpaperFailureShown() {
+        _isSetWallpaperFailed.value = false
+    }
+
+    /**
+     * Sets the wallpaper on the screens selected in the set wallpaper dialog, returning whether it
+     * was set. On failure, [isSetWallpaperFailed] is also raised for the failure to be shown.
+     */
+    val setWallpaperDialogOnConfirmButtonClicked: Flow<suspend () -> Boolean> =
         combine(
             wallpaper.filterNotNull(),
             staticWallpaperPreviewViewModel.fullResWallpaperViewModel,
             setWallpaperDialogSelectedScreens,
         ) { wallpaper, fullResWallpaperViewModel, selectedScreens ->
             {
+                _isSetWallpaperFailed.value = false
                 _isSetWallpaperProgressBarVisible.value = true
                 val destination = selectedScreens.getDestination()
                 _showSetWallpaperDialog.value = false
-                when (wallpaper) {
-                    is StaticWallpaperModel ->
-                        fullResWallpaperViewModel?.let {
-                            interactor.setStaticWallpaper(
-                                setWallpaperEntryPoint =
-                                    StyleEnums.SET_WALLPAPER_ENTRY_POINT_WALLPAPER_PREVIEW,
-                                destination = destination,
-                                wallpaperModel = wallpaper,
-                                bitmap = it.rawWallpaperBitmap,
-                                wallpaperSize = it.rawWallpaperSize,
-                                asset = it.asset,
-                                fullPreviewCropModels =
-                                    if (it.fullPreviewCropModels.isNullOrEmpty()) {
-                                        staticWallpaperPreviewViewModel.fullPreviewCropModels
-                                    } else {
-                                        it.fullPreviewCropModels
-                                    },
-                            )
-                        }
-                    is LiveWallpaperModel -> {
-                        interactor.setLiveWallpaper(
-                            setWallpaperEntryPoint =
-                                StyleEnums.SET_WALLPAPER_ENTRY_POINT_WALLPAPER_PREVIEW,
-                            destination = destination,
-                            wallpaperModel = wallpaper,
-                        )
+                val isSet =
+                    try {
+                        setWallpaper(wallpaper, fullResWallpaperViewModel, destination)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Unable to set the wallpaper", e)
+                        false
+                    }
+                if (!isSet) {
+                    _isSetWallpaperProgressBarVisible.value = false
+                    _isSetWallpaperFailed.value = true
+                }
+                isSet
+            }
+        }
+
+    /** Sets the given wallpaper, returning false if it couldn't be set. */
+    private suspend fun setWallpaper(
+        wallpaper: WallpaperModel,
+        fullResWallpaperViewModel: FullResWallpaperViewModel?,
+        destination: WallpaperDestination,
+    ): Boolean {
+        when (wallpaper) {
+            is StaticWallpaperModel ->
+                fullResWallpaperViewModel?.let {
+                    val bitmap = staticWallpaperPreviewViewModel.getFullResBitmap(it)
+                    if (bitmap == null) {
+                        Log.e(TAG, "Unable to decode the full resolution wallpaper")
+                        return false
                     }
+                    interactor.setStaticWallpaper(
+                        setWallpaperEntryPoint =
+                            StyleEnums.SET_WALLPAPER_ENTRY_POINT_WALLPAPER_PREVIEW,
+                        destination = destination,
+                        wallpaperModel = wallpaper,
+                        bitmap = bitmap,
+                        wallpaperSize = it.rawWallpaperSize,
+                        asset = it.asset,
+                        fullPreviewCropModels =
+                            if (it.fullPreviewCropModels.isNullOrEmpty()) {
+                                staticWallpaperPreviewViewModel.fullPreviewCropModels
+                            } else {
+                                it.fullPreviewCropModels
+                            },
+                    )
                 }
+            is LiveWallpaperModel -> {
+                interactor.setLiveWallpaper(
+                    setWallpaperEntryPoint = StyleEnums.SET_WALLPAPER_ENTRY_POINT_WALLPAPER_PREVIEW,
+                    destination = destination,
+                    wallpaperModel = wallpaper,
+                )
             }
         }
+        return true
+    }
 
     private fun Set<Screen>.getDestination(): WallpaperDestination {
         return if (containsAll(Screen.entries)) {
@@ -455,6 +498,8 @@ constructor(
     }
 
     companion object {
+        private const val TAG = "WallpaperPreviewViewModel"
+
         private fun WallpaperModel.isDownloadableWallpaper(): Boolean {
             return this is StaticWallpaperModel && downloadableWallpaperData != null
         }
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.content.res.XmlResourceParser
+import com.android.wallpaper.model.LiveWallpaperInfo
+import com.android.wallpaper.model.SystemStaticWallpaperInfo
+import com.android.wallpaper.model.WallpaperCategory
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import org.xmlpull.v1.XmlPullParser
+
+/**
+ * Compiled form of the partner wallpapers XML: the attributes of every category and wallpaper it
+ * declares, without creating any of them. It is much cheaper to read back than walking the XML,
+ * and lets categories create their wallpapers only once they are opened.
+ */
+data class PartnerWallpaperIndex(val categories: List<CategoryEntry>) {
+
+    /** A `category` element. */
+    data class CategoryEntry(
+        val id: String,
+        val titleResId: Int,
+        val featuredId: String?,
+        val priority: Int,
+        val thumbResId: Int,
+        val wallpapers: List<WallpaperEntry>,
+    )
+
+    /** A `static-wallpaper` or `live-wallpaper` element. */
+    sealed interface WallpaperEntry {
+        val id: String
+    }
+
+    data class StaticWallpaperEntry(
+        override val id: String,
+        val drawableResId: Int,
+        val titleResId: Int,
+        val subtitle1ResId: Int,
+        val subtitle2ResId: Int,
+        val actionUrlResId: Int,
+        val thumbnailResId: Int,
+    ) : WallpaperEntry
+
+    data class LiveWallpaperEntry(
+        override val id: String,
+        val packageName: String?,
+        val serviceName: String?,
+    ) : WallpaperEntry
+
+    fun writeTo(output: DataOutputStream) {
+        output.writeInt(categories.size)
+        for (category in categories) {
+            output.writeUTF(category.id)
+            output.writeInt(category.titleResId)
+            output.writeNullableUTF(category.featuredId)
+            output.writeInt(category.priority)
+            output.writeInt(category.thumbResId)
+            output.writeInt(category.wallpapers.size)
+            for (wallpaper in category.wallpapers) {
+                when (wallpaper) {
+                    is StaticWallpaperEntry -> {
+                        output.writeByte(TYPE_STATIC)
+                        output.writeUTF(wallpaper.id)
+                        output.writeInt(wallpaper.drawableResId)
+                        output.writeInt(wallpaper.titleResId)
+                        output.writeInt(wallpaper.subtitle1ResId)
+                        output.writeInt(wallpaper.subtitle2ResId)
+                        output.writeInt(wallpaper.actionUrlResId)
+                        output.writeInt(wallpaper.thumbnailResId)
+                    }
+                    is LiveWallpaperEntry -> {
+                        output.writeByte(TYPE_LIVE)
+                        output.writeUTF(wallpaper.id)
+                        output.writeNullableUTF(wallpaper.packageName)
+                        output.writeNullableUTF(wallpaper.serviceName)
+                    }
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val TYPE_STATIC = 1
+        private const val TYPE_LIVE = 2
+
+        /** Reads an index written by [writeTo]. */
+        @Throws(IOException::class)
+        fun readFrom(input: DataInputStream): PartnerWallpaperIndex {
+            val categories =
+                List(input.readInt()) {
+                    val id = input.readUTF()
+                    val titleResId = input.readInt()
+                    val featuredId = input.readNullableUTF()
+                    val priority = input.readInt()
+                    val thumbResId = input.readInt()
+                    val wallpapers =
+                        List(input.readInt()) {
+                            when (val type = input.readByte().toInt()) {
+                                TYPE_STATIC ->
+                                    StaticWallpaperEntry(
+                                        id = input.readUTF(),
+                                        drawableResId = input.readInt(),
+                                        titleResId = input.readInt(),
+                                        subtitle1ResId = input.readInt(),
+                                        subtitle2ResId = input.readInt(),
+                                        actionUrlResId = input.readInt(),
+                                        thumbnailResId = input.readInt(),
+                                    )
+                                TYPE_LIVE ->
+                                    LiveWallpaperEntry(
+                                        id = input.readUTF(),
+                                        packageName = input.readNullableUTF(),
+                                        serviceName = input.readNullableUTF(),
+                                    )
+                                else -> throw IOException("Unknown wallpaper type $type")
+                            }
+                        }
+                    CategoryEntry(id, titleResId, featuredId, priority, thumbResId, wallpapers)
+                }
+            return PartnerWallpaperIndex(categories)
+        }
+
+        /**
+         * Compiles the partner wallpapers XML the given parser points to. Categories without a
+         * priority get one counting up from [firstPriority] in the order they are declared.
+         */
+        fun compile(parser: XmlResourceParser, firstPriority: Int): PartnerWallpaperIndex {
+            val categories = mutableListOf<CategoryEntry>()
+            var priorityTracker = 0
+            val depth = parser.depth
+            var type: Int
+            while (
+                (parser.next().also { type = it } != XmlPullParser.END_TAG ||
+                    parser.depth > depth) && type != XmlPullParser.END_DOCUMENT
+            ) {
+                if (type == XmlPullParser.START_TAG && WallpaperCategory.TAG_NAME == parser.name) {
+                    // Same attributes as WallpaperCategory.Builder.
+                    val id: String = parser.getAttributeValue(null, "id")
+                    val titleResId = parser.getAttributeResourceValue(null, "title", 0)
+                    val featuredId = parser.getAttributeValue(null, "featured")
+                    val priority = parser.getAttributeIntValue(null, "priority", -1)
+                    val thumbResId = parser.getAttributeResourceValue(null, "thumbnail", 0)
+                    val fallbackPriority = firstPriority + priorityTracker++
+                    categories.add(
+                        CategoryEntry(
+                            id,
+                            titleResId,
+                            featuredId,
+                            if (priority < 0) fallbackPriority else priority,
+                            thumbResId,
+                            compileWallpapers(parser),
+                        )
+                    )
+                }
+            }
+            return PartnerWallpaperIndex(categories)
+        }
+
+        private fun compileWallpapers(parser: XmlResourceParser): List<WallpaperEntry> {
+            val wallpapers = mutableListOf<WallpaperEntry>()
+            val categoryDepth = parser.depth
+            var type: Int
+            while (
+                (parser.next().also { type = it } != XmlPullParser.END_TAG ||
+                    parser.depth > categoryDepth) && type != XmlPullParser.END_DOCUMENT
+            ) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue
+                }
+                // Wallpapers without an ID are skipped, like their fromAttributeSet() factories do.
+                val id = parser.getAttributeValue(null, SystemStaticWallpaperInfo.ATTR_ID)
+                if (id.isNullOrEmpty()) {
+                    continue
+                }
+                if (SystemStaticWallpaperInfo.TAG_NAME == parser.name) {
+                    wallpapers.add(
+                        StaticWallpaperEntry(
+                            id = id,
+                            drawableResId = parser.getResId(SystemStaticWallpaperInfo.ATTR_SRC),
+                            titleResId = parser.getResId(SystemStaticWallpaperInfo.ATTR_TITLE_RES),
+                            subtitle1ResId =
+                                parser.getResId(SystemStaticWallpaperInfo.ATTR_SUBTITLE1_RES),
+                            subtitle2ResId =
+                                parser.getResId(SystemStaticWallpaperInfo.ATTR_SUBTITLE2_RES),
+                            actionUrlResId =
+                                parser.getResId(SystemStaticWallpaperInfo.ATTR_ACTION_URL_RES),
+                            thumbnailResId =
+                                parser.getResId(SystemStaticWallpaperInfo.ATTR_THUMBNAIL),
+                        )
+                    )
+                } else if (LiveWallpaperInfo.TAG_NAME == parser.name) {
+                    wallpapers.add(
+                        LiveWallpaperEntry(
+                            id = id,
+                            packageName =
+                                parser.getAttributeValue(null, LiveWallpaperInfo.ATTR_PACKAGE),
+                            serviceName =
+                                parser.getAttributeValue(null, LiveWallpaperInfo.ATTR_SERVICE),
+                        )
+                    )
+                }
+            }
+            return wallpapers
+        }
+
+        private fun XmlResourceParser.getResId(attribute: String): Int =
+            getAttributeResourceValue(null, attribute, 0)
+
+        private fun DataOutputStream.writeNullableUTF(value: String?) {
+            writeBoolean(value != null)
+            value?.let { writeUTF(it) }
+        }
+
+        private fun DataInputStream.readNullableUTF(): String? =
+            if (readBoolean()) readUTF() else null
+    }
+}
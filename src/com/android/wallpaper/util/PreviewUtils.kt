@@ -26,6 +26,7 @@ import android.os.Handler
 import android.os.Looper
 import android.os.Message
 import android.text.TextUtils
+import android.util.Log
 import java.util.concurrent.Executors
 
 /** Util class for wallpaper preview. */
@@ -80,20 +81,74 @@ class PreviewUtils(
     /**
      * Render preview under the current grid option.
      *
+     * Requests for different surfaces are rendered concurrently. Requests for the same surface are
+     * rendered one at a time, and a request still waiting for the one before it is superseded by a
+     * later one: its callback is called with null right away instead.
+     *
      * @param bundle request options to pass on the call.
      * @param callback to receive the results, it will be called on the main thread.
+     * @param surface the surface the preview is rendered on, or null to never coalesce the request.
      */
-    fun renderPreview(bundle: Bundle?, callback: WorkspacePreviewCallback) {
-        EXECUTOR_SERVICE.submit {
-            val result =
+    @JvmOverloads
+    fun renderPreview(bundle: Bundle?, callback: WorkspacePreviewCallback, surface: Any? = null) {
+        val request = PreviewRequest(bundle, callback)
+        if (surface == null) {
+            EXECUTOR_SERVICE.execute { render(request) }
+            return
+        }
+        val superseded: PreviewRequest?
+        val isFirst: Boolean
+        synchronized(REQUESTS_BY_SURFACE) {
+            val requests = REQUESTS_BY_SURFACE[surface]
+            isFirst = requests == null
+            if (requests == null) {
+                REQUESTS_BY_SURFACE[surface] = SurfaceRequests()
+                superseded = null
+            } else {
+                // Wait for the request being rendered, replacing the one which was waiting.
+                superseded = requests.pending
+                requests.pending = request
+            }
+        }
+        superseded?.let { MAIN_HANDLER.post { it.callback.onPreviewRendered(null) } }
+        if (isFirst) {
+            EXECUTOR_SERVICE.execute { renderInOrder(surface, request) }
+        }
+    }
+
+    /** Renders the given request, then the one waiting for it on the same surface, if any. */
+    private fun renderInOrder(surface: Any, first: PreviewRequest) {
+        var request: PreviewRequest? = first
+        while (request != null) {
+            render(request)
+            request =
+                synchronized(REQUESTS_BY_SURFACE) {
+                    val requests = checkNotNull(REQUESTS_BY_SURFACE[surface])
+                    requests.pending.also {
+                        requests.pending = null
+                        if (it == null) {
+                            REQUESTS_BY_SURFACE.remove(surface)
+                        }
+                    }
+                }
+        }
+    }
+
+    private fun render(request: PreviewRequest) {
+        val result =
+            try {
                 context.contentResolver.call(
                     getUri(PREVIEW),
                     METHOD_GET_PREVIEW,
                     null,
-                    bundle,
+                    request.bundle,
                 )
-            Handler(Looper.getMainLooper()).post { callback.onPreviewRendered(result) }
-        }
+            } catch (e: RuntimeException) {
+                // Keep rendering the requests waiting for this one.
+                Log.w(TAG, "Couldn't render the workspace preview", e)
+                null
+            }
+        MAIN_HANDLER.post { request.callback.onPreviewRendered(result) }
     }
 
     /** Cleans up the preview on the renderer side */
@@ -116,10 +171,21 @@ class PreviewUtils(
         return providerInfo != null
     }
 
+    private class PreviewRequest(val bundle: Bundle?, val callback: WorkspacePreviewCallback)
+
+    /** The request waiting for the one being rendered on a surface, if any. */
+    private class SurfaceRequests(var pending: PreviewRequest? = null)
+
     companion object {
+        private const val TAG = "PreviewUtils"
         private const val PREVIEW = "preview"
         private const val METHOD_GET_PREVIEW = "get_preview"
-        private val EXECUTOR_SERVICE = Executors.newSingleThreadExecutor()
+        // Rendering mostly waits on the launcher, a few requests in flight keep it busy.
+        private const val MAX_CONCURRENT_RENDERS = 3
+        private val EXECUTOR_SERVICE = Executors.newFixedThreadPool(MAX_CONCURRENT_RENDERS)
+        private val MAIN_HANDLER = Handler(Looper.getMainLooper())
+        /** The requests of the surfaces with a request being rendered, by surface. */
+        private val REQUESTS_BY_SURFACE = mutableMapOf<Any, SurfaceRequests>()
 
         private fun homeAuthority(context: Context, authorityMetadataKey: String): String? {
             val homeIntent = Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_HOME)
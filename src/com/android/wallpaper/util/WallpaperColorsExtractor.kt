@@ -17,12 +17,17 @@ package com.android.wallpaper.util
 
 import android.app.WallpaperColors
 import android.graphics.Bitmap
-import android.graphics.BitmapFactory
+import android.graphics.Canvas
 import android.graphics.ColorSpace
+import android.graphics.Paint
+import android.graphics.Picture
+import android.graphics.Rect
 import android.os.Handler
-import java.io.ByteArrayOutputStream
+import android.util.LruCache
+import androidx.annotation.VisibleForTesting
 import java.util.concurrent.Executor
 import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.sqrt
 
 /**
  * Wallpaper color extractor. Instantiate it with a proper handler. We usually use the main thread
@@ -38,31 +43,25 @@ class WallpaperColorsExtractor(
      * Extracts wallpaper colors. Noticed that when there are consecutive calls, only the results
      * from the latest call will be posted. This is done by an incremental [mCurrentTaskId] to
      * identify if a task id is still the latest, right before posting the results.
+     *
+     * @param wallpaperId If not null, the colors are cached under this id and later calls with the
+     *   same id return the cached colors without looking at the bitmap. Only pass it when the
+     *   bitmap shows the whole wallpaper, not a crop of it.
      */
+    @JvmOverloads
     fun extractWallpaperColors(
         wallpaperBitmap: Bitmap,
-        onColorsExtractedListener: OnColorsExtractedListener
+        onColorsExtractedListener: OnColorsExtractedListener,
+        wallpaperId: String? = null,
     ) {
         mExecutor.execute {
             val taskId = mCurrentTaskId.incrementAndGet()
 
-            val tmpOut = ByteArrayOutputStream()
-            var shouldRecycle = false
-            var cropped = wallpaperBitmap
-            if (cropped.compress(Bitmap.CompressFormat.PNG, 100, tmpOut)) {
-                val outByteArray = tmpOut.toByteArray()
-                val options = BitmapFactory.Options()
-                options.inPreferredColorSpace = ColorSpace.get(ColorSpace.Named.SRGB)
-                cropped = BitmapFactory.decodeByteArray(outByteArray, 0, outByteArray.size)
-            }
-            if (cropped.config == Bitmap.Config.HARDWARE) {
-                cropped = cropped.copy(Bitmap.Config.ARGB_8888, false)
-                shouldRecycle = true
-            }
-            val colors = WallpaperColors.fromBitmap(cropped)
-            if (shouldRecycle) {
-                cropped.recycle()
-            }
+            val colors =
+                wallpaperId?.let { sColorsCache.get(it) }
+                    ?: extractColors(wallpaperBitmap)?.also { colors ->
+                        wallpaperId?.let { sColorsCache.put(it, colors) }
+                    }
             // This makes sure that the listener only listen to the latest results, when multiple
             // extractWallpaperColors tasks are executed.
             if (taskId == mCurrentTaskId.get()) {
@@ -70,4 +69,72 @@ class WallpaperColorsExtractor(
             }
         }
     }
+
+    companion object {
+        /**
+         * [WallpaperColors.fromBitmap] scales larger bitmaps down to this area before quantizing.
+         * Scaling them down the same way here means it doesn't scale them again.
+         */
+        private const val MAX_EXTRACTION_AREA = 112 * 112
+        private const val COLORS_CACHE_SIZE = 32
+
+        private val sColorsCache = LruCache<String, WallpaperColors>(COLORS_CACHE_SIZE)
+
+        /**
+         * Extracts the colors from a small sRGB software copy of the bitmap. The bitmap is scaled
+         * and converted to sRGB in a single draw; a HARDWARE bitmap is drawn on the GPU so that
+         * only the small result is read back, which may sample slightly different pixels.
+         */
+        @VisibleForTesting
+        fun extractColors(bitmap: Bitmap): WallpaperColors? {
+            if (bitmap.isRecycled || bitmap.width <= 0 || bitmap.height <= 0) {
+                return null
+            }
+            val extractionBitmap = createExtractionBitmap(bitmap)
+            return try {
+                WallpaperColors.fromBitmap(extractionBitmap)
+            } finally {
+                extractionBitmap.recycle()
+            }
+        }
+
+        /**
+         * Returns the bitmap scaled down like [WallpaperColors.fromBitmap] does: to the same size,
+         * truncating the scaled dimensions, and without filtering.
+         */
+        @VisibleForTesting
+        fun createExtractionBitmap(bitmap: Bitmap): Bitmap {
+            val scale =
+                minOf(
+                    1.0,
+                    sqrt(MAX_EXTRACTION_AREA.toDouble() / (bitmap.width * bitmap.height))
+                )
+            val width = maxOf(1, (bitmap.width * scale).toInt())
+            val height = maxOf(1, (bitmap.height * scale).toInt())
+            val dst = Rect(0, 0, width, height)
+            // Like Bitmap.createScaledBitmap(bitmap, width, height, /* filter= */ false).
+            val paint = Paint()
+
+            if (bitmap.config == Bitmap.Config.HARDWARE) {
+                // Software canvases can't read HARDWARE bitmaps, render the scaled copy on the
+                // GPU and only copy the small result back.
+                val picture = Picture()
+                picture.beginRecording(width, height).drawBitmap(bitmap, null, dst, paint)
+                picture.endRecording()
+                val scaled = Bitmap.createBitmap(picture, width, height, Bitmap.Config.HARDWARE)
+                return scaled.copy(Bitmap.Config.ARGB_8888, false).also { scaled.recycle() }
+            }
+
+            val result =
+                Bitmap.createBitmap(
+                    width,
+                    height,
+                    Bitmap.Config.ARGB_8888,
+                    /* hasAlpha= */ true,
+                    ColorSpace.get(ColorSpace.Named.SRGB),
+                )
+            Canvas(result).drawBitmap(bitmap, null, dst, paint)
+            return result
+        }
+    }
 }
@@ -17,11 +17,19 @@
 package com.android.wallpaper.util
 
 import android.content.res.XmlResourceParser
+import androidx.annotation.XmlRes
 import com.android.wallpaper.model.Category
 import com.android.wallpaper.model.WallpaperInfo
 
 interface WallpaperParser {
     fun parseSystemCategories(parser: XmlResourceParser): List<Category>
 
+    /**
+     * Returns the system categories declared in the partner XML resource with the given ID. Reuses
+     * a compiled index of the XML while the partner package isn't updated, so the XML only needs
+     * to be parsed again after an update.
+     */
+    fun loadSystemCategories(@XmlRes wallpapersResId: Int): List<Category>
+
     fun parsePartnerWallpaperInfoResources(): List<WallpaperInfo>
 }
@@ -17,9 +17,16 @@
 package com.android.wallpaper.util
 
 import android.content.Context
+import android.content.pm.PackageManager
 import android.content.res.XmlResourceParser
+import android.util.AtomicFile
 import android.util.Log
-import android.util.Xml
+import androidx.annotation.GuardedBy
+import androidx.annotation.XmlRes
+import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.ResourceAsset
+import com.android.wallpaper.asset.SystemStaticAsset
+import com.android.wallpaper.model.LazyWallpaperCategory
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.PartnerWallpaperInfo
 import com.android.wallpaper.model.SystemStaticWallpaperInfo
@@ -27,10 +34,17 @@ import com.android.wallpaper.model.WallpaperCategory
 import com.android.wallpaper.model.WallpaperInfo
 import com.android.wallpaper.module.PartnerProvider
 import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
 import java.io.IOException
+import java.util.function.Supplier
 import javax.inject.Inject
 import javax.inject.Singleton
-import org.xmlpull.v1.XmlPullParser
 import org.xmlpull.v1.XmlPullParserException
 
 /**
@@ -46,42 +60,199 @@ constructor(
     private val partnerProvider: PartnerProvider
 ) : WallpaperParser {
 
-    /** This method is responsible for generating list of system categories from the XML file. */
+    @GuardedBy("this") private var cachedIndex: Pair<String, PartnerWallpaperIndex>? = null
+
+    /**
+     * This method is responsible for generating list of system categories from the XML file. The
+     * wallpapers of each category are only created once the category needs them.
+     */
     override fun parseSystemCategories(parser: XmlResourceParser): List<WallpaperCategory> {
-        val categories = mutableListOf<WallpaperCategory>()
+        val index = compileIndex(parser) ?: return emptyList()
+        return createCategories(index)
+    }
+
+    override fun loadSystemCategories(@XmlRes wallpapersResId: Int): List<WallpaperCategory> {
+        val partnerRes = partnerProvider.resources ?: return emptyList()
+        val indexKey = getIndexKey(wallpapersResId)
+        val index =
+            indexKey?.let { readIndex(it) }
+                ?: (partnerRes.getXml(wallpapersResId).use { compileIndex(it) }
+                    ?: return emptyList())
+        if (indexKey != null) {
+            writeIndex(indexKey, index)
+        }
+        return createCategories(index)
+    }
+
+    private fun compileIndex(parser: XmlResourceParser): PartnerWallpaperIndex? {
         try {
-            var priorityTracker = 0
-            val depth = parser.depth
-            var type: Int
-            while (
-                (parser.next().also { type = it } != XmlPullParser.END_TAG ||
-                    parser.depth > depth) && type != XmlPullParser.END_DOCUMENT
-            ) {
-                if (type == XmlPullParser.START_TAG && WallpaperCategory.TAG_NAME == parser.name) {
-                    val categoryBuilder =
-                        WallpaperCategory.Builder(
-                            partnerProvider.resources,
-                            Xml.asAttributeSet(parser)
-                        )
-                    categoryBuilder.setPriorityIfEmpty(PRIORITY_SYSTEM + priorityTracker++)
-                    categoryBuilder.addWallpapers(
-                        parseXmlForWallpapersForASingleCategory(parser, categoryBuilder.id)
-                    )
-                    val category = categoryBuilder.build()
-                    category?.let { categories.add(it) }
-                }
-            }
+            return PartnerWallpaperIndex.compile(parser, PRIORITY_SYSTEM)
         } catch (e: Exception) {
             when (e) {
                 is IOException,
                 is XmlPullParserException -> {
                     Log.w(TAG, "Failed to parse the XML file of system wallpapers", e)
-                    return emptyList()
+                    return null
                 }
                 else -> throw e
             }
         }
-        return categories
+    }
+
+    private fun createCategories(index: PartnerWallpaperIndex): List<WallpaperCategory> {
+        val partnerRes = partnerProvider.resources
+        return index.categories.map { entry ->
+            val title = if (entry.titleResId != 0) partnerRes.getString(entry.titleResId) else ""
+            val wallpapersLoader =
+                Supplier<List<WallpaperInfo>> {
+                    entry.wallpapers.mapNotNull { createWallpaper(entry.id, it) }
+                }
+            if (entry.thumbResId != 0) {
+                LazyWallpaperCategory(
+                    title,
+                    entry.id,
+                    ResourceAsset(partnerRes, entry.thumbResId, true),
+                    entry.wallpapers.size,
+                    wallpapersLoader,
+                    entry.priority,
+                )
+            } else {
+                // Like WallpaperCategory, the first wallpaper is featured if none is declared.
+                val featuredIndex =
+                    entry.wallpapers.indexOfFirst { it.id == entry.featuredId }.coerceAtLeast(0)
+                val featuredWallpaper = entry.wallpapers.getOrNull(featuredIndex)
+                LazyWallpaperCategory(
+                    title,
+                    entry.id,
+                    entry.wallpapers.size,
+                    featuredWallpaper?.id,
+                    featuredIndex,
+                    Supplier<Asset?> { featuredWallpaper?.let { createThumbAsset(entry.id, it) } },
+                    wallpapersLoader,
+                    entry.priority,
+                )
+            }
+        }
+    }
+
+    /**
+     * Creates the same thumbnail as the wallpaper of the given entry would have. Only a live
+     * wallpaper needs to be created for it, to look up its service.
+     */
+    private fun createThumbAsset(
+        categoryId: String,
+        entry: PartnerWallpaperIndex.WallpaperEntry,
+    ): Asset? {
+        return when (entry) {
+            is PartnerWallpaperIndex.StaticWallpaperEntry ->
+                if (entry.thumbnailResId != 0) {
+                    SystemStaticAsset(
+                        partnerProvider.resources,
+                        entry.thumbnailResId,
+                        entry.id,
+                        /* isThumbnail= */ true,
+                    )
+                } else {
+                    SystemStaticAsset(
+                        partnerProvider.resources,
+                        entry.drawableResId,
+                        entry.id,
+                        /* isThumbnail= */ false,
+                    )
+                }
+            is PartnerWallpaperIndex.LiveWallpaperEntry ->
+                createWallpaper(categoryId, entry)?.getThumbAsset(context)
+        }
+    }
+
+    private fun createWallpaper(
+        categoryId: String,
+        entry: PartnerWallpaperIndex.WallpaperEntry,
+    ): WallpaperInfo? {
+        return when (entry) {
+            is PartnerWallpaperIndex.StaticWallpaperEntry ->
+                SystemStaticWallpaperInfo(
+                    partnerProvider.packageName,
+                    entry.id,
+                    categoryId,
+                    entry.drawableResId,
+                    entry.titleResId,
+                    entry.subtitle1ResId,
+                    entry.subtitle2ResId,
+                    /* actionTypeResId= */ 0,
+                    entry.actionUrlResId,
+                    entry.thumbnailResId,
+                )
+            is PartnerWallpaperIndex.LiveWallpaperEntry ->
+                LiveWallpaperInfo.fromPackageAndServiceName(
+                    context,
+                    categoryId,
+                    entry.id,
+                    entry.packageName,
+                    entry.serviceName,
+                )
+        }
+    }
+
+    /**
+     * Returns the key the index of the given XML resource is valid for, which changes with every
+     * update of the partner package, or null if the partner package can't be found.
+     */
+    private fun getIndexKey(@XmlRes wallpapersResId: Int): String? {
+        val packageName = partnerProvider.packageName ?: return null
+        return try {
+            val packageInfo = context.packageManager.getPackageInfo(packageName, 0)
+            "$INDEX_FORMAT_VERSION:$packageName:${packageInfo.longVersionCode}:" +
+                "${packageInfo.lastUpdateTime}:$wallpapersResId"
+        } catch (e: PackageManager.NameNotFoundException) {
+            null
+        }
+    }
+
+    private fun getIndexFile(): AtomicFile = AtomicFile(File(context.cacheDir, INDEX_FILE_NAME))
+
+    @Synchronized
+    private fun readIndex(indexKey: String): PartnerWallpaperIndex? {
+        cachedIndex?.let { (key, index) ->
+            if (key == indexKey) {
+                return index
+            }
+        }
+        return try {
+            DataInputStream(BufferedInputStream(getIndexFile().openRead())).use { input ->
+                if (input.readUTF() != indexKey) {
+                    null
+                } else {
+                    PartnerWallpaperIndex.readFrom(input).also { cachedIndex = indexKey to it }
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            null
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't read the index of system wallpapers", e)
+            null
+        }
+    }
+
+    @Synchronized
+    private fun writeIndex(indexKey: String, index: PartnerWallpaperIndex) {
+        if (cachedIndex?.first == indexKey) {
+            return
+        }
+        cachedIndex = indexKey to index
+        val file = getIndexFile()
+        var outputStream: FileOutputStream? = null
+        try {
+            outputStream = file.startWrite()
+            val output = DataOutputStream(BufferedOutputStream(outputStream))
+            output.writeUTF(indexKey)
+            index.writeTo(output)
+            output.flush()
+            file.finishWrite(outputStream)
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't write the index of system wallpapers", e)
+            outputStream?.let { file.failWrite(it) }
+        }
     }
 
     /**
@@ -122,48 +293,11 @@ constructor(
         return wallpaperInfos
     }
 
-    /**
-     * This method is responsible for parsing the XML for a single category and returning a list of
-     * WallpaperInfo objects.
-     */
-    private fun parseXmlForWallpapersForASingleCategory(
-        parser: XmlResourceParser,
-        categoryId: String
-    ): List<WallpaperInfo> {
-        val outputWallpaperInfo = mutableListOf<WallpaperInfo>()
-        val categoryDepth = parser.depth
-        var type: Int
-        while (
-            (parser.next().also { type = it } != XmlPullParser.END_TAG ||
-                parser.depth > categoryDepth) && type != XmlPullParser.END_DOCUMENT
-        ) {
-            if (type == XmlPullParser.START_TAG) {
-                var wallpaper: WallpaperInfo? = null
-                if (SystemStaticWallpaperInfo.TAG_NAME == parser.name) {
-                    wallpaper =
-                        SystemStaticWallpaperInfo.fromAttributeSet(
-                            partnerProvider.packageName,
-                            categoryId,
-                            Xml.asAttributeSet(parser)
-                        )
-                } else if (LiveWallpaperInfo.TAG_NAME == parser.name) {
-                    wallpaper =
-                        LiveWallpaperInfo.fromAttributeSet(
-                            context,
-                            categoryId,
-                            Xml.asAttributeSet(parser)
-                        )
-                }
-                if (wallpaper != null) {
-                    outputWallpaperInfo.add(wallpaper)
-                }
-            }
-        }
-        return outputWallpaperInfo
-    }
-
     companion object {
         const val PRIORITY_SYSTEM = 100
         private const val TAG = "WallpaperXMLParser"
+        private const val INDEX_FILE_NAME = "partner_wallpaper_index"
+        // Bump whenever the layout of PartnerWallpaperIndex changes.
+        private const val INDEX_FORMAT_VERSION = 1
     }
 }
@@ -20,8 +20,10 @@ import android.content.Context
 import android.util.Log
 import com.android.wallpaper.model.Category
 import com.android.wallpaper.model.ImageCategory
+import com.android.wallpaper.model.LazyWallpaperCategory
 import com.android.wallpaper.model.ThirdPartyAppCategory
 import com.android.wallpaper.model.WallpaperCategory
+import com.android.wallpaper.picker.data.WallpaperModel
 import com.android.wallpaper.picker.data.category.CategoryModel
 import com.android.wallpaper.picker.data.category.CollectionCategoryData
 import com.android.wallpaper.picker.data.category.CommonCategoryData
@@ -58,12 +60,19 @@ constructor(private val wallpaperModelFactory: WallpaperModelFactory) : Category
     private fun WallpaperCategory.getCollectionsCategoryData(
         context: Context
     ): CollectionCategoryData {
+        val createWallpaperModels = {
+            wallpapers.map { wallpaperInfo ->
+                wallpaperModelFactory.getWallpaperModel(context, wallpaperInfo)
+            }
+        }
+        // Lazy categories know their thumbnail without creating their wallpapers, so only create
+        // them once the models are read.
         val wallpaperModelList =
-            wallpapers
-                .map { wallpaperInfo ->
-                    wallpaperModelFactory.getWallpaperModel(context, wallpaperInfo)
-                }
-                .toMutableList()
+            if (this is LazyWallpaperCategory) {
+                LazyWallpaperModelList(createWallpaperModels)
+            } else {
+                createWallpaperModels().toMutableList()
+            }
         return CollectionCategoryData(
             wallpaperModels = wallpaperModelList,
             thumbAsset = getThumbnail(context),
@@ -90,6 +99,25 @@ constructor(private val wallpaperModelFactory: WallpaperModelFactory) : Category
         }
     }
 
+    /** List of wallpaper models which are only created the first time the list is accessed. */
+    private class LazyWallpaperModelList(loader: () -> List<WallpaperModel>) :
+        AbstractMutableList<WallpaperModel>() {
+
+        private val models by lazy { loader().toMutableList() }
+
+        override val size: Int
+            get() = models.size
+
+        override fun get(index: Int): WallpaperModel = models[index]
+
+        override fun set(index: Int, element: WallpaperModel): WallpaperModel =
+            models.set(index, element)
+
+        override fun add(index: Int, element: WallpaperModel) = models.add(index, element)
+
+        override fun removeAt(index: Int): WallpaperModel = models.removeAt(index)
+    }
+
     companion object {
         private const val TAG = "DefaultCategoryFactory"
     }
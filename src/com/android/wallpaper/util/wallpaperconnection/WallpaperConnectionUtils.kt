@@ -10,6 +10,7 @@ import android.graphics.Matrix
 import android.graphics.Point
 import android.net.Uri
 import android.os.RemoteException
+import android.os.SystemClock
 import android.service.wallpaper.IWallpaperEngine
 import android.service.wallpaper.IWallpaperService
 import android.service.wallpaper.WallpaperService
@@ -22,11 +23,17 @@ import com.android.wallpaper.model.wallpaper.DeviceDisplayType
 import com.android.wallpaper.picker.data.WallpaperModel.LiveWallpaperModel
 import com.android.wallpaper.util.WallpaperConnection
 import com.android.wallpaper.util.WallpaperConnection.WhichPreview
+import java.lang.ref.WeakReference
 import java.util.concurrent.ConcurrentHashMap
 import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.async
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
@@ -35,6 +42,10 @@ object WallpaperConnectionUtils {
 
     const val TAG = "WallpaperConnectionUtils"
 
+    // Enough for the folded and unfolded previews of a wallpaper, plus the previous wallpaper.
+    private const val DEFAULT_MAX_LIVE_ENGINES = 3
+    private const val DEFAULT_ENGINE_IDLE_TIMEOUT_MILLIS = 30_000L
+
     // engineMap and surfaceControlMap are used for disconnecting wallpaper services.
     private val engineMap =
         ConcurrentHashMap<String, Deferred<Pair<ServiceConnection, WallpaperEngineConnection>>>()
@@ -44,8 +55,22 @@ object WallpaperConnectionUtils {
     // Track the currently used creative wallpaper config preview URI to avoid unnecessary multiple
     // update queries for the same preview.
     private val creativeWallpaperConfigPreviewUriMap = mutableMapOf<String, Uri>()
+    // Usage of the engines in engineMap, used to destroy the least recently used ones beyond
+    // maxLiveEngines and the ones left idle for longer than engineIdleTimeoutMillis.
+    private val enginePool = ConcurrentHashMap<String, PooledEngine>()
 
     private val mutex = Mutex()
+    private val idleReaperScope = CoroutineScope(Dispatchers.Main)
+    private var idleReaperJob: Job? = null
+
+    /**
+     * The maximum number of live wallpaper engines kept bound. Beyond it, the least recently used
+     * engines which are no longer shown on any surface view are destroyed.
+     */
+    var maxLiveEngines = DEFAULT_MAX_LIVE_ENGINES
+
+    /** How long an engine no longer shown on any surface view is kept bound before destroyed. */
+    var engineIdleTimeoutMillis = DEFAULT_ENGINE_IDLE_TIMEOUT_MILLIS
 
     /** Only call this function when the surface view is attached. */
     suspend fun connect(
@@ -110,6 +135,18 @@ object WallpaperConnectionUtils {
                     )
                 }
             }
+
+            mutex.withLock {
+                enginePool
+                    .getOrPut(engineKey) { PooledEngine(context) }
+                    .apply {
+                        lastUsedMillis = SystemClock.elapsedRealtime()
+                        surfaceViews.removeAll { it.get() == null || it.get() == surfaceView }
+                        surfaceViews.add(WeakReference(surfaceView))
+                    }
+                evictLeastRecentlyUsedEngines(keepKey = engineKey)
+            }
+            scheduleIdleReaper()
         }
     }
 
@@ -122,23 +159,11 @@ object WallpaperConnectionUtils {
 
         traceAsync(TAG, "disconnect") {
             if (engineMap.containsKey(engineKey)) {
-                mutex.withLock {
-                    engineMap.remove(engineKey)?.await()?.let {
-                        (serviceConnection, engineConnection) ->
-                        engineConnection.engine?.destroy()
-                        engineConnection.removeListener()
-                        context.unbindService(serviceConnection)
-                    }
-                }
+                mutex.withLock { destroyEngine(context, engineKey) }
             }
 
             if (surfaceControlMap.containsKey(engineKey)) {
-                mutex.withLock {
-                    surfaceControlMap.remove(engineKey)?.let { surfaceControls ->
-                        surfaceControls.forEach { it.release() }
-                        surfaceControls.clear()
-                    }
-                }
+                mutex.withLock { releaseSurfaceControls(engineKey) }
             }
 
             val uriKey = wallpaperModel.liveWallpaperData.systemWallpaperInfo.getKey()
@@ -161,15 +186,7 @@ object WallpaperConnectionUtils {
      * when switching from static to live wallpapers again.
      */
     suspend fun disconnectAllServices(context: Context) {
-        engineMap.keys.map { key ->
-            mutex.withLock {
-                engineMap.remove(key)?.await()?.let { (serviceConnection, engineConnection) ->
-                    engineConnection.engine?.destroy()
-                    engineConnection.removeListener()
-                    context.unbindService(serviceConnection)
-                }
-            }
-        }
+        engineMap.keys.map { key -> mutex.withLock { destroyEngine(context, key) } }
 
         creativeWallpaperConfigPreviewUriMap.clear()
     }
@@ -182,7 +199,10 @@ object WallpaperConnectionUtils {
         val engine =
             wallpaperModel.liveWallpaperData.systemWallpaperInfo
                 .getKey(engineRenderingConfig.getEngineDisplaySize())
-                .let { engineKey -> engineMap[engineKey]?.await()?.second?.engine }
+                .let { engineKey ->
+                    enginePool[engineKey]?.lastUsedMillis = SystemClock.elapsedRealtime()
+                    engineMap[engineKey]?.await()?.second?.engine
+                }
 
         if (engine != null) {
             val action: Int = event.actionMasked
@@ -213,6 +233,71 @@ object WallpaperConnectionUtils {
         }
     }
 
+    /**
+     * Destroys the engine of the given key and unbinds its service. Only call this function with
+     * the mutex held.
+     */
+    private suspend fun destroyEngine(context: Context, engineKey: String) {
+        enginePool.remove(engineKey)
+        engineMap.remove(engineKey)?.await()?.let { (serviceConnection, engineConnection) ->
+            engineConnection.engine?.destroy()
+            engineConnection.removeListener()
+            // Pooled engines outlive the context which connected them, they're bound to the app.
+            context.applicationContext.unbindService(serviceConnection)
+        }
+    }
+
+    /**
+     * Destroys the least recently used idle engines until at most [maxLiveEngines] are bound,
+     * along with the surface controls mirroring them. Only call this function with the mutex held.
+     */
+    private suspend fun evictLeastRecentlyUsedEngines(keepKey: String) {
+        val excess = engineMap.size - maxLiveEngines
+        if (excess <= 0) {
+            return
+        }
+        enginePool.entries
+            .filter { (key, engine) -> key != keepKey && engine.isIdle() }
+            .sortedBy { (_, engine) -> engine.lastUsedMillis }
+            .take(excess)
+            .forEach { (key, engine) ->
+                destroyEngine(engine.context, key)
+                releaseSurfaceControls(key)
+            }
+    }
+
+    /** Periodically destroys the engines left idle for longer than [engineIdleTimeoutMillis]. */
+    private fun scheduleIdleReaper() {
+        if (idleReaperJob?.isActive == true) {
+            return
+        }
+        idleReaperJob =
+            idleReaperScope.launch {
+                while (enginePool.isNotEmpty()) {
+                    delay(engineIdleTimeoutMillis)
+                    mutex.withLock {
+                        val idleSince = SystemClock.elapsedRealtime() - engineIdleTimeoutMillis
+                        enginePool.entries
+                            .filter { (_, engine) ->
+                                engine.isIdle() && engine.lastUsedMillis <= idleSince
+                            }
+                            .forEach { (key, engine) ->
+                                destroyEngine(engine.context, key)
+                                releaseSurfaceControls(key)
+                            }
+                    }
+                }
+            }
+    }
+
+    /** Releases the surface controls mirroring the engine of the given key. */
+    private fun releaseSurfaceControls(engineKey: String) {
+        surfaceControlMap.remove(engineKey)?.let { surfaceControls ->
+            surfaceControls.forEach { it.release() }
+            surfaceControls.clear()
+        }
+    }
+
     private fun LiveWallpaperModel.getWallpaperServiceIntent(): Intent {
         return liveWallpaperData.systemWallpaperInfo.let {
             Intent(WallpaperService.SERVICE_INTERFACE).setClassName(it.packageName, it.serviceName)
@@ -264,7 +349,7 @@ object WallpaperConnectionUtils {
                     }
                 )
             val success =
-                context.bindService(
+                context.applicationContext.bindService(
                     intent,
                     serviceConnection,
                     Context.BIND_AUTO_CREATE or
@@ -342,6 +427,18 @@ object WallpaperConnectionUtils {
         return values
     }
 
+    /** A bound engine of [engineMap], with what's needed to decide when to destroy it. */
+    private class PooledEngine(context: Context) {
+        /** The application context, the engine may outlive the activity which connected it. */
+        val context: Context = context.applicationContext
+        @Volatile var lastUsedMillis = 0L
+        /** The surface views the engine has been mirrored to. */
+        val surfaceViews = mutableListOf<WeakReference<SurfaceView>>()
+
+        /** Returns whether the engine is no longer shown on any attached surface view. */
+        fun isIdle(): Boolean = surfaceViews.none { it.get()?.isAttachedToWindow == true }
+    }
+
     data class EngineRenderingConfig(
         val enforceSingleEngine: Boolean,
         val deviceDisplayType: DeviceDisplayType,
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.widget;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.os.CancellationSignal;
+import android.util.SparseArray;
+import android.view.View;
+
+import androidx.annotation.IdRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.wallpaper.asset.Asset;
+
+/**
+ * RecyclerView scroll listener which prefetches the thumbnails of the tiles about to scroll into
+ * view, so they're cached by the time their tiles are bound instead of showing a placeholder
+ * during a fling. The faster the grid scrolls, the more rows ahead are prefetched. Prefetches
+ * which haven't completed are canceled when the scroll direction reverses.
+ *
+ * <p>Thumbnails are prefetched at the size of the thumbnail views of the bound tiles of the same
+ * view type, which is the size the tiles load them at, so the prefetched drawables are found
+ * under the same cache keys.
+ */
+public class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    /** Provides the thumbnails of the tiles of a grid. */
+    public interface ThumbnailProvider {
+        /**
+         * Returns the thumbnail the tile at the given adapter position loads, or null if it
+         * doesn't load one or it isn't available yet. Called on the main thread on every scroll,
+         * so it must not load anything itself.
+         */
+        @Nullable
+        Asset getThumbnail(int position);
+    }
+
+    private static final int MIN_ROWS_AHEAD = 1;
+    private static final int MAX_ROWS_AHEAD = 4;
+    // How many frames of scrolling at the current speed the prefetched rows should cover.
+    private static final int FRAMES_AHEAD = 20;
+
+    private final Context mContext;
+    private final Point mTileSizePx;
+    private final int mTileHeightPx;
+    private final int mColumnCount;
+    @IdRes
+    private final int mThumbnailViewId;
+    private final ThumbnailProvider mThumbnailProvider;
+    // Pending prefetches by adapter position.
+    private final SparseArray<CancellationSignal> mPrefetches = new SparseArray<>();
+    // Sizes of the thumbnail views of the bound tiles, by view type.
+    private final SparseArray<Point> mThumbnailViewSizes = new SparseArray<>();
+    @Nullable
+    private RecyclerView.Adapter<?> mAdapter;
+    private int mDirection;
+
+    /**
+     * @param tileSizePx      Size of the tiles, in pixels, used until a tile has been laid out.
+     * @param columnCount     Number of tiles in a row.
+     * @param thumbnailViewId ID of the view of a tile its thumbnail is loaded into.
+     */
+    public ThumbnailPrefetcher(Context context, Point tileSizePx, int columnCount,
+            @IdRes int thumbnailViewId, ThumbnailProvider thumbnailProvider) {
+        mContext = context;
+        mTileSizePx = new Point(tileSizePx);
+        mTileHeightPx = Math.max(1, tileSizePx.y);
+        mColumnCount = Math.max(1, columnCount);
+        mThumbnailViewId = thumbnailViewId;
+        mThumbnailProvider = thumbnailProvider;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0 || !(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (firstVisible == RecyclerView.NO_POSITION) {
+            return;
+        }
+        mAdapter = recyclerView.getAdapter();
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder =
+                    recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            View thumbnailView = holder.itemView.findViewById(mThumbnailViewId);
+            if (thumbnailView == null || thumbnailView.getWidth() <= 0
+                    || thumbnailView.getHeight() <= 0) {
+                continue;
+            }
+            Point size = mThumbnailViewSizes.get(holder.getItemViewType());
+            if (size == null) {
+                size = new Point();
+                mThumbnailViewSizes.put(holder.getItemViewType(), size);
+            }
+            size.set(thumbnailView.getWidth(), thumbnailView.getHeight());
+        }
+        onScrolled(firstVisible, lastVisible, dy, layoutManager.getItemCount());
+    }
+
+    /** Cancels all prefetches which haven't completed, e.g. when the grid goes away. */
+    public void cancelAll() {
+        for (int i = 0; i < mPrefetches.size(); i++) {
+            mPrefetches.valueAt(i).cancel();
+        }
+        mPrefetches.clear();
+    }
+
+    @VisibleForTesting
+    void onScrolled(int firstVisible, int lastVisible, int dy, int itemCount) {
+        int direction = Integer.signum(dy);
+        if (direction != mDirection) {
+            // The tiles prefetched for the other direction won't be needed soon.
+            cancelAll();
+            mDirection = direction;
+        }
+
+        // Tiles which are bound now load their thumbnails themselves, picking up a prefetch still
+        // in progress, and tiles scrolled past are no longer of interest.
+        for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+            int position = mPrefetches.keyAt(i);
+            if (direction > 0 ? position <= lastVisible : position >= firstVisible) {
+                mPrefetches.removeAt(i);
+            }
+        }
+
+        int rowsAhead = Math.max(MIN_ROWS_AHEAD, Math.min(MAX_ROWS_AHEAD,
+                (Math.abs(dy) * FRAMES_AHEAD + mTileHeightPx - 1) / mTileHeightPx));
+        int count = rowsAhead * mColumnCount;
+        int start = direction > 0 ? lastVisible + 1 : Math.max(0, firstVisible - count);
+        int end = direction > 0 ? Math.min(itemCount, lastVisible + 1 + count) : firstVisible;
+        for (int position = start; position < end; position++) {
+            if (mPrefetches.get(position) != null) {
+                continue;
+            }
+            Asset thumbnail = mThumbnailProvider.getThumbnail(position);
+            if (thumbnail == null) {
+                continue;
+            }
+            Point size = getThumbnailSize(position);
+            CancellationSignal cancellationSignal = new CancellationSignal();
+            thumbnail.prefetchDrawable(mContext, size.x, size.y, cancellationSignal);
+            mPrefetches.put(position, cancellationSignal);
+        }
+    }
+
+    /** Returns the size the tile at the given position will load its thumbnail at. */
+    private Point getThumbnailSize(int position) {
+        if (mAdapter == null || position >= mAdapter.getItemCount()) {
+            return mTileSizePx;
+        }
+        Point size = mThumbnailViewSizes.get(mAdapter.getItemViewType(position));
+        return size != null ? size : mTileSizePx;
+    }
+}
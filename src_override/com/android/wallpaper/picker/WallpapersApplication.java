@@ -17,6 +17,7 @@ package com.android.wallpaper.picker;
 
 import android.app.Application;
 
+import com.android.wallpaper.asset.ThumbnailDiskCache;
 import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 
@@ -39,5 +40,7 @@ public class WallpapersApplication extends Hilt_WallpapersApplication {
 
         // Initialize the injector.
         InjectorProvider.setInjector(mInjector);
+        // Decodes look the thumbnail disk cache up without a context, so create it up front.
+        ThumbnailDiskCache.getInstance(this);
     }
 }
@@ -56,6 +56,10 @@ class FakeWallpaperClient @Inject constructor() : WallpaperClient {
         )
     private var isPaused = false
     private var deferred = mutableListOf<(suspend () -> Unit)>()
+    /** The thumbnails requested through [loadThumbnail], in order. */
+    val loadedThumbnails = mutableListOf<LoadedThumbnail>()
+    /** Thrown when setting a wallpaper, if not null. */
+    var setWallpaperException: Exception? = null
 
     fun setRecentWallpapers(
         recentWallpapersByDestination: Map<WallpaperDestination, List<WallpaperModel>>,
@@ -104,6 +108,7 @@ class FakeWallpaperClient @Inject constructor() : WallpaperClient {
         asset: Asset,
         fullPreviewCropModels: Map<Point, FullPreviewCropModel>?,
     ) {
+        setWallpaperException?.let { throw it }
         addToWallpapersSet(wallpaperModel, destination)
     }
 
@@ -112,6 +117,7 @@ class FakeWallpaperClient @Inject constructor() : WallpaperClient {
         destination: WallpaperDestination,
         wallpaperModel: LiveWallpaperModel,
     ) {
+        setWallpaperException?.let { throw it }
         addToWallpapersSet(wallpaperModel, destination)
     }
 
@@ -151,8 +157,10 @@ class FakeWallpaperClient @Inject constructor() : WallpaperClient {
 
     override suspend fun loadThumbnail(
         wallpaperId: String,
-        destination: WallpaperDestination
+        destination: WallpaperDestination,
+        targetSize: Point?,
     ): Bitmap? {
+        loadedThumbnails.add(LoadedThumbnail(wallpaperId, destination, targetSize))
         return Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888)
     }
 
@@ -175,6 +183,12 @@ class FakeWallpaperClient @Inject constructor() : WallpaperClient {
         return wallpaperColors
     }
 
+    data class LoadedThumbnail(
+        val wallpaperId: String,
+        val destination: WallpaperDestination,
+        val targetSize: Point?,
+    )
+
     companion object {
         val INITIAL_RECENT_WALLPAPERS =
             listOf(
@@ -29,6 +29,14 @@ class FakeWallpaperParser @Inject constructor() : WallpaperParser {
     var wallpapers: List<WallpaperInfo> = emptyList()
 
     override fun parseSystemCategories(parser: XmlResourceParser): List<WallpaperCategory> {
+        return getFakeSystemCategories()
+    }
+
+    override fun loadSystemCategories(wallpapersResId: Int): List<WallpaperCategory> {
+        return getFakeSystemCategories()
+    }
+
+    private fun getFakeSystemCategories(): List<WallpaperCategory> {
         val wallpapers = listOf(fakeSystemStaticWallpaperInfo)
         return listOf(
             WallpaperCategory(
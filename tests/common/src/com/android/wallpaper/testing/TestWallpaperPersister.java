@@ -17,6 +17,7 @@ package com.android.wallpaper.testing;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.graphics.Rect;
 
@@ -31,6 +32,7 @@ import com.android.wallpaper.module.WallpaperChangedNotifier;
 import com.android.wallpaper.module.WallpaperPersister;
 import com.android.wallpaper.module.WallpaperPreferences;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
@@ -113,6 +115,13 @@ public class TestWallpaperPersister implements WallpaperPersister {
         return true;
     }
 
+    @Override
+    public boolean setWallpaperInRotation(File wallpaperFile, List<String> attributions,
+            String actionUrl, String collectionId, String remoteId) {
+        return setWallpaperInRotation(BitmapFactory.decodeFile(wallpaperFile.getAbsolutePath()),
+                attributions, actionUrl, collectionId, remoteId);
+    }
+
     @Override
     public int setWallpaperBitmapInNextRotation(Bitmap wallpaperBitmap, List<String> attributions,
             String actionUrl, String collectionId) {
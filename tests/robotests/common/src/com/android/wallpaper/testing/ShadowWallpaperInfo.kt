@@ -19,6 +19,7 @@ package com.android.wallpaper.testing
 import android.app.WallpaperInfo
 import android.content.ComponentName
 import android.content.Context
+import android.content.pm.PackageManager
 import android.content.pm.ResolveInfo
 import android.content.pm.ServiceInfo
 import org.robolectric.annotation.Implementation
@@ -55,4 +56,9 @@ class ShadowWallpaperInfo {
     fun getServiceName(): String {
         return resolveInfo.serviceInfo.name
     }
+
+    @Implementation
+    fun loadLabel(@Suppress("UNUSED_PARAMETER") pm: PackageManager): CharSequence {
+        return resolveInfo.serviceInfo.name
+    }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.app.Activity
+import android.app.ActivityManager
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Rect
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class BitmapCachingAssetTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val bitmap = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888)
+
+    @Before
+    fun setUp() {
+        BitmapCachingAsset.resetForTesting()
+    }
+
+    @Test
+    fun decodeBitmap_concurrentRequests_coalescedIntoOneDecode() {
+        val originalAsset = DeferredAsset()
+        val results = mutableListOf<Bitmap?>()
+
+        repeat(3) {
+            BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) { results.add(it) }
+        }
+        originalAsset.complete(bitmap)
+
+        assertThat(originalAsset.decodeCount).isEqualTo(1)
+        assertThat(results).containsExactly(bitmap, bitmap, bitmap)
+        assertThat(BitmapCachingAsset.getCacheMissCount()).isEqualTo(1)
+        assertThat(BitmapCachingAsset.getCoalescedCount()).isEqualTo(2)
+    }
+
+    @Test
+    fun decodeBitmap_afterDecodeCompletes_servedFromCache() {
+        val originalAsset = DeferredAsset()
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+        originalAsset.complete(bitmap)
+
+        var result: Bitmap? = null
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) { result = it }
+
+        assertThat(result).isSameInstanceAs(bitmap)
+        assertThat(originalAsset.decodeCount).isEqualTo(1)
+        assertThat(BitmapCachingAsset.getCacheHitCount()).isEqualTo(1)
+    }
+
+    @Test
+    fun decodeBitmap_failedDecode_notCachedAndRetried() {
+        val originalAsset = DeferredAsset()
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+        originalAsset.complete(null)
+
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+
+        assertThat(originalAsset.decodeCount).isEqualTo(2)
+        assertThat(BitmapCachingAsset.getCacheMissCount()).isEqualTo(2)
+    }
+
+    @Test
+    fun awaitBitmap_firstWaiterCanceled_laterRequestForSameKeyCompletes() {
+        val originalAsset = DeferredAsset()
+        runBlocking {
+            val first =
+                async(Dispatchers.Unconfined, CoroutineStart.UNDISPATCHED) {
+                    BitmapCachingAsset(context, originalAsset).awaitBitmap(10, 10)
+                }
+            first.cancel()
+        }
+
+        var result: Bitmap? = null
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) { result = it }
+        originalAsset.complete(bitmap)
+
+        assertThat(result).isSameInstanceAs(bitmap)
+        assertThat(originalAsset.decodeCount).isEqualTo(2)
+    }
+
+    @Test
+    fun cancelPendingDecodes_keepsReceiversOfOtherConsumers() {
+        val originalAsset = DeferredAsset()
+        val canceledConsumer = BitmapCachingAsset(context, originalAsset)
+        val results = mutableListOf<String>()
+        canceledConsumer.decodeBitmap(10, 10) { results.add("canceled") }
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) { results.add("other") }
+
+        canceledConsumer.cancelPendingDecodes()
+        originalAsset.complete(bitmap)
+
+        assertThat(results).containsExactly("other")
+        assertThat(originalAsset.decodeCount).isEqualTo(1)
+    }
+
+    @Test
+    fun cancelPendingDecodes_lastReceiver_laterRequestStartsNewDecode() {
+        val originalAsset = DeferredAsset()
+        val canceledConsumer = BitmapCachingAsset(context, originalAsset)
+        canceledConsumer.decodeBitmap(10, 10) {}
+
+        canceledConsumer.cancelPendingDecodes()
+        var result: Bitmap? = null
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) { result = it }
+        originalAsset.complete(bitmap)
+
+        assertThat(result).isSameInstanceAs(bitmap)
+        assertThat(originalAsset.decodeCount).isEqualTo(2)
+    }
+
+    @Test
+    fun onTrimMemory_uiHidden_clearsCache() {
+        val originalAsset = DeferredAsset()
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+        originalAsset.complete(bitmap)
+
+        BitmapCachingAsset.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+
+        assertThat(originalAsset.decodeCount).isEqualTo(2)
+    }
+
+    @Test
+    fun onTrimMemory_runningModerate_keepsCache() {
+        val originalAsset = DeferredAsset()
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+        originalAsset.complete(bitmap)
+
+        BitmapCachingAsset.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+
+        assertThat(originalAsset.decodeCount).isEqualTo(1)
+    }
+
+    @Test
+    fun onTrimMemory_runningLow_trimsCacheToHalfItsBudget() {
+        val maxSize =
+            BitmapCachingAsset.calculateCacheSize(
+                context.getSystemService(ActivityManager::class.java)
+            )
+        // Each bitmap takes a third of the budget, so only the most recent one fits in half of it.
+        val width = 256
+        val height = maxSize / 3 / (width * 4)
+        val olderBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        val newerBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        val originalAsset = DeferredAsset()
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+        originalAsset.complete(olderBitmap)
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(20, 20) {}
+        originalAsset.complete(newerBitmap)
+
+        BitmapCachingAsset.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+        var newerResult: Bitmap? = null
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(20, 20) { newerResult = it }
+        BitmapCachingAsset(context, originalAsset).decodeBitmap(10, 10) {}
+
+        assertThat(newerResult).isSameInstanceAs(newerBitmap)
+        assertThat(originalAsset.decodeCount).isEqualTo(3)
+    }
+
+    /** Asset whose decodes only complete when the test calls [complete]. */
+    private class DeferredAsset : Asset() {
+        private val pending = mutableListOf<BitmapReceiver>()
+        var decodeCount = 0
+
+        fun complete(bitmap: Bitmap?) {
+            val receivers = pending.toList()
+            pending.clear()
+            receivers.forEach { it.onBitmapDecoded(bitmap) }
+        }
+
+        override fun decodeBitmap(
+            targetWidth: Int,
+            targetHeight: Int,
+            hardwareBitmapAllowed: Boolean,
+            receiver: BitmapReceiver,
+        ) {
+            decodeCount++
+            pending.add(receiver)
+        }
+
+        override fun decodeBitmap(receiver: BitmapReceiver) {
+            decodeCount++
+            pending.add(receiver)
+        }
+
+        override fun decodeBitmapRegion(
+            rect: Rect,
+            targetWidth: Int,
+            targetHeight: Int,
+            shouldAdjustForRtl: Boolean,
+            receiver: BitmapReceiver,
+        ) {
+            decodeCount++
+            pending.add(receiver)
+        }
+
+        override fun decodeRawDimensions(activity: Activity?, receiver: DimensionsReceiver) {}
+
+        override fun supportsTiling(): Boolean = false
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.content.Context
+import android.content.pm.ProviderInfo
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.net.Uri
+import android.provider.MediaStore
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ContentUriAssetTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Before
+    fun setUp() {
+        VersionProvider.projections.clear()
+        val providerInfo = ProviderInfo().apply { authority = MediaStore.AUTHORITY }
+        Robolectric.buildContentProvider(VersionProvider::class.java).create(providerInfo)
+    }
+
+    @Test
+    fun getDiskCacheIdentity_mediaStoreUri_queriesVersionColumnsOnce() {
+        val asset = ContentUriAsset(context, Uri.parse("content://${MediaStore.AUTHORITY}/1"))
+
+        val identity = asset.diskCacheIdentity
+
+        assertThat(asset.diskCacheIdentity).isEqualTo(identity)
+        assertThat(identity).endsWith(":$DATE_MODIFIED:$SIZE")
+        assertThat(VersionProvider.projections.single())
+            .asList()
+            .containsExactly(MediaStore.MediaColumns.DATE_MODIFIED, MediaStore.MediaColumns.SIZE)
+    }
+
+    /** Provides the version columns of a single image. */
+    class VersionProvider : ContentProvider() {
+        override fun query(
+            uri: Uri,
+            projection: Array<out String>?,
+            selection: String?,
+            selectionArgs: Array<out String>?,
+            sortOrder: String?,
+        ): Cursor {
+            projections.add(projection)
+            return MatrixCursor(
+                    arrayOf(MediaStore.MediaColumns.DATE_MODIFIED, MediaStore.MediaColumns.SIZE)
+                )
+                .apply { addRow(arrayOf(DATE_MODIFIED, SIZE)) }
+        }
+
+        override fun onCreate() = true
+
+        override fun getType(uri: Uri): String? = null
+
+        override fun insert(uri: Uri, values: ContentValues?): Uri? = null
+
+        override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?) = 0
+
+        override fun update(
+            uri: Uri,
+            values: ContentValues?,
+            selection: String?,
+            selectionArgs: Array<out String>?,
+        ) = 0
+
+        companion object {
+            /** The projection of each query, in order. */
+            val projections = mutableListOf<Array<out String>?>()
+        }
+    }
+
+    companion object {
+        private const val DATE_MODIFIED = 1700000000L
+        private const val SIZE = 2048L
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.BitmapRegionDecoder
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayOutputStream
+import java.time.Duration
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class RegionDecoderPoolTest {
+
+    private val imageBytes: ByteArray =
+        ByteArrayOutputStream().use {
+            Bitmap.createBitmap(40, 20, Bitmap.Config.ARGB_8888)
+                .compress(Bitmap.CompressFormat.PNG, 100, it)
+            it.toByteArray()
+        }
+    private var openCount = 0
+    private val pool =
+        RegionDecoderPool(
+            {
+                openCount++
+                BitmapRegionDecoder.newInstance(imageBytes, 0, imageBytes.size)
+            },
+            /* maxSize= */ 2,
+        )
+
+    @Test
+    fun release_noDecoderInUse_recyclesDecodersAfterIdleTimeout() {
+        val decoder = pool.acquire()!!
+        pool.release(decoder)
+
+        idleFor(RegionDecoderPool.IDLE_TIMEOUT_MILLIS)
+
+        assertThat(decoder.isRecycled).isTrue()
+        assertThat(pool.acquire()).isNotNull()
+        assertThat(openCount).isEqualTo(2)
+    }
+
+    @Test
+    fun release_beforeIdleTimeout_keepsDecoder() {
+        val decoder = pool.acquire()!!
+        pool.release(decoder)
+
+        idleFor(RegionDecoderPool.IDLE_TIMEOUT_MILLIS - 1)
+
+        assertThat(decoder.isRecycled).isFalse()
+        assertThat(pool.acquire()).isSameInstanceAs(decoder)
+        assertThat(openCount).isEqualTo(1)
+    }
+
+    @Test
+    fun release_anotherDecoderInUse_keepsDecodersOpen() {
+        val first = pool.acquire()!!
+        val second = pool.acquire()!!
+        pool.release(first)
+
+        idleFor(RegionDecoderPool.IDLE_TIMEOUT_MILLIS)
+
+        assertThat(first.isRecycled).isFalse()
+        assertThat(second.isRecycled).isFalse()
+    }
+
+    @Test
+    fun close_recyclesIdleDecodersAndInUseOnesOnRelease() {
+        val idle = pool.acquire()!!
+        val inUse = pool.acquire()!!
+        pool.release(idle)
+
+        pool.close()
+        pool.release(inUse)
+
+        assertThat(idle.isRecycled).isTrue()
+        assertThat(inUse.isRecycled).isTrue()
+    }
+
+    private fun idleFor(millis: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis))
+    }
+}
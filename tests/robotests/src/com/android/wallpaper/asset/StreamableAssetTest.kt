@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Point
+import com.google.common.truth.Truth.assertThat
+import java.awt.image.BufferedImage
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import javax.imageio.ImageIO
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class StreamableAssetTest {
+
+    private val imageBytes: ByteArray =
+        ByteArrayOutputStream().use {
+            ImageIO.write(BufferedImage(40, 20, BufferedImage.TYPE_INT_ARGB), "png", it)
+            it.toByteArray()
+        }
+
+    @Test
+    fun decodeBitmap_readsBoundsExifAndPixelsFromOneStream() {
+        val asset = CountingAsset(imageBytes)
+
+        asset.decodeBitmapFromSingleStream(10, 10, /* hardwareBitmapAllowed= */ false)
+
+        assertThat(asset.openCount).isEqualTo(1)
+        assertThat(asset.exifReadCount).isEqualTo(1)
+        assertThat(asset.calculateRawDimensions()).isEqualTo(Point(40, 20))
+        assertThat(asset.openCount).isEqualTo(1)
+    }
+
+    @Test
+    fun decodeBitmap_dimensionsAndExifKnown_opensStreamOnce() {
+        val asset = CountingAsset(imageBytes)
+        asset.calculateRawDimensions()
+
+        asset.decodeBitmapFromSingleStream(10, 10, /* hardwareBitmapAllowed= */ false)
+
+        assertThat(asset.openCount).isEqualTo(2)
+        assertThat(asset.exifReadCount).isEqualTo(1)
+    }
+
+    @Test
+    fun calculateRawDimensions_readsBoundsAndExifFromOneStream() {
+        val asset = CountingAsset(imageBytes)
+
+        val dimensions = asset.calculateRawDimensions()
+
+        assertThat(dimensions).isEqualTo(Point(40, 20))
+        assertThat(asset.openCount).isEqualTo(1)
+        assertThat(asset.exifReadCount).isEqualTo(1)
+    }
+
+    @Test
+    fun awaitRawDimensions_deliversResultWithoutMainThreadHop() {
+        val asset = CountingAsset(imageBytes)
+
+        // The main looper isn't idled while blocking here, so a result posted to it would hang.
+        val dimensions = runBlocking { asset.awaitRawDimensions() }
+
+        assertThat(dimensions).isEqualTo(Point(40, 20))
+    }
+
+    @Test
+    fun awaitBitmap_canceled_closesStreamOfRunningDecode() {
+        val asset = BlockingAsset()
+
+        runBlocking {
+            val decode =
+                async(Dispatchers.Unconfined, CoroutineStart.UNDISPATCHED) {
+                    asset.awaitBitmap(10, 10)
+                }
+            assertThat(asset.readStarted.await(5, TimeUnit.SECONDS)).isTrue()
+
+            decode.cancel()
+
+            assertThat(asset.closed.await(5, TimeUnit.SECONDS)).isTrue()
+            assertThat(decode.isCancelled).isTrue()
+        }
+    }
+
+    /** Asset which counts how many times its stream is opened and its EXIF read. */
+    private class CountingAsset(private val bytes: ByteArray) : StreamableAsset() {
+        var openCount = 0
+        var exifReadCount = 0
+
+        override fun openInputStream(): InputStream {
+            openCount++
+            return ByteArrayInputStream(bytes)
+        }
+
+        override fun needsExifFromStream(): Boolean = exifReadCount == 0
+
+        override fun readExifFromStream(inputStream: InputStream) {
+            exifReadCount++
+            // Consume part of the header, like ExifInterface would.
+            inputStream.read(ByteArray(16))
+        }
+    }
+
+    /** Asset whose stream blocks on the first read until it is closed. */
+    private class BlockingAsset : StreamableAsset() {
+        val readStarted = CountDownLatch(1)
+        val closed = CountDownLatch(1)
+
+        override fun openInputStream(): InputStream =
+            object : InputStream() {
+                override fun read(): Int {
+                    readStarted.countDown()
+                    closed.await()
+                    throw IOException("Stream closed")
+                }
+
+                override fun close() {
+                    closed.countDown()
+                }
+            }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import java.util.concurrent.Executor
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.GraphicsMode
+
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class ThumbnailDiskCacheTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val directory = File(context.cacheDir, "test_thumbnail_cache")
+    private val thumbnail =
+        Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888).apply { eraseColor(Color.RED) }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun get_afterPut_returnsThumbnail() {
+        val cache = createCache()
+
+        cache.put(KEY, thumbnail)
+
+        assertThat(cache.get(KEY, /* hardwareBitmapAllowed= */ false)?.width).isEqualTo(8)
+    }
+
+    @Test
+    fun get_unknownKey_returnsNull() {
+        val cache = createCache()
+        cache.put(KEY, thumbnail)
+
+        assertThat(cache.get("unknown", /* hardwareBitmapAllowed= */ false)).isNull()
+    }
+
+    @Test
+    fun get_afterRestart_returnsThumbnail() {
+        createCache().put(KEY, thumbnail)
+
+        val cached = createCache().get(KEY, /* hardwareBitmapAllowed= */ false)
+
+        assertThat(cached?.width).isEqualTo(8)
+    }
+
+    @Test
+    fun put_overMaxSize_evictsLeastRecentlyUsed() {
+        val entrySize = createCache().apply { put("size", thumbnail) }.getSizeBytes()
+        directory.deleteRecursively()
+        val cache = createCache(maxSizeBytes = entrySize * 2)
+        cache.put("first", thumbnail)
+        cache.put("second", thumbnail)
+        cache.get("first", /* hardwareBitmapAllowed= */ false)
+
+        cache.put("third", thumbnail)
+
+        assertThat(cache.get("second", /* hardwareBitmapAllowed= */ false)).isNull()
+        assertThat(cache.get("first", /* hardwareBitmapAllowed= */ false)).isNotNull()
+        assertThat(cache.get("third", /* hardwareBitmapAllowed= */ false)).isNotNull()
+        assertThat(cache.getSizeBytes()).isAtMost(entrySize * 2)
+    }
+
+    @Test
+    fun get_corruptEntry_returnsNullAndRemovesIt() {
+        val cache = createCache()
+        cache.put(KEY, thumbnail)
+        val file = directory.listFiles()!!.single()
+        file.writeBytes(byteArrayOf(1, 2, 3))
+
+        val cached = cache.get(KEY, /* hardwareBitmapAllowed= */ false)
+
+        assertThat(cached).isNull()
+        assertThat(file.exists()).isFalse()
+        assertThat(cache.getSizeBytes()).isEqualTo(0)
+    }
+
+    @Test
+    fun putAsync_writesOnWriteExecutor() {
+        val pendingWrites = mutableListOf<Runnable>()
+        val cache = createCache(writeExecutor = Executor { pendingWrites.add(it) })
+
+        cache.putAsync(KEY, thumbnail)
+
+        assertThat(cache.get(KEY, /* hardwareBitmapAllowed= */ false)).isNull()
+        pendingWrites.forEach(Runnable::run)
+        assertThat(cache.get(KEY, /* hardwareBitmapAllowed= */ false)).isNotNull()
+    }
+
+    @Test
+    fun getPackageVersion_installedPackage_changesWithLastUpdateTime() {
+        val packageManager = context.packageManager
+        val packageInfo = packageManager.getPackageInfo(context.packageName, /* flags= */ 0)
+        val cache = createCache()
+        val version = cache.getPackageVersion(context.packageName)
+
+        packageInfo.lastUpdateTime += 1
+        shadowOf(packageManager).installPackage(packageInfo)
+
+        assertThat(version).isNotNull()
+        assertThat(cache.getPackageVersion(context.packageName)).isNotEqualTo(version)
+        assertThat(cache.getPackageVersion("com.example.uninstalled")).isNull()
+    }
+
+    private fun createCache(
+        maxSizeBytes: Long = 1024 * 1024,
+        writeExecutor: Executor = Executor { it.run() },
+    ) = ThumbnailDiskCache(context, directory, maxSizeBytes, writeExecutor)
+
+    companion object {
+        private const val KEY = "uri:content://example/1:1000:42|100x100|1"
+    }
+}
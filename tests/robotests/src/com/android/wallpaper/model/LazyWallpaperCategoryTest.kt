@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.model
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.asset.ResourceAsset
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class LazyWallpaperCategoryTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val featuredThumbnail = ResourceAsset(context.resources, android.R.drawable.btn_star)
+    private var thumbnailLoadCount = 0
+    private var wallpapersLoadCount = 0
+
+    @Test
+    fun getLoadedThumbnail_notLoaded_doesNotRunLoaders() {
+        val category = createCategory()
+
+        assertThat(category.getLoadedThumbnail(context)).isNull()
+        assertThat(thumbnailLoadCount).isEqualTo(0)
+        assertThat(wallpapersLoadCount).isEqualTo(0)
+    }
+
+    @Test
+    fun getLoadedThumbnail_afterGetThumbnail_returnsFeaturedThumbnail() {
+        val category = createCategory()
+        category.getThumbnail(context)
+
+        assertThat(category.getLoadedThumbnail(context)).isSameInstanceAs(featuredThumbnail)
+        assertThat(thumbnailLoadCount).isEqualTo(1)
+        assertThat(wallpapersLoadCount).isEqualTo(0)
+    }
+
+    @Test
+    fun getLoadedThumbnail_fixedThumbnail_returnsIt() {
+        val category =
+            LazyWallpaperCategory(
+                "Title",
+                "collection",
+                featuredThumbnail,
+                /* wallpaperCount= */ 2,
+                {
+                    wallpapersLoadCount++
+                    emptyList()
+                },
+                /* priority= */ 0,
+            )
+
+        assertThat(category.getLoadedThumbnail(context)).isSameInstanceAs(featuredThumbnail)
+        assertThat(wallpapersLoadCount).isEqualTo(0)
+    }
+
+    private fun createCategory() =
+        LazyWallpaperCategory(
+            "Title",
+            "collection",
+            /* wallpaperCount= */ 2,
+            "featured",
+            /* featuredThumbnailIndex= */ 0,
+            {
+                thumbnailLoadCount++
+                featuredThumbnail
+            },
+            {
+                wallpapersLoadCount++
+                emptyList()
+            },
+            /* priority= */ 0,
+        )
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.model
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
+import android.content.pm.ResolveInfo
+import android.content.pm.ServiceInfo
+import android.os.Looper
+import android.service.wallpaper.WallpaperService
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.module.PackageStatusNotifier
+import com.android.wallpaper.module.PackageStatusNotifier.PackageStatus
+import com.android.wallpaper.testing.ShadowWallpaperInfo
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [ShadowWallpaperInfo::class])
+class LiveWallpaperEnumeratorTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val notifier = FakePackageStatusNotifier()
+
+    @Test
+    fun getAll_changedPackageNoLongerMatching_removesItsWallpapers() {
+        addWallpaper(PACKAGE_A, "Wallpaper")
+        addWallpaper(PACKAGE_B, "Wallpaper")
+        val enumerator = LiveWallpaperEnumerator(context, notifier)
+        assertThat(enumerator.getAll().map { it.packageName }).containsExactly(PACKAGE_A, PACKAGE_B)
+
+        removeWallpapers(PACKAGE_A)
+        notifier.notify(PACKAGE_A, PackageStatus.CHANGED)
+
+        assertThat(enumerator.getAll().map { it.packageName }).containsExactly(PACKAGE_B)
+    }
+
+    @Test
+    fun getAll_changedPackageLosingAService_keepsOtherServices() {
+        addWallpaper(PACKAGE_A, "First")
+        addWallpaper(PACKAGE_A, "Second")
+        val enumerator = LiveWallpaperEnumerator(context, notifier)
+        assertThat(enumerator.getAll().map { it.serviceName })
+            .containsExactly("$PACKAGE_A.First", "$PACKAGE_A.Second")
+
+        removeWallpapers(PACKAGE_A)
+        addWallpaper(PACKAGE_A, "Second")
+        notifier.notify(PACKAGE_A, PackageStatus.CHANGED)
+
+        assertThat(enumerator.getAll().map { it.serviceName }).containsExactly("$PACKAGE_A.Second")
+    }
+
+    @Test
+    fun constructOnMainThread_registersListenerImmediately() {
+        LiveWallpaperEnumerator(context, notifier)
+
+        assertThat(notifier.listener).isNotNull()
+    }
+
+    @Test
+    fun constructOffMainThread_queriesAllPackagesAgainOnceRegistered() {
+        addWallpaper(PACKAGE_A, "Wallpaper")
+        lateinit var enumerator: LiveWallpaperEnumerator
+        Thread { enumerator = LiveWallpaperEnumerator(context, notifier) }
+            .apply { start() }
+            .join()
+        assertThat(enumerator.getAll().map { it.packageName }).containsExactly(PACKAGE_A)
+        // Not reported, the listener isn't registered yet.
+        addWallpaper(PACKAGE_B, "Wallpaper")
+        assertThat(notifier.listener).isNull()
+
+        shadowOf(Looper.getMainLooper()).idle()
+
+        assertThat(notifier.listener).isNotNull()
+        assertThat(enumerator.getAll().map { it.packageName }).containsExactly(PACKAGE_A, PACKAGE_B)
+    }
+
+    private fun addWallpaper(packageName: String, serviceName: String) {
+        val applicationInfo = ApplicationInfo().apply { this.packageName = packageName }
+        shadowOf(context.packageManager)
+            .installPackage(
+                PackageInfo().apply {
+                    this.packageName = packageName
+                    this.applicationInfo = applicationInfo
+                }
+            )
+        val resolveInfo =
+            ResolveInfo().apply {
+                serviceInfo =
+                    ServiceInfo().apply {
+                        this.packageName = packageName
+                        this.applicationInfo = applicationInfo
+                        name = "$packageName.$serviceName"
+                    }
+            }
+        shadowOf(context.packageManager).addResolveInfoForIntent(intent(), resolveInfo)
+        shadowOf(context.packageManager)
+            .addResolveInfoForIntent(intent().setPackage(packageName), resolveInfo)
+    }
+
+    private fun removeWallpapers(packageName: String) {
+        shadowOf(context.packageManager).removeResolveInfosForIntent(intent(), packageName)
+        shadowOf(context.packageManager)
+            .removeResolveInfosForIntent(intent().setPackage(packageName), packageName)
+    }
+
+    private fun intent() = Intent(WallpaperService.SERVICE_INTERFACE)
+
+    private class FakePackageStatusNotifier : PackageStatusNotifier {
+        var listener: PackageStatusNotifier.Listener? = null
+
+        override fun addListener(listener: PackageStatusNotifier.Listener, action: String) {
+            this.listener = listener
+        }
+
+        override fun removeListener(listener: PackageStatusNotifier.Listener) {
+            this.listener = null
+        }
+
+        fun notify(packageName: String, @PackageStatus status: Int) {
+            listener?.onPackageChanged(packageName, status)
+        }
+    }
+
+    companion object {
+        private const val PACKAGE_A = "com.example.a"
+        private const val PACKAGE_B = "com.example.b"
+    }
+}
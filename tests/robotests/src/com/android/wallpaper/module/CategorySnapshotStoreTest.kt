@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.Context
+import android.content.pm.ResolveInfo
+import android.content.pm.ServiceInfo
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.model.DefaultWallpaperInfo
+import com.android.wallpaper.model.ImageCategory
+import com.android.wallpaper.model.LiveWallpaperInfo
+import com.android.wallpaper.model.PartnerWallpaperInfo
+import com.android.wallpaper.model.SystemStaticWallpaperInfo
+import com.android.wallpaper.model.ThirdPartyLiveWallpaperCategory
+import com.android.wallpaper.model.WallpaperCategory
+import com.android.wallpaper.model.WallpaperInfo
+import com.android.wallpaper.testing.ShadowWallpaperInfo
+import com.android.wallpaper.testing.TestStaticWallpaperInfo
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [ShadowWallpaperInfo::class])
+class CategorySnapshotStoreTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val file = File(context.cacheDir, "test_category_snapshot")
+    private val installedLiveWallpapers = mutableListOf<android.app.WallpaperInfo>()
+    private var liveWallpaperLookupCount = 0
+    private lateinit var store: CategorySnapshotStore
+
+    @Before
+    fun setUp() {
+        store =
+            CategorySnapshotStore(context, file) {
+                liveWallpaperLookupCount++
+                installedLiveWallpapers.toList()
+            }
+        store.clear()
+    }
+
+    @Test
+    fun read_afterWrite_restoresCategories() {
+        val wallpaperCategory =
+            WallpaperCategory(
+                "Nature",
+                "nature",
+                1,
+                wallpapers("forest", "sea"),
+                100,
+            )
+        val liveCategory =
+            ThirdPartyLiveWallpaperCategory(
+                "Live",
+                "live",
+                listOf(liveWallpaper("Live1")),
+                300,
+                setOf("com.example.excluded"),
+            )
+        store.write(KEY, listOf(store.toEntry(wallpaperCategory)!!, store.toEntry(liveCategory)!!))
+
+        val entries = store.read(KEY, /* partnerRes= */ null)!!
+        store.resolve(entries, /* partnerRes= */ null)
+
+        assertThat(entries).hasSize(2)
+        val restoredWallpaperCategory = entries[0].category as WallpaperCategory
+        assertThat(restoredWallpaperCategory.title).isEqualTo("Nature")
+        assertThat(restoredWallpaperCategory.collectionId).isEqualTo("nature")
+        assertThat(restoredWallpaperCategory.priority).isEqualTo(100)
+        assertThat(restoredWallpaperCategory.featuredThumbnailIndex).isEqualTo(1)
+        assertThat(restoredWallpaperCategory.wallpapers.map { it.wallpaperId })
+            .containsExactly("forest", "sea")
+            .inOrder()
+        val restoredLiveCategory = entries[1].category as ThirdPartyLiveWallpaperCategory
+        assertThat(restoredLiveCategory.collectionId).isEqualTo("live")
+        assertThat(restoredLiveCategory.excludedPackages).containsExactly("com.example.excluded")
+        assertThat(restoredLiveCategory.wallpapers.map { it.wallpaperId })
+            .containsExactly("$LIVE_PACKAGE.Live1")
+        assertThat(store.toEntry(restoredWallpaperCategory)!!.data)
+            .isEqualTo(store.toEntry(wallpaperCategory)!!.data)
+        assertThat(store.toEntry(restoredLiveCategory)!!.data)
+            .isEqualTo(store.toEntry(liveCategory)!!.data)
+    }
+
+    @Test
+    fun read_onDeviceWallpapers_restoresTheirTypes() {
+        val category =
+            WallpaperCategory(
+                "On device",
+                "on_device",
+                listOf(DefaultWallpaperInfo(), PartnerWallpaperInfo(1, 2)),
+                200,
+            )
+        store.write(KEY, listOf(store.toEntry(category)!!))
+
+        val restored = store.read(KEY, /* partnerRes= */ null)!!.single().category
+
+        assertThat((restored as WallpaperCategory).wallpapers.map { it.javaClass })
+            .containsExactly(DefaultWallpaperInfo::class.java, PartnerWallpaperInfo::class.java)
+            .inOrder()
+        assertThat(store.toEntry(restored)!!.data).isEqualTo(store.toEntry(category)!!.data)
+    }
+
+    @Test
+    fun read_liveWallpapers_leavesThemToResolve() {
+        val wallpaperCategory = WallpaperCategory("Nature", "nature", wallpapers("forest"), 100)
+        val liveCategory = liveCategory()
+        store.write(KEY, listOf(store.toEntry(wallpaperCategory)!!, store.toEntry(liveCategory)!!))
+
+        val entries = store.read(KEY, /* partnerRes= */ null)!!
+
+        assertThat(entries.map { it.collectionId }).containsExactly("nature", "live").inOrder()
+        assertThat(entries[0].category).isNotNull()
+        assertThat(entries[1].category).isNull()
+        assertThat(liveWallpaperLookupCount).isEqualTo(0)
+
+        val resolved = store.resolve(entries, /* partnerRes= */ null)
+
+        assertThat(resolved).containsExactly(entries[1].category)
+        assertThat(liveWallpaperLookupCount).isEqualTo(1)
+    }
+
+    @Test
+    fun resolve_liveWallpaperGone_leavesEntryWithoutCategory() {
+        store.write(KEY, listOf(store.toEntry(liveCategory())!!))
+        installedLiveWallpapers.clear()
+        val entries = store.read(KEY, /* partnerRes= */ null)!!
+
+        assertThat(store.resolve(entries, /* partnerRes= */ null)).isEmpty()
+        assertThat(entries.single().category).isNull()
+    }
+
+    @Test
+    fun read_corruptSnapshot_returnsNullAndClearsSnapshot() {
+        val category = WallpaperCategory("Nature", "nature", wallpapers("forest"), 100)
+        store.write(KEY, listOf(store.toEntry(category)!!))
+        file.writeBytes(file.readBytes().copyOf(file.length().toInt() - 4))
+
+        assertThat(store.read(KEY, /* partnerRes= */ null)).isNull()
+        assertThat(file.exists()).isFalse()
+    }
+
+    @Test
+    fun read_otherVersionKey_returnsNull() {
+        val category = WallpaperCategory("Nature", "nature", wallpapers("forest"), 100)
+        store.write(KEY, listOf(store.toEntry(category)!!))
+
+        assertThat(store.read("other key", /* partnerRes= */ null)).isNull()
+    }
+
+    @Test
+    fun read_noSnapshot_returnsNull() {
+        assertThat(store.read(KEY, /* partnerRes= */ null)).isNull()
+    }
+
+    @Test
+    fun toEntry_changedWallpapers_changesData() {
+        val category = WallpaperCategory("Nature", "nature", wallpapers("forest"), 100)
+        val changedCategory =
+            WallpaperCategory("Nature", "nature", wallpapers("forest", "sea"), 100)
+
+        assertThat(store.toEntry(changedCategory)!!.data)
+            .isNotEqualTo(store.toEntry(category)!!.data)
+    }
+
+    @Test
+    fun toEntry_unsupportedCategory_returnsNull() {
+        val category = ImageCategory("My photos", "my_photos", 1, /* overlayIconResId= */ 0)
+
+        assertThat(store.toEntry(category)).isNull()
+    }
+
+    @Test
+    fun toEntry_unsupportedWallpaper_returnsNull() {
+        val category =
+            WallpaperCategory(
+                "Nature",
+                "nature",
+                listOf(TestStaticWallpaperInfo(Color.RED, "forest")),
+                100,
+            )
+
+        assertThat(store.toEntry(category)).isNull()
+    }
+
+    private fun wallpapers(vararg ids: String): List<WallpaperInfo> =
+        ids.map {
+            SystemStaticWallpaperInfo(
+                PARTNER_PACKAGE,
+                it,
+                "nature",
+                /* drawableResId= */ 1,
+                /* titleResId= */ 2,
+                /* subtitle1ResId= */ 3,
+                /* subtitle2ResId= */ 4,
+                /* actionTypeResId= */ 5,
+                /* actionUrlResId= */ 6,
+                /* thumbnailResId= */ 7,
+            )
+        }
+
+    private fun liveCategory() =
+        ThirdPartyLiveWallpaperCategory(
+            "Live",
+            "live",
+            listOf(liveWallpaper("Live1")),
+            300,
+            /* excludedLiveWallpaperPackageNames= */ null,
+        )
+
+    /** Creates a live wallpaper, installing its service. */
+    private fun liveWallpaper(serviceName: String): WallpaperInfo {
+        val resolveInfo =
+            ResolveInfo().apply {
+                serviceInfo =
+                    ServiceInfo().apply {
+                        packageName = LIVE_PACKAGE
+                        name = "$LIVE_PACKAGE.$serviceName"
+                    }
+            }
+        val info = android.app.WallpaperInfo(context, resolveInfo)
+        installedLiveWallpapers.add(info)
+        return LiveWallpaperInfo(info, /* visibleTitle= */ true, /* collectionId= */ null)
+    }
+
+    companion object {
+        private const val KEY = "test key"
+        private const val PARTNER_PACKAGE = "com.example.partner"
+        private const val LIVE_PACKAGE = "com.example.live"
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class DailyRotationHistoryTest {
+
+    @Test
+    fun last_empty_returnsMinusOne() {
+        assertThat(DailyRotationHistory().last()).isEqualTo(-1)
+    }
+
+    @Test
+    fun add_overCapacity_keepsMostRecentInOrder() {
+        val history = DailyRotationHistory(capacity = 3)
+
+        (1L..5L).forEach(history::add)
+
+        assertThat(history.toList()).containsExactly(3L, 4L, 5L).inOrder()
+        assertThat(history.last()).isEqualTo(5)
+    }
+
+    @Test
+    fun decode_readsEncodedRotations() {
+        val history = DailyRotationHistory.of(listOf(10L, 20L, 30L))
+
+        val decoded = DailyRotationHistory.decode(history.encode())
+
+        assertThat(decoded?.toList()).containsExactly(10L, 20L, 30L).inOrder()
+    }
+
+    @Test
+    fun decode_smallerCapacity_keepsMostRecent() {
+        val encoded = DailyRotationHistory.of(listOf(10L, 20L, 30L)).encode()
+
+        val decoded = DailyRotationHistory.decode(encoded, capacity = 2)
+
+        assertThat(decoded?.toList()).containsExactly(20L, 30L).inOrder()
+    }
+
+    @Test
+    fun decode_malformed_returnsNull() {
+        assertThat(DailyRotationHistory.decode("not base64!")).isNull()
+        assertThat(DailyRotationHistory.decode("AAAA")).isNull()
+    }
+
+    @Test
+    fun clear_removesAllRotations() {
+        val history = DailyRotationHistory.of(listOf(10L, 20L))
+
+        history.clear()
+
+        assertThat(history.size).isEqualTo(0)
+        assertThat(history.last()).isEqualTo(-1)
+    }
+}
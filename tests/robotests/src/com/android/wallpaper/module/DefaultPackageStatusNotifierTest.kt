@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.ResolveInfo
+import android.content.pm.ServiceInfo
+import android.os.Looper
+import android.os.Process
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.module.PackageStatusNotifier.PackageStatus
+import com.google.common.truth.Truth.assertThat
+import java.time.Duration
+import java.util.concurrent.Executor
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class DefaultPackageStatusNotifierTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val events = mutableListOf<Pair<String, Int>>()
+    private val pendingValidations = mutableListOf<Runnable>()
+    private var runValidationsDirectly = true
+    private val notifier =
+        DefaultPackageStatusNotifier(
+            context,
+            Executor {
+                if (runValidationsDirectly) it.run() else pendingValidations.add(it)
+            },
+        )
+    private val callback = notifier.packageCallback
+    private val user = Process.myUserHandle()
+
+    @Before
+    fun setUp() {
+        notifier.addListener({ packageName, status -> events.add(packageName to status) }, ACTION)
+    }
+
+    @Test
+    fun eventsWithinBatchDelay_deliveredTogetherInOrder() {
+        addHandler(PACKAGE_A)
+        addHandler(PACKAGE_B)
+
+        callback.onPackageAdded(PACKAGE_B, user)
+        callback.onPackageAdded(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS - 1)
+        assertThat(events).isEmpty()
+        idleFor(1)
+
+        assertThat(events)
+            .containsExactly(PACKAGE_B to PackageStatus.ADDED, PACKAGE_A to PackageStatus.ADDED)
+            .inOrder()
+    }
+
+    @Test
+    fun eventsKeepComingIn_batchIsPostponed() {
+        addHandler(PACKAGE_A)
+        addHandler(PACKAGE_B)
+
+        callback.onPackageAdded(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS / 2)
+        callback.onPackageAdded(PACKAGE_B, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS - 1)
+        assertThat(events).isEmpty()
+        idleFor(1)
+
+        assertThat(events)
+            .containsExactly(PACKAGE_A to PackageStatus.ADDED, PACKAGE_B to PackageStatus.ADDED)
+            .inOrder()
+    }
+
+    @Test
+    fun removedThenAdded_coalescedIntoChanged() {
+        addHandler(PACKAGE_A)
+
+        callback.onPackageRemoved(PACKAGE_A, user)
+        callback.onPackageAdded(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+
+        assertThat(events).containsExactly(PACKAGE_A to PackageStatus.CHANGED)
+    }
+
+    @Test
+    fun distinctTransitionsOfPackage_deliveredInOrder() {
+        addHandler(PACKAGE_A)
+
+        callback.onPackageChanged(PACKAGE_A, user)
+        callback.onPackageChanged(PACKAGE_A, user)
+        callback.onPackageRemoved(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+
+        assertThat(events)
+            .containsExactly(PACKAGE_A to PackageStatus.CHANGED, PACKAGE_A to PackageStatus.REMOVED)
+            .inOrder()
+    }
+
+    @Test
+    fun packageNotHandlingAction_notDelivered() {
+        callback.onPackageAdded(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+
+        assertThat(events).isEmpty()
+    }
+
+    @Test
+    fun suspendedPackage_keepsValidityFromBeforeSuspension() {
+        addHandler(PACKAGE_A)
+        callback.onPackageAdded(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+        // Suspending a package doesn't change what it handles, so it isn't queried again.
+        removeHandler(PACKAGE_A)
+
+        callback.onPackagesSuspended(arrayOf(PACKAGE_A), user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+
+        assertThat(events)
+            .containsExactly(PACKAGE_A to PackageStatus.ADDED, PACKAGE_A to PackageStatus.REMOVED)
+            .inOrder()
+    }
+
+    @Test
+    fun changedPackage_stopsHandlingAction_deliveredOnce() {
+        addHandler(PACKAGE_A)
+        callback.onPackageAdded(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+        removeHandler(PACKAGE_A)
+
+        callback.onPackageChanged(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+        callback.onPackageChanged(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+
+        assertThat(events)
+            .containsExactly(PACKAGE_A to PackageStatus.ADDED, PACKAGE_A to PackageStatus.CHANGED)
+            .inOrder()
+    }
+
+    @Test
+    fun eventsDuringValidation_deliveredInNextBatch() {
+        addHandler(PACKAGE_A)
+        addHandler(PACKAGE_B)
+        runValidationsDirectly = false
+        callback.onPackageAdded(PACKAGE_A, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+
+        callback.onPackageAdded(PACKAGE_B, user)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+        // The second batch waits for the first one to be validated.
+        assertThat(pendingValidations).hasSize(1)
+        pendingValidations.removeAt(0).run()
+        idleFor(0)
+        assertThat(events).containsExactly(PACKAGE_A to PackageStatus.ADDED)
+        idleFor(DefaultPackageStatusNotifier.BATCH_DELAY_MILLIS)
+        pendingValidations.removeAt(0).run()
+        idleFor(0)
+
+        assertThat(events)
+            .containsExactly(PACKAGE_A to PackageStatus.ADDED, PACKAGE_B to PackageStatus.ADDED)
+            .inOrder()
+    }
+
+    private fun addHandler(packageName: String) {
+        val resolveInfo =
+            ResolveInfo().apply {
+                serviceInfo =
+                    ServiceInfo().apply {
+                        this.packageName = packageName
+                        name = "$packageName.Service"
+                    }
+            }
+        shadowOf(context.packageManager).addResolveInfoForIntent(intent(packageName), resolveInfo)
+    }
+
+    private fun removeHandler(packageName: String) {
+        shadowOf(context.packageManager)
+            .removeResolveInfosForIntent(intent(packageName), packageName)
+    }
+
+    private fun intent(packageName: String) = Intent(ACTION).setPackage(packageName)
+
+    private fun idleFor(millis: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis))
+    }
+
+    companion object {
+        private const val ACTION = "com.android.wallpaper.test.ACTION"
+        private const val PACKAGE_A = "com.example.a"
+        private const val PACKAGE_B = "com.example.b"
+    }
+}
@@ -21,6 +21,8 @@ import com.android.wallpaper.model.LiveWallpaperPrefMetadata
 import com.android.wallpaper.model.StaticWallpaperPrefMetadata
 import com.android.wallpaper.module.WallpaperPreferenceKeys.NoBackupKeys
 import com.google.common.truth.Truth.assertThat
+import org.json.JSONArray
+import org.junit.After
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
@@ -31,6 +33,12 @@ class DefaultWallpaperPreferencesTest {
     private val wallpaperPreferences: DefaultWallpaperPreferences =
         DefaultWallpaperPreferences(ApplicationProvider.getApplicationContext())
 
+    @After
+    fun tearDown() {
+        WallpaperMetadataStore.resetInstance()
+        RecentWallpapersStore.resetInstance()
+    }
+
     @Test
     fun setHomeStaticImageWallpaperMetadata_metadataShouldBeSavedToPreferences() {
         wallpaperPreferences.setHomeStaticImageWallpaperMetadata(
@@ -63,13 +71,8 @@ class DefaultWallpaperPreferencesTest {
             .isEqualTo("cultural_events")
         assertThat(sharedPref.getLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, 0L))
             .isEqualTo(10013)
-        val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
-                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
-                Context.MODE_PRIVATE
-            )
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 0)).isEqualTo(3)
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_HOME_WALLPAPER_REMOTE_ID, null))
+        assertThat(wallpaperPreferences.getHomeWallpaperManagerId()).isEqualTo(3)
+        assertThat(wallpaperPreferences.getHomeWallpaperRemoteId())
             .isEqualTo("ocean")
     }
 
@@ -99,16 +102,11 @@ class DefaultWallpaperPreferencesTest {
                 sharedPref.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID, null)
             )
             .isEqualTo("living_universe")
-        val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
-                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
-                Context.MODE_PRIVATE
-            )
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, null))
+        assertThat(wallpaperPreferences.getHomeWallpaperServiceName())
             .isEqualTo("com.google.pixel.livewallpaper.dioramas.fiji.wallpapers.FijiWallpaper")
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_HOME_WALLPAPER_EFFECTS, null))
+        assertThat(wallpaperPreferences.getHomeWallpaperEffects())
             .isEqualTo(null)
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 0)).isEqualTo(2)
+        assertThat(wallpaperPreferences.getHomeWallpaperManagerId()).isEqualTo(2)
     }
 
     @Test
@@ -143,13 +141,8 @@ class DefaultWallpaperPreferencesTest {
             .isEqualTo("cultural_events")
         assertThat(sharedPref.getLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, 0L))
             .isEqualTo(10013)
-        val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
-                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
-                Context.MODE_PRIVATE
-            )
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 0)).isEqualTo(3)
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, null))
+        assertThat(wallpaperPreferences.getLockWallpaperManagerId()).isEqualTo(3)
+        assertThat(wallpaperPreferences.getLockWallpaperRemoteId())
             .isEqualTo("ocean")
     }
 
@@ -179,15 +172,80 @@ class DefaultWallpaperPreferencesTest {
                 sharedPref.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID, null)
             )
             .isEqualTo("living_universe")
-        val noBackupPref =
-            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
-                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
-                Context.MODE_PRIVATE
-            )
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, null))
+        assertThat(wallpaperPreferences.getLockWallpaperServiceName())
             .isEqualTo("com.google.pixel.livewallpaper.dioramas.fiji.wallpapers.FijiWallpaper")
-        assertThat(noBackupPref.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_EFFECTS, null))
+        assertThat(wallpaperPreferences.getLockWallpaperEffects())
             .isEqualTo(null)
-        assertThat(noBackupPref.getInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 0)).isEqualTo(2)
+        assertThat(wallpaperPreferences.getLockWallpaperManagerId()).isEqualTo(2)
+    }
+
+    @Test
+    fun addDailyRotation_yearsOfRotations_keepsHistoryBounded() {
+        val noBackupPref = getNoBackupPreferences()
+        var timestamp = START_TIMESTAMP
+        repeat(5 * 365) {
+            timestamp += DAY_MILLIS
+            wallpaperPreferences.addDailyRotation(timestamp)
+        }
+        val encodedSize =
+            noBackupPref.getString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, null)!!.length
+
+        repeat(365) {
+            timestamp += DAY_MILLIS
+            wallpaperPreferences.addDailyRotation(timestamp)
+        }
+
+        assertThat(wallpaperPreferences.getLastDailyRotationTimestamp()).isEqualTo(timestamp)
+        assertThat(noBackupPref.getString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, null)!!.length)
+            .isEqualTo(encodedSize)
+        // A new instance reads the same history back.
+        assertThat(
+                DefaultWallpaperPreferences(ApplicationProvider.getApplicationContext())
+                    .getLastDailyRotationTimestamp()
+            )
+            .isEqualTo(timestamp)
+    }
+
+    @Test
+    fun getLastDailyRotationTimestamp_migratesJsonTimestamps() {
+        val noBackupPref = getNoBackupPreferences()
+        val timestamps = List(3 * 365) { START_TIMESTAMP + it * DAY_MILLIS }
+        noBackupPref
+            .edit()
+            .putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, JSONArray(timestamps).toString())
+            .commit()
+
+        assertThat(wallpaperPreferences.getLastDailyRotationTimestamp())
+            .isEqualTo(timestamps.last())
+        assertThat(noBackupPref.contains(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)).isFalse()
+        val history =
+            DailyRotationHistory.decode(
+                noBackupPref.getString(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY, null)!!
+            )
+        assertThat(history?.toList())
+            .containsExactlyElementsIn(timestamps.takeLast(DailyRotationHistory.DEFAULT_CAPACITY))
+            .inOrder()
+    }
+
+    @Test
+    fun clearDailyRotations_removesHistory() {
+        wallpaperPreferences.addDailyRotation(START_TIMESTAMP)
+
+        wallpaperPreferences.clearDailyRotations()
+
+        assertThat(wallpaperPreferences.getLastDailyRotationTimestamp()).isEqualTo(-1)
+        assertThat(getNoBackupPreferences().contains(NoBackupKeys.KEY_DAILY_ROTATION_HISTORY))
+            .isFalse()
+    }
+
+    private fun getNoBackupPreferences() =
+        (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
+            DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
+            Context.MODE_PRIVATE
+        )
+
+    companion object {
+        private const val START_TIMESTAMP = 1_700_000_000_000L
+        private const val DAY_MILLIS = 24 * 60 * 60 * 1000L
     }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.ComponentName
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Point
+import android.graphics.Rect
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.module.RecentWallpapersStore.RecentWallpaper
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.BOTH
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.HOME
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.LOCK
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import java.util.concurrent.Executor
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class RecentWallpapersStoreTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val directory = File(context.filesDir, "test_recent_wallpapers")
+    private val image = Bitmap.createBitmap(100, 200, Bitmap.Config.ARGB_8888)
+    private var time = 0L
+
+    @Test
+    fun addStaticWallpaper_listsMostRecentFirst() {
+        val store = createStore()
+
+        store.addStaticWallpaper(HOME, recentWallpaper("first"), image)
+        store.addStaticWallpaper(HOME, recentWallpaper("second"), image)
+
+        assertThat(store.list(HOME).map { it.wallpaperId })
+            .containsExactly("second", "first")
+            .inOrder()
+        assertThat(store.list(LOCK)).isEmpty()
+    }
+
+    @Test
+    fun addStaticWallpaper_bothScreens_addsToHomeAndLock() {
+        val store = createStore()
+
+        store.addStaticWallpaper(BOTH, recentWallpaper("shared"), image)
+
+        assertThat(store.list(HOME).map { it.wallpaperId }).containsExactly("shared")
+        assertThat(store.list(LOCK).map { it.wallpaperId }).containsExactly("shared")
+    }
+
+    @Test
+    fun addStaticWallpaper_sameImageOnOtherScreenWhileWriting_writesItOnce() {
+        val pendingWrites = mutableListOf<Runnable>()
+        val store = createStore(writeExecutor = { pendingWrites.add(it) })
+
+        store.addStaticWallpaper(HOME, recentWallpaper("shared"), image)
+        store.addStaticWallpaper(LOCK, recentWallpaper("shared"), image)
+        pendingWrites.toList().forEach { it.run() }
+
+        assertThat(directory.list()!!.filter { it.endsWith(".image") }).hasSize(1)
+        val reloaded = createStore()
+        assertThat(reloaded.list(LOCK).single().fileKey)
+            .isEqualTo(reloaded.list(HOME).single().fileKey)
+    }
+
+    @Test
+    fun addStaticWallpaper_sameWallpaperAgain_movesItToFront() {
+        val store = createStore()
+        store.addStaticWallpaper(HOME, recentWallpaper("first"), image)
+        store.addStaticWallpaper(HOME, recentWallpaper("second"), image)
+
+        store.addStaticWallpaper(HOME, recentWallpaper("first"), image)
+
+        assertThat(store.list(HOME).map { it.wallpaperId })
+            .containsExactly("first", "second")
+            .inOrder()
+    }
+
+    @Test
+    fun addStaticWallpaper_overMaxRecents_evictsLeastRecentAndItsFiles() {
+        val store = createStore()
+
+        repeat(RecentWallpapersStore.MAX_RECENTS + 1) {
+            store.addStaticWallpaper(HOME, recentWallpaper("wallpaper$it"), image)
+        }
+
+        val recents = store.list(HOME)
+        assertThat(recents).hasSize(RecentWallpapersStore.MAX_RECENTS)
+        assertThat(recents.map { it.wallpaperId }).doesNotContain("wallpaper0")
+        val fileKeys =
+            directory.list()!!.filterNot { it.startsWith("index") }.map { it.substringBefore('.') }
+        assertThat(fileKeys.toSet()).containsExactlyElementsIn(recents.map { it.fileKey })
+    }
+
+    @Test
+    fun list_afterRestart_readsWrittenWallpapers() {
+        val store = createStore()
+        val cropHints = mapOf(Point(1080, 2340) to Rect(10, 0, 1090, 2340))
+        store.addStaticWallpaper(LOCK, recentWallpaper("static", cropHints = cropHints), image)
+        val liveComponent = ComponentName("com.example.live", "com.example.live.Service")
+        store.addLiveWallpaper(LOCK, recentWallpaper("live", liveComponent)) { null }
+
+        val reloaded = createStore().list(LOCK)
+
+        assertThat(reloaded).isEqualTo(store.list(LOCK))
+        assertThat(reloaded[0].componentName).isEqualTo(liveComponent)
+        assertThat(reloaded[1].cropHints).isEqualTo(cropHints)
+    }
+
+    @Test
+    fun moveToFront_reordersAndUpdatesLastUpdated() {
+        val store = createStore()
+        store.addStaticWallpaper(HOME, recentWallpaper("first"), image)
+        store.addStaticWallpaper(HOME, recentWallpaper("second"), image)
+
+        val moved = store.moveToFront(HOME, "first")
+
+        assertThat(moved?.lastUpdated).isEqualTo(time)
+        assertThat(createStore().list(HOME).map { it.wallpaperId })
+            .containsExactly("first", "second")
+            .inOrder()
+    }
+
+    @Test
+    fun moveToFront_unknownWallpaper_returnsNull() {
+        assertThat(createStore().moveToFront(HOME, "unknown")).isNull()
+    }
+
+    @Test
+    fun addStaticWallpaper_notifiesListeners() {
+        val store = createStore()
+        var changeCount = 0
+        store.addListener { changeCount++ }
+
+        store.addStaticWallpaper(HOME, recentWallpaper("first"), image)
+
+        assertThat(changeCount).isEqualTo(1)
+    }
+
+    private fun recentWallpaper(
+        wallpaperId: String,
+        componentName: ComponentName? = null,
+        cropHints: Map<Point, Rect> = emptyMap(),
+    ) =
+        RecentWallpaper(
+            wallpaperId = wallpaperId,
+            placeholderColor = Color.BLUE,
+            title = "Title of $wallpaperId",
+            attributions = listOf("Title of $wallpaperId", null),
+            collectionId = "collection",
+            componentName = componentName,
+            cropHints = cropHints,
+        )
+
+    private fun createStore(writeExecutor: Executor = Executor { it.run() }) =
+        RecentWallpapersStore(
+            directory = directory,
+            writeExecutor = writeExecutor,
+            clock = { ++time },
+        )
+}
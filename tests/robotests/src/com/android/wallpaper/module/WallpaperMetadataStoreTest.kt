@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.Context
+import android.content.SharedPreferences
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.module.WallpaperMetadataStore.ScreenMetadata
+import com.android.wallpaper.module.WallpaperPreferenceKeys.NoBackupKeys
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.HOME
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination.LOCK
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class WallpaperMetadataStoreTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val sharedPrefs: SharedPreferences =
+        context.getSharedPreferences(DefaultWallpaperPreferences.PREFS_NAME, Context.MODE_PRIVATE)
+    private val noBackupPrefs: SharedPreferences =
+        context.getSharedPreferences(
+            DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
+            Context.MODE_PRIVATE,
+        )
+    private val file = File(context.noBackupFilesDir, "test_wallpaper_metadata")
+    private var fileWriteCount = 0
+    private var backupNotificationCount = 0
+
+    @Test
+    fun update_writesNoBackupFieldsToFile() {
+        createStore().update(HOME) { it.copy(managerId = 7, remoteId = "ocean") }
+
+        val reloaded = createStore().get(HOME)
+        assertThat(reloaded.managerId).isEqualTo(7)
+        assertThat(reloaded.remoteId).isEqualTo("ocean")
+        assertThat(noBackupPrefs.contains(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID)).isFalse()
+    }
+
+    @Test
+    fun update_writesBackedUpFieldsToSharedPreferences() {
+        createStore().update(LOCK) {
+            it.copy(attributions = listOf("attr1", null, null), hashCode = 42)
+        }
+
+        assertThat(sharedPrefs.getString(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ATTRIB_1, null))
+            .isEqualTo("attr1")
+        assertThat(sharedPrefs.getLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, 0))
+            .isEqualTo(42)
+        assertThat(backupNotificationCount).isEqualTo(1)
+    }
+
+    @Test
+    fun runInTransaction_writesOncePerStorage() {
+        val store = createStore()
+        store.get(HOME)
+        fileWriteCount = 0
+
+        store.runInTransaction {
+            for (destination in listOf(HOME, LOCK)) {
+                store.update(destination) { ScreenMetadata() }
+                store.update(destination) { it.copy(managerId = 3) }
+                store.update(destination) { it.copy(attributions = listOf("attr1", "attr2")) }
+                store.update(destination) { it.copy(actionUrl = "http://example.com") }
+                store.update(destination) { it.copy(collectionId = "nature") }
+                store.update(destination) { it.copy(remoteId = "forest") }
+                store.update(destination) { it.copy(hashCode = 10013) }
+            }
+        }
+
+        assertThat(fileWriteCount).isEqualTo(1)
+        assertThat(backupNotificationCount).isEqualTo(1)
+        assertThat(createStore().get(LOCK).remoteId).isEqualTo("forest")
+        val collectionIdKey = WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID
+        assertThat(sharedPrefs.getString(collectionIdKey, null)).isEqualTo("nature")
+    }
+
+    @Test
+    fun runInTransaction_changesAreVisibleBeforeCommit() {
+        val store = createStore()
+
+        store.runInTransaction {
+            store.update(HOME) { it.copy(hashCode = 5) }
+
+            assertThat(store.get(HOME).hashCode).isEqualTo(5)
+            assertThat(sharedPrefs.contains(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE))
+                .isFalse()
+        }
+    }
+
+    @Test
+    fun runInTransaction_blockThrows_discardsChanges() {
+        val store = createStore()
+        store.update(HOME) { it.copy(managerId = 3, collectionId = "nature") }
+        fileWriteCount = 0
+        backupNotificationCount = 0
+
+        val thrown = runCatching {
+            store.runInTransaction {
+                store.update(HOME) { it.copy(managerId = 4, collectionId = "cities") }
+                store.update(LOCK) { it.copy(remoteId = "forest") }
+                throw IllegalStateException("Couldn't read the wallpaper")
+            }
+        }
+
+        assertThat(thrown.exceptionOrNull()).isInstanceOf(IllegalStateException::class.java)
+        assertThat(store.get(HOME).managerId).isEqualTo(3)
+        assertThat(store.get(HOME).collectionId).isEqualTo("nature")
+        assertThat(store.get(LOCK).remoteId).isNull()
+        assertThat(fileWriteCount).isEqualTo(0)
+        assertThat(backupNotificationCount).isEqualTo(0)
+        val collectionIdKey = WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID
+        assertThat(sharedPrefs.getString(collectionIdKey, null)).isEqualTo("nature")
+    }
+
+    @Test
+    fun update_unchangedMetadata_doesNotWrite() {
+        val store = createStore()
+        store.update(HOME) { it.copy(managerId = 3) }
+        fileWriteCount = 0
+        backupNotificationCount = 0
+
+        store.update(HOME) { it.copy(managerId = 3) }
+
+        assertThat(fileWriteCount).isEqualTo(0)
+        assertThat(backupNotificationCount).isEqualTo(0)
+    }
+
+    @Test
+    fun get_migratesNoBackupSharedPreferences() {
+        noBackupPrefs
+            .edit()
+            .putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 12)
+            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, "FijiWallpaper")
+            .putString(NoBackupKeys.KEY_LOCK_WALLPAPER_RECENTS_KEY, "recents")
+            .putString(NoBackupKeys.KEY_HOME_WALLPAPER_BACKING_FILE, "backing_file")
+            .putInt(NoBackupKeys.KEY_APP_LAUNCH_COUNT, 4)
+            .commit()
+        sharedPrefs
+            .edit()
+            .putString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID, "nature")
+            .commit()
+
+        val home = createStore().get(HOME)
+
+        assertThat(home.managerId).isEqualTo(12)
+        assertThat(home.serviceName).isEqualTo("FijiWallpaper")
+        assertThat(home.collectionId).isEqualTo("nature")
+        assertThat(createStore().get(LOCK).recentsKey).isEqualTo("recents")
+        assertThat(noBackupPrefs.all.keys).containsExactly(NoBackupKeys.KEY_APP_LAUNCH_COUNT)
+    }
+
+    @Test
+    fun get_migration_removesSharedPreferencesOnceFileIsWritten() {
+        noBackupPrefs.edit().putInt(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID, 12).commit()
+        val pendingWrites = mutableListOf<Runnable>()
+        val store =
+            WallpaperMetadataStore(
+                sharedPrefs = sharedPrefs,
+                noBackupPrefs = noBackupPrefs,
+                file = file,
+                writeExecutor = { pendingWrites.add(it) },
+                onBackedUpDataChanged = {},
+            )
+
+        assertThat(store.get(HOME).managerId).isEqualTo(12)
+        assertThat(file.exists()).isFalse()
+        assertThat(noBackupPrefs.contains(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID)).isTrue()
+
+        pendingWrites.forEach { it.run() }
+
+        assertThat(file.exists()).isTrue()
+        assertThat(noBackupPrefs.contains(NoBackupKeys.KEY_HOME_WALLPAPER_MANAGER_ID)).isFalse()
+    }
+
+    @Test
+    fun get_unreadableFile_migratesAgain() {
+        file.writeBytes(byteArrayOf(0, 0, 0, 99))
+        noBackupPrefs.edit().putInt(NoBackupKeys.KEY_LOCK_WALLPAPER_MANAGER_ID, 8).commit()
+
+        assertThat(createStore().get(LOCK).managerId).isEqualTo(8)
+    }
+
+    private fun createStore() =
+        WallpaperMetadataStore(
+            sharedPrefs = sharedPrefs,
+            noBackupPrefs = noBackupPrefs,
+            file = file,
+            writeExecutor = {
+                fileWriteCount++
+                it.run()
+            },
+            onBackedUpDataChanged = { backupNotificationCount++ },
+        )
+}
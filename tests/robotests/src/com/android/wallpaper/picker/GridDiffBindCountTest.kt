@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker
+
+import android.app.Activity
+import android.graphics.Color
+import android.graphics.Point
+import android.os.Looper
+import androidx.recyclerview.widget.RecyclerView
+import com.android.wallpaper.model.Category
+import com.android.wallpaper.model.WallpaperCategory
+import com.android.wallpaper.model.WallpaperInfo
+import com.android.wallpaper.picker.individual.IndividualPickerFragment2.IndividualAdapter
+import com.android.wallpaper.picker.individual.IndividualPickerFragment2.PickerItem
+import com.android.wallpaper.testing.TestStaticWallpaperInfo
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.Executor
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+/**
+ * Checks which tiles the category and wallpaper grids bind again when their adapters are given a
+ * list built again from scratch, like after a refresh. With stable IDs, a tile is only bound
+ * again if its adapter notifies it as changed or inserted.
+ */
+@RunWith(RobolectricTestRunner::class)
+class GridDiffBindCountTest {
+
+    private val diffExecutor = Executor { it.run() }
+
+    @Test
+    fun submitCategories_refreshedCategories_onlyRebindsChangedTiles() {
+        val adapter = CategorySelectorFragment().CategoryAdapter(diffExecutor)
+        submit(
+            adapter,
+            listOf(
+                category("Nature", "nature", "forest", "sea"),
+                category("Cities", "cities", "paris"),
+                category("Art", "art", "painting"),
+            )
+        )
+        val itemIds = itemIds(adapter)
+        val reboundPositions = recordReboundPositions(adapter)
+
+        // Only the title of one of the new categories is different.
+        submit(
+            adapter,
+            listOf(
+                category("Nature", "nature", "forest", "sea"),
+                category("Big cities", "cities", "paris"),
+                category("Art", "art", "painting"),
+            )
+        )
+
+        assertThat(reboundPositions).containsExactly(1)
+        assertThat(itemIds(adapter)).isEqualTo(itemIds)
+    }
+
+    @Test
+    fun submitCategories_featuredWallpaperChanged_rebindsTile() {
+        val adapter = CategorySelectorFragment().CategoryAdapter(diffExecutor)
+        submit(adapter, listOf(category("Nature", "nature", "forest", "sea")))
+        val reboundPositions = recordReboundPositions(adapter)
+
+        submit(
+            adapter,
+            listOf(WallpaperCategory("Nature", "nature", 1, wallpapers("forest", "sea"), 1)),
+        )
+
+        assertThat(reboundPositions).containsExactly(0)
+    }
+
+    @Test
+    fun submitCategories_categoryInserted_onlyBindsNewTile() {
+        val adapter = CategorySelectorFragment().CategoryAdapter(diffExecutor)
+        submit(adapter, listOf(category("Nature", "nature", "forest"), category("Art", "art")))
+        val natureId = adapter.getItemId(0)
+        val artId = adapter.getItemId(1)
+        val reboundPositions = recordReboundPositions(adapter)
+
+        submit(
+            adapter,
+            listOf(
+                category("Nature", "nature", "forest"),
+                category("Cities", "cities", "paris"),
+                category("Art", "art"),
+            )
+        )
+
+        assertThat(reboundPositions).containsExactly(1)
+        assertThat(adapter.getItemId(0)).isEqualTo(natureId)
+        assertThat(adapter.getItemId(2)).isEqualTo(artId)
+    }
+
+    @Test
+    fun submitItems_refetchedWallpapers_onlyRebindsChangedTiles() {
+        val adapter = createIndividualAdapter()
+        submit(adapter, pickerItems(appliedId = null))
+        val itemIds = itemIds(adapter)
+        val reboundPositions = recordReboundPositions(adapter)
+
+        // Wallpapers fetched again are new objects. Only the newly applied one changed.
+        submit(adapter, pickerItems(appliedId = "beach"))
+
+        assertThat(reboundPositions).containsExactly(2)
+        assertThat(itemIds(adapter)).isEqualTo(itemIds)
+    }
+
+    @Test
+    fun submitItems_wallpaperRemoved_rebindsNothing() {
+        val adapter = createIndividualAdapter()
+        submit(adapter, pickerItems(appliedId = null))
+        val reefId = adapter.getItemId(3)
+        val reboundPositions = recordReboundPositions(adapter)
+
+        submit(adapter, pickerItems(appliedId = null).filter { it.key() != "beach" })
+
+        assertThat(reboundPositions).isEmpty()
+        assertThat(adapter.itemCount).isEqualTo(3)
+        assertThat(adapter.getItemId(2)).isEqualTo(reefId)
+    }
+
+    @Test
+    fun submitItems_headersWithSameTitle_haveDifferentIds() {
+        val adapter = createIndividualAdapter()
+        submit(adapter, listOf(PickerItem.HeaderItem("Sea"), PickerItem.HeaderItem("Sea")))
+
+        assertThat(adapter.getItemId(0)).isNotEqualTo(adapter.getItemId(1))
+    }
+
+    @Test
+    fun submitItems_wallpaperWithoutIdMoved_keepsItsId() {
+        val adapter = createIndividualAdapter()
+        val wallpaper = TestStaticWallpaperInfo(Color.RED, null)
+        submit(adapter, listOf(PickerItem.WallpaperItem(wallpaper, /* isApplied= */ false)))
+        val wallpaperId = adapter.getItemId(0)
+
+        val newWallpaper = TestStaticWallpaperInfo(Color.RED, null)
+        submit(
+            adapter,
+            listOf(
+                PickerItem.WallpaperItem(newWallpaper, /* isApplied= */ false),
+                PickerItem.WallpaperItem(wallpaper, /* isApplied= */ false),
+            )
+        )
+
+        assertThat(adapter.getItemId(1)).isEqualTo(wallpaperId)
+        assertThat(adapter.getItemId(0)).isNotEqualTo(wallpaperId)
+    }
+
+    private fun submit(adapter: CategorySelectorFragment.CategoryAdapter, items: List<Category>) {
+        adapter.submitCategories(items)
+        // Diff results are dispatched on the main thread.
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private fun submit(adapter: IndividualAdapter, items: List<PickerItem>) {
+        adapter.submitItems(items)
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private fun createIndividualAdapter() =
+        IndividualAdapter(
+            WallpaperCategory("Ocean", "ocean", mutableListOf(), 1),
+            Robolectric.buildActivity(Activity::class.java).get(),
+            Point(TILE_SIZE_PX, TILE_SIZE_PX),
+            /* isRotationEnabled= */ false,
+            /* isFewerColumnLayout= */ false,
+            /* edgePadding= */ 0,
+            /* bottomPadding= */ 0,
+            /* topPadding= */ 0,
+            diffExecutor,
+        )
+
+    private fun pickerItems(appliedId: String?): List<PickerItem> =
+        listOf(PickerItem.FirstHeaderItem("Ocean")) +
+            wallpapers("sea", "beach", "reef").map {
+                PickerItem.WallpaperItem(it, it.wallpaperId == appliedId)
+            }
+
+    private fun category(title: String, collectionId: String, vararg wallpaperIds: String) =
+        WallpaperCategory(title, collectionId, wallpapers(*wallpaperIds), 1)
+
+    private fun wallpapers(vararg ids: String): List<WallpaperInfo> =
+        ids.map { TestStaticWallpaperInfo(Color.RED, it) }
+
+    private fun itemIds(adapter: RecyclerView.Adapter<*>): List<Long> =
+        (0 until adapter.itemCount).map { adapter.getItemId(it) }
+
+    /** Returns the positions the adapter will notify as changed or inserted from now on. */
+    private fun recordReboundPositions(adapter: RecyclerView.Adapter<*>): List<Int> {
+        val positions = mutableListOf<Int>()
+        adapter.registerAdapterDataObserver(
+            object : RecyclerView.AdapterDataObserver() {
+                override fun onChanged() {
+                    positions.addAll(0 until adapter.itemCount)
+                }
+
+                override fun onItemRangeChanged(positionStart: Int, itemCount: Int) {
+                    positions.addAll(positionStart until positionStart + itemCount)
+                }
+
+                override fun onItemRangeInserted(positionStart: Int, itemCount: Int) {
+                    positions.addAll(positionStart until positionStart + itemCount)
+                }
+            }
+        )
+        return positions
+    }
+
+    private fun PickerItem.key(): String =
+        when (this) {
+            is PickerItem.WallpaperItem -> wallpaperInfo.wallpaperId
+            else -> title.toString()
+        }
+
+    companion object {
+        private const val TILE_SIZE_PX = 100
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker
+
+import android.content.Context
+import android.content.pm.ProviderInfo
+import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import android.os.Message
+import android.os.Messenger
+import android.view.SurfaceControlViewHost
+import android.view.SurfaceView
+import androidx.core.os.bundleOf
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.util.PreviewUtils
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowMainLooper
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class WorkspaceSurfaceHolderCallbackTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    /** The ID and value of the messages the renderer received, in order. */
+    private val receivedMessages = mutableListOf<Pair<Int, Int>>()
+    private val renderer =
+        Handler(Looper.getMainLooper()) { message ->
+            receivedMessages.add(message.what to message.data.getInt(KEY_VALUE))
+            true
+        }
+    private val surfaceView =
+        object : SurfaceView(context) {
+            override fun setChildSurfacePackage(p: SurfaceControlViewHost.SurfacePackage?) {}
+        }
+    private lateinit var holderCallback: TestWorkspaceSurfaceHolderCallback
+
+    @Before
+    fun setUp() {
+        val providerInfo = ProviderInfo().apply { authority = AUTHORITY }
+        shadowOf(context.packageManager).addOrUpdateProvider(providerInfo)
+        holderCallback =
+            TestWorkspaceSurfaceHolderCallback(
+                surfaceView,
+                PreviewUtils(context, authority = AUTHORITY),
+            )
+        holderCallback.surfaceCreated(surfaceView.holder)
+    }
+
+    @Test
+    fun send_beforeRendererCallback_sendsLatestMessageOfEachIdOnceRendered() {
+        holderCallback.send(MESSAGE_ID_A, message(1))
+        holderCallback.send(MESSAGE_ID_B, message(2))
+        holderCallback.send(MESSAGE_ID_A, message(3))
+
+        onPreviewRendered()
+
+        assertThat(receivedMessages)
+            .containsExactly(MESSAGE_ID_B to 2, MESSAGE_ID_A to 3)
+            .inOrder()
+    }
+
+    @Test
+    fun send_beforeRendererCallback_keepsLatestMessageIdsUpToLimit() {
+        val messageCount = WorkspaceSurfaceHolderCallback.MAX_DELAYED_MESSAGES + 1
+        for (what in 1..messageCount) {
+            holderCallback.send(what, message(what))
+        }
+
+        onPreviewRendered()
+
+        assertThat(receivedMessages).containsExactlyElementsIn((2..messageCount).map { it to it })
+            .inOrder()
+    }
+
+    @Test
+    fun cleanUp_beforeRendererCallback_dropsDelayedMessages() {
+        holderCallback.send(MESSAGE_ID_A, message(1))
+        holderCallback.cleanUp()
+
+        onPreviewRendered()
+
+        // Only the clean up message reaches the renderer.
+        assertThat(receivedMessages).containsExactly(MESSAGE_ID_CLEAN_UP to 0)
+    }
+
+    private fun message(value: Int) = bundleOf(KEY_VALUE to value)
+
+    /** Answers the pending preview request with a callback to [renderer]. */
+    private fun onPreviewRendered() {
+        val callback =
+            Message.obtain().apply {
+                what = MESSAGE_ID_CLEAN_UP
+                replyTo = Messenger(renderer)
+            }
+        checkNotNull(holderCallback.previewCallback)
+            .onPreviewRendered(Bundle().apply { putParcelable(KEY_CALLBACK, callback) })
+        shadowMainLooper().idle()
+    }
+
+    /** Keeps the preview request for the test to answer instead of asking the renderer. */
+    private class TestWorkspaceSurfaceHolderCallback(
+        workspaceSurface: SurfaceView,
+        previewUtils: PreviewUtils,
+    ) : WorkspaceSurfaceHolderCallback(workspaceSurface, previewUtils) {
+        var previewCallback: PreviewUtils.WorkspacePreviewCallback? = null
+
+        override fun requestPreview(
+            workspaceSurface: SurfaceView,
+            callback: PreviewUtils.WorkspacePreviewCallback,
+        ) {
+            previewCallback = callback
+        }
+    }
+
+    companion object {
+        private const val AUTHORITY = "com.android.wallpaper.test.workspace"
+        /** Key of the renderer's callback in the preview result, see SurfaceViewUtils. */
+        private const val KEY_CALLBACK = "callback"
+        private const val KEY_VALUE = "value"
+        private const val MESSAGE_ID_A = 1
+        private const val MESSAGE_ID_B = 2
+        private const val MESSAGE_ID_CLEAN_UP = 100
+    }
+}
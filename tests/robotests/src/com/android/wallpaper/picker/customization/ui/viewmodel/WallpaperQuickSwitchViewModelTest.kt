@@ -17,6 +17,7 @@
 
 package com.android.wallpaper.picker.customization.ui.viewmodel
 
+import android.graphics.Point
 import androidx.test.filters.SmallTest
 import com.android.wallpaper.picker.customization.data.repository.WallpaperRepository
 import com.android.wallpaper.picker.customization.domain.interactor.WallpaperInteractor
@@ -183,6 +184,37 @@ class WallpaperQuickSwitchViewModelTest {
             )
         }
 
+    @Test
+    fun `thumbnail is loaded at the option size`() =
+        testScope.runTest {
+            val options = collectLastValue(underTest.options)
+            val option = checkNotNull(options()?.get(1))
+
+            option.thumbnail(Point(THUMBNAIL_SIZE_PX, THUMBNAIL_SIZE_PX))
+
+            assertThat(client.loadedThumbnails)
+                .containsExactly(
+                    FakeWallpaperClient.LoadedThumbnail(
+                        wallpaperId = option.wallpaperId,
+                        destination = WallpaperDestination.HOME,
+                        targetSize = Point(THUMBNAIL_SIZE_PX, THUMBNAIL_SIZE_PX),
+                    )
+                )
+        }
+
+    @Test
+    fun `thumbnail is cached`() =
+        testScope.runTest {
+            val options = collectLastValue(underTest.options)
+            val option = checkNotNull(options()?.get(1))
+
+            val thumbnail = option.thumbnail(Point(THUMBNAIL_SIZE_PX, THUMBNAIL_SIZE_PX))
+            val cachedThumbnail = option.thumbnail(Point(THUMBNAIL_SIZE_PX, THUMBNAIL_SIZE_PX))
+
+            assertThat(cachedThumbnail).isSameInstanceAs(thumbnail)
+            assertThat(client.loadedThumbnails).hasSize(1)
+        }
+
     private fun expectations(
         models: List<WallpaperModel> = FakeWallpaperClient.INITIAL_RECENT_WALLPAPERS,
         selectedIndex: Int = 0,
@@ -235,4 +267,8 @@ class WallpaperQuickSwitchViewModelTest {
         val isSelectionIndicatorVisible: Boolean = false,
         val isSelectable: Boolean = true,
     )
+
+    companion object {
+        private const val THUMBNAIL_SIZE_PX = 240
+    }
 }
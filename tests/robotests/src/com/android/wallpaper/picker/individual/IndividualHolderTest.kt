@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.individual
+
+import android.app.Activity
+import android.content.Context
+import android.graphics.Color
+import android.view.LayoutInflater
+import android.view.View
+import android.widget.FrameLayout
+import android.widget.ImageView
+import com.android.wallpaper.R
+import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.ResourceAsset
+import com.android.wallpaper.testing.TestStaticWallpaperInfo
+import com.bumptech.glide.request.target.DrawableImageViewTarget
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class IndividualHolderTest {
+
+    private val activity: Activity = Robolectric.buildActivity(Activity::class.java).setup().get()
+
+    @Test
+    fun cancelThumbnailLoad_glideBackedThumbnail_clearsItsRequest() {
+        val itemView =
+            LayoutInflater.from(activity)
+                .inflate(R.layout.grid_item_image, FrameLayout(activity), false)
+        val holder = TestIndividualHolder(activity, itemView)
+        holder.bindWallpaper(ResourceThumbnailWallpaperInfo())
+        val thumbnailView = itemView.requireViewById<ImageView>(R.id.thumbnail)
+        assertThat(DrawableImageViewTarget(thumbnailView).request).isNotNull()
+
+        holder.cancelThumbnailLoad()
+
+        assertThat(DrawableImageViewTarget(thumbnailView).request).isNull()
+    }
+
+    private class TestIndividualHolder(activity: Activity, itemView: View) :
+        IndividualHolder(activity, TILE_SIZE_PX, TILE_SIZE_PX, itemView)
+
+    /** A wallpaper whose thumbnail is loaded by Glide. */
+    private class ResourceThumbnailWallpaperInfo : TestStaticWallpaperInfo(Color.RED, "sea") {
+        override fun getThumbAsset(context: Context): Asset =
+            ResourceAsset(context.resources, android.R.drawable.btn_star)
+    }
+
+    companion object {
+        private const val TILE_SIZE_PX = 100
+    }
+}
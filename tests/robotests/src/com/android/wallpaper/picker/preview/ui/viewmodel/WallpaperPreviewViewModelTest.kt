@@ -36,6 +36,7 @@ import com.android.wallpaper.picker.BasePreviewActivity.EXTRA_VIEW_AS_HOME
 import com.android.wallpaper.picker.BasePreviewActivity.EXTRA_WALLPAPER_INFO
 import com.android.wallpaper.picker.BasePreviewActivity.IS_ASSET_ID_PRESENT
 import com.android.wallpaper.picker.BasePreviewActivity.IS_NEW_TASK
+import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
 import com.android.wallpaper.picker.data.WallpaperModel
 import com.android.wallpaper.picker.di.modules.PreviewUtilsModule.HomeScreenPreviewUtils
 import com.android.wallpaper.picker.di.modules.PreviewUtilsModule.LockScreenPreviewUtils
@@ -300,6 +301,58 @@ class WallpaperPreviewViewModelTest {
                 .isEqualTo(newCropRect)
         }
 
+    @Test
+    fun confirmSetWallpaper_wallpaperSet_returnsTrue() =
+        testScope.runTest {
+            wallpaperPreviewRepository.setWallpaperModel(getLiveWallpaperModel())
+            val isSetWallpaperFailed =
+                collectLastValue(wallpaperPreviewViewModel.isSetWallpaperFailed)
+            val onConfirmButtonClicked =
+                collectLastValue(wallpaperPreviewViewModel.setWallpaperDialogOnConfirmButtonClicked)
+
+            val isSet = onConfirmButtonClicked()?.invoke()
+
+            assertThat(isSet).isTrue()
+            assertThat(isSetWallpaperFailed()).isFalse()
+            assertThat(wallpaperClient.wallpapersSet[WallpaperDestination.HOME]).isNotEmpty()
+        }
+
+    @Test
+    fun confirmSetWallpaper_setWallpaperThrows_returnsFalseAndReportsFailure() =
+        testScope.runTest {
+            wallpaperClient.setWallpaperException = IllegalStateException("Failed")
+            wallpaperPreviewRepository.setWallpaperModel(getLiveWallpaperModel())
+            val isSetWallpaperFailed =
+                collectLastValue(wallpaperPreviewViewModel.isSetWallpaperFailed)
+            val isProgressBarVisible =
+                collectLastValue(wallpaperPreviewViewModel.isSetWallpaperProgressBarVisible)
+            val onConfirmButtonClicked =
+                collectLastValue(wallpaperPreviewViewModel.setWallpaperDialogOnConfirmButtonClicked)
+
+            val isSet = onConfirmButtonClicked()?.invoke()
+
+            assertThat(isSet).isFalse()
+            assertThat(isSetWallpaperFailed()).isTrue()
+            assertThat(isProgressBarVisible()).isFalse()
+        }
+
+    private fun getLiveWallpaperModel(): WallpaperModel.LiveWallpaperModel {
+        val resolveInfo =
+            ResolveInfo().apply {
+                serviceInfo = ServiceInfo()
+                serviceInfo.packageName = "com.google.android.apps.wallpaper.nexus"
+                serviceInfo.splitName = "wallpaper_cities_ny"
+                serviceInfo.name = "NewYorkWallpaper"
+                serviceInfo.flags = PackageManager.GET_META_DATA
+            }
+        // ShadowWallpaperInfo allows the creation of this object
+        return WallpaperModelUtils.getLiveWallpaperModel(
+            wallpaperId = "testWallpaperId",
+            collectionId = "testCollection",
+            systemWallpaperInfo = WallpaperInfo(appContext, resolveInfo),
+        )
+    }
+
     /**
      * Updates all upstream flows of [WallpaperPreviewViewModel.fullWallpaper] except
      * [WallpaperPreviewViewModel.fullPreviewConfigViewModel].
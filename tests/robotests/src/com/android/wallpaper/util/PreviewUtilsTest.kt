@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.content.Context
+import android.content.pm.ProviderInfo
+import android.database.Cursor
+import android.net.Uri
+import android.os.Bundle
+import androidx.core.os.bundleOf
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowMainLooper
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.shadows.ShadowPausedLooper
+
+@RunWith(RobolectricTestRunner::class)
+class PreviewUtilsTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val results = Collections.synchronizedMap(mutableMapOf<String, String?>())
+    private lateinit var previewUtils: PreviewUtils
+
+    @Before
+    fun setUp() {
+        val providerInfo = ProviderInfo().apply { authority = AUTHORITY }
+        Robolectric.buildContentProvider(BlockingPreviewProvider::class.java).create(providerInfo)
+        shadowOf(context.packageManager).addOrUpdateProvider(providerInfo)
+        BlockingPreviewProvider.reset()
+        previewUtils = PreviewUtils(context, authority = AUTHORITY)
+    }
+
+    @After
+    fun tearDown() {
+        BlockingPreviewProvider.release.countDown()
+    }
+
+    @Test
+    fun renderPreview_differentSurfaces_renderConcurrently() {
+        previewUtils.renderPreview(request("home"), callback("home"), /* surface= */ "home")
+        previewUtils.renderPreview(request("lock"), callback("lock"), /* surface= */ "lock")
+
+        // Both requests reach the provider before either of them returns.
+        assertThat(BlockingPreviewProvider.entered.tryAcquire(2, TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            .isTrue()
+        BlockingPreviewProvider.release.countDown()
+        awaitResults(2)
+        assertThat(results).containsExactly("home", "home", "lock", "lock")
+    }
+
+    @Test
+    fun renderPreview_sameSurface_coalescesWaitingRequests() {
+        previewUtils.renderPreview(request("first"), callback("first"), SURFACE)
+        assertThat(BlockingPreviewProvider.entered.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            .isTrue()
+
+        previewUtils.renderPreview(request("second"), callback("second"), SURFACE)
+        previewUtils.renderPreview(request("third"), callback("third"), SURFACE)
+        BlockingPreviewProvider.release.countDown()
+        awaitResults(3)
+
+        assertThat(BlockingPreviewProvider.renderedIds).containsExactly("first", "third").inOrder()
+        assertThat(results).containsExactly("first", "first", "second", null, "third", "third")
+    }
+
+    private fun request(id: String) = bundleOf(KEY_ID to id)
+
+    private fun callback(id: String) =
+        object : PreviewUtils.WorkspacePreviewCallback {
+            override fun onPreviewRendered(resultBundle: Bundle?) {
+                results[id] = resultBundle?.getString(KEY_ID)
+            }
+        }
+
+    /**
+     * Runs the main looper until the given number of callbacks have been called, blocking on its
+     * queue while the rendering threads haven't posted their results yet.
+     */
+    private fun awaitResults(count: Int) {
+        val mainLooper = shadowMainLooper() as ShadowPausedLooper
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS)
+        while (results.size < count) {
+            val remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+            assertThat(remainingMillis).isGreaterThan(0L)
+            mainLooper.poll(remainingMillis)
+            mainLooper.idle()
+        }
+    }
+
+    /** Renders a preview with the ID of the request once the test releases it. */
+    class BlockingPreviewProvider : ContentProvider() {
+        override fun call(method: String, arg: String?, extras: Bundle?): Bundle {
+            val id = checkNotNull(extras?.getString(KEY_ID))
+            entered.release()
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            renderedIds.add(id)
+            return bundleOf(KEY_ID to id)
+        }
+
+        override fun onCreate() = true
+
+        override fun query(
+            uri: Uri,
+            projection: Array<out String>?,
+            selection: String?,
+            selectionArgs: Array<out String>?,
+            sortOrder: String?,
+        ): Cursor? = null
+
+        override fun getType(uri: Uri): String? = null
+
+        override fun insert(uri: Uri, values: ContentValues?): Uri? = null
+
+        override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?) = 0
+
+        override fun update(
+            uri: Uri,
+            values: ContentValues?,
+            selection: String?,
+            selectionArgs: Array<out String>?,
+        ) = 0
+
+        companion object {
+            val renderedIds: MutableList<String> = Collections.synchronizedList(mutableListOf())
+            var entered = Semaphore(0)
+            var release = CountDownLatch(1)
+
+            fun reset() {
+                renderedIds.clear()
+                entered = Semaphore(0)
+                release = CountDownLatch(1)
+            }
+        }
+    }
+
+    companion object {
+        private const val AUTHORITY = "com.android.wallpaper.test.preview"
+        private const val KEY_ID = "id"
+        private const val SURFACE = "surface"
+        private const val TIMEOUT_SECONDS = 5L
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util
+
+import android.app.WallpaperColors
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.ColorSpace
+import android.graphics.Paint
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+import kotlin.math.abs
+
+@RunWith(RobolectricTestRunner::class)
+class WallpaperColorsExtractorTest {
+
+    @Test
+    fun createExtractionBitmap_largeBitmap_scalesToExtractionAreaKeepingAspectRatio() {
+        val bitmap = Bitmap.createBitmap(1120, 560, Bitmap.Config.ARGB_8888)
+
+        val result = WallpaperColorsExtractor.createExtractionBitmap(bitmap)
+
+        assertThat(result.width).isEqualTo(158)
+        assertThat(result.height).isEqualTo(79)
+        assertThat(result.config).isEqualTo(Bitmap.Config.ARGB_8888)
+        assertThat(result.colorSpace).isEqualTo(ColorSpace.get(ColorSpace.Named.SRGB))
+    }
+
+    @Test
+    fun createExtractionBitmap_smallBitmap_keepsSize() {
+        val bitmap = Bitmap.createBitmap(40, 20, Bitmap.Config.RGB_565)
+
+        val result = WallpaperColorsExtractor.createExtractionBitmap(bitmap)
+
+        assertThat(result.width).isEqualTo(40)
+        assertThat(result.height).isEqualTo(20)
+        assertThat(result.config).isEqualTo(Bitmap.Config.ARGB_8888)
+    }
+
+    @Test
+    @GraphicsMode(GraphicsMode.Mode.NATIVE)
+    fun extractColors_largeBitmap_matchesColorsOfFullBitmap() {
+        val bitmap = Bitmap.createBitmap(1120, 560, Bitmap.Config.ARGB_8888)
+        Canvas(bitmap).apply {
+            drawColor(Color.rgb(200, 40, 40))
+            drawRect(0f, 0f, 400f, 560f, Paint().apply { color = Color.rgb(30, 60, 180) })
+            drawRect(900f, 0f, 1120f, 200f, Paint().apply { color = Color.rgb(240, 220, 60) })
+        }
+
+        val expected = WallpaperColors.fromBitmap(bitmap)
+        val actual = WallpaperColorsExtractor.extractColors(bitmap)!!
+
+        assertColorsClose(actual.primaryColor.toArgb(), expected.primaryColor.toArgb())
+        assertColorsClose(actual.secondaryColor!!.toArgb(), expected.secondaryColor!!.toArgb())
+        assertColorsClose(actual.tertiaryColor!!.toArgb(), expected.tertiaryColor!!.toArgb())
+    }
+
+    @Test
+    fun extractColors_recycledBitmap_returnsNull() {
+        val bitmap = Bitmap.createBitmap(40, 20, Bitmap.Config.ARGB_8888)
+        bitmap.recycle()
+
+        assertThat(WallpaperColorsExtractor.extractColors(bitmap)).isNull()
+    }
+
+    private fun assertColorsClose(actual: Int, expected: Int) {
+        listOf(Color::red, Color::green, Color::blue).forEach { channel ->
+            assertThat(abs(channel(actual) - channel(expected))).isAtMost(COLOR_TOLERANCE)
+        }
+    }
+
+    companion object {
+        /** Allowed difference per color channel, for pixels sampled slightly differently. */
+        private const val COLOR_TOLERANCE = 8
+    }
+}
@@ -20,8 +20,11 @@ import android.content.Context
 import android.content.res.Resources
 import android.content.res.XmlResourceParser
 import androidx.annotation.XmlRes
+import com.android.wallpaper.model.LazyWallpaperCategory
 import com.android.wallpaper.module.PartnerProvider
 import com.android.wallpaper.testing.TestPartnerProvider
+import com.android.wallpaper.util.converter.WallpaperModelFactory
+import com.android.wallpaper.util.converter.category.DefaultCategoryFactory
 import com.google.common.truth.Truth.assertThat
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.android.testing.HiltAndroidRule
@@ -51,6 +54,7 @@ class WallpaperParserImplTest {
     @Inject lateinit var partnerProvider: TestPartnerProvider
     @Inject lateinit var mWallpaperXMLParserImpl: WallpaperParserImpl
     @Inject lateinit var testDispatcher: TestDispatcher
+    @Inject lateinit var wallpaperModelFactory: WallpaperModelFactory
     private lateinit var resources: Resources
     private lateinit var packageName: String
 
@@ -83,6 +87,65 @@ class WallpaperParserImplTest {
         assertThat(categories[0].collectionId).isEqualTo("category1")
     }
 
+    @Test
+    fun parseXMLForSystemCategories_createsWallpapersOnlyWhenNeeded() {
+        @XmlRes
+        val wallpapersResId: Int =
+            resources.getIdentifier(PartnerProvider.WALLPAPER_RES_ID, "xml", packageName)
+        val parser: XmlResourceParser = resources.getXml(wallpapersResId)
+
+        val category = mWallpaperXMLParserImpl.parseSystemCategories(parser)[0]
+
+        assertThat(category).isInstanceOf(LazyWallpaperCategory::class.java)
+        assertThat((category as LazyWallpaperCategory).isLoaded).isFalse()
+        assertThat(category.isSingleWallpaperCategory).isFalse()
+        assertThat(category.wallpapers.map { it.wallpaperId })
+            .containsExactly("wallpaper1", "wallpaper2")
+            .inOrder()
+        assertThat(category.isLoaded).isTrue()
+    }
+
+    @Test
+    fun loadSystemCategories_bindingCategoryList_doesNotCreateWallpapers() {
+        @XmlRes
+        val wallpapersResId: Int =
+            resources.getIdentifier("featured_wallpapers", "xml", packageName)
+        val category =
+            mWallpaperXMLParserImpl.loadSystemCategories(wallpapersResId)[0]
+                as LazyWallpaperCategory
+
+        val thumbnail = category.getThumbnail(context)
+        val featuredThumbnailIndex = category.featuredThumbnailIndex
+        val isSingleWallpaperCategory = category.isSingleWallpaperCategory
+        DefaultCategoryFactory(wallpaperModelFactory).getCategoryModel(context, category)
+
+        assertThat(category.isLoaded).isFalse()
+        assertThat(featuredThumbnailIndex).isEqualTo(1)
+        assertThat(isSingleWallpaperCategory).isFalse()
+        // Same thumbnail as the featured wallpaper has once it is created.
+        assertThat(thumbnail).isEqualTo(category.wallpapers[1].getThumbAsset(context))
+        assertThat(category.featuredThumbnailIndex).isEqualTo(1)
+    }
+
+    @Test
+    fun loadSystemCategories_readsCategoriesBackFromIndex() {
+        @XmlRes
+        val wallpapersResId: Int =
+            resources.getIdentifier(PartnerProvider.WALLPAPER_RES_ID, "xml", packageName)
+        mWallpaperXMLParserImpl.loadSystemCategories(wallpapersResId)
+
+        // A new instance has no index in memory and reads the one written to disk.
+        val categories =
+            WallpaperParserImpl(context, partnerProvider).loadSystemCategories(wallpapersResId)
+
+        assertThat(categories).hasSize(1)
+        assertThat(categories[0].collectionId).isEqualTo("category1")
+        assertThat(categories[0].priority).isEqualTo(WallpaperParserImpl.PRIORITY_SYSTEM)
+        assertThat(categories[0].wallpapers.map { it.wallpaperId })
+            .containsExactly("wallpaper1", "wallpaper2")
+            .inOrder()
+    }
+
     /**
      * This test uses the file invalid_wallpapers.xml that is defined in the resources folder where
      * if incorrect tags are defined, we return empty categories.
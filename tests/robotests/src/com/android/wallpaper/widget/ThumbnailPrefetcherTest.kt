@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.widget
+
+import android.app.Activity
+import android.content.Context
+import android.graphics.Point
+import android.graphics.Rect
+import android.os.CancellationSignal
+import android.view.View
+import android.view.View.MeasureSpec
+import android.view.ViewGroup
+import android.widget.FrameLayout
+import android.widget.ImageView
+import androidx.recyclerview.widget.GridLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.asset.Asset
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ThumbnailPrefetcherTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val thumbnails = List(ITEM_COUNT) { PrefetchRecordingAsset() }
+    private val prefetcher =
+        ThumbnailPrefetcher(
+            context,
+            Point(TILE_WIDTH_PX, TILE_HEIGHT_PX),
+            COLUMN_COUNT,
+            View.NO_ID,
+        ) {
+            thumbnails[it]
+        }
+
+    @Test
+    fun onScrolled_slowScrollDown_prefetchesNextRowAtTileSize() {
+        scroll(firstVisible = 0, lastVisible = 8, dy = 1)
+
+        assertThat(prefetchedPositions()).containsExactly(9, 10, 11)
+        assertThat(thumbnails[9].prefetchSize).isEqualTo(Point(TILE_WIDTH_PX, TILE_HEIGHT_PX))
+    }
+
+    @Test
+    fun onScrolled_fling_prefetchesMoreRows() {
+        scroll(firstVisible = 0, lastVisible = 8, dy = TILE_HEIGHT_PX)
+
+        assertThat(prefetchedPositions()).containsExactlyElementsIn(9..20)
+    }
+
+    @Test
+    fun onScrolled_scrollUp_prefetchesPreviousRow() {
+        scroll(firstVisible = 30, lastVisible = 38, dy = -1)
+
+        assertThat(prefetchedPositions()).containsExactly(27, 28, 29)
+    }
+
+    @Test
+    fun onScrolled_sameDirection_doesNotPrefetchTwice() {
+        scroll(firstVisible = 0, lastVisible = 8, dy = 1)
+        scroll(firstVisible = 0, lastVisible = 8, dy = 1)
+
+        assertThat(thumbnails[9].prefetchCount).isEqualTo(1)
+    }
+
+    @Test
+    fun onScrolled_directionReversed_cancelsPendingPrefetches() {
+        scroll(firstVisible = 3, lastVisible = 11, dy = 1)
+        val signal = thumbnails[12].cancellationSignal!!
+
+        scroll(firstVisible = 3, lastVisible = 11, dy = -1)
+
+        assertThat(signal.isCanceled).isTrue()
+        assertThat(prefetchedPositions()).containsAtLeast(0, 1, 2)
+    }
+
+    @Test
+    fun onScrolled_prefetchedTileBecameVisible_isNotCanceledOnReverse() {
+        scroll(firstVisible = 0, lastVisible = 8, dy = 1)
+        scroll(firstVisible = 3, lastVisible = 11, dy = 1)
+
+        scroll(firstVisible = 3, lastVisible = 11, dy = -1)
+
+        // The tile is bound now and may be using the prefetched thumbnail.
+        assertThat(thumbnails[9].cancellationSignal!!.isCanceled).isFalse()
+        assertThat(thumbnails[12].cancellationSignal!!.isCanceled).isTrue()
+    }
+
+    @Test
+    fun onScrolled_boundTiles_prefetchesAtThumbnailViewSize() {
+        val thumbnailViewId = View.generateViewId()
+        val recyclerView =
+            RecyclerView(context).apply {
+                layoutManager = GridLayoutManager(context, COLUMN_COUNT)
+                adapter = TileAdapter(thumbnailViewId)
+                measure(
+                    MeasureSpec.makeMeasureSpec(900, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(3 * TILE_HEIGHT_PX, MeasureSpec.EXACTLY),
+                )
+                layout(0, 0, 900, 3 * TILE_HEIGHT_PX)
+            }
+        val boundTilePrefetcher =
+            ThumbnailPrefetcher(
+                context,
+                Point(TILE_WIDTH_PX, TILE_HEIGHT_PX),
+                COLUMN_COUNT,
+                thumbnailViewId,
+            ) {
+                thumbnails[it]
+            }
+
+        boundTilePrefetcher.onScrolled(recyclerView, 0, 1)
+
+        // The thumbnail view is inset in its tile, and the tiles load thumbnails at its size.
+        assertThat(thumbnails[9].prefetchSize)
+            .isEqualTo(Point(300 - 2 * THUMBNAIL_INSET_PX, TILE_HEIGHT_PX - 2 * THUMBNAIL_INSET_PX))
+    }
+
+    @Test
+    fun cancelAll_cancelsPendingPrefetches() {
+        scroll(firstVisible = 0, lastVisible = 8, dy = 1)
+
+        prefetcher.cancelAll()
+
+        assertThat(thumbnails[9].cancellationSignal!!.isCanceled).isTrue()
+    }
+
+    private fun scroll(firstVisible: Int, lastVisible: Int, dy: Int) {
+        prefetcher.onScrolled(firstVisible, lastVisible, dy, ITEM_COUNT)
+    }
+
+    private fun prefetchedPositions(): List<Int> =
+        thumbnails.indices.filter { thumbnails[it].prefetchCount > 0 }
+
+    private class TileAdapter(private val thumbnailViewId: Int) :
+        RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+
+        override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
+            val tile = FrameLayout(parent.context)
+            tile.layoutParams =
+                ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, TILE_HEIGHT_PX)
+            tile.setPadding(
+                THUMBNAIL_INSET_PX,
+                THUMBNAIL_INSET_PX,
+                THUMBNAIL_INSET_PX,
+                THUMBNAIL_INSET_PX,
+            )
+            tile.addView(ImageView(parent.context).apply { id = thumbnailViewId })
+            return object : RecyclerView.ViewHolder(tile) {}
+        }
+
+        override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {}
+
+        override fun getItemCount(): Int = ITEM_COUNT
+    }
+
+    private class PrefetchRecordingAsset : Asset() {
+        var prefetchCount = 0
+        var prefetchSize: Point? = null
+        var cancellationSignal: CancellationSignal? = null
+
+        override fun prefetchDrawable(
+            context: Context,
+            width: Int,
+            height: Int,
+            cancellationSignal: CancellationSignal,
+        ) {
+            prefetchCount++
+            prefetchSize = Point(width, height)
+            this.cancellationSignal = cancellationSignal
+        }
+
+        override fun decodeBitmap(
+            targetWidth: Int,
+            targetHeight: Int,
+            useHardwareBitmapIfPossible: Boolean,
+            receiver: BitmapReceiver,
+        ) {
+            receiver.onBitmapDecoded(null)
+        }
+
+        override fun decodeBitmap(receiver: BitmapReceiver) {
+            receiver.onBitmapDecoded(null)
+        }
+
+        override fun decodeBitmapRegion(
+            rect: Rect,
+            targetWidth: Int,
+            targetHeight: Int,
+            shouldAdjustForRtl: Boolean,
+            receiver: BitmapReceiver,
+        ) {
+            receiver.onBitmapDecoded(null)
+        }
+
+        override fun decodeRawDimensions(activity: Activity?, receiver: DimensionsReceiver) {
+            receiver.onDimensionsDecoded(null)
+        }
+
+        override fun supportsTiling(): Boolean = false
+    }
+
+    companion object {
+        private const val ITEM_COUNT = 60
+        private const val COLUMN_COUNT = 3
+        private const val TILE_WIDTH_PX = 300
+        private const val TILE_HEIGHT_PX = 500
+        private const val THUMBNAIL_INSET_PX = 10
+    }
+}
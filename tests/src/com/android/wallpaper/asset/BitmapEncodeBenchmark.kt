@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.runner.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Compares the latency and peak Java heap of setting a wallpaper bitmap through the piped
+ * [BitmapUtils.bitmapToInputStream] against encoding it into an in-memory PNG first, the way
+ * DefaultWallpaperPersister used to. WallpaperManager#setStream copies the stream into the
+ * wallpaper file, which is simulated by copying it into a file in the cache directory so the
+ * device wallpaper isn't changed.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class BitmapEncodeBenchmark {
+    private lateinit var bitmap: Bitmap
+    private lateinit var targetFile: File
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        targetFile = File(context.cacheDir, "encode_benchmark.png")
+        bitmap = createNoisyBitmap(WIDTH, HEIGHT)
+    }
+
+    @After
+    fun tearDown() {
+        bitmap.recycle()
+        targetFile.delete()
+    }
+
+    @Test
+    fun pipedEncode_vsBufferedEncode() {
+        // Warm up the encoder and the file system before measuring.
+        copyToTarget(bufferedStream(bitmap))
+        copyToTarget(BitmapUtils.bitmapToInputStream(bitmap)!!)
+
+        val buffered = measure { copyToTarget(bufferedStream(bitmap)) }
+        val bufferedBytes = targetFile.readBytes()
+        val piped = measure { copyToTarget(BitmapUtils.bitmapToInputStream(bitmap)!!) }
+        val pipedBytes = targetFile.readBytes()
+
+        Log.i(TAG, "buffered: ${buffered.latencyMs} ms, peak heap ${buffered.peakHeapKb} KiB")
+        Log.i(TAG, "piped: ${piped.latencyMs} ms, peak heap ${piped.peakHeapKb} KiB")
+        assertThat(pipedBytes).isEqualTo(bufferedBytes)
+    }
+
+    /** The set path before streaming: two full in-heap copies of the encoded image. */
+    private fun bufferedStream(bitmap: Bitmap): InputStream {
+        val outputStream = ByteArrayOutputStream()
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream)
+        return ByteArrayInputStream(outputStream.toByteArray())
+    }
+
+    private fun copyToTarget(inputStream: InputStream) {
+        inputStream.use { input -> targetFile.outputStream().use { input.copyTo(it) } }
+    }
+
+    private fun measure(block: () -> Unit): Result {
+        val runtime = Runtime.getRuntime()
+        runtime.gc()
+        val baseline = runtime.totalMemory() - runtime.freeMemory()
+        val peak = AtomicLong(baseline)
+        val sampling = AtomicBoolean(true)
+        val sampler = thread {
+            while (sampling.get()) {
+                peak.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), ::maxOf)
+                SystemClock.sleep(HEAP_SAMPLE_INTERVAL_MS)
+            }
+        }
+        val start = SystemClock.elapsedRealtime()
+        block()
+        val latencyMs = SystemClock.elapsedRealtime() - start
+        sampling.set(false)
+        sampler.join()
+        return Result(latencyMs, (peak.get() - baseline) / 1024)
+    }
+
+    private fun createNoisyBitmap(width: Int, height: Int): Bitmap {
+        // Noise keeps the PNG close to its worst case size, like a detailed photo.
+        val random = Random(seed = 0)
+        val pixels = IntArray(width * height) { random.nextInt() or 0xFF000000.toInt() }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888)
+    }
+
+    private data class Result(val latencyMs: Long, val peakHeapKb: Long)
+
+    companion object {
+        private const val TAG = "BitmapEncodeBenchmark"
+        private const val WIDTH = 2560
+        private const val HEIGHT = 1600
+        private const val HEAP_SAMPLE_INTERVAL_MS = 5L
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.Debug
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.runner.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Checks that hashing a wallpaper file with [BitmapUtils.generateHashCode] on a stream gives the
+ * same hash codes as decoding the whole image first, which MissingHashCodeGeneratorJobService used
+ * to do, and compares the runtime and peak native heap (where bitmap pixels live) of both.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class HashCodeBenchmark {
+    private lateinit var imageFile: File
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        imageFile = File(context.cacheDir, "hash_benchmark")
+    }
+
+    @After
+    fun tearDown() {
+        imageFile.delete()
+    }
+
+    @Test
+    fun streamedHash_matchesFullDecodeHash_jpeg() {
+        writeImage(Bitmap.CompressFormat.JPEG)
+        compareHashes()
+    }
+
+    @Test
+    fun streamedHash_matchesFullDecodeHash_png() {
+        writeImage(Bitmap.CompressFormat.PNG)
+        compareHashes()
+    }
+
+    private fun compareHashes() {
+        var fullDecodeHash = 0L
+        val fullDecode = measure {
+            val bitmap = BitmapFactory.decodeFile(imageFile.absolutePath)
+            fullDecodeHash = BitmapUtils.generateHashCode(bitmap)
+            bitmap.recycle()
+        }
+        var streamedHash = 0L
+        val streamed = measure {
+            streamedHash = imageFile.inputStream().use { BitmapUtils.generateHashCode(it) }
+        }
+
+        Log.i(TAG, "full decode: ${fullDecode.latencyMs} ms, peak ${fullDecode.peakHeapKb} KiB")
+        Log.i(TAG, "streamed: ${streamed.latencyMs} ms, peak ${streamed.peakHeapKb} KiB")
+        assertThat(streamedHash).isEqualTo(fullDecodeHash)
+    }
+
+    private fun writeImage(format: Bitmap.CompressFormat) {
+        // A noisy gradient, so both the hash samples and JPEG chroma upsampling see varied pixels.
+        val random = Random(seed = 0)
+        val pixels =
+            IntArray(WIDTH * HEIGHT) { i ->
+                val x = i % WIDTH
+                val y = i / WIDTH
+                val red = (x * 255 / WIDTH + random.nextInt(32)).coerceAtMost(255)
+                val green = (y * 255 / HEIGHT + random.nextInt(32)).coerceAtMost(255)
+                val blue = random.nextInt(256)
+                (0xFF shl 24) or (red shl 16) or (green shl 8) or blue
+            }
+        val bitmap = Bitmap.createBitmap(pixels, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        imageFile.outputStream().use { bitmap.compress(format, 95, it) }
+        bitmap.recycle()
+    }
+
+    private fun measure(block: () -> Unit): Result {
+        System.gc()
+        val baseline = Debug.getNativeHeapAllocatedSize()
+        val peak = AtomicLong(baseline)
+        val sampling = AtomicBoolean(true)
+        val sampler = thread {
+            while (sampling.get()) {
+                peak.accumulateAndGet(Debug.getNativeHeapAllocatedSize(), ::maxOf)
+                SystemClock.sleep(HEAP_SAMPLE_INTERVAL_MS)
+            }
+        }
+        val start = SystemClock.elapsedRealtime()
+        block()
+        val latencyMs = SystemClock.elapsedRealtime() - start
+        sampling.set(false)
+        sampler.join()
+        return Result(latencyMs, (peak.get() - baseline) / 1024)
+    }
+
+    private data class Result(val latencyMs: Long, val peakHeapKb: Long)
+
+    companion object {
+        private const val TAG = "HashCodeBenchmark"
+        private const val WIDTH = 3000
+        private const val HEIGHT = 2000
+        private const val HEAP_SAMPLE_INTERVAL_MS = 2L
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.Context
+import android.os.FileObserver
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.runner.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Counts the files written to disk while the metadata of a static wallpaper apply is saved, with
+ * every setter committing on its own against the setters batched by
+ * [WallpaperPreferences.runInTransaction] the way DefaultWallpaperPersister saves them. Writes
+ * are observed as completed writes and renames in the shared preferences and no backup
+ * directories.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class MetadataWriteBenchmark {
+    private lateinit var context: Context
+    private lateinit var preferences: WallpaperPreferences
+    private lateinit var observers: List<FileObserver>
+    private val writeCount = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        context = InstrumentationRegistry.getInstrumentation().targetContext
+        preferences = DefaultWallpaperPreferences(context)
+        val directories = listOf(File(context.dataDir, "shared_prefs"), context.noBackupFilesDir)
+        directories.forEach { it.mkdirs() }
+        observers =
+            directories.map { directory ->
+                object : FileObserver(directory, WRITE_EVENTS) {
+                    override fun onEvent(event: Int, path: String?) {
+                        writeCount.incrementAndGet()
+                    }
+                }
+            }
+        // Let the first load and migration settle before measuring.
+        saveMetadata(generation = 0)
+        SystemClock.sleep(SETTLE_MS)
+        observers.forEach { it.startWatching() }
+    }
+
+    @After
+    fun tearDown() {
+        observers.forEach { it.stopWatching() }
+        preferences.runInTransaction {
+            preferences.clearHomeWallpaperMetadata()
+            preferences.clearLockWallpaperMetadata()
+        }
+    }
+
+    @Test
+    fun batchedApply_vsPerFieldApply() {
+        val perField = measureWrites { generation -> saveMetadata(generation) }
+        val batched = measureWrites { generation ->
+            preferences.runInTransaction { saveMetadata(generation) }
+        }
+
+        Log.i(TAG, "per field: ${perField.toFloat() / APPLY_COUNT} disk writes per apply")
+        Log.i(TAG, "batched: ${batched.toFloat() / APPLY_COUNT} disk writes per apply")
+        assertThat(batched).isLessThan(perField)
+    }
+
+    private fun measureWrites(apply: (generation: Int) -> Unit): Int {
+        writeCount.set(0)
+        for (generation in 1..APPLY_COUNT) {
+            apply(generation)
+            // Let the asynchronous writes of this apply land before the next one starts, as they
+            // would between two wallpaper applies.
+            SystemClock.sleep(SETTLE_MS)
+        }
+        return writeCount.get()
+    }
+
+    /** The setters SetWallpaperTask calls when a static wallpaper is set on both screens. */
+    private fun saveMetadata(generation: Int) {
+        val attributions = listOf("Title $generation", "Subtitle", "Photographer")
+        preferences.clearHomeWallpaperMetadata()
+        preferences.setHomeWallpaperManagerId(generation)
+        preferences.setHomeWallpaperHashCode(generation * 31L)
+        preferences.setHomeWallpaperAttributions(attributions)
+        preferences.setHomeWallpaperActionUrl("https://example.com/$generation")
+        preferences.setHomeWallpaperCollectionId("collection")
+        preferences.setHomeWallpaperRemoteId("remote_$generation")
+        preferences.clearLockWallpaperMetadata()
+        preferences.setLockWallpaperManagerId(generation + 1)
+        preferences.setLockWallpaperHashCode(generation * 31L)
+        preferences.setLockWallpaperAttributions(attributions)
+        preferences.setLockWallpaperActionUrl("https://example.com/$generation")
+        preferences.setLockWallpaperCollectionId("collection")
+        preferences.setLockWallpaperRemoteId("remote_$generation")
+    }
+
+    companion object {
+        private const val TAG = "MetadataWriteBenchmark"
+        private const val APPLY_COUNT = 20
+        private const val SETTLE_MS = 200L
+        private const val WRITE_EVENTS = FileObserver.CLOSE_WRITE or FileObserver.MOVED_TO
+    }
+}